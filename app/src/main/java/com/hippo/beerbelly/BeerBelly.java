@@ -433,7 +433,12 @@ public abstract class BeerBelly<V> {
                 osPipe.obtain();
                 OutputStream os = osPipe.open();
                 buffOut = new BufferedOutputStream(os, IO_BUFFER_SIZE);
-                return mParent.write(os, value);
+                if (!mParent.write(os, value)) {
+                    return false;
+                }
+                // Commit it, throw if it is rejected
+                os.close();
+                return true;
             } catch (IOException e) {
                 return false;
             } finally {
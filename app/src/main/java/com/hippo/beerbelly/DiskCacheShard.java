@@ -0,0 +1,585 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.beerbelly;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * One shard of {@link SimpleDiskCache}. Entries are plain files in the shard dir,
+ * the index is a binary append-only log which is replayed on open.
+ *
+ * Eviction is segmented LRU. New entries go to probation, the second hit in
+ * probation promotes the entry to protected. The first hit doesn't count, the
+ * writer often reads the entry back at once, like Conaco decoding the image it
+ * has just saved. Entries read only once, like thumbnails of a fast scrolled
+ * list, are evicted from probation first and can't push out the entries which
+ * are read again and again. Protected entries over the protected size of the
+ * shard are moved back to probation.
+ *
+ * The size limit is shared by all shards, {@link SimpleDiskCache} evicts the
+ * entries of all shards by the access stamps from the shared clock.
+ */
+final class DiskCacheShard {
+
+    private static final String TAG = DiskCacheShard.class.getSimpleName();
+
+    static final String INDEX_FILE = "index";
+    private static final String INDEX_FILE_TMP = "index.tmp";
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private static final int INDEX_MAGIC = 0x42424958;
+    private static final int INDEX_VERSION = 1;
+
+    private static final byte OP_PUT = 1;
+    private static final byte OP_REMOVE = 2;
+    private static final byte OP_PROMOTE = 3;
+
+    // Compact index when it has so many redundant records
+    private static final int COMPACT_THRESHOLD = 2000;
+
+    private final File mDir;
+    // Max size of the whole cache, larger entry is rejected
+    private final long mMaxSize;
+    // Max size of protected entries of this shard
+    private final long mProtectedMaxSize;
+    private final AtomicLong mClock;
+
+    // Access order, the eldest one is evicted first
+    private final LinkedHashMap<String, Entry> mProbation = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String, Entry> mProtected = new LinkedHashMap<>(16, 0.75f, true);
+    private long mSize;
+    private long mProtectedSize;
+
+    private boolean mOpened;
+    @Nullable
+    private DataOutputStream mIndexWriter;
+    private int mRecordCount;
+    // Increased in clear, edits started before are dropped
+    private int mGeneration;
+
+    private final Map<String, CounterLock> mLockMap = new HashMap<>();
+    private final LockPool mLockPool = new LockPool();
+
+    DiskCacheShard(File dir, long maxSize, long protectedMaxSize, AtomicLong clock) {
+        mDir = dir;
+        mMaxSize = maxSize;
+        mProtectedMaxSize = protectedMaxSize;
+        mClock = clock;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (mOpened) {
+            return;
+        }
+
+        if (!mDir.isDirectory() && !mDir.mkdirs()) {
+            throw new IOException("Can't create dir " + mDir);
+        }
+
+        File indexFile = new File(mDir, INDEX_FILE);
+        boolean compact = !readIndex(indexFile);
+        // They were read back in last run, the next hit promotes them
+        for (Entry entry : mProbation.values()) {
+            entry.hits = 1;
+        }
+
+        // Remove temp files and files missed in index
+        File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (!INDEX_FILE.equals(name) && !mProbation.containsKey(name) && !mProtected.containsKey(name)) {
+                    file.delete();
+                }
+            }
+        }
+
+        if (compact || needCompact()) {
+            rewriteIndex();
+        } else {
+            mIndexWriter = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(indexFile, true)));
+        }
+        mOpened = true;
+    }
+
+    /**
+     * @return false if the index is missing or broken
+     */
+    private boolean readIndex(File indexFile) {
+        if (!indexFile.exists()) {
+            return false;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            if (in.readInt() != INDEX_MAGIC || in.readInt() != INDEX_VERSION) {
+                return false;
+            }
+            while (true) {
+                byte op;
+                try {
+                    op = in.readByte();
+                } catch (EOFException e) {
+                    return true;
+                }
+                String key = in.readUTF();
+                switch (op) {
+                    case OP_PUT:
+                        putEntry(key, in.readLong());
+                        break;
+                    case OP_REMOVE:
+                        removeEntry(key);
+                        break;
+                    case OP_PROMOTE:
+                        promote(key);
+                        break;
+                    default:
+                        return false;
+                }
+                mRecordCount++;
+            }
+        } catch (IOException e) {
+            // The last record is broken, keep what we have got
+            return false;
+        }
+    }
+
+    private boolean needCompact() {
+        int entryCount = mProbation.size() + mProtected.size();
+        return mRecordCount - entryCount > COMPACT_THRESHOLD && mRecordCount > entryCount * 2;
+    }
+
+    private void rewriteIndex() throws IOException {
+        Util.closeQuietly(mIndexWriter);
+        mIndexWriter = null;
+
+        File tmpFile = new File(mDir, INDEX_FILE_TMP);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(INDEX_VERSION);
+            // Replay puts probation entries in order, then protected entries in order
+            for (Entry entry : mProbation.values()) {
+                writeRecord(out, OP_PUT, entry.key, entry.size);
+            }
+            for (Entry entry : mProtected.values()) {
+                writeRecord(out, OP_PUT, entry.key, entry.size);
+                writeRecord(out, OP_PROMOTE, entry.key, 0);
+            }
+        }
+        File indexFile = new File(mDir, INDEX_FILE);
+        if (!tmpFile.renameTo(indexFile)) {
+            throw new IOException("Can't rename " + tmpFile + " to " + indexFile);
+        }
+
+        mIndexWriter = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile, true)));
+        mRecordCount = mProbation.size() + mProtected.size() * 2;
+    }
+
+    private static void writeRecord(DataOutputStream out, byte op, String key, long size) throws IOException {
+        out.writeByte(op);
+        out.writeUTF(key);
+        if (op == OP_PUT) {
+            out.writeLong(size);
+        }
+    }
+
+    private void appendRecord(byte op, String key, long size) {
+        if (mIndexWriter == null) {
+            return;
+        }
+        try {
+            writeRecord(mIndexWriter, op, key, size);
+            // Promotions only change order, they can be lost
+            if (op != OP_PROMOTE) {
+                mIndexWriter.flush();
+            }
+            mRecordCount++;
+            if (needCompact()) {
+                rewriteIndex();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Can't write index of " + mDir, e);
+        }
+    }
+
+    // Overwritten entry keeps its segment
+    private void putEntry(String key, long size) {
+        Entry entry = mProtected.get(key);
+        if (entry != null) {
+            mProtectedSize += size - entry.size;
+        } else {
+            entry = mProbation.get(key);
+            if (entry == null) {
+                entry = new Entry(key);
+                mProbation.put(key, entry);
+            }
+            entry.hits = 0;
+        }
+        mSize += size - entry.size;
+        entry.size = size;
+        entry.stamp = mClock.incrementAndGet();
+        demoteProtected();
+    }
+
+    private boolean removeEntry(String key) {
+        Entry entry = mProbation.remove(key);
+        if (entry == null) {
+            entry = mProtected.remove(key);
+            if (entry != null) {
+                mProtectedSize -= entry.size;
+            }
+        }
+        if (entry != null) {
+            mSize -= entry.size;
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * @return true if it is moved from probation to protected
+     */
+    private boolean promote(String key) {
+        Entry entry = mProbation.remove(key);
+        if (entry == null) {
+            return false;
+        }
+        mProtected.put(key, entry);
+        mProtectedSize += entry.size;
+        demoteProtected();
+        return true;
+    }
+
+    // Move eldest protected entries back to probation
+    private void demoteProtected() {
+        Iterator<Entry> iterator = mProtected.values().iterator();
+        while (mProtectedSize > mProtectedMaxSize && iterator.hasNext()) {
+            Entry entry = iterator.next();
+            iterator.remove();
+            mProtectedSize -= entry.size;
+            mProbation.put(entry.key, entry);
+        }
+    }
+
+    @Nullable
+    private Entry getEldest(boolean probation, @Nullable String keep) {
+        for (Entry entry : (probation ? mProbation : mProtected).values()) {
+            if (!entry.key.equals(keep)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param keep the key which can't be evicted, null for none
+     * @return the access stamp of the entry evicted next from the segment,
+     * {@link Long#MAX_VALUE} for empty
+     */
+    synchronized long getEldestStamp(boolean probation, @Nullable String keep) {
+        Entry entry = getEldest(probation, keep);
+        return entry != null ? entry.stamp : Long.MAX_VALUE;
+    }
+
+    /**
+     * Evict the eldest entry of the segment.
+     *
+     * @param keep the key which can't be evicted, null for none
+     * @return the size of the evicted entry, -1 for empty
+     */
+    synchronized long evictEldest(boolean probation, @Nullable String keep) {
+        Entry entry = getEldest(probation, keep);
+        if (entry == null) {
+            return -1;
+        }
+        removeEntry(entry.key);
+        new File(mDir, entry.key).delete();
+        appendRecord(OP_REMOVE, entry.key, 0);
+        return entry.size;
+    }
+
+    synchronized boolean contain(String key) {
+        try {
+            ensureOpen();
+        } catch (IOException e) {
+            Log.e(TAG, "Can't open " + mDir, e);
+            return false;
+        }
+        return mProbation.containsKey(key) || mProtected.containsKey(key);
+    }
+
+    /**
+     * Open the entry and count a hit.
+     *
+     * @return null for miss
+     */
+    @Nullable
+    synchronized InputStream open(String key) throws IOException {
+        ensureOpen();
+        Entry entry = mProtected.get(key);
+        if (entry == null) {
+            entry = mProbation.get(key);
+        }
+        if (entry == null) {
+            return null;
+        }
+
+        InputStream is;
+        try {
+            is = new FileInputStream(new File(mDir, key));
+        } catch (FileNotFoundException e) {
+            // Removed from outside
+            if (removeEntry(key)) {
+                appendRecord(OP_REMOVE, key, 0);
+            }
+            return null;
+        }
+
+        entry.stamp = mClock.incrementAndGet();
+        if (++entry.hits > 1 && promote(key)) {
+            appendRecord(OP_PROMOTE, key, 0);
+        }
+        return is;
+    }
+
+    synchronized boolean remove(String key) {
+        try {
+            ensureOpen();
+        } catch (IOException e) {
+            Log.e(TAG, "Can't open " + mDir, e);
+            return false;
+        }
+        if (removeEntry(key)) {
+            new File(mDir, key).delete();
+            appendRecord(OP_REMOVE, key, 0);
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * The file to write before {@link #commit(String, File, int)}
+     */
+    @NonNull
+    synchronized File newTempFile(String key) throws IOException {
+        ensureOpen();
+        return new File(mDir, key + TMP_SUFFIX);
+    }
+
+    synchronized int getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Replace the entry with the temp file. The cache is not trimmed here,
+     * {@link SimpleDiskCache} trims all shards after it.
+     *
+     * @param generation the value of {@link #getGeneration()} before writing
+     */
+    synchronized boolean commit(String key, File tempFile, int generation) {
+        if (!mOpened || generation != mGeneration || !tempFile.exists()) {
+            tempFile.delete();
+            return false;
+        }
+
+        long size = tempFile.length();
+        if (size > mMaxSize || !tempFile.renameTo(new File(mDir, key))) {
+            tempFile.delete();
+            if (removeEntry(key)) {
+                new File(mDir, key).delete();
+                appendRecord(OP_REMOVE, key, 0);
+            }
+            return false;
+        }
+
+        putEntry(key, size);
+        appendRecord(OP_PUT, key, size);
+        return true;
+    }
+
+    /**
+     * Move the file in as the entry, it keeps the entries of the legacy cache.
+     */
+    synchronized boolean adopt(String key, File file) {
+        try {
+            ensureOpen();
+        } catch (IOException e) {
+            Log.e(TAG, "Can't open " + mDir, e);
+            return false;
+        }
+
+        long size = file.length();
+        if (!file.isFile() || size > mMaxSize || !file.renameTo(new File(mDir, key))) {
+            return false;
+        }
+        putEntry(key, size);
+        Entry entry = mProbation.get(key);
+        if (entry != null) {
+            // Read before, the next hit promotes it
+            entry.hits = 1;
+        }
+        appendRecord(OP_PUT, key, size);
+        return true;
+    }
+
+    synchronized long size() {
+        try {
+            ensureOpen();
+        } catch (IOException e) {
+            Log.e(TAG, "Can't open " + mDir, e);
+            return 0;
+        }
+        return mSize;
+    }
+
+    synchronized void flush() {
+        if (mIndexWriter != null) {
+            try {
+                mIndexWriter.flush();
+            } catch (IOException e) {
+                Log.e(TAG, "Can't flush index of " + mDir, e);
+            }
+        }
+    }
+
+    synchronized boolean clear() {
+        Util.closeQuietly(mIndexWriter);
+        mIndexWriter = null;
+        mProbation.clear();
+        mProtected.clear();
+        mSize = 0;
+        mProtectedSize = 0;
+        mRecordCount = 0;
+        mGeneration++;
+        mOpened = false;
+
+        boolean result = true;
+        if (mDir.exists()) {
+            try {
+                Util.deleteContents(mDir);
+            } catch (IOException e) {
+                Log.e(TAG, "Can't clear " + mDir, e);
+                result = false;
+            }
+        }
+        try {
+            ensureOpen();
+        } catch (IOException e) {
+            Log.e(TAG, "Can't open " + mDir, e);
+            result = false;
+        }
+        return result;
+    }
+
+    synchronized CounterLock obtainLock(String key) {
+        CounterLock lock = mLockMap.get(key);
+        if (lock == null) {
+            lock = mLockPool.get();
+            mLockMap.put(key, lock);
+        }
+        lock.obtain();
+        return lock;
+    }
+
+    synchronized void releaseLock(String key, CounterLock lock) {
+        lock.release();
+        if (lock.isFree()) {
+            mLockMap.remove(key);
+            mLockPool.push(lock);
+        }
+    }
+
+    private static final class Entry {
+
+        final String key;
+        long size;
+        // Last put or hit, from the clock shared by all shards
+        long stamp;
+        // Hits in probation since put
+        int hits;
+
+        Entry(String key) {
+            this.key = key;
+        }
+    }
+
+    static final class CounterLock extends ReentrantReadWriteLock {
+
+        private int mCount;
+
+        public boolean isFree() {
+            return mCount == 0;
+        }
+
+        public void release() {
+            if (--mCount < 0) {
+                throw new IllegalStateException("Release time is more than occupy time");
+            }
+        }
+
+        public void obtain() {
+            ++mCount;
+        }
+    }
+
+    private static final class LockPool {
+
+        private static final int MAX_SIZE = 10;
+
+        private final CounterLock[] mArray = new CounterLock[MAX_SIZE];
+        private int mSize;
+
+        public void push(CounterLock lock) {
+            if (lock != null && mSize < MAX_SIZE) {
+                mArray[mSize++] = lock;
+            }
+        }
+
+        public CounterLock get() {
+            if (mSize > 0) {
+                CounterLock lock = mArray[--mSize];
+                mArray[mSize] = null;
+                return lock;
+            } else {
+                return new CounterLock();
+            }
+        }
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.beerbelly;
+
+import android.content.ComponentCallbacks2;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+
+import androidx.annotation.NonNull;
+
+import com.hippo.lib.yorozuya.MathUtils;
+import com.hippo.lib.yorozuya.OSUtils;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * One memory budget for all the image memory caches. Every registered
+ * {@link LruCache} gets its min size, the rest is shared by the hits
+ * in recent rebalances. Trim memory levels shrink the whole budget.
+ * Rebalances and the regrowth after trim memory pause while the UI is hidden,
+ * {@link #onUiShown()} resumes them.
+ * <p>
+ * All sizes are in bytes, so {@link LruCache#sizeOf(Object, Object)}
+ * of registered caches must return bytes.
+ */
+public final class MemoryBudget {
+
+    private static final String TAG = MemoryBudget.class.getSimpleName();
+
+    private static final long MAX_BUDGET = 256 * 1024 * 1024;
+    private static final long MIN_BUDGET = 64 * 1024 * 1024;
+
+    private static final long REBALANCE_INTERVAL = 10 * 1000;
+    // Budget comes back step by step after trim memory
+    private static final float RECOVER_STEP = 0.125f;
+
+    private static volatile MemoryBudget sInstance;
+
+    private final long mBudget;
+    private final List<Entry> mEntries = new ArrayList<>();
+    private float mFactor = 1.0f;
+    private boolean mUiHidden;
+
+    private Handler mHandler;
+    private final Runnable mRebalanceTask = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (MemoryBudget.this) {
+                if (mUiHidden) {
+                    return;
+                }
+                mFactor = Math.min(1.0f, mFactor + RECOVER_STEP);
+                rebalance();
+                if (!mEntries.isEmpty()) {
+                    mHandler.postDelayed(this, REBALANCE_INTERVAL);
+                }
+            }
+        }
+    };
+
+    MemoryBudget(long budget) {
+        mBudget = budget;
+    }
+
+    @NonNull
+    public static MemoryBudget getInstance() {
+        if (sInstance == null) {
+            synchronized (MemoryBudget.class) {
+                if (sInstance == null) {
+                    sInstance = new MemoryBudget(MathUtils.clamp(
+                            OSUtils.getTotalMemory() / 12, MIN_BUDGET, MAX_BUDGET));
+                }
+            }
+        }
+        return sInstance;
+    }
+
+    /**
+     * Let the budget decide the max size of the cache. The cache is held weakly,
+     * it is dropped after it is collected.
+     *
+     * @param name    the name in stats
+     * @param minSize the size kept for it without memory pressure
+     */
+    public synchronized void register(@NonNull String name, @NonNull LruCache<?, ?> cache, int minSize) {
+        for (Entry entry : mEntries) {
+            if (entry.cache.get() == cache) {
+                return;
+            }
+        }
+        mEntries.add(new Entry(name, cache, minSize));
+        rebalance();
+
+        if (mEntries.size() == 1 && !mUiHidden) {
+            scheduleRebalance();
+        }
+    }
+
+    private void scheduleRebalance() {
+        if (mHandler == null) {
+            mHandler = new Handler(Looper.getMainLooper());
+        }
+        mHandler.removeCallbacks(mRebalanceTask);
+        mHandler.postDelayed(mRebalanceTask, REBALANCE_INTERVAL);
+    }
+
+    public synchronized void unregister(@NonNull LruCache<?, ?> cache) {
+        Iterator<Entry> iterator = mEntries.iterator();
+        while (iterator.hasNext()) {
+            LruCache<?, ?> c = iterator.next().cache.get();
+            if (c == null || c == cache) {
+                iterator.remove();
+            }
+        }
+        rebalance();
+
+        if (mEntries.isEmpty() && mHandler != null) {
+            mHandler.removeCallbacks(mRebalanceTask);
+        }
+    }
+
+    /**
+     * Call it when an activity is started. Rebalances and regrowth resume.
+     */
+    public synchronized void onUiShown() {
+        if (!mUiHidden) {
+            return;
+        }
+        mUiHidden = false;
+        if (!mEntries.isEmpty()) {
+            scheduleRebalance();
+        }
+    }
+
+    /**
+     * Call it from {@link ComponentCallbacks2#onTrimMemory(int)}. From
+     * {@link ComponentCallbacks2#TRIM_MEMORY_UI_HIDDEN} the budget stays small
+     * until {@link #onUiShown()}.
+     */
+    public synchronized void onTrimMemory(int level) {
+        float factor;
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE) {
+            factor = 0.0f;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            factor = 0.25f;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            factor = 0.5f;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            factor = 0.25f;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            factor = 0.5f;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+            factor = 0.75f;
+        } else {
+            return;
+        }
+        mFactor = Math.min(mFactor, factor);
+        rebalance();
+
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            mUiHidden = true;
+            if (mHandler != null) {
+                mHandler.removeCallbacks(mRebalanceTask);
+            }
+        }
+    }
+
+    synchronized void rebalance() {
+        // Drop collected caches and update scores
+        long floor = 0;
+        float weights = 0.0f;
+        Iterator<Entry> iterator = mEntries.iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            LruCache<?, ?> cache = entry.cache.get();
+            if (cache == null) {
+                iterator.remove();
+                continue;
+            }
+            int hitCount = cache.hitCount();
+            entry.score = entry.score / 2 + (hitCount - entry.lastHitCount);
+            entry.lastHitCount = hitCount;
+            floor += (long) (entry.minSize * mFactor);
+            weights += entry.score + 1;
+        }
+
+        long rest = Math.max(0, (long) (mBudget * mFactor) - floor);
+        for (Entry entry : mEntries) {
+            LruCache<?, ?> cache = entry.cache.get();
+            if (cache == null) {
+                continue;
+            }
+            long size = (long) (entry.minSize * mFactor) + (long) (rest * ((entry.score + 1) / weights));
+            cache.resize((int) MathUtils.clamp(size, 1, Integer.MAX_VALUE));
+        }
+    }
+
+    @NonNull
+    public synchronized List<Stats> getStats() {
+        List<Stats> stats = new ArrayList<>(mEntries.size());
+        for (Entry entry : mEntries) {
+            LruCache<?, ?> cache = entry.cache.get();
+            if (cache != null) {
+                stats.add(new Stats(entry.name, cache.size(), cache.maxSize(),
+                        cache.hitCount(), cache.missCount()));
+            }
+        }
+        return stats;
+    }
+
+    public void dump() {
+        for (Stats stats : getStats()) {
+            Log.d(TAG, stats.toString());
+        }
+    }
+
+    private static class Entry {
+
+        final String name;
+        final WeakReference<LruCache<?, ?>> cache;
+        final int minSize;
+        int lastHitCount;
+        float score;
+
+        Entry(String name, LruCache<?, ?> cache, int minSize) {
+            this.name = name;
+            this.cache = new WeakReference<>(cache);
+            this.minSize = minSize;
+            this.lastHitCount = cache.hitCount();
+        }
+    }
+
+    public static final class Stats {
+
+        public final String name;
+        public final int size;
+        public final int maxSize;
+        public final int hitCount;
+        public final int missCount;
+
+        Stats(String name, int size, int maxSize, int hitCount, int missCount) {
+            this.name = name;
+            this.size = size;
+            this.maxSize = maxSize;
+            this.hitCount = hitCount;
+            this.missCount = missCount;
+        }
+
+        public float hitRate() {
+            int count = hitCount + missCount;
+            return count == 0 ? 0.0f : (float) hitCount / count;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s: %d / %d bytes, hit rate %.1f%% (%d / %d)",
+                    name, size, maxSize, hitRate() * 100, hitCount, hitCount + missCount);
+        }
+    }
+}
@@ -24,44 +24,47 @@ import androidx.annotation.Nullable;
 import com.hippo.streampipe.InputStreamPipe;
 import com.hippo.streampipe.OutputStreamPipe;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.security.MessageDigest;
+import java.nio.charset.StandardCharsets;
 import java.security.NoSuchAlgorithmException;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Disk cache split into shards by key hash. Each shard has its own lock and index,
+ * so reading and writing different keys rarely wait for each other. The size limit
+ * is for the whole cache, eviction takes the eldest entries of any shard.
+ *
+ * @see DiskCacheShard
+ */
 public class SimpleDiskCache {
 
     private static final String TAG = SimpleDiskCache.class.getSimpleName();
 
-    /**
-     * Disk cache is free
-     */
-    private static final int STATE_DISK_CACHE_NONE = 0;
+    private static final int SHARD_COUNT = 8;
 
-    /**
-     * Disk cache is flushing or clearing
-     */
-    private static final int STATE_DISK_CACHE_IN_USE = 1;
-
-    /**
-     * Disk cache is reading or writing
-     */
-    private static final int STATE_DISK_CACHE_BUSY = 2;
+    // Files of DiskLruCache, which was used before
+    private static final String LEGACY_JOURNAL = "journal";
+    private static final String LEGACY_JOURNAL_BACKUP = "journal.bkp";
+    private static final String[] LEGACY_FILES = {LEGACY_JOURNAL, "journal.tmp", LEGACY_JOURNAL_BACKUP};
+    private static final int LEGACY_HEADER_LINES = 5;
 
     private final File mCacheDir;
     private final int mSize;
-    @NonNull
-    private final Map<String, CounterLock> mLockMap = new HashMap<>();
-    @NonNull
-    private final LockPool mLockPool = new LockPool();
-    private int mDiskCacheState;
     @Nullable
-    private DiskLruCache mDiskLruCache;
+    private DiskCacheShard[] mShards;
+    // Access stamps of all shards
+    private final AtomicLong mClock = new AtomicLong();
+    private final Object mTrimLock = new Object();
 
     public SimpleDiskCache(File cacheDir, int size) {
         mCacheDir = cacheDir;
@@ -112,207 +115,276 @@ public class SimpleDiskCache {
     }
 
     public synchronized boolean isValid() {
-        return mDiskLruCache != null;
+        return mShards != null;
     }
 
     private synchronized void init() throws IOException {
-        if (!isValid()) {
-            mDiskLruCache = DiskLruCache.open(mCacheDir, 1, 1, mSize);
+        if (isValid()) {
+            return;
         }
-    }
 
-    public synchronized long size() {
-        if (null != mDiskLruCache) {
-            return mDiskLruCache.size();
-        } else {
-            return -1L;
+        if (!mCacheDir.isDirectory() && !mCacheDir.mkdirs()) {
+            throw new IOException("Can't create dir " + mCacheDir);
         }
-    }
 
-    public synchronized void flush() {
-        // Wait for cache available
-        while (mDiskCacheState != STATE_DISK_CACHE_NONE) {
-            try {
-                wait();
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
+        // Shards are opened on first use. Protected entries are 80% of the cache at most.
+        long protectedMaxSize = (long) mSize * 4 / 5 / SHARD_COUNT;
+        DiskCacheShard[] shards = new DiskCacheShard[SHARD_COUNT];
+        for (int i = 0; i < SHARD_COUNT; i++) {
+            shards[i] = new DiskCacheShard(new File(mCacheDir, Integer.toString(i)),
+                    mSize, protectedMaxSize, mClock);
         }
-        mDiskCacheState = STATE_DISK_CACHE_BUSY;
+        mShards = shards;
 
-        if (null != mDiskLruCache) {
-            try {
-                mDiskLruCache.flush();
-            } catch (IOException e) {
-                Log.e(TAG, "SimpleDiskCache flush", e);
+        for (String name : LEGACY_FILES) {
+            if (new File(mCacheDir, name).exists()) {
+                migrateLegacy(shards);
+                break;
             }
         }
-
-        mDiskCacheState = STATE_DISK_CACHE_NONE;
-        notifyAll();
     }
 
-    public synchronized boolean clear() {
-        boolean result = true;
-        if (null == mDiskLruCache) {
-            return false;
+    /**
+     * Move entries of DiskLruCache into shards. They are keyed by the same hash,
+     * the journal has their access order. Other files of it are deleted.
+     */
+    private void migrateLegacy(DiskCacheShard[] shards) {
+        File journal = new File(mCacheDir, LEGACY_JOURNAL);
+        if (!journal.exists()) {
+            journal = new File(mCacheDir, LEGACY_JOURNAL_BACKUP);
+        }
+
+        // Access order, the eldest one first
+        LinkedHashMap<String, Boolean> keys = new LinkedHashMap<>(16, 0.75f, true);
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(journal), StandardCharsets.US_ASCII))) {
+            String line;
+            int lineCount = 0;
+            while ((line = reader.readLine()) != null) {
+                if (lineCount++ < LEGACY_HEADER_LINES) {
+                    continue;
+                }
+                // "CLEAN key length", "READ key" or "REMOVE key", DIRTY lines don't change
+                // the clean file
+                String[] parts = line.split(" ");
+                if (parts.length < 2) {
+                    continue;
+                }
+                switch (parts[0]) {
+                    case "CLEAN":
+                        keys.put(parts[1], Boolean.TRUE);
+                        break;
+                    case "READ":
+                        keys.get(parts[1]);
+                        break;
+                    case "REMOVE":
+                        keys.remove(parts[1]);
+                        break;
+                }
+            }
+        } catch (IOException e) {
+            // The tail is broken, keep what we have got
+            Log.w(TAG, "Can't read the journal of " + mCacheDir, e);
         }
 
-        // Wait for cache available
-        while (mDiskCacheState != STATE_DISK_CACHE_NONE) {
-            try {
-                wait();
-            } catch (InterruptedException e) {
-                e.printStackTrace();
+        int count = 0;
+        for (String key : keys.keySet()) {
+            File file = new File(mCacheDir, key + ".0");
+            if (getShard(shards, key).adopt(key, file)) {
+                count++;
             }
         }
-        mDiskCacheState = STATE_DISK_CACHE_BUSY;
+        Log.i(TAG, "Keep " + count + " entries of the legacy cache " + mCacheDir);
 
-        try {
-            mDiskLruCache.delete();
-        } catch (IOException e) {
-            Log.e(TAG, "SimpleDiskCache clearCache", e);
+        // Files of missed entries, temp files and the journal
+        File[] files = mCacheDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isFile()) {
+                    file.delete();
+                }
+            }
         }
-        mDiskLruCache = null;
-        try {
-            init();
-        } catch (IOException e) {
-            Log.e(TAG, "SimpleDiskCache init", e);
-            result = false;
+        trimToSize(null);
+    }
+
+    @Nullable
+    private synchronized DiskCacheShard[] getShards() {
+        return mShards;
+    }
+
+    @Nullable
+    private DiskCacheShard getShard(String diskKey) {
+        DiskCacheShard[] shards = getShards();
+        if (shards == null) {
+            return null;
         }
+        return getShard(shards, diskKey);
+    }
 
-        mDiskCacheState = STATE_DISK_CACHE_NONE;
-        notifyAll();
-        return result;
+    @NonNull
+    private static DiskCacheShard getShard(DiskCacheShard[] shards, String diskKey) {
+        return shards[(diskKey.hashCode() & 0x7fffffff) % shards.length];
     }
 
-    private synchronized CounterLock obtainLock(String key) {
-        // Wait for clear over
-        while (mDiskCacheState == STATE_DISK_CACHE_BUSY) {
-            try {
-                wait();
-            } catch (InterruptedException e) {
-                // Empty
+    /**
+     * Commit the entry to the shard, then trim the whole cache.
+     * The committed entry is kept, the writer may read it back at once.
+     */
+    private boolean commit(DiskCacheShard shard, String key, File tempFile, int generation) {
+        if (!shard.commit(key, tempFile, generation)) {
+            return false;
+        }
+        trimToSize(key);
+        return true;
+    }
+
+    /**
+     * @param keep the key which can't be evicted, null for none
+     */
+    private void trimToSize(@Nullable String keep) {
+        DiskCacheShard[] shards = getShards();
+        if (shards == null) {
+            return;
+        }
+
+        synchronized (mTrimLock) {
+            long size = 0;
+            for (DiskCacheShard shard : shards) {
+                size += shard.size();
+            }
+            while (size > mSize) {
+                // Probation entries of all shards are evicted before protected entries
+                DiskCacheShard shard = findEldest(shards, true, keep);
+                boolean probation = shard != null;
+                if (!probation) {
+                    shard = findEldest(shards, false, keep);
+                }
+                if (shard == null) {
+                    break;
+                }
+                long evicted = shard.evictEldest(probation, keep);
+                if (evicted >= 0) {
+                    size -= evicted;
+                }
             }
         }
-        mDiskCacheState = STATE_DISK_CACHE_IN_USE;
+    }
 
-        // Get lock from key
-        CounterLock lock;
-        lock = mLockMap.get(key);
-        if (lock == null) {
-            lock = mLockPool.get();
-            mLockMap.put(key, lock);
+    @Nullable
+    private static DiskCacheShard findEldest(DiskCacheShard[] shards, boolean probation,
+            @Nullable String keep) {
+        DiskCacheShard eldest = null;
+        long eldestStamp = Long.MAX_VALUE;
+        for (DiskCacheShard shard : shards) {
+            long stamp = shard.getEldestStamp(probation, keep);
+            if (stamp < eldestStamp) {
+                eldest = shard;
+                eldestStamp = stamp;
+            }
         }
-        lock.obtain();
+        return eldest;
+    }
 
-        return lock;
+    public long size() {
+        DiskCacheShard[] shards = getShards();
+        if (shards == null) {
+            return -1L;
+        }
+        long size = 0;
+        for (DiskCacheShard shard : shards) {
+            size += shard.size();
+        }
+        return size;
     }
 
-    private synchronized void releaseLock(String key, CounterLock lock) {
-        lock.release();
-        if (lock.isFree()) {
-            mLockMap.remove(key);
-            mLockPool.push(lock);
+    public void flush() {
+        DiskCacheShard[] shards = getShards();
+        if (shards != null) {
+            for (DiskCacheShard shard : shards) {
+                shard.flush();
+            }
         }
+    }
 
-        if (mLockMap.isEmpty()) {
-            mDiskCacheState = STATE_DISK_CACHE_NONE;
-            notifyAll();
+    public boolean clear() {
+        DiskCacheShard[] shards = getShards();
+        if (shards == null) {
+            return false;
         }
+        boolean result = true;
+        for (DiskCacheShard shard : shards) {
+            if (!shard.clear()) {
+                Log.e(TAG, "SimpleDiskCache clearCache failed");
+                result = false;
+            }
+        }
+        return result;
     }
 
     public boolean contain(@NonNull String key) {
         String diskKey = hashKeyForDisk(key);
-        CounterLock lock = obtainLock(diskKey);
-        if (null == mDiskLruCache) {
-            releaseLock(diskKey, lock);
+        DiskCacheShard shard = getShard(diskKey);
+        if (shard == null) {
             return false;
         }
+        DiskCacheShard.CounterLock lock = shard.obtainLock(diskKey);
         lock.readLock().lock();
 
-        boolean result = mDiskLruCache.contain(diskKey);
+        boolean result = shard.contain(diskKey);
 
         lock.readLock().unlock();
-        releaseLock(diskKey, lock);
+        shard.releaseLock(diskKey, lock);
 
         return result;
     }
 
     public boolean remove(@NonNull String key) {
         String diskKey = hashKeyForDisk(key);
-        CounterLock lock = obtainLock(diskKey);
-        if (null == mDiskLruCache) {
-            releaseLock(diskKey, lock);
+        DiskCacheShard shard = getShard(diskKey);
+        if (shard == null) {
             return false;
         }
+        DiskCacheShard.CounterLock lock = shard.obtainLock(diskKey);
         lock.writeLock().lock();
 
-        boolean result;
-        try {
-            result = mDiskLruCache.remove(diskKey);
-        } catch (IOException e) {
-            e.printStackTrace();
-            result = false;
-        }
+        boolean result = shard.remove(diskKey);
 
         lock.writeLock().unlock();
-        releaseLock(diskKey, lock);
+        shard.releaseLock(diskKey, lock);
 
         return result;
     }
 
     public boolean put(@NonNull String key, @NonNull InputStream is) {
         String diskKey = hashKeyForDisk(key);
-        CounterLock lock = obtainLock(diskKey);
-        if (null == mDiskLruCache) {
-            releaseLock(diskKey, lock);
+        DiskCacheShard shard = getShard(diskKey);
+        if (shard == null) {
             return false;
         }
+        DiskCacheShard.CounterLock lock = shard.obtainLock(diskKey);
         lock.writeLock().lock();
 
-        boolean result = false;
-        if (isValid()) {
-            result = putToDisk(diskKey, is);
-        }
+        boolean result = putToDisk(shard, diskKey, is);
 
         lock.writeLock().unlock();
-        releaseLock(diskKey, lock);
+        shard.releaseLock(diskKey, lock);
 
         return result;
     }
 
-    private boolean putToDisk(String key, InputStream is) {
-        DiskLruCache.Editor editor = null;
-        OutputStream os = null;
-        boolean completeEdit = false;
+    private boolean putToDisk(DiskCacheShard shard, String key, InputStream is) {
+        File tempFile = null;
         try {
-            //noinspection ConstantConditions
-            editor = mDiskLruCache.edit(key);
-            if (editor == null) {
-                // The editor is in progress
-                return false;
-            }
-
-            os = editor.newOutputStream(0);
-            if (os != null) {
+            int generation = shard.getGeneration();
+            tempFile = shard.newTempFile(key);
+            try (OutputStream os = new FileOutputStream(tempFile)) {
                 Util.copy(is, os);
-                completeEdit = true;
-                editor.commit();
-                return true;
-            } else {
-                // Can't get OutputStream
-                completeEdit = true;
-                editor.abort();
-                return false;
             }
+            return commit(shard, key, tempFile, generation);
         } catch (IOException e) {
-            Util.closeQuietly(os);
-            try {
-                if (!completeEdit && editor != null) {
-                    editor.abort();
-                }
-            } catch (IOException ignored) {
+            if (tempFile != null) {
+                tempFile.delete();
             }
             return false;
         }
@@ -341,30 +413,34 @@ public class SimpleDiskCache {
     private class CacheInputStreamPipe implements InputStreamPipe {
 
         private final String mKey;
-        private CounterLock mLock;
-        private DiskLruCache.Snapshot mCurrentSnapshot;
+        @Nullable
+        private final DiskCacheShard mShard;
+        private DiskCacheShard.CounterLock mLock;
+        private InputStream mCurrentStream;
 
         private CacheInputStreamPipe(String key) {
             mKey = key;
+            mShard = getShard(key);
         }
 
         @Override
         public void obtain() {
-            if (mLock == null) {
-                mLock = obtainLock(mKey);
+            if (mLock == null && mShard != null) {
+                mLock = mShard.obtainLock(mKey);
                 mLock.readLock().lock();
             }
         }
 
         @Override
         public void release() {
-            if (mCurrentSnapshot != null) {
+            if (mCurrentStream != null) {
                 throw new IllegalStateException("Please close it first");
             }
 
             if (mLock != null) {
                 mLock.readLock().unlock();
-                releaseLock(mKey, mLock);
+                //noinspection ConstantConditions
+                mShard.releaseLock(mKey, mLock);
                 mLock = null;
             }
         }
@@ -372,59 +448,62 @@ public class SimpleDiskCache {
         @Override
         public @NonNull
         InputStream open() throws IOException {
+            if (mShard == null) {
+                throw new IOException("Can't find disk cache");
+            }
             if (mLock == null) {
                 throw new IllegalStateException("Please obtain it first");
             }
-            if (mCurrentSnapshot != null) {
+            if (mCurrentStream != null) {
                 throw new IllegalStateException("Please close it before reopen");
             }
-            if (null == mDiskLruCache) {
-                throw new IOException("Can't find disk lru cache");
-            }
 
-            DiskLruCache.Snapshot snapshot;
-            snapshot = mDiskLruCache.get(mKey);
-            if (snapshot == null) {
+            InputStream is = mShard.open(mKey);
+            if (is == null) {
                 throw new IOException("Miss the key " + mKey);
             }
-            mCurrentSnapshot = snapshot;
-            return snapshot.getInputStream(0);
+            mCurrentStream = is;
+            return is;
         }
 
         @Override
         public void close() {
-            Util.closeQuietly(mCurrentSnapshot);
-            mCurrentSnapshot = null;
+            Util.closeQuietly(mCurrentStream);
+            mCurrentStream = null;
         }
     }
 
     private class CacheOutputStreamPipe implements OutputStreamPipe {
 
         private final String mKey;
-        private CounterLock mLock;
-        private DiskLruCache.Editor mCurrentEditor;
+        @Nullable
+        private final DiskCacheShard mShard;
+        private DiskCacheShard.CounterLock mLock;
+        private CacheOutputStream mCurrentStream;
 
         private CacheOutputStreamPipe(String key) {
             mKey = key;
+            mShard = getShard(key);
         }
 
         @Override
         public void obtain() {
-            if (mLock == null) {
-                mLock = obtainLock(mKey);
+            if (mLock == null && mShard != null) {
+                mLock = mShard.obtainLock(mKey);
                 mLock.writeLock().lock();
             }
         }
 
         @Override
         public void release() {
-            if (mCurrentEditor != null) {
+            if (mCurrentStream != null) {
                 throw new IllegalStateException("Please close it first");
             }
 
             if (mLock != null) {
                 mLock.writeLock().unlock();
-                releaseLock(mKey, mLock);
+                //noinspection ConstantConditions
+                mShard.releaseLock(mKey, mLock);
                 mLock = null;
             }
         }
@@ -432,90 +511,127 @@ public class SimpleDiskCache {
         @Override
         public @NonNull
         OutputStream open() throws IOException {
+            if (mShard == null) {
+                throw new IOException("Can't find disk cache");
+            }
             if (mLock == null) {
                 throw new IllegalStateException("Please obtain it first");
             }
-            if (mCurrentEditor != null) {
+            if (mCurrentStream != null) {
                 throw new IllegalStateException("Please close it before reopen");
             }
-            if (null == mDiskLruCache) {
-                throw new IOException("Can't find disk lru cache");
+
+            int generation = mShard.getGeneration();
+            File tempFile = mShard.newTempFile(mKey);
+            mCurrentStream = new CacheOutputStream(new FileOutputStream(tempFile),
+                    mShard, mKey, tempFile, generation);
+            return mCurrentStream;
+        }
+
+        /**
+         * Commit the entry if the stream is not closed. Close the stream
+         * before it to know whether the entry is committed.
+         */
+        @Override
+        public void close() {
+            if (mCurrentStream != null) {
+                Util.closeQuietly(mCurrentStream);
+                mCurrentStream = null;
             }
+        }
+    }
 
-            DiskLruCache.Editor editor = mDiskLruCache.edit(mKey);
-            if (editor == null) {
-                throw new IOException("Miss the key " + mKey);
+    /**
+     * Closing it commits the entry. {@link #close()} throws
+     * {@link IOException} if the entry can't be committed, like a write error
+     * or an entry larger than the whole cache.
+     */
+    private class CacheOutputStream extends FaultHidingOutputStream {
+
+        private final DiskCacheShard mShard;
+        private final String mKey;
+        private final File mTempFile;
+        private final int mGeneration;
+        private boolean mClosed;
+
+        private CacheOutputStream(OutputStream out, DiskCacheShard shard, String key,
+                                  File tempFile, int generation) {
+            super(out);
+            mShard = shard;
+            mKey = key;
+            mTempFile = tempFile;
+            mGeneration = generation;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (mClosed) {
+                return;
             }
+            mClosed = true;
 
-            OutputStream os;
             try {
-                os = editor.newOutputStream(0);
-                mCurrentEditor = editor;
-                return os;
+                super.close();
             } catch (IOException e) {
-                // Get trouble
-                try {
-                    editor.abort();
-                } catch (IOException ex) {
-                    // Ignore
-                }
+                mTempFile.delete();
                 throw e;
             }
-        }
-
-        @Override
-        public void close() {
-            if (mCurrentEditor != null) {
-                try {
-                    mCurrentEditor.commit();
-                } catch (IOException e) {
-                    // Empty
-                }
-                mCurrentEditor = null;
+            if (hasErrors) {
+                mTempFile.delete();
+                throw new IOException("Write error, drop the key " + mKey);
+            }
+            if (!commit(mShard, mKey, mTempFile, mGeneration)) {
+                throw new IOException("Can't commit the key " + mKey);
             }
         }
     }
 
-    private class CounterLock extends ReentrantReadWriteLock {
+    // Remember write errors, the entry is dropped instead of committed
+    private static class FaultHidingOutputStream extends FilterOutputStream {
 
-        private int mCount;
+        boolean hasErrors;
 
-        public boolean isFree() {
-            return mCount == 0;
+        private FaultHidingOutputStream(OutputStream out) {
+            super(out);
         }
 
-        public void release() {
-            if (--mCount < 0) {
-                throw new IllegalStateException("Release time is more than occupy time");
+        @Override
+        public void write(int oneByte) throws IOException {
+            try {
+                out.write(oneByte);
+            } catch (IOException e) {
+                hasErrors = true;
+                throw e;
             }
         }
 
-        public void obtain() {
-            ++mCount;
+        @Override
+        public void write(@NonNull byte[] buffer, int offset, int length) throws IOException {
+            try {
+                out.write(buffer, offset, length);
+            } catch (IOException e) {
+                hasErrors = true;
+                throw e;
+            }
         }
-    }
-
-    private class LockPool {
-
-        private static final int MAX_SIZE = 10;
-
-        private final CounterLock[] mArray = new CounterLock[MAX_SIZE];
-        private final int mMaxSize = MAX_SIZE;
-        private int mSize;
 
-        public void push(CounterLock lock) {
-            if (lock != null && mSize < mMaxSize) {
-                mArray[mSize++] = lock;
+        @Override
+        public void close() throws IOException {
+            try {
+                out.close();
+            } catch (IOException e) {
+                hasErrors = true;
+                throw e;
             }
         }
 
-        public CounterLock get() {
-            if (mSize > 0) {
-                CounterLock lock = mArray[--mSize];
-                mArray[mSize] = null;
-                return lock;
-            } else {
-                return new CounterLock();
+        @Override
+        public void flush() throws IOException {
+            try {
+                out.flush();
+            } catch (IOException e) {
+                hasErrors = true;
+                throw e;
             }
         }
     }
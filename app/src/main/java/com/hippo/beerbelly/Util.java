@@ -21,35 +21,17 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.Reader;
-import java.io.StringWriter;
-import java.nio.charset.Charset;
-import java.nio.charset.StandardCharsets;
 
 /**
  * Junk drawer of utility methods.
  */
 final class Util {
-    static final Charset US_ASCII = StandardCharsets.US_ASCII;
-    static final Charset UTF_8 = StandardCharsets.UTF_8;
     private static final int EOF = -1;
     private static final int DEFAULT_BUFFER_SIZE = 1024 * 4;
 
     private Util() {
     }
 
-    static String readFully(Reader reader) throws IOException {
-        try (reader) {
-            StringWriter writer = new StringWriter();
-            char[] buffer = new char[1024];
-            int count;
-            while ((count = reader.read(buffer)) != -1) {
-                writer.write(buffer, 0, count);
-            }
-            return writer.toString();
-        }
-    }
-
     /**
      * Deletes the contents of {@code dir}. Throws an IOException if any file
      * could not be deleted, or if {@code dir} is not a readable directory.
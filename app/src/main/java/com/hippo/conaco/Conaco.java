@@ -23,14 +23,9 @@ import android.util.Log;
 
 import com.hippo.beerbelly.BeerBelly;
 import com.hippo.lib.yorozuya.thread.PriorityThreadFactory;
-import com.hippo.lib.yorozuya.thread.SerialThreadExecutor;
 
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
-import java.util.LinkedList;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import okhttp3.OkHttpClient;
@@ -47,12 +42,29 @@ public class Conaco<V> {
     public static final int SOURCE_DISK = 1;
     public static final int SOURCE_NETWORK = 2;
 
+    @IntDef({PRIORITY_LOW, PRIORITY_NORMAL, PRIORITY_HIGH})
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface Priority {}
+
+    /**
+     * For the unikery which is not shown, like detached view
+     */
+    public static final int PRIORITY_LOW = 0;
+    public static final int PRIORITY_NORMAL = 1;
+    /**
+     * For the unikery which is shown now
+     */
+    public static final int PRIORITY_HIGH = 2;
+
+    private static final int DISK_THREAD_COUNT = 2;
+    private static final int NETWORK_THREAD_COUNT = 3;
+
     private ValueHelper<V> mHelper;
     private ValueCache<V> mCache;
     private OkHttpClient mOkHttpClient;
     private Register<V> mRegister;
-    private final SerialThreadExecutor mDiskExecutor;
-    private final ThreadPoolExecutor mNetworkExecutor;
+    private final LoadScheduler mDiskScheduler;
+    private final LoadScheduler mNetworkScheduler;
     private final AtomicInteger mIdGenerator;
     private final boolean mDebug;
 
@@ -71,10 +83,9 @@ public class Conaco<V> {
 
         mRegister = new Register<>();
 
-        mDiskExecutor = new SerialThreadExecutor(3000L, new LinkedList<>(),
+        mDiskScheduler = new LoadScheduler(DISK_THREAD_COUNT,
                 new PriorityThreadFactory("Conaco-Disk", Process.THREAD_PRIORITY_BACKGROUND));
-        mNetworkExecutor = new ThreadPoolExecutor(3, 3, 5L, TimeUnit.SECONDS,
-                new LinkedBlockingQueue<>(),
+        mNetworkScheduler = new LoadScheduler(NETWORK_THREAD_COUNT,
                 new PriorityThreadFactory("Conaco-Network", Process.THREAD_PRIORITY_BACKGROUND));
 
         mIdGenerator = new AtomicInteger();
@@ -102,12 +113,15 @@ public class Conaco<V> {
             return;
         }
 
-        String key = task.getKey();
+        String key = task.getMemoryKey();
         V value = null;
 
         // Get from memory
         if (key != null && task.useMemoryCache() && mHelper.useMemoryCache(key, null)) {
             value = mCache.getFromMemory(key);
+            if (value != null && !mHelper.isLargeEnough(value, task.getTargetWidth(), task.getTargetHeight())) {
+                value = null;
+            }
         }
 
         if (value == null || !unikery.onGetValue(value, SOURCE_MEMORY)) {
@@ -142,8 +156,8 @@ public class Conaco<V> {
                 .setHelper(mHelper)
                 .setCache(mCache)
                 .setOkHttpClient(mOkHttpClient)
-                .setDiskExecutor(mDiskExecutor)
-                .setNetworkExecutor(mNetworkExecutor)
+                .setDiskScheduler(mDiskScheduler)
+                .setNetworkScheduler(mNetworkScheduler)
                 .setConaco(this);
         ConacoTask<V> task = builder.build();
 
@@ -173,6 +187,21 @@ public class Conaco<V> {
         }
     }
 
+    /**
+     * Change priority of the loading task of the unikery. A waiting task
+     * is moved before or after others, a running task is not affected.
+     */
+    @UiThread
+    public void setPriority(Unikery<V> unikery, @Priority int priority) {
+        int id = unikery.getTaskId();
+        if (id != Unikery.INVALID_ID) {
+            ConacoTask<V> task = mRegister.getById(id);
+            if (task != null) {
+                task.setPriority(priority);
+            }
+        }
+    }
+
     public boolean isLoading(Unikery<V> unikery) {
         int id = unikery.getTaskId();
         return id != Unikery.INVALID_ID && mRegister.contain(id);
@@ -31,7 +31,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.lang.ref.WeakReference;
-import java.util.concurrent.Executor;
+import java.util.List;
 
 import okhttp3.Call;
 import okhttp3.HttpUrl;
@@ -53,15 +53,24 @@ public class ConacoTask<V> {
     private final boolean mUseMemoryCache;
     private final boolean mUseDiskCache;
     private final boolean mUseNetwork;
+    private final int mTargetWidth;
+    private final int mTargetHeight;
+    @Nullable
+    private final Sprite mSprite;
+    private final int mSpriteIndex;
     private final ValueHelper<V> mHelper;
     private final ValueCache<V> mCache;
     private final OkHttpClient mOkHttpClient;
-    private final Executor mDiskExecutor;
-    private final Executor mNetworkExecutor;
+    private final LoadScheduler mDiskScheduler;
+    private final LoadScheduler mNetworkScheduler;
     private final Conaco<V> mConaco;
+    @Conaco.Priority
+    private int mPriority;
 
     private DiskLoadTask mDiskLoadTask;
     private NetworkLoadTask mNetworkLoadTask;
+    private LoadScheduler.Job mDiskJob;
+    private LoadScheduler.Job mNetworkJob;
     private Call mCall;
     private boolean mStart;
     private volatile boolean mStop;
@@ -75,12 +84,17 @@ public class ConacoTask<V> {
         mUseMemoryCache = builder.mUseMemoryCache;
         mUseDiskCache = builder.mUseDiskCache;
         mUseNetwork = builder.mUseNetwork;
+        mTargetWidth = builder.mTargetWidth;
+        mTargetHeight = builder.mTargetHeight;
+        mSprite = builder.mSprite;
+        mSpriteIndex = builder.mSpriteIndex;
         mHelper = builder.mHelper;
         mCache = builder.mCache;
         mOkHttpClient = builder.mOkHttpClient;
-        mDiskExecutor = builder.mDiskExecutor;
-        mNetworkExecutor = builder.mNetworkExecutor;
+        mDiskScheduler = builder.mDiskScheduler;
+        mNetworkScheduler = builder.mNetworkScheduler;
         mConaco = builder.mConaco;
+        mPriority = builder.mPriority;
     }
 
     int getId() {
@@ -91,6 +105,21 @@ public class ConacoTask<V> {
         return mKey;
     }
 
+    /**
+     * The key in memory cache, the key of the cell for sprite
+     */
+    String getMemoryKey() {
+        return mSprite != null ? mSprite.getCellKey(mSpriteIndex) : mKey;
+    }
+
+    int getTargetWidth() {
+        return mTargetWidth;
+    }
+
+    int getTargetHeight() {
+        return mTargetHeight;
+    }
+
     boolean useMemoryCache() {
         return mUseMemoryCache;
     }
@@ -104,6 +133,29 @@ public class ConacoTask<V> {
         mUnikeryWeakReference.clear();
     }
 
+    @UiThread
+    void setPriority(@Conaco.Priority int priority) {
+        mPriority = priority;
+        if (mDiskJob != null) {
+            mDiskScheduler.setPriority(mDiskJob, priority);
+        }
+        if (mNetworkJob != null) {
+            mNetworkScheduler.setPriority(mNetworkJob, priority);
+        }
+    }
+
+    @UiThread
+    private void executeDiskLoadTask() {
+        mDiskLoadTask = new DiskLoadTask();
+        mDiskLoadTask.executeOnExecutor(command -> mDiskJob = mDiskScheduler.execute(command, mPriority));
+    }
+
+    @UiThread
+    private void executeNetworkLoadTask() {
+        mNetworkLoadTask = new NetworkLoadTask();
+        mNetworkLoadTask.executeOnExecutor(command -> mNetworkJob = mNetworkScheduler.execute(command, mPriority));
+    }
+
     private void onFinish() {
         if (!mStop) {
             mConaco.finishConacoTask(this);
@@ -123,14 +175,12 @@ public class ConacoTask<V> {
         Unikery<V> unikery = mUnikeryWeakReference.get();
         if (unikery != null && unikery.getTaskId() == mId) {
             if (mUseDiskCache) {
-                mDiskLoadTask = new DiskLoadTask();
-                mDiskLoadTask.executeOnExecutor(mDiskExecutor);
+                executeDiskLoadTask();
                 return;
             } else if (mUseNetwork) {
                 unikery.onMiss(Conaco.SOURCE_DISK);
                 unikery.onRequest();
-                mNetworkLoadTask = new NetworkLoadTask();
-                mNetworkLoadTask.executeOnExecutor(mNetworkExecutor);
+                executeNetworkLoadTask();
                 return;
             } else {
                 unikery.onMiss(Conaco.SOURCE_DISK);
@@ -153,8 +203,11 @@ public class ConacoTask<V> {
         // Stop jobs
         if (mDiskLoadTask != null) { // Getting from disk
             mDiskLoadTask.cancel(false);
+            // Drop it before it starts
+            mDiskScheduler.cancel(mDiskJob);
         } else if (mNetworkLoadTask != null) { // Getting from network
             mNetworkLoadTask.cancel(false);
+            mNetworkScheduler.cancel(mNetworkJob);
             if (mCall != null) {
                 mCall.cancel();
                 mCall = null;
@@ -174,6 +227,48 @@ public class ConacoTask<V> {
         return mStop || asyncTask.isCancelled() || unikery == null || unikery.getTaskId() != mId;
     }
 
+    /**
+     * Decode the value in disk cache. For sprite, all the cells are put to memory cache.
+     */
+    private V decodeFromDiskCache() {
+        SimpleDiskCache diskCache = mCache.getDiskCache();
+        if (diskCache == null) {
+            return null;
+        }
+        InputStreamPipe pipe = diskCache.getInputStreamPipe(mKey);
+        if (pipe == null) {
+            return null;
+        }
+        if (mSprite == null) {
+            return mHelper.decode(pipe, mTargetWidth, mTargetHeight);
+        }
+
+        List<V> values = mHelper.decodeSprite(pipe, mSprite.getCells());
+        if (values == null) {
+            return null;
+        }
+        V value = null;
+        for (int i = 0, n = Math.min(values.size(), mSprite.size()); i < n; i++) {
+            V cell = values.get(i);
+            if (cell == null) {
+                continue;
+            }
+            if (i == mSpriteIndex) {
+                value = cell;
+            } else if (mUseMemoryCache && mHelper.useMemoryCache(mSprite.getCellKey(i), cell)) {
+                mCache.putToMemory(mSprite.getCellKey(i), cell);
+            }
+        }
+        return value;
+    }
+
+    private void putToMemoryCache(V value) {
+        String key = getMemoryKey();
+        if (mUseMemoryCache && mHelper.useMemoryCache(key, value)) {
+            mCache.putToMemory(key, value);
+        }
+    }
+
     private static void putFromDiskCacheToDataContainer(String key, ValueCache cache, DataContainer container) {
         SimpleDiskCache diskCache = cache.getDiskCache();
         if (diskCache != null) {
@@ -223,23 +318,23 @@ public class ConacoTask<V> {
                 if (mDataContainer != null && mDataContainer.isEnabled()) {
                     InputStreamPipe isp = mDataContainer.get();
                     if (isp != null) {
-                        value = mHelper.decode(isp);
+                        value = mHelper.decode(isp, mTargetWidth, mTargetHeight);
                     }
                 }
 
                 // Then check disk cache
                 if (mKey != null) {
                     if (value == null && mUseDiskCache) {
-                        value = mCache.getFromDisk(mKey);
+                        value = decodeFromDiskCache();
                         // Put back to data container
                         if (value != null && mDataContainer != null && mDataContainer.isEnabled()) {
                             putFromDiskCacheToDataContainer(mKey, mCache, mDataContainer);
                         }
                     }
 
-                    if (value != null && mUseMemoryCache && mHelper.useMemoryCache(mKey, value)) {
+                    if (value != null) {
                         // Put it to memory
-                        mCache.putToMemory(mKey, value);
+                        putToMemoryCache(value);
                     }
                 }
 
@@ -250,6 +345,7 @@ public class ConacoTask<V> {
         @Override
         protected void onPostExecute(V value) {
             mDiskLoadTask = null;
+            mDiskJob = null;
 
             if (isCancelled() || mStop) {
                 onCancelled(value);
@@ -260,8 +356,7 @@ public class ConacoTask<V> {
                     if ((value == null || !(getValue = unikery.onGetValue(value, Conaco.SOURCE_DISK))) && mUseNetwork) {
                         unikery.onMiss(Conaco.SOURCE_DISK);
                         unikery.onRequest();
-                        mNetworkLoadTask = new NetworkLoadTask();
-                        mNetworkLoadTask.executeOnExecutor(mNetworkExecutor);
+                        executeNetworkLoadTask();
                         return;
                     } else if (!getValue) {
                         unikery.onMiss(Conaco.SOURCE_DISK);
@@ -307,6 +402,8 @@ public class ConacoTask<V> {
                     receivedSize += bytesRead;
                     notifyProgress((long) bytesRead, receivedSize, length);
                 }
+                // Commit it, throw if it is rejected
+                os.close();
 
                 return true;
             } catch (IOException e) {
@@ -353,13 +450,13 @@ public class ConacoTask<V> {
                 if ((mDataContainer == null || !mDataContainer.isEnabled()) && mKey != null) {
                     if (putToDiskCache(is, body.contentLength())) {
                         // Get object from disk cache
-                        value = mCache.getFromDisk(mKey);
+                        value = decodeFromDiskCache();
                         if (value == null) {
                             // Maybe bad download, remove it from disk cache
                             mCache.removeFromDisk(mKey);
-                        } else if (mUseMemoryCache && mHelper.useMemoryCache(mKey, value)) {
+                        } else {
                             // Put it to memory
-                            mCache.putToMemory(mKey, value);
+                            putToMemoryCache(value);
                         }
                         return value;
                     } else {
@@ -385,17 +482,14 @@ public class ConacoTask<V> {
                     if (isp == null) {
                         return null;
                     }
-                    value = mHelper.decode(isp);
+                    value = mHelper.decode(isp, mTargetWidth, mTargetHeight);
                     if (value == null) {
                         mDataContainer.remove();
                     } else if (mKey != null) {
                         // Put to disk cache
                         putFromDataContainerToDiskCache(mKey, mCache, mDataContainer);
-
-                        if (mUseMemoryCache && mHelper.useMemoryCache(mKey, value)) {
-                            // Put it to memory
-                            mCache.putToMemory(mKey, value);
-                        }
+                        // Put it to memory
+                        putToMemoryCache(value);
                     }
                     return value;
                 } else {
@@ -418,6 +512,7 @@ public class ConacoTask<V> {
         @Override
         protected void onPostExecute(V holder) {
             mNetworkLoadTask = null;
+            mNetworkJob = null;
 
             if (isCancelled() || mStop) {
                 onCancelled(holder);
@@ -456,12 +551,18 @@ public class ConacoTask<V> {
         private boolean mUseMemoryCache = true;
         private boolean mUseDiskCache = true;
         private boolean mUseNetwork = true;
+        private int mTargetWidth;
+        private int mTargetHeight;
+        private Sprite mSprite;
+        private int mSpriteIndex;
         private ValueHelper<T> mHelper;
         private ValueCache<T> mCache;
         private OkHttpClient mOkHttpClient;
-        private Executor mDiskExecutor;
-        private Executor mNetworkExecutor;
+        private LoadScheduler mDiskScheduler;
+        private LoadScheduler mNetworkScheduler;
         private Conaco<T> mConaco;
+        @Conaco.Priority
+        private int mPriority = Conaco.PRIORITY_NORMAL;
 
         public Builder<T> setId(int id) {
             mId = id;
@@ -527,6 +628,27 @@ public class ConacoTask<V> {
             return mUseNetwork;
         }
 
+        /**
+         * Decode it to the size of the view instead of the source size
+         *
+         * @param width  {@code 0} for no limit
+         * @param height {@code 0} for no limit
+         */
+        public Builder<T> setTargetSize(int width, int height) {
+            mTargetWidth = Math.max(0, width);
+            mTargetHeight = Math.max(0, height);
+            return this;
+        }
+
+        /**
+         * Load a cell of the sprite sheet. The key of the builder must be the key of the sheet.
+         */
+        public Builder<T> setSprite(Sprite sprite, int index) {
+            mSprite = sprite;
+            mSpriteIndex = index;
+            return this;
+        }
+
         Builder<T> setHelper(ValueHelper<T> helper) {
             mHelper = helper;
             return this;
@@ -546,13 +668,18 @@ public class ConacoTask<V> {
             return this;
         }
 
-        Builder<T> setDiskExecutor(Executor diskExecutor) {
-            mDiskExecutor = diskExecutor;
+        public Builder<T> setPriority(@Conaco.Priority int priority) {
+            mPriority = priority;
             return this;
         }
 
-        Builder<T> setNetworkExecutor(Executor networkExecutor) {
-            mNetworkExecutor = networkExecutor;
+        Builder<T> setDiskScheduler(LoadScheduler diskScheduler) {
+            mDiskScheduler = diskScheduler;
+            return this;
+        }
+
+        Builder<T> setNetworkScheduler(LoadScheduler networkScheduler) {
+            mNetworkScheduler = networkScheduler;
             return this;
         }
 
@@ -568,6 +695,9 @@ public class ConacoTask<V> {
             if (mKey == null && mUrl == null && mDataContainer == null) {
                 throw new IllegalStateException("At least one of mKey and mUrl and mDataContainer have to not be null");
             }
+            if (mSprite != null && (mKey == null || mDataContainer != null)) {
+                throw new IllegalStateException("Sprite needs mKey and can't work with mDataContainer");
+            }
         }
 
         public ConacoTask<T> build() {
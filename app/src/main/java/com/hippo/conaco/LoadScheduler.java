@@ -0,0 +1,104 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.conaco;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread pool for load jobs. Higher priority runs first, and in the same
+ * priority the newest job runs first, so the images the user stops on after
+ * a fling are loaded before the ones flung past.
+ */
+class LoadScheduler {
+
+    private final ThreadPoolExecutor mExecutor;
+    private final AtomicLong mSequence = new AtomicLong();
+
+    LoadScheduler(int threadCount, ThreadFactory threadFactory) {
+        mExecutor = new ThreadPoolExecutor(threadCount, threadCount, 5L, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<>(), threadFactory);
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    @NonNull
+    Job execute(@NonNull Runnable command, @Conaco.Priority int priority) {
+        Job job = new Job(command, priority, mSequence.incrementAndGet());
+        mExecutor.execute(job);
+        return job;
+    }
+
+    /**
+     * Move the job if it is still waiting. It becomes the newest one in the new priority.
+     */
+    void setPriority(@NonNull Job job, @Conaco.Priority int priority) {
+        synchronized (job) {
+            if (job.mPriority == priority) {
+                return;
+            }
+            if (mExecutor.remove(job)) {
+                job.mPriority = priority;
+                job.mSequence = mSequence.incrementAndGet();
+                mExecutor.execute(job);
+            } else {
+                // Running or done
+                job.mPriority = priority;
+            }
+        }
+    }
+
+    /**
+     * Drop the job if it is still waiting
+     *
+     * @return {@code true} if it is dropped
+     */
+    boolean cancel(@NonNull Job job) {
+        return mExecutor.remove(job);
+    }
+
+    static final class Job implements Runnable, Comparable<Job> {
+
+        private final Runnable mCommand;
+        // Only changed when it is out of the queue
+        private volatile int mPriority;
+        private volatile long mSequence;
+
+        private Job(Runnable command, int priority, long sequence) {
+            mCommand = command;
+            mPriority = priority;
+            mSequence = sequence;
+        }
+
+        @Override
+        public void run() {
+            mCommand.run();
+        }
+
+        @Override
+        public int compareTo(@NonNull Job other) {
+            if (mPriority != other.mPriority) {
+                return mPriority > other.mPriority ? -1 : 1;
+            }
+            return Long.compare(other.mSequence, mSequence);
+        }
+    }
+}
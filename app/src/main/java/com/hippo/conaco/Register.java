@@ -57,6 +57,10 @@ class Register<V> {
         return mIdMap.indexOfKey(id) >= 0;
     }
 
+    public synchronized ConacoTask<V> getById(int id) {
+        return mIdMap.get(id);
+    }
+
     public synchronized ConacoTask<V> getByKey(String key) {
         if (key == null) {
             return null;
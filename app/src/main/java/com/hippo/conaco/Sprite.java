@@ -0,0 +1,64 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.conaco;
+
+import android.graphics.Rect;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Cells of a sprite sheet. The sheet is decoded once, every cell is
+ * put to memory cache with its own key.
+ */
+public final class Sprite {
+
+    private final String mKey;
+    private final Rect[] mCells;
+    private final String[] mCellKeys;
+
+    /**
+     * @param key the key of the sheet
+     */
+    public Sprite(@NonNull String key, @NonNull Rect[] cells) {
+        mKey = key;
+        mCells = cells;
+        mCellKeys = new String[cells.length];
+        for (int i = 0; i < cells.length; i++) {
+            Rect cell = cells[i];
+            mCellKeys[i] = key + "#" + cell.left + "," + cell.top + "," + cell.width() + "," + cell.height();
+        }
+    }
+
+    @NonNull
+    public String getKey() {
+        return mKey;
+    }
+
+    public int size() {
+        return mCells.length;
+    }
+
+    @NonNull
+    public Rect[] getCells() {
+        return mCells;
+    }
+
+    @NonNull
+    public String getCellKey(int index) {
+        return mCellKeys[index];
+    }
+}
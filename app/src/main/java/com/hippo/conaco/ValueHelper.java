@@ -16,11 +16,15 @@
 
 package com.hippo.conaco;
 
+import android.graphics.Rect;
+
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import com.hippo.streampipe.InputStreamPipe;
 
+import java.util.List;
+
 public interface ValueHelper<V> {
 
     /**
@@ -32,6 +36,36 @@ public interface ValueHelper<V> {
     @Nullable
     V decode(@NonNull InputStreamPipe isPipe);
 
+    /**
+     * Decode object for the {@code InputStreamPipe}, it can be smaller than the
+     * source but not smaller than the target size.
+     *
+     * @param targetWidth  {@code 0} for no limit
+     * @param targetHeight {@code 0} for no limit
+     */
+    @Nullable
+    default V decode(@NonNull InputStreamPipe isPipe, int targetWidth, int targetHeight) {
+        return decode(isPipe);
+    }
+
+    /**
+     * Decode the sprite sheet once and cut it into cells
+     *
+     * @return objects of the cells, {@code null} for not supported or failed
+     */
+    @Nullable
+    default List<V> decodeSprite(@NonNull InputStreamPipe isPipe, @NonNull Rect[] cells) {
+        return null;
+    }
+
+    /**
+     * Check whether the object from memory cache is large enough for the target size,
+     * if not, it is decoded again.
+     */
+    default boolean isLargeEnough(@NonNull V value, int targetWidth, int targetHeight) {
+        return true;
+    }
+
     /**
      * Get the size of the object
      */
@@ -37,6 +37,7 @@ public class AppConfig {
     private static final String DOWNLOAD = "download";
     private static final String TEMP = "temp";
     private static final String ARCHIVER = "archiver";
+    private static final String ARCHIVE_INDEX = "archive_index";
     private static final String IMAGE = "image";
     private static final String PARSE_ERROR = "parse_error";
     private static final String LOGCAT = "logcat";
@@ -148,6 +149,17 @@ public class AppConfig {
         }
     }
 
+    @Nullable
+    public static File getArchiveIndexDir() {
+        File dir = sContext.getCacheDir();
+        File file;
+        if (null != dir && FileUtils.ensureDirectory(file = new File(dir, ARCHIVE_INDEX))) {
+            return file;
+        } else {
+            return null;
+        }
+    }
+
     @Nullable
     public static File createTempFile() {
         return FileUtils.createTempFile(getTempDir(), null);
@@ -25,8 +25,8 @@ import android.content.Intent;
 import android.content.ServiceConnection;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
-import android.os.AsyncTask;
 import android.os.Build;
+import android.os.Bundle;
 import android.os.Debug;
 import android.text.method.LinkMovementMethod;
 import android.util.Log;
@@ -42,16 +42,19 @@ import androidx.collection.LruCache;
 import com.hippo.Native;
 //import com.gu.toolargetool.TooLargeTool;
 import com.hippo.a7zip.A7Zip;
+import com.hippo.beerbelly.MemoryBudget;
 import com.hippo.beerbelly.SimpleDiskCache;
 import com.hippo.conaco.Conaco;
 import com.hippo.content.RecordingApplication;
 import com.hippo.ehviewer.client.BandwidthManager;
+import com.hippo.ehviewer.client.EhAddressStats;
 import com.hippo.ehviewer.client.EhClient;
 import com.hippo.ehviewer.client.EhCookieStore;
 import com.hippo.ehviewer.performance.WebViewPreloader;
 import com.hippo.ehviewer.ui.theme.ThemeManager;
 import com.hippo.ehviewer.client.EhEngine;
 import com.hippo.ehviewer.client.EhHosts;
+import com.hippo.ehviewer.client.GalleryDataCache;
 import com.hippo.ehviewer.client.X5WebViewManager;
 import com.hippo.ehviewer.browser.CompatibleWebViewManager;
 import com.hippo.ehviewer.client.MemoryManager;
@@ -59,6 +62,7 @@ import com.hippo.ehviewer.util.AppOptimizationManager;
 import com.hippo.ehviewer.util.SystemErrorHandler;
 import com.hippo.ehviewer.util.LogMonitor;
 import com.hippo.ehviewer.util.SystemMonitor;
+import com.hippo.ehviewer.util.StartupGraph;
 import com.hippo.ehviewer.util.StartupLogger;
 import com.hippo.ehviewer.util.UserEnvironmentDetector;
 import com.hippo.ehviewer.SystemCompatibilityManager;
@@ -67,6 +71,7 @@ import com.hippo.ehviewer.client.data.GalleryDetail;
 import com.hippo.ehviewer.client.data.userTag.UserTagList;
 import com.hippo.ehviewer.download.DownloadManager;
 import com.hippo.ehviewer.spider.SpiderDen;
+import com.hippo.ehviewer.spider.SpiderInfoStore;
 import com.hippo.ehviewer.ui.CommonOperations;
 import com.hippo.lib.image.Image;
 import com.hippo.network.EhSSLSocketFactory;
@@ -78,7 +83,6 @@ import com.hippo.unifile.UniFile;
 import com.hippo.util.AppHelper;
 import com.hippo.util.BitmapUtils;
 import com.hippo.util.ExceptionUtils;
-import com.hippo.util.IoThreadPoolExecutor;
 import com.hippo.util.ReadableTime;
 import com.hippo.lib.yorozuya.FileUtils;
 import com.hippo.lib.yorozuya.IntIdGenerator;
@@ -218,173 +222,149 @@ public class EhApplication extends RecordingApplication {
 
         startupLogger.logStartupStep("Initialization", "Starting core components initialization");
 
-        long initStartTime = System.currentTimeMillis();
-        GetText.initialize(this);
-        startupLogger.logStartupStep("GetText", "Initialized in " + (System.currentTimeMillis() - initStartTime) + "ms");
-
-        StatusCodeException.initialize(this);
-        startupLogger.logStartupStep("StatusCodeException", "Initialized");
-
-        Settings.initialize(this);
-        startupLogger.logStartupStep("Settings", "Initialized");
-
-        ReadableTime.initialize(this);
-        startupLogger.logStartupStep("ReadableTime", "Initialized");
-
-        Html.initialize(this);
-        startupLogger.logStartupStep("Html", "Initialized");
-
-        AppConfig.initialize(this);
-        startupLogger.logStartupStep("AppConfig", "Initialized");
-
-        SpiderDen.initialize(this);
-        startupLogger.logStartupStep("SpiderDen", "Initialized");
-
-        EhDB.initialize(this);
-        startupLogger.logStartupStep("EhDB", "Initialized");
-
-        EhEngine.initialize();
-        startupLogger.logStartupStep("EhEngine", "Initialized");
-
-        BitmapUtils.initialize(this);
-        startupLogger.logStartupStep("BitmapUtils", "Initialized");
-
-        Image.initialize(this);
-        startupLogger.logStartupStep("Image", "Initialized");
-
-        Native.initialize();
-        startupLogger.logStartupStep("Native", "Initialized");
-
-        // 初始化兼容性优先的WebView管理器 - 修复视频播放问题
-        CompatibleWebViewManager.getInstance().initX5(this);
-
-        // 初始化内存管理器
-        MemoryManager.getInstance(this);
-
-        // 初始化系统兼容性管理器
-        SystemCompatibilityManager.getInstance().initialize(this);
-
-        // 处理Google Play服务兼容性
-        handleGooglePlayServicesCompatibility();
-
-        // 处理系统服务兼容性
-        handleSystemServiceCompatibility();
-        
-        // 初始化应用优化管理器
-        AppOptimizationManager.getInstance(this).initializeOnAppCreate(this);
-
-        // 初始化系统错误处理器
-        SystemErrorHandler.getInstance(this);
-
-        // 初始化系统监控器
-        SystemMonitor.getInstance(this).startMonitoring();
-
-        // 启动日志监控器
-        LogMonitor.getInstance(this).startMonitoring();
-
-        // 实际作用不确定，但是与64位应用有冲突
-//        A7Zip.loadLibrary(A7ZipExtractLite.LIBRARY, libname -> ReLinker.loadLibrary(EhApplication.this, libname));
-        // 64位适配
-        startupLogger.logStartupStep("A7Zip", "Initializing A7Zip library");
-        A7Zip.initialize(this);
-
-        if (EhDB.needMerge()) {
-            startupLogger.logStartupStep("EhDB", "Merging old database");
-            EhDB.mergeOldDB(this);
-        }
-
-        if (Settings.getEnableAnalytics()) {
-            startupLogger.logStartupStep("Analytics", "Starting analytics");
-            Analytics.start(this);
-        }
-
-        // 初始化渠道统计SDK
-        startupLogger.logStartupStep("ChannelTracker", "Initializing channel tracker");
-        try {
-            ChannelTracker.initialize(this, BuildConfig.CHANNEL_CODE);
-        } catch (Exception e) {
-            startupLogger.logWarning("Failed to initialize ChannelTracker", e);
-            Log.w(TAG, "Failed to initialize ChannelTracker", e);
-        }
-
-        // Do io tasks in new thread
-        startupLogger.logStartupStep("IOTasks", "Starting background I/O tasks");
-        new AsyncTask<Void, Void, Void>() {
-            @Override
-            protected Void doInBackground(Void... voids) {
+        // 启动任务依赖图，互不依赖的任务并行运行，非关键任务推迟到首帧之后
+        new StartupGraph(startupLogger)
+                .add("GetText", StartupGraph.MAIN, () -> GetText.initialize(this))
+                .add("StatusCodeException", StartupGraph.MAIN, () -> StatusCodeException.initialize(this))
+                .add("Settings", StartupGraph.MAIN, () -> Settings.initialize(this))
+                .add("ReadableTime", StartupGraph.MAIN, () -> ReadableTime.initialize(this))
+                .add("Html", StartupGraph.MAIN, () -> Html.initialize(this))
+                .add("AppConfig", StartupGraph.MAIN, () -> AppConfig.initialize(this))
+                .add("SpiderDen", StartupGraph.BACKGROUND, () -> SpiderDen.initialize(this), "Settings")
+                .add("SpiderInfoStore", StartupGraph.BACKGROUND, () -> SpiderInfoStore.initialize(this))
+                .add("GalleryDataCache", StartupGraph.BACKGROUND, () -> GalleryDataCache.initialize(this))
+                .add("EhDB", StartupGraph.BACKGROUND, () -> EhDB.initialize(this), "Settings")
+                .add("EhDBMerge", StartupGraph.BACKGROUND, () -> {
+                    if (EhDB.needMerge()) {
+                        EhDB.mergeOldDB(this);
+                    }
+                }, "EhDB")
+                .add("EhEngine", StartupGraph.BACKGROUND, EhEngine::initialize, "EhDBMerge")
+                .add("BitmapUtils", StartupGraph.MAIN, () -> BitmapUtils.initialize(this))
+                .add("Image", StartupGraph.BACKGROUND, () -> Image.initialize(this))
+                .add("Native", StartupGraph.BACKGROUND, Native::initialize)
+                // 实际作用不确定，但是与64位应用有冲突
+//                A7Zip.loadLibrary(A7ZipExtractLite.LIBRARY, libname -> ReLinker.loadLibrary(EhApplication.this, libname));
+                // 64位适配
+                .add("A7Zip", StartupGraph.BACKGROUND, () -> A7Zip.initialize(this))
+                // 初始化内存管理器
+                .add("MemoryManager", StartupGraph.MAIN, () -> MemoryManager.getInstance(this), "Settings")
+                // 初始化系统兼容性管理器
+                .add("SystemCompatibilityManager", StartupGraph.MAIN,
+                        () -> SystemCompatibilityManager.getInstance().initialize(this))
+                // 处理系统服务兼容性
+                .add("SystemServiceCompatibility", StartupGraph.MAIN, this::handleSystemServiceCompatibility)
+                // 初始化应用优化管理器
+                .add("AppOptimizationManager", StartupGraph.MAIN,
+                        () -> AppOptimizationManager.getInstance(this).initializeOnAppCreate(this), "Settings")
+                // 初始化系统错误处理器
+                .add("SystemErrorHandler", StartupGraph.MAIN, () -> SystemErrorHandler.getInstance(this))
+                // Check app update, update version code
+                .add("VersionUpdate", StartupGraph.MAIN, () -> {
+                    update();
+                    try {
+                        PackageInfo pi = getPackageManager().getPackageInfo(getPackageName(), 0);
+                        Settings.putVersionCode(pi.versionCode);
+                    } catch (PackageManager.NameNotFoundException e) {
+                        startupLogger.logWarning("Failed to get package info", e);
+                    }
+                    mIdGenerator.setNextId(Settings.getInt(KEY_GLOBAL_STUFF_NEXT_ID, 0));
+                }, "Settings")
+                // 主题系统初始化 - 必须在WebView之前初始化
+                .add("ThemeManager", StartupGraph.MAIN, this::initializeThemeManager, "Settings")
+                // 应用SpiderQueen增强配置，优化现有图片加载系统
+                .add("SpiderQueenEnhancer", StartupGraph.MAIN, () -> {
+                    try {
+                        com.hippo.ehviewer.spider.SpiderQueenEnhancer.applyEnhancedSettings(this);
+                        Log.d(TAG, "SpiderQueen enhanced settings applied successfully");
+                    } catch (Exception e) {
+                        Log.w(TAG, "Failed to apply SpiderQueen enhanced settings", e);
+                    }
+                }, "Settings")
+                // 初始化兼容性优先的WebView管理器 - 修复视频播放问题
+                .add("X5", StartupGraph.DEFERRED_MAIN,
+                        () -> CompatibleWebViewManager.getInstance().initX5(this), "ThemeManager")
+                // WebView预加载 - 显著提升浏览器启动性能
+                .add("WebViewPreload", StartupGraph.DEFERRED_MAIN, this::initializeWebViewPreload, "X5")
+                // 处理Google Play服务兼容性
+                .add("GooglePlayServicesCompatibility", StartupGraph.DEFERRED_BACKGROUND,
+                        this::handleGooglePlayServicesCompatibility, "Settings")
+                // 初始化系统监控器
+                .add("SystemMonitor", StartupGraph.DEFERRED_MAIN,
+                        () -> SystemMonitor.getInstance(this).startMonitoring())
+                // 启动日志监控器
+                .add("LogMonitor", StartupGraph.DEFERRED_MAIN,
+                        () -> LogMonitor.getInstance(this).startMonitoring())
+                .add("Analytics", StartupGraph.DEFERRED_MAIN, () -> {
+                    if (Settings.getEnableAnalytics()) {
+                        Analytics.start(this);
+                    }
+                }, "Settings")
+                // 初始化渠道统计SDK
+                .add("ChannelTracker", StartupGraph.DEFERRED_MAIN, () -> {
+                    try {
+                        ChannelTracker.initialize(this, BuildConfig.CHANNEL_CODE);
+                    } catch (Exception e) {
+                        startupLogger.logWarning("Failed to initialize ChannelTracker", e);
+                        Log.w(TAG, "Failed to initialize ChannelTracker", e);
+                    }
+                }, "Settings")
                 // Check no media file
-                try {
+                .add("MediaScan", StartupGraph.DEFERRED_BACKGROUND, () -> {
                     UniFile downloadLocation = Settings.getDownloadLocation();
                     if (Settings.getMediaScan()) {
                         CommonOperations.removeNoMediaFile(downloadLocation);
                     } else {
                         CommonOperations.ensureNoMediaFile(downloadLocation);
                     }
-                    startupLogger.logStartupStep("MediaScan", "Media scan configuration applied");
-                } catch (Throwable t) {
-                    startupLogger.logError("Media scan configuration failed", t);
-                    ExceptionUtils.throwIfFatal(t);
-                }
-
+                }, "Settings")
                 // Clear temp files
-                try {
-                    clearTempDir();
-                    startupLogger.logStartupStep("TempCleanup", "Temporary files cleared");
-                } catch (Throwable t) {
-                    startupLogger.logError("Temp cleanup failed", t);
-                    ExceptionUtils.throwIfFatal(t);
-                }
-
-                return null;
-            }
-        }.executeOnExecutor(IoThreadPoolExecutor.getInstance());
-
-        // Check app update
-        startupLogger.logStartupStep("UpdateCheck", "Checking for updates");
-        update();
-
-        // Update version code
-        startupLogger.logStartupStep("VersionUpdate", "Updating version code");
-        try {
-            PackageInfo pi = getPackageManager().getPackageInfo(getPackageName(), 0);
-            Settings.putVersionCode(pi.versionCode);
-        } catch (PackageManager.NameNotFoundException e) {
-            startupLogger.logWarning("Failed to get package info", e);
-        }
-
-        mIdGenerator.setNextId(Settings.getInt(KEY_GLOBAL_STUFF_NEXT_ID, 0));
+                .add("TempCleanup", StartupGraph.DEFERRED_BACKGROUND, this::clearTempDir, "AppConfig")
+                .add("GalleryDataTrim", StartupGraph.DEFERRED_BACKGROUND, GalleryDataCache::trim, "GalleryDataCache")
+                // 初始化用户环境检测
+                .add("UserEnvironment", StartupGraph.DEFERRED_MAIN, this::initializeUserEnvironmentDetection)
+                // 验证关键资源
+                .add("ResourceValidation", StartupGraph.DEFERRED_MAIN, this::validateCriticalResources)
+                .start();
 
         if (DEBUG_PRINT_NATIVE_MEMORY || DEBUG_PRINT_IMAGE_COUNT) {
             debugPrint();
         }
 
-        // 初始化用户环境检测
-        startupLogger.logStartupStep("UserEnvironment", "Initializing user environment detection");
-        initializeUserEnvironmentDetection();
+        // 再次确保系统属性设置（以防被覆盖）
+        ensureSystemProperties();
+
+        // 界面可见时恢复图片内存缓存的预算
+        registerActivityLifecycleCallbacks(new ActivityLifecycleCallbacks() {
+            @Override
+            public void onActivityCreated(@NonNull Activity activity, @Nullable Bundle savedInstanceState) {
+            }
 
-        // 主题系统初始化 - 必须在WebView之前初始化
-        startupLogger.logStartupStep("ThemeManager", "Initializing theme management system");
-        initializeThemeManager();
-        
-        // WebView预加载 - 显著提升浏览器启动性能
-        startupLogger.logStartupStep("WebViewPreload", "Starting WebView preload process");
-        initializeWebViewPreload();
+            @Override
+            public void onActivityStarted(@NonNull Activity activity) {
+                MemoryBudget.getInstance().onUiShown();
+            }
 
-        // 验证关键资源
-        startupLogger.logStartupStep("ResourceValidation", "Validating critical resources");
-        validateCriticalResources();
+            @Override
+            public void onActivityResumed(@NonNull Activity activity) {
+            }
 
-        // 再次确保系统属性设置（以防被覆盖）
-        ensureSystemProperties();
+            @Override
+            public void onActivityPaused(@NonNull Activity activity) {
+            }
 
-        // 应用SpiderQueen增强配置，优化现有图片加载系统
-        startupLogger.logStartupStep("SpiderQueenEnhancer", "Applying enhanced settings for image loading");
-        try {
-            com.hippo.ehviewer.spider.SpiderQueenEnhancer.applyEnhancedSettings(this);
-            Log.d(TAG, "SpiderQueen enhanced settings applied successfully");
-        } catch (Exception e) {
-            Log.w(TAG, "Failed to apply SpiderQueen enhanced settings", e);
-        }
+            @Override
+            public void onActivityStopped(@NonNull Activity activity) {
+            }
+
+            @Override
+            public void onActivitySaveInstanceState(@NonNull Activity activity, @NonNull Bundle outState) {
+            }
+
+            @Override
+            public void onActivityDestroyed(@NonNull Activity activity) {
+            }
+        });
 
         initialized = true;
 
@@ -517,8 +497,12 @@ public class EhApplication extends RecordingApplication {
     public void onTrimMemory(int level) {
         super.onTrimMemory(level);
 
-        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
-            clearMemoryCache();
+        // 进入后台或内存紧张时尽快写入数据库，防止进程被杀后丢失
+        EhDB.flushPendingWrites();
+        // 图片内存缓存统一由 MemoryBudget 收缩
+        MemoryBudget.getInstance().onTrimMemory(level);
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW && null != mGalleryDetailCache) {
+            mGalleryDetailCache.evictAll();
         }
     }
 
@@ -629,6 +613,7 @@ public class EhApplication extends RecordingApplication {
                     .dispatcher(dispatcher)
                     .connectionPool(connectionPool)
                     .dns(new EhHosts(application))
+                    .eventListenerFactory(new EhAddressStats.Factory())
                     // Keep-Alive优化
                     .pingInterval(30, TimeUnit.SECONDS)  // 定期ping保持连接
                     .addNetworkInterceptor(sprocket -> {
@@ -711,6 +696,7 @@ public class EhApplication extends RecordingApplication {
                     .cache(getOkHttpCache(application))
 //                    .hostnameVerifier((hostname, session) -> true)
                     .dns(new EhHosts(application))
+                    .eventListenerFactory(new EhAddressStats.Factory())
                     .addNetworkInterceptor(sprocket -> {
                         try {
                             return sprocket.proceed(sprocket.request());
@@ -822,6 +808,10 @@ public class EhApplication extends RecordingApplication {
             builder.objectHelper = getImageBitmapHelper(context);
             builder.debug = DEBUG_CONACO;
             application.mConaco = builder.build();
+            android.util.LruCache<?, ?> memoryCache = application.mConaco.getBeerBelly().getMemoryCache();
+            if (memoryCache != null) {
+                MemoryBudget.getInstance().register("Conaco", memoryCache, builder.memoryCacheMaxSize / 4);
+            }
         }
         return application.mConaco;
     }
@@ -73,6 +73,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 
@@ -83,6 +84,7 @@ public class EhDB {
     public static int MAX_HISTORY_COUNT = 100;
 
     private static DaoSession sDaoSession;
+    private static EhDBWriter sWriter;
 
     private static boolean sHasOldDB;
     private static boolean sNewDB;
@@ -165,6 +167,8 @@ public class EhDB {
                         "\"RECLASS\" TEXT," + // 13: reclass
                         "\"CREATE_TIME\" INTEGER," + // 14: create_time
                         "\"UPDATE_TIME\" INTEGER);"); // 15: update_time
+            case 6: // 6 to 7, add PRIORITY column to DOWNLOADS
+                db.execSQL("ALTER TABLE \"DOWNLOADS\" ADD COLUMN \"PRIORITY\" INTEGER NOT NULL DEFAULT 1");
         }
     }
 
@@ -199,12 +203,22 @@ public class EhDB {
                 context.getApplicationContext(), "eh.db", null);
 
         SQLiteDatabase db = helper.getWritableDatabase();
+        // Let reads run while EhDBWriter commits a batch
+        db.enableWriteAheadLogging();
         DaoMaster daoMaster = new DaoMaster(db);
 
         sDaoSession = daoMaster.newSession();
+        sWriter = new EhDBWriter(sDaoSession);
         MAX_HISTORY_COUNT = Settings.getHistoryInfoSize();
     }
 
+    /**
+     * Commit queued writes soon, the process may be killed after it.
+     */
+    public static void flushPendingWrites() {
+        sWriter.flushAsync();
+    }
+
     public static boolean needMerge() {
         return sNewDB && sHasOldDB;
     }
@@ -395,6 +409,7 @@ public class EhDB {
     }
 
     public static synchronized List<DownloadInfo> getAllDownloadInfo() {
+        sWriter.flush();
         DownloadsDao dao = sDaoSession.getDownloadsDao();
         List<DownloadInfo> list = dao.queryBuilder().orderDesc(DownloadsDao.Properties.Time).list();
         // Fix state
@@ -406,20 +421,29 @@ public class EhDB {
         return list;
     }
 
-    // Insert or update
-    public static synchronized void putDownloadInfo(DownloadInfo downloadInfo) {
-        DownloadsDao dao = sDaoSession.getDownloadsDao();
-        if (null != dao.load(downloadInfo.gid)) {
-            // Update
-            dao.update(downloadInfo);
-        } else {
-            // Insert
-            dao.insert(downloadInfo);
+    // Insert or update, committed later on DB thread
+    public static void putDownloadInfo(DownloadInfo downloadInfo) {
+        // The info is changed by DownloadManager while the write is queued, write the values now
+        DownloadInfo info = copyDownloadInfo(downloadInfo);
+        sWriter.enqueue("download:" + info.gid,
+                () -> sDaoSession.getDownloadsDao().insertOrReplace(info));
+    }
+
+    private static DownloadInfo copyDownloadInfo(DownloadInfo info) {
+        return new DownloadInfo(info.gid, info.token, info.title, info.titleJpn, info.thumb,
+                info.category, info.posted, info.uploader, info.rating, info.simpleLanguage,
+                info.state, info.legacy, info.time, info.label, info.priority);
+    }
+
+    public static void putDownloadInfo(List<DownloadInfo> downloadInfoList) {
+        for (DownloadInfo info : downloadInfoList) {
+            putDownloadInfo(info);
         }
     }
 
-    public static synchronized void removeDownloadInfo(long gid) {
-        sDaoSession.getDownloadsDao().deleteByKey(gid);
+    public static void removeDownloadInfo(long gid) {
+        sWriter.enqueue("download:" + gid,
+                () -> sDaoSession.getDownloadsDao().deleteByKey(gid));
     }
 
     @Nullable
@@ -545,6 +569,7 @@ public class EhDB {
     }
 
     public static synchronized List<GalleryInfo> getAllLocalFavorites() {
+        sWriter.flush();
         LocalFavoritesDao dao = sDaoSession.getLocalFavoritesDao();
         List<LocalFavoriteInfo> list = dao.queryBuilder().orderDesc(LocalFavoritesDao.Properties.Time).list();
         List<GalleryInfo> result = new ArrayList<>();
@@ -554,6 +579,7 @@ public class EhDB {
 
     public static synchronized List<GalleryInfo> searchLocalFavorites(String query) {
         query = SqlUtils.sqlEscapeString("%" + query + "%");
+        sWriter.flush();
         LocalFavoritesDao dao = sDaoSession.getLocalFavoritesDao();
         List<LocalFavoriteInfo> list = dao.queryBuilder().orderDesc(LocalFavoritesDao.Properties.Time)
                 .where(LocalFavoritesDao.Properties.Title.like(query)).list();
@@ -562,43 +588,47 @@ public class EhDB {
 
     public static synchronized GalleryInfo searchLocalFavorites(long query) {
         //        query = SqlUtils.sqlEscapeString("%" + query+ "%");
+        sWriter.flush();
         LocalFavoritesDao dao = sDaoSession.getLocalFavoritesDao();
         List<LocalFavoriteInfo> list = dao.queryBuilder().orderDesc(LocalFavoritesDao.Properties.Time)
                 .where(LocalFavoritesDao.Properties.Gid.eq(query)).list();
         return list.get(0);
     }
 
-    public static synchronized void removeLocalFavorites(long gid) {
-        sDaoSession.getLocalFavoritesDao().deleteByKey(gid);
+    public static void removeLocalFavorites(long gid) {
+        sWriter.enqueue("favorite:" + gid,
+                () -> sDaoSession.getLocalFavoritesDao().deleteByKey(gid));
     }
 
-    public static synchronized void removeLocalFavorites(long[] gidArray) {
-        LocalFavoritesDao dao = sDaoSession.getLocalFavoritesDao();
+    public static void removeLocalFavorites(long[] gidArray) {
         for (long gid : gidArray) {
-            dao.deleteByKey(gid);
+            removeLocalFavorites(gid);
         }
     }
 
     public static synchronized boolean containLocalFavorites(long gid) {
+        sWriter.flush();
         LocalFavoritesDao dao = sDaoSession.getLocalFavoritesDao();
         return null != dao.load(gid);
     }
 
-    public static synchronized void putLocalFavorite(GalleryInfo galleryInfo) {
-        LocalFavoritesDao dao = sDaoSession.getLocalFavoritesDao();
-        if (null == dao.load(galleryInfo.gid)) {
-            LocalFavoriteInfo info;
-            if (galleryInfo instanceof LocalFavoriteInfo) {
-                info = (LocalFavoriteInfo) galleryInfo;
-            } else {
-                info = new LocalFavoriteInfo(galleryInfo);
-                info.time = System.currentTimeMillis();
-            }
-            dao.insert(info);
+    public static void putLocalFavorite(GalleryInfo galleryInfo) {
+        // Always a copy, the caller may change it while the write is queued
+        LocalFavoriteInfo info = new LocalFavoriteInfo(galleryInfo);
+        if (galleryInfo instanceof LocalFavoriteInfo) {
+            info.time = ((LocalFavoriteInfo) galleryInfo).time;
+        } else {
+            info.time = System.currentTimeMillis();
         }
+        sWriter.enqueue("favorite:" + info.gid, () -> {
+            LocalFavoritesDao dao = sDaoSession.getLocalFavoritesDao();
+            if (null == dao.load(info.gid)) {
+                dao.insert(info);
+            }
+        });
     }
 
-    public static synchronized void putLocalFavorites(List<GalleryInfo> galleryInfoList) {
+    public static void putLocalFavorites(List<GalleryInfo> galleryInfoList) {
         for (GalleryInfo gi : galleryInfoList) {
             putLocalFavorite(gi);
         }
@@ -665,6 +695,14 @@ public class EhDB {
         return list.get(0);
     }
 
+    /**
+     * @param gids no more than 999, the limit of SQLite variables
+     */
+    public static synchronized List<GalleryTags> queryGalleryTags(Collection<Long> gids) {
+        GalleryTagsDao dao = sDaoSession.getGalleryTagsDao();
+        return dao.queryBuilder().where(GalleryTagsDao.Properties.Gid.in(gids)).list();
+    }
+
     public static synchronized void insertGalleryTags(GalleryTags galleryTags) {
         GalleryTagsDao dao = sDaoSession.getGalleryTagsDao();
         galleryTags.create_time = new Date();
@@ -764,52 +802,59 @@ public class EhDB {
     }
 
     public static synchronized LazyList<HistoryInfo> getHistoryLazyList() {
+        sWriter.flush();
         return sDaoSession.getHistoryDao().queryBuilder().orderDesc(HistoryDao.Properties.Time).listLazy();
     }
 
-    public static synchronized void putHistoryInfo(GalleryInfo galleryInfo) {
-        HistoryDao dao = sDaoSession.getHistoryDao();
-        HistoryInfo info = dao.load(galleryInfo.gid);
-        if (null != info) {
-            // Update time
-            info.time = System.currentTimeMillis();
-            dao.update(info);
-        } else {
-            // New history
-            info = new HistoryInfo(galleryInfo);
-            info.time = System.currentTimeMillis();
-            dao.insert(info);
-            List<HistoryInfo> list;
-            if (MAX_HISTORY_COUNT < 1) {
-                list = dao.queryBuilder().orderDesc(HistoryDao.Properties.Time)
-                        .limit(-1).offset(100).list();
+    public static void putHistoryInfo(GalleryInfo galleryInfo) {
+        HistoryInfo newInfo = new HistoryInfo(galleryInfo);
+        long time = System.currentTimeMillis();
+        sWriter.enqueue("history:" + newInfo.gid, () -> {
+            HistoryDao dao = sDaoSession.getHistoryDao();
+            HistoryInfo info = dao.load(newInfo.gid);
+            if (null != info) {
+                // Update time
+                info.time = time;
+                dao.update(info);
             } else {
-                list = dao.queryBuilder().orderDesc(HistoryDao.Properties.Time)
-                        .limit(-1).offset(MAX_HISTORY_COUNT).list();
+                // New history
+                newInfo.time = time;
+                dao.insert(newInfo);
             }
-            dao.deleteInTx(list);
-        }
+        });
+        // Trim once after all queued history
+        sWriter.enqueue("history:trim", EhDB::trimHistoryInfo);
     }
 
     public static synchronized void putHistoryInfo(List<HistoryInfo> historyInfoList) {
-        HistoryDao dao = sDaoSession.getHistoryDao();
-        for (HistoryInfo info : historyInfoList) {
-            if (null == dao.load(info.gid)) {
-                dao.insert(info);
+        sWriter.flush();
+        sDaoSession.runInTx(() -> {
+            HistoryDao dao = sDaoSession.getHistoryDao();
+            for (HistoryInfo info : historyInfoList) {
+                if (null == dao.load(info.gid)) {
+                    dao.insert(info);
+                }
             }
-        }
+            trimHistoryInfo();
+        });
+    }
 
+    private static void trimHistoryInfo() {
+        HistoryDao dao = sDaoSession.getHistoryDao();
+        int maxCount = MAX_HISTORY_COUNT < 1 ? 100 : MAX_HISTORY_COUNT;
         List<HistoryInfo> list = dao.queryBuilder().orderDesc(HistoryDao.Properties.Time)
-                .limit(-1).offset(MAX_HISTORY_COUNT).list();
+                .limit(-1).offset(maxCount).list();
         dao.deleteInTx(list);
     }
 
     public static synchronized void deleteHistoryInfo(HistoryInfo info) {
+        sWriter.flush();
         HistoryDao dao = sDaoSession.getHistoryDao();
         dao.delete(info);
     }
 
     public static synchronized void clearHistoryInfo() {
+        sWriter.flush();
         HistoryDao dao = sDaoSession.getHistoryDao();
         dao.deleteAll();
     }
@@ -846,6 +891,8 @@ public class EhDB {
     public static synchronized boolean exportDB(Context context, File file) {
         final String ehExportName = "eh.export.db";
 
+        sWriter.flush();
+
         // Delete old export db
         context.deleteDatabase(ehExportName);
 
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer;
+
+import android.os.Process;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.firebase.crashlytics.FirebaseCrashlytics;
+import com.hippo.ehviewer.dao.DaoSession;
+import com.hippo.lib.yorozuya.thread.PriorityThreadFactory;
+import com.hippo.util.ExceptionUtils;
+
+import java.util.LinkedHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-behind queue of {@link EhDB}.
+ * <p>
+ * Writes are keyed, a later write replaces the pending one with the same key.
+ * Pending writes are committed in one transaction on the DB thread, or on the
+ * caller thread by {@link #flush()} before a read or a write that isn't queued.
+ * A batch is committed without the lock of EhDB, so reads which don't need the
+ * pending writes aren't blocked by it.
+ */
+final class EhDBWriter {
+
+    private static final String TAG = EhDBWriter.class.getSimpleName();
+
+    // Wait a little to collect a burst of writes into one transaction
+    private static final long COMMIT_DELAY = 100;
+
+    private final DaoSession mSession;
+    // Held while a batch is taken and committed
+    private final Object mCommitLock = new Object();
+    private final ScheduledThreadPoolExecutor mExecutor = new ScheduledThreadPoolExecutor(1,
+            new PriorityThreadFactory(TAG, Process.THREAD_PRIORITY_BACKGROUND));
+
+    private final Object mLock = new Object();
+    private LinkedHashMap<String, Runnable> mPending = new LinkedHashMap<>();
+    private boolean mScheduled;
+
+    EhDBWriter(@NonNull DaoSession session) {
+        mSession = session;
+    }
+
+    /**
+     * Queue the write, it runs after all pending writes with other keys.
+     */
+    void enqueue(@NonNull String key, @NonNull Runnable write) {
+        synchronized (mLock) {
+            mPending.remove(key);
+            mPending.put(key, write);
+            if (!mScheduled) {
+                mScheduled = true;
+                mExecutor.schedule(this::flush, COMMIT_DELAY, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Commit all pending writes on the DB thread without waiting for the delay.
+     */
+    void flushAsync() {
+        mExecutor.execute(this::flush);
+    }
+
+    /**
+     * Commit all pending writes now.
+     * <p>
+     * Writes only touch the DB, the values are copied when they are queued, and they
+     * mustn't take the lock of EhDB. The pending writes are taken in the commit lock,
+     * so a read which flushes first waits for a batch which is taken but not committed yet.
+     */
+    void flush() {
+        int count;
+        Throwable error;
+        synchronized (mCommitLock) {
+            LinkedHashMap<String, Runnable> pending;
+            synchronized (mLock) {
+                mScheduled = false;
+                if (mPending.isEmpty()) {
+                    return;
+                }
+                pending = mPending;
+                mPending = new LinkedHashMap<>();
+            }
+            count = pending.size();
+            error = commit(pending);
+        }
+
+        if (error != null) {
+            Log.e(TAG, "Can't commit " + count + " writes", error);
+            FirebaseCrashlytics.getInstance().recordException(error);
+        }
+    }
+
+    // Call it in the commit lock
+    @Nullable
+    private Throwable commit(LinkedHashMap<String, Runnable> pending) {
+        try {
+            mSession.runInTx(() -> {
+                for (Runnable write : pending.values()) {
+                    // A failed write doesn't roll back others
+                    try {
+                        write.run();
+                    } catch (Throwable e) {
+                        ExceptionUtils.throwIfFatal(e);
+                        Log.e(TAG, "Write failed", e);
+                    }
+                }
+            });
+            return null;
+        } catch (Throwable e) {
+            ExceptionUtils.throwIfFatal(e);
+            return e;
+        }
+    }
+}
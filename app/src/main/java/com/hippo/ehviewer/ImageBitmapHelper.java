@@ -16,6 +16,8 @@
 
 package com.hippo.ehviewer;
 
+import android.graphics.Rect;
+
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import com.hippo.conaco.ValueHelper;
@@ -24,6 +26,7 @@ import com.hippo.streampipe.InputStreamPipe;
 
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.util.List;
 
 public class ImageBitmapHelper implements ValueHelper<Image> {
 
@@ -61,6 +64,51 @@ public class ImageBitmapHelper implements ValueHelper<Image> {
         }
     }
 
+    @Nullable
+    @Override
+    public Image decode(@NonNull InputStreamPipe isPipe, int targetWidth, int targetHeight) {
+        try {
+            isPipe.obtain();
+            FileInputStream is = (FileInputStream) isPipe.open();
+            return Image.decode(is, true, targetWidth, targetHeight);
+        } catch (OutOfMemoryError e) {
+            return null;
+        } catch (IOException e) {
+            return null;
+        } finally {
+            isPipe.close();
+            isPipe.release();
+        }
+    }
+
+    @Nullable
+    @Override
+    public List<Image> decodeSprite(@NonNull InputStreamPipe isPipe, @NonNull Rect[] cells) {
+        try {
+            isPipe.obtain();
+            FileInputStream is = (FileInputStream) isPipe.open();
+            return Image.decodeSprite(is, cells);
+        } catch (OutOfMemoryError e) {
+            return null;
+        } catch (IOException e) {
+            return null;
+        } finally {
+            isPipe.close();
+            isPipe.release();
+        }
+    }
+
+    @Override
+    public boolean isLargeEnough(@NonNull Image value, int targetWidth, int targetHeight) {
+        return isLargeEnough(value.getSampleSize(), value.getWidth(), value.getHeight(),
+                targetWidth, targetHeight);
+    }
+
+    static boolean isLargeEnough(int sampleSize, int width, int height, int targetWidth, int targetHeight) {
+        // 采样过的图片比目标小就重新解码
+        return sampleSize <= 1 || (width >= targetWidth && height >= targetHeight);
+    }
+
     @Override
     public int sizeOf(@NonNull String key, @NonNull Image value) {
         return value.getWidth() * value.getHeight() * 4 /* value.getByteCount() TODO Update Image */;
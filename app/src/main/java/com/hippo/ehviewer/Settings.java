@@ -780,6 +780,28 @@ public class Settings {
         putIntToStr(KEY_MULTI_THREAD_DOWNLOAD, value);
     }
 
+    private static final String KEY_CONCURRENT_DOWNLOAD = "download_concurrent_gallery";
+    private static final int DEFAULT_CONCURRENT_DOWNLOAD = 2;
+
+    public static int getConcurrentDownload() {
+        return getIntFromStr(KEY_CONCURRENT_DOWNLOAD, DEFAULT_CONCURRENT_DOWNLOAD);
+    }
+
+    public static void putConcurrentDownload(int value) {
+        putIntToStr(KEY_CONCURRENT_DOWNLOAD, value);
+    }
+
+    private static final String KEY_DOWNLOAD_WORKER_BUDGET = "download_worker_budget";
+    private static final int DEFAULT_DOWNLOAD_WORKER_BUDGET = 6;
+
+    public static int getDownloadWorkerBudget() {
+        return getIntFromStr(KEY_DOWNLOAD_WORKER_BUDGET, DEFAULT_DOWNLOAD_WORKER_BUDGET);
+    }
+
+    public static void putDownloadWorkerBudget(int value) {
+        putIntToStr(KEY_DOWNLOAD_WORKER_BUDGET, value);
+    }
+
     private static final String KEY_PRELOAD_IMAGE = "preload_image";
     private static final int DEFAULT_PRELOAD_IMAGE = 5;
 
@@ -10,6 +10,8 @@ import android.util.LruCache;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import com.hippo.beerbelly.MemoryBudget;
+
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.List;
@@ -91,6 +93,8 @@ public class MemoryOptimizer {
                 }
             }
         };
+        // 上限由 MemoryBudget 统一分配
+        MemoryBudget.getInstance().register("MemoryOptimizer", mBitmapCache, cacheSize / 8);
         
         // 启动内存监控
         startMemoryMonitoring();
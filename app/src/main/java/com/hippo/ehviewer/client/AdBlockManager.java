@@ -23,7 +23,19 @@ import android.webkit.WebResourceResponse;
 import android.webkit.WebView;
 import android.webkit.WebViewClient;
 import androidx.annotation.Nullable;
+import com.hippo.lib.yorozuya.IOUtils;
+import com.hippo.util.IoThreadPoolExecutor;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -290,9 +302,26 @@ public class AdBlockManager {
             "e-planning."
     ));
 
+    // 常见的广告文件路径模式
+    private static final String[] AD_FILE_PATTERNS = {
+            "/ads/",
+            "banner",
+            "popup",
+            "interstitial",
+            "advertisement"
+    };
+
+    // ABP格式的过滤列表放在此目录下，*.txt
+    private static final String FILTER_LIST_DIR = "adblock";
+    private static final String SNAPSHOT_FILENAME = "adblock.snapshot";
+
     private static AdBlockManager sInstance;
     private boolean mAdBlockEnabled = true; // 默认启用广告屏蔽功能
     private Context mContext;
+    // 编译后的过滤规则，规则变化时整体替换
+    private volatile AdFilterEngine mFilterEngine;
+    // 后台加载依次进行，最后一次加载使用最新的规则
+    private final Object mFilterEngineLock = new Object();
     
     // 元素屏蔽相关
     private Map<String, Set<String>> mBlockedElements = new HashMap<>(); // domain -> set of CSS selectors
@@ -301,12 +330,18 @@ public class AdBlockManager {
     private static final String PREF_KEY_PREFIX = "blocked_";
 
     private AdBlockManager() {
+        // 先使用内置规则，过滤列表在initialize()后加载
+        mFilterEngine = buildFilterEngine(null, 0);
     }
     
     public void initialize(Context context) {
+        boolean first = mContext == null;
         mContext = context.getApplicationContext();
         mPrefs = mContext.getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE);
         loadBlockedElements();
+        if (first) {
+            reloadFilterEngine();
+        }
     }
 
     public static synchronized AdBlockManager getInstance() {
@@ -338,36 +373,148 @@ public class AdBlockManager {
             return false;
         }
 
-        String lowerUrl = url.toLowerCase();
+        // 域名黑名单、URL模式和过滤列表
+        if (mFilterEngine.matches(url)) {
+            android.util.Log.d(TAG, "Blocked ad in URL: " + url);
+            return true;
+        }
 
-        // 检查域名黑名单
-        for (String domain : AD_DOMAINS) {
-            if (lowerUrl.contains(domain)) {
-                android.util.Log.d(TAG, "Blocked ad domain: " + domain + " in URL: " + url);
-                return true;
-            }
+        // 检查常见的广告文件类型
+        int length = url.length();
+        if (length >= 4 && url.regionMatches(true, length - 4, ".gif", 0, 4) &&
+                url.toLowerCase().contains("ad")) {
+            android.util.Log.d(TAG, "Blocked ad file pattern in URL: " + url);
+            return true;
         }
 
-        // 检查URL模式
+        return false;
+    }
+
+    /**
+     * 根据内置规则和过滤列表编译过滤引擎
+     */
+    private static AdFilterEngine buildFilterEngine(@Nullable File[] lists, long sourceKey) {
+        AdFilterEngine.Builder builder = new AdFilterEngine.Builder();
+        synchronized (AD_DOMAINS) {
+            for (String domain : AD_DOMAINS) {
+                // 不是域名的条目按URL模式处理
+                if (domain.indexOf('/') >= 0 || domain.endsWith(".")) {
+                    builder.addRule(domain);
+                } else {
+                    builder.addDomain(domain, false);
+                }
+            }
+        }
         for (String pattern : AD_URL_PATTERNS) {
-            if (lowerUrl.contains(pattern)) {
-                android.util.Log.d(TAG, "Blocked ad pattern: " + pattern + " in URL: " + url);
-                return true;
+            builder.addRule(pattern);
+        }
+        for (String pattern : AD_FILE_PATTERNS) {
+            builder.addRule(pattern);
+        }
+        if (lists != null) {
+            for (File list : lists) {
+                Reader reader = null;
+                try {
+                    reader = new InputStreamReader(new FileInputStream(list), "UTF-8");
+                    builder.addRules(reader);
+                } catch (IOException e) {
+                    android.util.Log.w(TAG, "Can't read filter list: " + list, e);
+                } finally {
+                    IOUtils.closeQuietly(reader);
+                }
             }
         }
+        return builder.build(sourceKey);
+    }
 
-        // 检查常见的广告文件类型
-        if (lowerUrl.contains("/ads/") ||
-            lowerUrl.contains("banner") ||
-            lowerUrl.contains("popup") ||
-            lowerUrl.contains("interstitial") ||
-            lowerUrl.endsWith(".gif") && lowerUrl.contains("ad") ||
-            lowerUrl.contains("advertisement")) {
-            android.util.Log.d(TAG, "Blocked ad file pattern in URL: " + url);
-            return true;
+    @Nullable
+    private static File[] getFilterLists(Context context) {
+        File dir = new File(context.getFilesDir(), FILTER_LIST_DIR);
+        File[] lists = dir.listFiles((d, name) -> name.endsWith(".txt"));
+        if (lists != null) {
+            Arrays.sort(lists);
+        }
+        return lists;
+    }
+
+    // 内置规则和列表文件变化时改变
+    private static long getSourceKey(@Nullable File[] lists) {
+        long key = 17;
+        synchronized (AD_DOMAINS) {
+            for (String domain : AD_DOMAINS) {
+                // 与顺序无关
+                key += domain.hashCode();
+            }
         }
+        key = key * 31 + AD_URL_PATTERNS.hashCode();
+        key = key * 31 + Arrays.hashCode(AD_FILE_PATTERNS);
+        if (lists != null) {
+            for (File list : lists) {
+                key = key * 31 + list.getName().hashCode();
+                key = key * 31 + list.length();
+                key = key * 31 + list.lastModified();
+            }
+        }
+        return key;
+    }
 
-        return false;
+    /**
+     * 在后台加载过滤引擎，快照有效时直接读取快照，否则解析规则并写入快照
+     */
+    private void reloadFilterEngine() {
+        final Context context = mContext;
+        if (context == null) {
+            mFilterEngine = buildFilterEngine(null, 0);
+            return;
+        }
+        IoThreadPoolExecutor.getInstance().execute(() -> {
+            synchronized (mFilterEngineLock) {
+                loadFilterEngine(context);
+            }
+        });
+    }
+
+    private void loadFilterEngine(Context context) {
+        File[] lists = getFilterLists(context);
+        long sourceKey = getSourceKey(lists);
+        File snapshot = new File(context.getCacheDir(), SNAPSHOT_FILENAME);
+
+        AdFilterEngine engine = null;
+        InputStream is = null;
+        try {
+            is = new FileInputStream(snapshot);
+            engine = AdFilterEngine.read(new BufferedInputStream(is));
+        } catch (IOException e) {
+            // Ignore
+        } finally {
+            IOUtils.closeQuietly(is);
+        }
+        if (engine != null && engine.getSourceKey() == sourceKey) {
+            mFilterEngine = engine;
+            android.util.Log.d(TAG, "Loaded filter snapshot, filters: " + engine.getFilterCount());
+            return;
+        }
+
+        engine = buildFilterEngine(lists, sourceKey);
+        mFilterEngine = engine;
+        android.util.Log.d(TAG, "Compiled filters: " + engine.getFilterCount());
+
+        File tempFile = new File(snapshot.getPath() + ".tmp");
+        OutputStream os = null;
+        try {
+            os = new BufferedOutputStream(new FileOutputStream(tempFile));
+            engine.write(os);
+            os.close();
+            os = null;
+            if (!tempFile.renameTo(snapshot)) {
+                tempFile.delete();
+            }
+        } catch (IOException e) {
+            android.util.Log.w(TAG, "Can't write filter snapshot", e);
+            tempFile.delete();
+        } finally {
+            IOUtils.closeQuietly(os);
+        }
     }
     
     /**
@@ -669,7 +816,10 @@ public class AdBlockManager {
      */
     public void addAdDomain(String domain) {
         if (domain != null && !domain.trim().isEmpty()) {
-            AD_DOMAINS.add(domain.toLowerCase());
+            synchronized (AD_DOMAINS) {
+                AD_DOMAINS.add(domain.toLowerCase());
+            }
+            reloadFilterEngine();
         }
     }
 
@@ -678,7 +828,10 @@ public class AdBlockManager {
      */
     public void removeAdDomain(String domain) {
         if (domain != null) {
-            AD_DOMAINS.remove(domain.toLowerCase());
+            synchronized (AD_DOMAINS) {
+                AD_DOMAINS.remove(domain.toLowerCase());
+            }
+            reloadFilterEngine();
         }
     }
 
@@ -686,6 +839,8 @@ public class AdBlockManager {
      * 获取广告域名列表
      */
     public Set<String> getAdDomains() {
-        return new HashSet<>(AD_DOMAINS);
+        synchronized (AD_DOMAINS) {
+            return new HashSet<>(AD_DOMAINS);
+        }
     }
 }
@@ -0,0 +1,653 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.client;
+
+import androidx.annotation.Nullable;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Adblock Plus style filter list compiled for matching, immutable and safe for any thread.
+ * <p>
+ * {@code ||domain^} filters are kept as hashes of host suffixes in open addressing tables.
+ * The hashes of all suffixes of a host come out of one backward pass over it, label by label.
+ * Other URL filters are indexed by a token, or by a 3-gram of their literal text, so a request
+ * only tests the filters sharing a token or 3-gram with its URL.
+ * <p>
+ * Element hiding rules, regex filters and filters with options other than
+ * {@code $important} are skipped, request type and first/third party aren't known here.
+ */
+public final class AdFilterEngine {
+
+    private static final int MAGIC = 0x41444645; // ADFE
+    private static final int VERSION = 1;
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private static final int MIN_TOKEN_LENGTH = 3;
+
+    private static final int INDEX_TOKEN = 0;
+    private static final int INDEX_GRAM = 1;
+    private static final int INDEX_NONE = 2;
+
+    private final long[] mBlockDomains;
+    private final long[] mAllowDomains;
+    private final UrlFilter[] mFilters;
+    private final Map<Integer, UrlFilter[]> mBlockTokens = new HashMap<>();
+    private final Map<Integer, UrlFilter[]> mAllowTokens = new HashMap<>();
+    private final Map<Integer, UrlFilter[]> mBlockGrams = new HashMap<>();
+    private final Map<Integer, UrlFilter[]> mAllowGrams = new HashMap<>();
+    private final UrlFilter[] mBlockOthers;
+    private final UrlFilter[] mAllowOthers;
+    private final long mSourceKey;
+
+    private AdFilterEngine(long[] blockDomains, long[] allowDomains, UrlFilter[] filters, long sourceKey) {
+        mBlockDomains = blockDomains;
+        mAllowDomains = allowDomains;
+        mFilters = filters;
+        mSourceKey = sourceKey;
+
+        Map<Integer, List<UrlFilter>> blockTokens = new HashMap<>();
+        Map<Integer, List<UrlFilter>> allowTokens = new HashMap<>();
+        Map<Integer, List<UrlFilter>> blockGrams = new HashMap<>();
+        Map<Integer, List<UrlFilter>> allowGrams = new HashMap<>();
+        List<UrlFilter> blockOthers = new ArrayList<>();
+        List<UrlFilter> allowOthers = new ArrayList<>();
+        for (UrlFilter filter : filters) {
+            switch (filter.indexType) {
+                case INDEX_TOKEN:
+                    put(filter.allow ? allowTokens : blockTokens, filter);
+                    break;
+                case INDEX_GRAM:
+                    put(filter.allow ? allowGrams : blockGrams, filter);
+                    break;
+                default:
+                    (filter.allow ? allowOthers : blockOthers).add(filter);
+                    break;
+            }
+        }
+        toArrays(blockTokens, mBlockTokens);
+        toArrays(allowTokens, mAllowTokens);
+        toArrays(blockGrams, mBlockGrams);
+        toArrays(allowGrams, mAllowGrams);
+        mBlockOthers = blockOthers.toArray(new UrlFilter[0]);
+        mAllowOthers = allowOthers.toArray(new UrlFilter[0]);
+    }
+
+    private static void put(Map<Integer, List<UrlFilter>> map, UrlFilter filter) {
+        List<UrlFilter> list = map.get(filter.indexKey);
+        if (list == null) {
+            list = new ArrayList<>(1);
+            map.put(filter.indexKey, list);
+        }
+        list.add(filter);
+    }
+
+    private static void toArrays(Map<Integer, List<UrlFilter>> from, Map<Integer, UrlFilter[]> to) {
+        for (Map.Entry<Integer, List<UrlFilter>> entry : from.entrySet()) {
+            to.put(entry.getKey(), entry.getValue().toArray(new UrlFilter[0]));
+        }
+    }
+
+    /**
+     * The key passed to {@link Builder#build(long)}, tells whether a snapshot is stale.
+     */
+    public long getSourceKey() {
+        return mSourceKey;
+    }
+
+    public int getFilterCount() {
+        return count(mBlockDomains) + count(mAllowDomains) + mFilters.length;
+    }
+
+    private static int count(long[] table) {
+        int count = 0;
+        for (long hash : table) {
+            if (hash != 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return true if the url is blocked by a filter and not allowed by an exception filter
+     */
+    public boolean matches(@Nullable String url) {
+        if (url == null || url.isEmpty()) {
+            return false;
+        }
+
+        String lowerUrl = url.toLowerCase(Locale.ROOT);
+        int hostStart = lowerUrl.indexOf("://");
+        hostStart = hostStart < 0 ? 0 : hostStart + 3;
+        int hostEnd = hostStart;
+        for (int n = lowerUrl.length(); hostEnd < n; hostEnd++) {
+            char c = lowerUrl.charAt(hostEnd);
+            if (c == '/' || c == '?' || c == '#' || c == ':') {
+                break;
+            }
+        }
+
+        if (!matchesDomain(mBlockDomains, lowerUrl, hostStart, hostEnd) &&
+                !matchesFilters(mBlockTokens, mBlockGrams, mBlockOthers, lowerUrl, hostStart, hostEnd)) {
+            return false;
+        }
+        return !matchesDomain(mAllowDomains, lowerUrl, hostStart, hostEnd) &&
+                !matchesFilters(mAllowTokens, mAllowGrams, mAllowOthers, lowerUrl, hostStart, hostEnd);
+    }
+
+    private static boolean matchesDomain(long[] table, String url, int hostStart, int hostEnd) {
+        if (table.length == 0 || hostStart == hostEnd) {
+            return false;
+        }
+        // Hash suffixes from the end, check it at each label start
+        long hash = FNV_OFFSET;
+        for (int i = hostEnd - 1; i >= hostStart; i--) {
+            hash = (hash ^ url.charAt(i)) * FNV_PRIME;
+            if ((i == hostStart || url.charAt(i - 1) == '.') && contains(table, hash)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean matchesFilters(Map<Integer, UrlFilter[]> tokens, Map<Integer, UrlFilter[]> grams,
+            UrlFilter[] others, String url, int hostStart, int hostEnd) {
+        for (UrlFilter filter : others) {
+            if (filter.matches(url, hostStart, hostEnd)) {
+                return true;
+            }
+        }
+
+        int n = url.length();
+        if (!tokens.isEmpty()) {
+            for (int i = 0; i < n; ) {
+                if (!isTokenChar(url.charAt(i))) {
+                    i++;
+                    continue;
+                }
+                int start = i;
+                int hash = 0;
+                while (i < n && isTokenChar(url.charAt(i))) {
+                    hash = 31 * hash + url.charAt(i);
+                    i++;
+                }
+                if (i - start >= MIN_TOKEN_LENGTH && matchesAny(tokens.get(hash), url, hostStart, hostEnd)) {
+                    return true;
+                }
+            }
+        }
+
+        if (!grams.isEmpty()) {
+            for (int i = 0; i + 3 <= n; i++) {
+                if (matchesAny(grams.get(gram(url, i)), url, hostStart, hostEnd)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean matchesAny(@Nullable UrlFilter[] filters, String url, int hostStart, int hostEnd) {
+        if (filters != null) {
+            for (UrlFilter filter : filters) {
+                if (filter.matches(url, hostStart, hostEnd)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static int gram(String str, int index) {
+        return (str.charAt(index) << 16) ^ (str.charAt(index + 1) << 8) ^ str.charAt(index + 2);
+    }
+
+    private static boolean isTokenChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '%';
+    }
+
+    // ^ matches any char but letters, digits and _-.%
+    private static boolean isSeparator(char c) {
+        return !(isTokenChar(c) || (c >= 'A' && c <= 'Z') || c == '_' || c == '-' || c == '.');
+    }
+
+    private static long hashDomain(String domain) {
+        long hash = FNV_OFFSET;
+        for (int i = domain.length() - 1; i >= 0; i--) {
+            hash = (hash ^ domain.charAt(i)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    private static int slot(long hash, int mask) {
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    private static boolean contains(long[] table, long hash) {
+        if (hash == 0) {
+            hash = 1;
+        }
+        int mask = table.length - 1;
+        for (int i = slot(hash, mask); ; i = (i + 1) & mask) {
+            long value = table[i];
+            if (value == hash) {
+                return true;
+            } else if (value == 0) {
+                return false;
+            }
+        }
+    }
+
+    private static long[] toTable(List<Long> hashes) {
+        if (hashes.isEmpty()) {
+            return new long[0];
+        }
+        int size = Integer.highestOneBit(hashes.size() * 2 - 1) << 1;
+        long[] table = new long[size];
+        int mask = size - 1;
+        for (long hash : hashes) {
+            if (hash == 0) {
+                hash = 1;
+            }
+            int i = slot(hash, mask);
+            while (table[i] != 0 && table[i] != hash) {
+                i = (i + 1) & mask;
+            }
+            table[i] = hash;
+        }
+        return table;
+    }
+
+    public void write(OutputStream os) throws IOException {
+        DataOutputStream dos = new DataOutputStream(os);
+        dos.writeInt(MAGIC);
+        dos.writeInt(VERSION);
+        dos.writeLong(mSourceKey);
+        writeTable(dos, mBlockDomains);
+        writeTable(dos, mAllowDomains);
+        dos.writeInt(mFilters.length);
+        for (UrlFilter filter : mFilters) {
+            dos.writeByte(filter.flags);
+            dos.writeByte(filter.indexType);
+            dos.writeInt(filter.indexKey);
+            dos.writeUTF(filter.pattern);
+        }
+        dos.flush();
+    }
+
+    private static void writeTable(DataOutputStream dos, long[] table) throws IOException {
+        dos.writeInt(table.length);
+        for (long hash : table) {
+            dos.writeLong(hash);
+        }
+    }
+
+    /**
+     * Read a snapshot written by {@link #write(OutputStream)}.
+     *
+     * @return null if it's broken or from another version
+     */
+    @Nullable
+    public static AdFilterEngine read(InputStream is) {
+        try {
+            DataInputStream dis = new DataInputStream(is);
+            if (dis.readInt() != MAGIC || dis.readInt() != VERSION) {
+                return null;
+            }
+            long sourceKey = dis.readLong();
+            long[] blockDomains = readTable(dis);
+            long[] allowDomains = readTable(dis);
+            int count = dis.readInt();
+            if (blockDomains == null || allowDomains == null || count < 0) {
+                return null;
+            }
+            UrlFilter[] filters = new UrlFilter[count];
+            for (int i = 0; i < count; i++) {
+                int flags = dis.readByte();
+                int indexType = dis.readByte();
+                int indexKey = dis.readInt();
+                filters[i] = new UrlFilter(dis.readUTF(), flags, indexType, indexKey);
+            }
+            return new AdFilterEngine(blockDomains, allowDomains, filters, sourceKey);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    @Nullable
+    private static long[] readTable(DataInputStream dis) throws IOException {
+        int length = dis.readInt();
+        // Must be empty or a power of two
+        if (length < 0 || (length & (length - 1)) != 0) {
+            return null;
+        }
+        long[] table = new long[length];
+        for (int i = 0; i < length; i++) {
+            table[i] = dis.readLong();
+        }
+        return table;
+    }
+
+    private static final class UrlFilter {
+
+        static final int FLAG_ALLOW = 1;
+        // ||
+        static final int FLAG_DOMAIN_ANCHOR = 1 << 1;
+        // | at start
+        static final int FLAG_START_ANCHOR = 1 << 2;
+        // | at end
+        static final int FLAG_END_ANCHOR = 1 << 3;
+
+        final String pattern;
+        final int flags;
+        final boolean allow;
+        final int indexType;
+        final int indexKey;
+        // Pattern split by *
+        private final String[] mSegments;
+
+        UrlFilter(String pattern, int flags, int indexType, int indexKey) {
+            this.pattern = pattern;
+            this.flags = flags;
+            this.allow = (flags & FLAG_ALLOW) != 0;
+            this.indexType = indexType;
+            this.indexKey = indexKey;
+            List<String> segments = new ArrayList<>();
+            int start = 0;
+            for (int i = 0, n = pattern.length(); i <= n; i++) {
+                if (i == n || pattern.charAt(i) == '*') {
+                    if (i > start || segments.isEmpty()) {
+                        segments.add(pattern.substring(start, i));
+                    }
+                    start = i + 1;
+                }
+            }
+            // Leading * means not anchored, trailing * means not anchored at end
+            mSegments = segments.toArray(new String[0]);
+        }
+
+        boolean matches(String url, int hostStart, int hostEnd) {
+            if ((flags & FLAG_START_ANCHOR) != 0) {
+                return matchesFrom(url, 0);
+            }
+            if ((flags & FLAG_DOMAIN_ANCHOR) != 0) {
+                // Host start or a label start in host
+                for (int i = hostStart; i < hostEnd; i++) {
+                    if ((i == hostStart || url.charAt(i - 1) == '.') && matchesFrom(url, i)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            for (int i = 0, n = url.length(); i <= n; i++) {
+                if (matchesFrom(url, i)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean matchesFrom(String url, int start) {
+            boolean endAnchor = (flags & FLAG_END_ANCHOR) != 0;
+            String[] segments = mSegments;
+            int last = segments.length - 1;
+            int pos = matchSegment(segments[0], url, start, last == 0);
+            if (pos < 0) {
+                return false;
+            }
+            for (int i = 1; i <= last; i++) {
+                boolean isLast = i == last;
+                int end = -1;
+                for (int p = pos, n = url.length(); p <= n; p++) {
+                    end = matchSegment(segments[i], url, p, isLast);
+                    if (end >= 0 && (!isLast || !endAnchor || end == n)) {
+                        break;
+                    }
+                    end = -1;
+                }
+                if (end < 0) {
+                    return false;
+                }
+                pos = end;
+            }
+            return !endAnchor || last > 0 || pos == url.length();
+        }
+
+        // Returns the end of the match, or -1
+        private static int matchSegment(String segment, String url, int pos, boolean lastSegment) {
+            int n = url.length();
+            for (int i = 0, length = segment.length(); i < length; i++) {
+                char c = segment.charAt(i);
+                if (c == '^') {
+                    if (pos < n && isSeparator(url.charAt(pos))) {
+                        pos++;
+                    } else if (pos == n && lastSegment && i == length - 1) {
+                        // ^ at the end matches the end of url
+                    } else {
+                        return -1;
+                    }
+                } else if (pos < n && url.charAt(pos) == c) {
+                    pos++;
+                } else {
+                    return -1;
+                }
+            }
+            return pos;
+        }
+    }
+
+    public static final class Builder {
+
+        private final List<Long> mBlockDomains = new ArrayList<>();
+        private final List<Long> mAllowDomains = new ArrayList<>();
+        private final List<UrlFilter> mFilters = new ArrayList<>();
+
+        public Builder addRules(Reader reader) throws IOException {
+            BufferedReader br = reader instanceof BufferedReader ?
+                    (BufferedReader) reader : new BufferedReader(reader);
+            String line;
+            while ((line = br.readLine()) != null) {
+                addRule(line);
+            }
+            return this;
+        }
+
+        /**
+         * Add a rule in Adblock Plus syntax, or a hosts file line.
+         */
+        public Builder addRule(@Nullable String rule) {
+            if (rule == null) {
+                return this;
+            }
+            rule = rule.trim();
+            // Comments, headers and element hiding rules
+            if (rule.isEmpty() || rule.startsWith("!") || rule.startsWith("[") || rule.startsWith("#") ||
+                    rule.contains("##") || rule.contains("#@#") || rule.contains("#?#")) {
+                return this;
+            }
+
+            // Hosts file
+            if (rule.startsWith("0.0.0.0 ") || rule.startsWith("127.0.0.1 ")) {
+                String[] parts = rule.split("\\s+");
+                if (parts.length >= 2 && !"localhost".equals(parts[1])) {
+                    addDomain(parts[1], false);
+                }
+                return this;
+            }
+
+            boolean allow = rule.startsWith("@@");
+            if (allow) {
+                rule = rule.substring(2);
+            }
+
+            int dollar = rule.lastIndexOf('$');
+            if (dollar >= 0) {
+                String options = rule.substring(dollar + 1);
+                if (!"important".equals(options)) {
+                    return this;
+                }
+                rule = rule.substring(0, dollar);
+            }
+
+            // Regex filters
+            if (rule.length() > 1 && rule.startsWith("/") && rule.endsWith("/")) {
+                return this;
+            }
+
+            rule = rule.toLowerCase(Locale.ROOT);
+            int flags = allow ? UrlFilter.FLAG_ALLOW : 0;
+            if (rule.startsWith("||")) {
+                rule = rule.substring(2);
+                flags |= UrlFilter.FLAG_DOMAIN_ANCHOR;
+                // ||domain^ goes to domain table
+                String domain = rule.endsWith("^") ? rule.substring(0, rule.length() - 1) :
+                        rule.endsWith("^|") ? rule.substring(0, rule.length() - 2) : rule;
+                if (isDomain(domain)) {
+                    addDomain(domain, allow);
+                    return this;
+                }
+            } else if (rule.startsWith("|")) {
+                rule = rule.substring(1);
+                flags |= UrlFilter.FLAG_START_ANCHOR;
+            }
+            if (rule.endsWith("|")) {
+                rule = rule.substring(0, rule.length() - 1);
+                flags |= UrlFilter.FLAG_END_ANCHOR;
+            }
+            // Collapse repeated * and drop ones at edges, they are implied
+            while (rule.contains("**")) {
+                rule = rule.replace("**", "*");
+            }
+            if (rule.startsWith("*")) {
+                rule = rule.substring(1);
+                flags &= ~(UrlFilter.FLAG_START_ANCHOR | UrlFilter.FLAG_DOMAIN_ANCHOR);
+            }
+            if (rule.endsWith("*")) {
+                rule = rule.substring(0, rule.length() - 1);
+                flags &= ~UrlFilter.FLAG_END_ANCHOR;
+            }
+            if (rule.isEmpty()) {
+                // Matches everything, ignore it
+                return this;
+            }
+            addFilter(rule, flags);
+            return this;
+        }
+
+        /**
+         * Block or allow the domain and all its subdomains.
+         */
+        public Builder addDomain(String domain, boolean allow) {
+            domain = domain.toLowerCase(Locale.ROOT);
+            if (isDomain(domain)) {
+                (allow ? mAllowDomains : mBlockDomains).add(hashDomain(domain));
+            }
+            return this;
+        }
+
+        private void addFilter(String pattern, int flags) {
+            boolean startBounded = (flags & (UrlFilter.FLAG_START_ANCHOR | UrlFilter.FLAG_DOMAIN_ANCHOR)) != 0;
+            boolean endBounded = (flags & UrlFilter.FLAG_END_ANCHOR) != 0;
+
+            // Longest token bounded by non-token chars in the pattern, not by * or an open edge
+            int bestStart = -1;
+            int bestLength = 0;
+            for (int i = 0, n = pattern.length(); i < n; ) {
+                if (!isTokenChar(pattern.charAt(i))) {
+                    i++;
+                    continue;
+                }
+                int start = i;
+                while (i < n && isTokenChar(pattern.charAt(i))) {
+                    i++;
+                }
+                boolean bounded = (start == 0 ? startBounded : pattern.charAt(start - 1) != '*') &&
+                        (i == n ? endBounded : pattern.charAt(i) != '*');
+                if (bounded && i - start >= MIN_TOKEN_LENGTH && i - start > bestLength) {
+                    bestStart = start;
+                    bestLength = i - start;
+                }
+            }
+            if (bestStart >= 0) {
+                String token = pattern.substring(bestStart, bestStart + bestLength);
+                mFilters.add(new UrlFilter(pattern, flags, INDEX_TOKEN, token.hashCode()));
+                return;
+            }
+
+            // Otherwise a 3-gram from the longest literal run
+            bestStart = -1;
+            bestLength = 0;
+            for (int i = 0, n = pattern.length(); i < n; ) {
+                char c = pattern.charAt(i);
+                if (c == '*' || c == '^') {
+                    i++;
+                    continue;
+                }
+                int start = i;
+                while (i < n && pattern.charAt(i) != '*' && pattern.charAt(i) != '^') {
+                    i++;
+                }
+                if (i - start > bestLength) {
+                    bestStart = start;
+                    bestLength = i - start;
+                }
+            }
+            if (bestLength >= 3) {
+                // The last one, first chars of literals are often common like "/" and "."
+                int index = bestStart + bestLength - 3;
+                mFilters.add(new UrlFilter(pattern, flags, INDEX_GRAM, gram(pattern, index)));
+            } else {
+                mFilters.add(new UrlFilter(pattern, flags, INDEX_NONE, 0));
+            }
+        }
+
+        private static boolean isDomain(String str) {
+            if (str.isEmpty() || str.charAt(0) == '.' || str.charAt(str.length() - 1) == '.') {
+                return false;
+            }
+            for (int i = 0, n = str.length(); i < n; i++) {
+                char c = str.charAt(i);
+                if (!((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '.' || c == '-')) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @param sourceKey identifies the lists this engine is built from
+         */
+        public AdFilterEngine build(long sourceKey) {
+            return new AdFilterEngine(toTable(mBlockDomains), toTable(mAllowDomains),
+                    mFilters.toArray(new UrlFilter[0]), sourceKey);
+        }
+    }
+}
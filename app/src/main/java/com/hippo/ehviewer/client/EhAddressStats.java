@@ -0,0 +1,250 @@
+/*
+ * Copyright 2018 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.client;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.hippo.lib.yorozuya.NumberUtils;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import okhttp3.Call;
+import okhttp3.EventListener;
+import okhttp3.Protocol;
+
+/**
+ * Connect latency and failures of each address, fed by the {@link EventListener} of
+ * OkHttpClients. {@link EhHosts} orders addresses by score, so the fastest one is tried first.
+ */
+public final class EhAddressStats {
+
+    // Untried addresses are tried before slow ones
+    private static final long UNKNOWN_LATENCY = 300;
+    private static final long FAILURE_PENALTY = 5000;
+    // Failures are forgotten gradually in this time
+    private static final long FAILURE_DECAY = 10 * 60 * 1000;
+    // Keep the recently used addresses only, they are written to a file
+    private static final int MAX_COUNT = 256;
+    private static final long STALE_TIME = 7 * 24 * 60 * 60 * 1000L;
+
+    private static final ConcurrentHashMap<String, Stat> sStats = new ConcurrentHashMap<>();
+    private static volatile boolean sDirty;
+
+    private EhAddressStats() {
+    }
+
+    private static final class Stat {
+        // Exponentially weighted moving average of connect latency in ms, -1 for unknown
+        long latency = -1;
+        int failures;
+        long lastFailure;
+        long lastUsed;
+
+        Stat(long now) {
+            lastUsed = now;
+        }
+
+        synchronized long score(long now) {
+            long score = latency >= 0 ? latency : UNKNOWN_LATENCY;
+            long elapsed = now - lastFailure;
+            if (failures > 0 && elapsed < FAILURE_DECAY) {
+                score += FAILURE_PENALTY * failures * (FAILURE_DECAY - elapsed) / FAILURE_DECAY;
+            }
+            return score;
+        }
+
+        synchronized void success(long ms, long now) {
+            latency = latency < 0 ? ms : (latency * 3 + ms) / 4;
+            failures = 0;
+            lastUsed = now;
+        }
+
+        synchronized void failure(long now) {
+            failures++;
+            lastFailure = now;
+            lastUsed = now;
+        }
+
+        synchronized long lastUsed() {
+            return lastUsed;
+        }
+    }
+
+    @NonNull
+    private static Stat getStat(@NonNull String address, long now) {
+        Stat stat = sStats.get(address);
+        if (stat == null) {
+            stat = new Stat(now);
+            Stat old = sStats.putIfAbsent(address, stat);
+            if (old != null) {
+                stat = old;
+            } else if (sStats.size() > MAX_COUNT) {
+                trim(now);
+            }
+        }
+        return stat;
+    }
+
+    /**
+     * Remove stats not used for {@link #STALE_TIME}, then the least recently used ones
+     * until there are at most {@link #MAX_COUNT}.
+     */
+    private static synchronized void trim(long now) {
+        List<Map.Entry<String, Long>> entries = new ArrayList<>();
+        for (Map.Entry<String, Stat> entry : sStats.entrySet()) {
+            long lastUsed = entry.getValue().lastUsed();
+            if (now - lastUsed > STALE_TIME) {
+                sStats.remove(entry.getKey());
+            } else {
+                entries.add(new AbstractMap.SimpleEntry<>(entry.getKey(), lastUsed));
+            }
+        }
+        int overflow = entries.size() - MAX_COUNT;
+        if (overflow > 0) {
+            Collections.sort(entries, Map.Entry.comparingByValue());
+            for (int i = 0; i < overflow; i++) {
+                sStats.remove(entries.get(i).getKey());
+            }
+        }
+    }
+
+    static void recordSuccess(@NonNull InetAddress address, long ms) {
+        long now = System.currentTimeMillis();
+        getStat(address.getHostAddress(), now).success(ms, now);
+        sDirty = true;
+    }
+
+    static void recordFailure(@NonNull InetAddress address) {
+        long now = System.currentTimeMillis();
+        getStat(address.getHostAddress(), now).failure(now);
+        sDirty = true;
+    }
+
+    /**
+     * @return a new list, best address first, addresses with the same score are shuffled
+     */
+    @NonNull
+    static List<InetAddress> rank(@NonNull List<InetAddress> addresses) {
+        List<InetAddress> result = new ArrayList<>(addresses);
+        if (result.size() <= 1) {
+            return result;
+        }
+
+        long now = System.currentTimeMillis();
+        Map<InetAddress, Long> scores = new HashMap<>();
+        for (InetAddress address : result) {
+            Stat stat = sStats.get(address.getHostAddress());
+            scores.put(address, stat != null ? stat.score(now) : UNKNOWN_LATENCY);
+        }
+        // Spread load among equal ones, the sort is stable
+        Collections.shuffle(result);
+        Collections.sort(result, Comparator.comparingLong(scores::get));
+        return result;
+    }
+
+    static boolean isDirty() {
+        return sDirty;
+    }
+
+    // "address latency failures lastFailure lastUsed" lines, stale stats are dropped
+    static void write(@NonNull Writer writer) throws IOException {
+        sDirty = false;
+        trim(System.currentTimeMillis());
+        for (Map.Entry<String, Stat> entry : sStats.entrySet()) {
+            Stat stat = entry.getValue();
+            synchronized (stat) {
+                writer.write(entry.getKey() + " " + stat.latency + " " + stat.failures + " " +
+                        stat.lastFailure + " " + stat.lastUsed + "\n");
+            }
+        }
+    }
+
+    // Stats recorded in this run are newer, they are kept
+    static void read(@Nullable String line) {
+        if (line == null) {
+            return;
+        }
+        String[] parts = line.split(" ");
+        if (parts.length != 4 && parts.length != 5) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        Stat stat = new Stat(now);
+        stat.latency = NumberUtils.parseLongSafely(parts[1], -1L);
+        stat.failures = NumberUtils.parseIntSafely(parts[2], 0);
+        stat.lastFailure = NumberUtils.parseLongSafely(parts[3], 0L);
+        // Old lines have no lastUsed, count them as used now
+        if (parts.length == 5) {
+            stat.lastUsed = NumberUtils.parseLongSafely(parts[4], now);
+        }
+        if (now - stat.lastUsed <= STALE_TIME && sStats.putIfAbsent(parts[0], stat) == null
+                && sStats.size() > MAX_COUNT) {
+            trim(now);
+        }
+    }
+
+    public static final class Factory implements EventListener.Factory {
+        @NonNull
+        @Override
+        public EventListener create(@NonNull Call call) {
+            return new Listener();
+        }
+    }
+
+    // One for each call, connects of a call are sequential
+    private static final class Listener extends EventListener {
+
+        private long mConnectStart;
+
+        @Override
+        public void connectStart(@NonNull Call call, @NonNull InetSocketAddress inetSocketAddress,
+                @NonNull Proxy proxy) {
+            mConnectStart = System.nanoTime();
+        }
+
+        @Override
+        public void connectEnd(@NonNull Call call, @NonNull InetSocketAddress inetSocketAddress,
+                @NonNull Proxy proxy, @Nullable Protocol protocol) {
+            InetAddress address = inetSocketAddress.getAddress();
+            if (address != null && proxy.type() == Proxy.Type.DIRECT) {
+                recordSuccess(address, (System.nanoTime() - mConnectStart) / 1000000);
+            }
+        }
+
+        @Override
+        public void connectFailed(@NonNull Call call, @NonNull InetSocketAddress inetSocketAddress,
+                @NonNull Proxy proxy, @Nullable Protocol protocol, @NonNull IOException ioe) {
+            InetAddress address = inetSocketAddress.getAddress();
+            if (address != null && proxy.type() == Proxy.Type.DIRECT) {
+                recordFailure(address);
+            }
+        }
+    }
+}
@@ -30,9 +30,10 @@ import com.hippo.util.IoThreadPoolExecutor;
 import com.hippo.lib.yorozuya.SimpleHandler;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicReference;
 
 import okhttp3.Call;
 import okhttp3.OkHttpClient;
@@ -96,7 +97,8 @@ public class EhClient {
         private Callback mCallback;
         private EhConfig mEhConfig;
 
-        private final AtomicReference<Call> mCall = new AtomicReference<>();
+        // All calls of the task, the parallel api calls run at the same time
+        private final List<Call> mCalls = new ArrayList<>();
         private final AtomicBoolean mStop = new AtomicBoolean();
 
         public Task(int method, Callback callback, EhConfig ehConfig) {
@@ -107,11 +109,28 @@ public class EhClient {
 
         // Called in Job thread
         public void setCall(Call call) throws CancelledException {
-            if (mStop.get()) {
-                // Stopped Job thread
-                throw new CancelledException();
-            } else {
-                mCall.lazySet(call);
+            synchronized (mCalls) {
+                if (mStop.get()) {
+                    // Stopped Job thread
+                    throw new CancelledException();
+                } else {
+                    mCalls.add(call);
+                }
+            }
+        }
+
+        private void cancelCalls() {
+            synchronized (mCalls) {
+                for (Call call : mCalls) {
+                    call.cancel();
+                }
+                mCalls.clear();
+            }
+        }
+
+        private void clearCalls() {
+            synchronized (mCalls) {
+                mCalls.clear();
             }
         }
 
@@ -121,7 +140,7 @@ public class EhClient {
 
         public void stop() {
             if (!mStop.get()) {
-                mStop.lazySet(true);
+                mStop.set(true);
 
                 if (mCallback != null) {
                     // TODO Avoid new runnable
@@ -133,17 +152,14 @@ public class EhClient {
                 if (status == Status.PENDING) {
                     cancel(false);
                 } else if (status == Status.RUNNING) {
-                    // It is running, cancel call if it is created
-                    Call call = mCall.get();
-                    if (call != null) {
-                        call.cancel();
-                    }
+                    // It is running, cancel calls if they are created
+                    cancelCalls();
                 }
 
                 // Clear
                 mCallback = null;
                 mEhConfig = null;
-                mCall.lazySet(null);
+                clearCalls();
             }
         }
 
@@ -236,7 +252,7 @@ public class EhClient {
             // Clear
             mCallback = null;
             mEhConfig = null;
-            mCall.lazySet(null);
+            clearCalls();
         }
     }
 
@@ -69,12 +69,16 @@ import com.hippo.lib.yorozuya.AssertUtils;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.Reader;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import okhttp3.Call;
+import okhttp3.Callback;
 import okhttp3.FormBody;
 import okhttp3.Headers;
 import okhttp3.MediaType;
@@ -83,6 +87,7 @@ import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
+import okhttp3.ResponseBody;
 
 import org.json.JSONArray;
 import org.json.JSONObject;
@@ -100,6 +105,10 @@ public class EhEngine {
 
     private static final String KOKOMADE_URL = "https://exhentai.org/img/kokomade.jpg";
 
+    // We can only request 25 items one time at most
+    private static final int MAX_API_REQUEST_SIZE = 25;
+    private static final int MAX_API_IN_FLIGHT = 4;
+
     public static final MediaType MEDIA_TYPE_JSON = MediaType.parse("application/json; charset=utf-8");
     public static final MediaType MEDIA_TYPE_URLENCODED = MediaType.parse("application/x-www-form-urlencoded");
     private static final MediaType MEDIA_TYPE_JPEG = MediaType.parse("image/jpeg");
@@ -269,7 +278,6 @@ public class EhEngine {
             task.setCall(call);
         }
 
-        String body = null;
         Headers headers = null;
         GalleryListParser.Result result;
         int code = -1;
@@ -277,12 +285,15 @@ public class EhEngine {
             Response response = call.execute();
             code = response.code();
             headers = response.headers();
-            assert response.body() != null;
-            body = response.body().string();
-            result = GalleryListParser.parse(body,mode);
+            ResponseBody responseBody = response.body();
+            assert responseBody != null;
+            // Parse while reading, without keeping the whole page
+            try (Reader reader = responseBody.charStream()) {
+                result = GalleryListParser.parse(reader, mode);
+            }
         } catch (Throwable e) {
             ExceptionUtils.throwIfFatal(e);
-            throwException(call, code, headers, body, e);
+            throwException(call, code, headers, null, e);
             throw e;
         }
 
@@ -294,21 +305,26 @@ public class EhEngine {
     // At least, GalleryInfo contain valid gid and token
     public static List<GalleryInfo> fillGalleryListByApi(@Nullable EhClient.Task task, OkHttpClient okHttpClient,
                                                          List<GalleryInfo> galleryInfoList, String referer) throws Throwable {
-        // We can only request 25 items one time at most
-        final int MAX_REQUEST_SIZE = 25;
-        List<GalleryInfo> requestItems = new ArrayList<>(MAX_REQUEST_SIZE);
-        for (int i = 0, size = galleryInfoList.size(); i < size; i++) {
-            requestItems.add(galleryInfoList.get(i));
-            if (requestItems.size() == MAX_REQUEST_SIZE || i == size - 1) {
-                doFillGalleryListByApi(task, okHttpClient, requestItems, referer);
-                requestItems.clear();
-            }
+        // Galleries requested recently are filled from cache
+        List<GalleryInfo> missList = GalleryDataCache.fill(galleryInfoList);
+        if (missList.isEmpty()) {
+            return galleryInfoList;
+        }
+
+        List<List<GalleryInfo>> batches = new ArrayList<>();
+        for (int i = 0, size = missList.size(); i < size; i += MAX_API_REQUEST_SIZE) {
+            batches.add(new ArrayList<>(missList.subList(i, Math.min(i + MAX_API_REQUEST_SIZE, size))));
+        }
+        if (batches.size() == 1) {
+            doFillGalleryListByApi(task, okHttpClient, batches.get(0), referer);
+        } else {
+            doFillGalleryListByApiParallel(task, okHttpClient, batches, referer);
         }
         return galleryInfoList;
     }
 
-    private static void doFillGalleryListByApi(@Nullable EhClient.Task task, OkHttpClient okHttpClient,
-                                               List<GalleryInfo> galleryInfoList, String referer) throws Throwable {
+    private static Call newGalleryApiCall(OkHttpClient okHttpClient, List<GalleryInfo> galleryInfoList,
+                                          String referer) throws Throwable {
         JSONObject json = new JSONObject();
         json.put("method", "gdata");
         JSONArray ja = new JSONArray();
@@ -327,7 +343,12 @@ public class EhEngine {
         Request request = new EhRequestBuilder(url, referer, origin)
                 .post(RequestBody.create(MEDIA_TYPE_JSON, json.toString()))
                 .build();
-        Call call = okHttpClient.newCall(request);
+        return okHttpClient.newCall(request);
+    }
+
+    private static void doFillGalleryListByApi(@Nullable EhClient.Task task, OkHttpClient okHttpClient,
+                                               List<GalleryInfo> galleryInfoList, String referer) throws Throwable {
+        Call call = newGalleryApiCall(okHttpClient, galleryInfoList, referer);
 
         // Put call
         if (null != task) {
@@ -343,13 +364,95 @@ public class EhEngine {
             headers = response.headers();
             assert response.body() != null;
             body = response.body().string();
-            GalleryApiParser.parse(body, galleryInfoList);
+            GalleryDataCache.put(GalleryApiParser.parse(body, galleryInfoList));
         } catch (Throwable e) {
             ExceptionUtils.throwIfFatal(e);
             throwException(call, code, headers, body, e);
             throw e;
         }
     }
+
+    /**
+     * Send batches at the same time, at most {@link #MAX_API_IN_FLIGHT} at once.
+     * The first error is thrown after all calls finish.
+     */
+    private static void doFillGalleryListByApiParallel(@Nullable EhClient.Task task, OkHttpClient okHttpClient,
+                                                       List<List<GalleryInfo>> batches, String referer) throws Throwable {
+        Semaphore limiter = new Semaphore(MAX_API_IN_FLIGHT);
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        List<Call> calls = new ArrayList<>(batches.size());
+        try {
+            for (List<GalleryInfo> batch : batches) {
+                limiter.acquire();
+                if (error.get() != null) {
+                    limiter.release();
+                    break;
+                }
+
+                Call call;
+                try {
+                    call = newGalleryApiCall(okHttpClient, batch, referer);
+                    if (null != task) {
+                        // Throw CancelledException if task is stopped
+                        task.setCall(call);
+                    }
+                } catch (Throwable e) {
+                    limiter.release();
+                    throw e;
+                }
+                calls.add(call);
+                call.enqueue(new Callback() {
+                    @Override
+                    public void onFailure(Call call, IOException e) {
+                        onApiError(call, -1, null, null, e);
+                    }
+
+                    @Override
+                    public void onResponse(Call call, Response response) {
+                        String body = null;
+                        int code = response.code();
+                        Headers headers = response.headers();
+                        try {
+                            assert response.body() != null;
+                            body = response.body().string();
+                            GalleryDataCache.put(GalleryApiParser.parse(body, batch));
+                        } catch (Throwable e) {
+                            // Fatal errors are thrown in the caller thread too
+                            onApiError(call, code, headers, body, e);
+                            return;
+                        }
+                        limiter.release();
+                    }
+
+                    private void onApiError(Call call, int code, @Nullable Headers headers,
+                                            @Nullable String body, Throwable e) {
+                        try {
+                            throwException(call, code, headers, body, e);
+                            error.compareAndSet(null, e);
+                        } catch (Throwable t) {
+                            error.compareAndSet(null, t);
+                        } finally {
+                            limiter.release();
+                        }
+                    }
+                });
+            }
+        } catch (Throwable e) {
+            for (Call call : calls) {
+                call.cancel();
+            }
+            throw e;
+        } finally {
+            // Wait for all calls
+            limiter.acquireUninterruptibly(MAX_API_IN_FLIGHT);
+        }
+
+        Throwable e = error.get();
+        if (e != null) {
+            throw e;
+        }
+    }
+
 //    https://e-hentai.org/g/2914213/fc8bce61d9/
     public static GalleryDetail getGalleryDetail(@Nullable EhClient.Task task, OkHttpClient okHttpClient,
                                                  String url) throws Throwable {
@@ -38,6 +38,8 @@ public final class EhFilter {
     private final List<Filter> mUploaderFilterList = new ArrayList<>();
     private final List<Filter> mTagFilterList = new ArrayList<>();
     private final List<Filter> mTagNamespaceFilterList = new ArrayList<>();
+    // Rebuilt on every change, read without lock
+    private volatile EhFilterMatcher mMatcher = EhFilterMatcher.EMPTY;
 
     private static EhFilter sInstance;
 
@@ -73,6 +75,12 @@ public final class EhFilter {
                     break;
             }
         }
+        rebuildMatcher();
+    }
+
+    private void rebuildMatcher() {
+        mMatcher = new EhFilterMatcher(mTitleFilterList, mUploaderFilterList,
+                mTagFilterList, mTagNamespaceFilterList);
     }
 
     public List<Filter> getTitleFilterList() {
@@ -116,10 +124,12 @@ public final class EhFilter {
                 Log.d(TAG, "Unknown mode: " + filter.mode);
                 break;
         }
+        rebuildMatcher();
     }
 
     public synchronized void triggerFilter(Filter filter) {
         EhDB.triggerFilter(filter);
+        rebuildMatcher();
     }
 
     public synchronized void deleteFilter(Filter filter) {
@@ -142,140 +152,46 @@ public final class EhFilter {
                 Log.d(TAG, "Unknown mode: " + filter.mode);
                 break;
         }
+        rebuildMatcher();
     }
 
-    public synchronized boolean needTags() {
-        return 0 != mTagFilterList.size() || 0 != mTagNamespaceFilterList.size();
+    public boolean needTags() {
+        return mMatcher.needTags();
     }
 
-    public synchronized boolean filterTitle(GalleryInfo info) {
+    public boolean filterTitle(GalleryInfo info) {
         if (null == info) {
             return false;
         }
 
         // Title
         String title = info.title;
-        List<Filter> filters = mTitleFilterList;
-        if (null != title && filters.size() > 0) {
-            for (int i = 0, n = filters.size(); i < n; i++) {
-                if (filters.get(i).enable && title.toLowerCase().contains(filters.get(i).text)) {
-                    return false;
-                }
-            }
-        }
-
-        return true;
+        return null == title || !mMatcher.matchTitle(title.toLowerCase());
     }
 
-    public synchronized boolean filterUploader(GalleryInfo info) {
+    public boolean filterUploader(GalleryInfo info) {
         if (null == info) {
             return false;
         }
 
         // Uploader
-        String uploader = info.uploader;
-        List<Filter> filters = mUploaderFilterList;
-        if (null != uploader && filters.size() > 0) {
-            for (int i = 0, n = filters.size(); i < n; i++) {
-                if (filters.get(i).enable && uploader.equals(filters.get(i).text)) {
-                    return false;
-                }
-            }
-        }
-
-        return true;
-    }
-
-    private boolean matchTag(String tag, String filter) {
-        if (null == tag || null == filter) {
-            return false;
-        }
-
-        String tagNamespace;
-        String tagName;
-        String filterNamespace;
-        String filterName;
-        int index = tag.indexOf(':');
-        if (index < 0) {
-            tagNamespace = null;
-            tagName = tag;
-        } else {
-            tagNamespace = tag.substring(0, index);
-            tagName = tag.substring(index + 1);
-        }
-        index = filter.indexOf(':');
-        if (index < 0) {
-            filterNamespace = null;
-            filterName = filter;
-        } else {
-            filterNamespace = filter.substring(0, index);
-            filterName = filter.substring(index + 1);
-        }
-
-        if (null != tagNamespace && null != filterNamespace &&
-                !tagNamespace.equals(filterNamespace)) {
-            return false;
-        }
-        if (!tagName.equals(filterName)) {
-            return false;
-        }
-
-        return true;
+        return !mMatcher.matchUploader(info.uploader);
     }
 
-    public synchronized boolean filterTag(GalleryInfo info) {
+    public boolean filterTag(GalleryInfo info) {
         if (null == info) {
             return false;
         }
 
         // Tag
-        String[] tags = info.simpleTags;
-        List<Filter> filters = mTagFilterList;
-        if (null != tags && filters.size() > 0) {
-            for (String tag: tags) {
-                for (int i = 0, n = filters.size(); i < n; i++) {
-                    if (filters.get(i).enable && matchTag(tag, filters.get(i).text)) {
-                        return false;
-                    }
-                }
-            }
-        }
-
-        return true;
+        return !mMatcher.matchTag(info.simpleTags);
     }
 
-    private boolean matchTagNamespace(String tag, String filter) {
-        if (null == tag || null == filter) {
-            return false;
-        }
-
-        String tagNamespace;
-        int index = tag.indexOf(':');
-        if (index >= 0) {
-            tagNamespace = tag.substring(0, index);
-            return tagNamespace.equals(filter);
-        } else {
-            return false;
-        }
-    }
-
-    public synchronized boolean filterTagNamespace(GalleryInfo info) {
+    public boolean filterTagNamespace(GalleryInfo info) {
         if (null == info) {
             return false;
         }
 
-        String[] tags = info.simpleTags;
-        List<Filter> filters = mTagNamespaceFilterList;
-        if (null != tags && filters.size() > 0) {
-            for (String tag: tags) {
-                for (int i = 0, n = filters.size(); i < n; i++) {
-                    if (filters.get(i).enable && matchTagNamespace(tag, filters.get(i).text)) {
-                        return false;
-                    }
-                }
-            }
-        }
-
-        return true;
+        return !mMatcher.matchTagNamespace(info.simpleTags);
     }
 }
@@ -0,0 +1,250 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.client;
+
+import androidx.annotation.Nullable;
+
+import com.hippo.ehviewer.dao.Filter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Enabled filters compiled for matching, immutable and safe for any thread.
+ * <p>
+ * Title keywords are matched with an Aho–Corasick automaton in one pass over
+ * the title, tags and uploaders are matched with hash sets.
+ */
+final class EhFilterMatcher {
+
+    static final EhFilterMatcher EMPTY = new EhFilterMatcher(
+            new ArrayList<>(), new ArrayList<>(), new ArrayList<>(), new ArrayList<>());
+
+    // Aho–Corasick automaton, state 0 is root.
+    // Goto edges of each state are sorted by char.
+    private final char[][] mEdgeChars;
+    private final int[][] mEdgeStates;
+    private final int[] mFail;
+    // True if a keyword ends at the state or its fail chain
+    private final boolean[] mTerminal;
+    private final boolean mHasTitle;
+
+    private final Set<String> mUploaderSet = new HashSet<>();
+    // "namespace:name" filters
+    private final Set<String> mTagSet = new HashSet<>();
+    // Names of filters without namespace, match any namespace
+    private final Set<String> mTagNameSet = new HashSet<>();
+    // Names of all filters, match tags without namespace
+    private final Set<String> mAllTagNameSet = new HashSet<>();
+    private final Set<String> mNamespaceSet = new HashSet<>();
+
+    EhFilterMatcher(List<Filter> titleFilters, List<Filter> uploaderFilters,
+            List<Filter> tagFilters, List<Filter> tagNamespaceFilters) {
+        // Build trie
+        List<Map<Character, Integer>> trie = new ArrayList<>();
+        List<Boolean> terminal = new ArrayList<>();
+        trie.add(new HashMap<>());
+        terminal.add(false);
+        boolean hasTitle = false;
+        for (Filter filter : titleFilters) {
+            if (!isEnabled(filter)) {
+                continue;
+            }
+            hasTitle = true;
+            int state = 0;
+            String text = filter.text;
+            for (int i = 0, n = text.length(); i < n; i++) {
+                Character ch = text.charAt(i);
+                Integer next = trie.get(state).get(ch);
+                if (next == null) {
+                    next = trie.size();
+                    trie.add(new HashMap<>());
+                    terminal.add(false);
+                    trie.get(state).put(ch, next);
+                }
+                state = next;
+            }
+            terminal.set(state, true);
+        }
+        mHasTitle = hasTitle;
+
+        int size = trie.size();
+        mEdgeChars = new char[size][];
+        mEdgeStates = new int[size][];
+        mFail = new int[size];
+        mTerminal = new boolean[size];
+        for (int i = 0; i < size; i++) {
+            Map<Character, Integer> edges = trie.get(i);
+            char[] chars = new char[edges.size()];
+            int j = 0;
+            for (Character ch : edges.keySet()) {
+                chars[j++] = ch;
+            }
+            Arrays.sort(chars);
+            int[] states = new int[chars.length];
+            for (j = 0; j < chars.length; j++) {
+                states[j] = edges.get(chars[j]);
+            }
+            mEdgeChars[i] = chars;
+            mEdgeStates[i] = states;
+            mTerminal[i] = terminal.get(i);
+        }
+
+        // Fail links in BFS order, so the fail state is always done before
+        int[] queue = new int[size];
+        int head = 0;
+        int tail = 0;
+        for (int child : mEdgeStates[0]) {
+            mFail[child] = 0;
+            queue[tail++] = child;
+        }
+        while (head < tail) {
+            int state = queue[head++];
+            char[] chars = mEdgeChars[state];
+            int[] states = mEdgeStates[state];
+            for (int i = 0; i < chars.length; i++) {
+                int child = states[i];
+                int fail = mFail[state];
+                int next;
+                while ((next = getEdge(fail, chars[i])) < 0 && fail != 0) {
+                    fail = mFail[fail];
+                }
+                mFail[child] = next >= 0 ? next : 0;
+                mTerminal[child] |= mTerminal[mFail[child]];
+                queue[tail++] = child;
+            }
+        }
+
+        for (Filter filter : uploaderFilters) {
+            if (isEnabled(filter)) {
+                mUploaderSet.add(filter.text);
+            }
+        }
+
+        for (Filter filter : tagFilters) {
+            if (!isEnabled(filter)) {
+                continue;
+            }
+            String text = filter.text;
+            int index = text.indexOf(':');
+            if (index < 0) {
+                mTagNameSet.add(text);
+                mAllTagNameSet.add(text);
+            } else {
+                mTagSet.add(text);
+                mAllTagNameSet.add(text.substring(index + 1));
+            }
+        }
+
+        for (Filter filter : tagNamespaceFilters) {
+            if (isEnabled(filter)) {
+                mNamespaceSet.add(filter.text);
+            }
+        }
+    }
+
+    private static boolean isEnabled(Filter filter) {
+        return filter.text != null && Boolean.TRUE.equals(filter.enable);
+    }
+
+    private int getEdge(int state, char ch) {
+        int index = Arrays.binarySearch(mEdgeChars[state], ch);
+        return index >= 0 ? mEdgeStates[state][index] : -1;
+    }
+
+    boolean needTags() {
+        return !mAllTagNameSet.isEmpty() || !mNamespaceSet.isEmpty();
+    }
+
+    /**
+     * @param title lower case
+     * @return true if the title contains any keyword
+     */
+    boolean matchTitle(@Nullable String title) {
+        if (title == null || !mHasTitle) {
+            return false;
+        }
+        if (mTerminal[0]) {
+            // Empty keyword
+            return true;
+        }
+
+        int state = 0;
+        for (int i = 0, n = title.length(); i < n; i++) {
+            char ch = title.charAt(i);
+            int next;
+            while ((next = getEdge(state, ch)) < 0 && state != 0) {
+                state = mFail[state];
+            }
+            state = next >= 0 ? next : 0;
+            if (mTerminal[state]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    boolean matchUploader(@Nullable String uploader) {
+        return uploader != null && mUploaderSet.contains(uploader);
+    }
+
+    /**
+     * A tag matches a filter if the names are equal and the namespaces are
+     * equal or either of them has no namespace.
+     */
+    boolean matchTag(@Nullable String[] tags) {
+        if (tags == null || mAllTagNameSet.isEmpty()) {
+            return false;
+        }
+        for (String tag : tags) {
+            if (tag == null) {
+                continue;
+            }
+            int index = tag.indexOf(':');
+            if (index < 0) {
+                if (mAllTagNameSet.contains(tag)) {
+                    return true;
+                }
+            } else if (mTagSet.contains(tag) ||
+                    (!mTagNameSet.isEmpty() && mTagNameSet.contains(tag.substring(index + 1)))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    boolean matchTagNamespace(@Nullable String[] tags) {
+        if (tags == null || mNamespaceSet.isEmpty()) {
+            return false;
+        }
+        for (String tag : tags) {
+            if (tag == null) {
+                continue;
+            }
+            int index = tag.indexOf(':');
+            if (index >= 0 && mNamespaceSet.contains(tag.substring(0, index))) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
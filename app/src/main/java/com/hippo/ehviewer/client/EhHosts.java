@@ -30,15 +30,31 @@ import com.hippo.ehviewer.EhApplication;
 import com.hippo.ehviewer.Hosts;
 import com.hippo.ehviewer.Settings;
 
+import com.hippo.lib.yorozuya.IOUtils;
+import com.hippo.lib.yorozuya.NumberUtils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -148,12 +164,33 @@ public class EhHosts implements Dns {
     private static final ScheduledExecutorService cacheCleaner = Executors.newSingleThreadScheduledExecutor();
     private static final long CACHE_DURATION_MS = 5 * 60 * 1000; // 5分钟缓存
 
+    // Addresses resolved last time for each host, kept across restarts with address stats.
+    // Least recently used first, guarded by itself
+    private static final int MAX_KNOWN_HOSTS = 200;
+    private static final long KNOWN_HOST_STALE_MS = 7 * 24 * 60 * 60 * 1000L;
+    private static final LinkedHashMap<String, KnownHost> lastKnownHosts =
+            new LinkedHashMap<String, KnownHost>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, KnownHost> eldest) {
+                    return size() > MAX_KNOWN_HOSTS;
+                }
+            };
+    // Stored hosts which are being resolved again in background
+    private static final Set<String> refreshingHosts =
+            Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private static final String STORE_FILENAME = "eh_hosts";
+    private static final long STORE_INTERVAL_MS = 60 * 1000;
+    private static File storeFile;
+    private static volatile boolean lastKnownDirty;
+
     static {
         // 启动缓存清理任务
         cacheCleaner.scheduleAtFixedRate(() -> {
             long now = System.currentTimeMillis();
             dnsCache.entrySet().removeIf(entry -> now - entry.getValue().timestamp > CACHE_DURATION_MS);
         }, CACHE_DURATION_MS, CACHE_DURATION_MS, TimeUnit.MILLISECONDS);
+        cacheCleaner.scheduleWithFixedDelay(EhHosts::writeStore,
+                STORE_INTERVAL_MS, STORE_INTERVAL_MS, TimeUnit.MILLISECONDS);
     }
 
     /**
@@ -212,15 +249,165 @@ public class EhHosts implements Dns {
         }
     }
 
+    /**
+     * Addresses resolved for a host, in this run or read from the store
+     */
+    private static class KnownHost {
+        final List<InetAddress> addresses;
+        // Read from the store, not resolved in this run yet
+        final boolean stored;
+        long lastUsed;
+
+        KnownHost(List<InetAddress> addresses, boolean stored, long lastUsed) {
+            this.addresses = addresses;
+            this.stored = stored;
+            this.lastUsed = lastUsed;
+        }
+    }
+
     public EhHosts(Context context) {
         this.context = context.getApplicationContext();
         hosts = EhApplication.getHosts(context);
+        // Don't read the file on the caller thread, it's written on the same thread
+        Context appContext = this.context;
+        cacheCleaner.execute(() -> readStore(new File(appContext.getFilesDir(), STORE_FILENAME)));
         DnsOverHttps.Builder builder = new DnsOverHttps.Builder()
                 .client(new OkHttpClient.Builder().cache(EhApplication.getOkHttpCache(context)).build())
                 .url(HttpUrl.get("https://77.88.8.1/dns-query"));
         dnsOverHttps = builder.post(true).build();
     }
 
+    private static void putCache(String hostname, List<InetAddress> addresses) {
+        List<InetAddress> list = new ArrayList<>(addresses);
+        dnsCache.put(hostname, new DnsCacheEntry(list));
+        KnownHost old;
+        synchronized (lastKnownHosts) {
+            old = lastKnownHosts.put(hostname,
+                    new KnownHost(list, false, System.currentTimeMillis()));
+        }
+        if (old == null || !list.equals(old.addresses)) {
+            lastKnownDirty = true;
+        }
+    }
+
+    private static KnownHost getKnownHost(String hostname) {
+        synchronized (lastKnownHosts) {
+            KnownHost known = lastKnownHosts.get(hostname);
+            if (known != null) {
+                known.lastUsed = System.currentTimeMillis();
+            }
+            return known;
+        }
+    }
+
+    private static synchronized void readStore(File file) {
+        if (storeFile != null) {
+            // Only read once
+            return;
+        }
+        storeFile = file;
+
+        long now = System.currentTimeMillis();
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file)));
+            String line;
+            // "H hostname ip,ip lastUsed" or "A address stat"
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("H ")) {
+                    String[] parts = line.split(" ");
+                    if (parts.length != 3 && parts.length != 4) {
+                        continue;
+                    }
+                    // Old lines have no lastUsed, count them as used now
+                    long lastUsed = parts.length == 4
+                            ? NumberUtils.parseLongSafely(parts[3], now) : now;
+                    if (now - lastUsed > KNOWN_HOST_STALE_MS) {
+                        continue;
+                    }
+                    List<InetAddress> addresses = new ArrayList<>();
+                    for (String ip : parts[2].split(",")) {
+                        InetAddress address = Hosts.toInetAddress(parts[1], ip);
+                        if (address != null) {
+                            addresses.add(address);
+                        }
+                    }
+                    if (!addresses.isEmpty()) {
+                        synchronized (lastKnownHosts) {
+                            // Hosts resolved before the file is read are newer
+                            if (!lastKnownHosts.containsKey(parts[1])) {
+                                lastKnownHosts.put(parts[1],
+                                        new KnownHost(addresses, true, lastUsed));
+                            }
+                        }
+                    }
+                } else if (line.startsWith("A ")) {
+                    EhAddressStats.read(line.substring(2));
+                }
+            }
+        } catch (IOException e) {
+            // Ignore
+        } finally {
+            IOUtils.closeQuietly(reader);
+        }
+    }
+
+    private static synchronized void writeStore() {
+        if (storeFile == null || (!lastKnownDirty && !EhAddressStats.isDirty())) {
+            return;
+        }
+        lastKnownDirty = false;
+
+        // Drop hosts not used for a long time, keep the order of use
+        long now = System.currentTimeMillis();
+        List<Map.Entry<String, KnownHost>> knownHosts = new ArrayList<>();
+        synchronized (lastKnownHosts) {
+            Iterator<Map.Entry<String, KnownHost>> iterator = lastKnownHosts.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, KnownHost> entry = iterator.next();
+                if (now - entry.getValue().lastUsed > KNOWN_HOST_STALE_MS) {
+                    iterator.remove();
+                } else {
+                    knownHosts.add(new AbstractMap.SimpleEntry<>(entry));
+                }
+            }
+        }
+
+        File tempFile = new File(storeFile.getPath() + ".tmp");
+        Writer writer = null;
+        try {
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tempFile)));
+            for (Map.Entry<String, KnownHost> entry : knownHosts) {
+                KnownHost known = entry.getValue();
+                StringBuilder sb = new StringBuilder();
+                for (InetAddress address : known.addresses) {
+                    if (sb.length() > 0) {
+                        sb.append(',');
+                    }
+                    sb.append(address.getHostAddress());
+                }
+                writer.write("H " + entry.getKey() + " " + sb + " " + known.lastUsed + "\n");
+            }
+            StringWriter stats = new StringWriter();
+            EhAddressStats.write(stats);
+            for (String line : stats.toString().split("\n")) {
+                if (!line.isEmpty()) {
+                    writer.write("A " + line + "\n");
+                }
+            }
+            writer.close();
+            writer = null;
+            if (!tempFile.renameTo(storeFile)) {
+                tempFile.delete();
+            }
+        } catch (IOException e) {
+            android.util.Log.w(TAG, "Can't write hosts store", e);
+            tempFile.delete();
+        } finally {
+            IOUtils.closeQuietly(writer);
+        }
+    }
+
     private static void put(Map<String, List<InetAddress>> map, String host, String... ips) {
         List<InetAddress> addresses = new ArrayList<>();
         for (String ip : ips) {
@@ -236,9 +423,7 @@ public class EhHosts implements Dns {
         // 首先检查DNS缓存
         DnsCacheEntry cacheEntry = dnsCache.get(hostname);
         if (cacheEntry != null && !cacheEntry.isExpired()) {
-            List<InetAddress> cachedAddresses = new ArrayList<>(cacheEntry.addresses);
-            Collections.shuffle(cachedAddresses, new Random(System.currentTimeMillis()));
-            return cachedAddresses;
+            return EhAddressStats.rank(cacheEntry.addresses);
         }
 
         List<InetAddress> inetAddresses = null;
@@ -246,49 +431,76 @@ public class EhHosts implements Dns {
         // 1. 检查用户自定义hosts
         inetAddresses = hosts.getList(hostname);
         if (inetAddresses != null && !inetAddresses.isEmpty()) {
-            inetAddresses = new ArrayList<>(inetAddresses);
-            Collections.shuffle(inetAddresses, new Random(System.currentTimeMillis()));
-            dnsCache.put(hostname, new DnsCacheEntry(inetAddresses));
-            return inetAddresses;
+            putCache(hostname, inetAddresses);
+            return EhAddressStats.rank(inetAddresses);
         }
 
         // 2. 检查内置hosts
         if (Settings.getBuiltInHosts() || Settings.getBuiltEXHosts()) {
             inetAddresses = builtInHosts.get(hostname);
             if (inetAddresses != null) {
-                inetAddresses = new ArrayList<>(inetAddresses);
-                Collections.shuffle(inetAddresses, new Random(System.currentTimeMillis()));
-                dnsCache.put(hostname, new DnsCacheEntry(inetAddresses));
-                return inetAddresses;
+                putCache(hostname, inetAddresses);
+                return EhAddressStats.rank(inetAddresses);
             }
         }
 
-        // 3. DNS over HTTPS
+        // 3. 冷启动时先用上次运行解析的地址，后台重新解析
+        KnownHost known = getKnownHost(hostname);
+        if (known != null && known.stored) {
+            refreshInBackground(hostname);
+            return EhAddressStats.rank(known.addresses);
+        }
+
+        // 4. DoH 和系统DNS
+        inetAddresses = resolve(hostname);
+        if (inetAddresses != null && !inetAddresses.isEmpty()) {
+            putCache(hostname, inetAddresses);
+            return EhAddressStats.rank(inetAddresses);
+        }
+
+        // Addresses resolved last time
+        if (known != null) {
+            return EhAddressStats.rank(known.addresses);
+        }
+
+        // 如果所有方法都失败
+        throw new UnknownHostException("Unable to resolve host: " + hostname);
+    }
+
+    private void refreshInBackground(String hostname) {
+        if (!refreshingHosts.add(hostname)) {
+            return;
+        }
+        dnsExecutor.execute(() -> {
+            try {
+                List<InetAddress> addresses = resolve(hostname);
+                if (addresses != null && !addresses.isEmpty()) {
+                    putCache(hostname, addresses);
+                }
+            } finally {
+                refreshingHosts.remove(hostname);
+            }
+        });
+    }
+
+    /**
+     * Resolve with DNS over HTTPS, then system DNS.
+     */
+    private List<InetAddress> resolve(String hostname) {
+        // DNS over HTTPS
         if (Settings.getDoH()) {
             try {
-                inetAddresses = dnsOverHttps.lookup(hostname);
-                if (!inetAddresses.isEmpty()) {
-                    inetAddresses = new ArrayList<>(inetAddresses);
-                    Collections.shuffle(inetAddresses, new Random(System.currentTimeMillis()));
-                    dnsCache.put(hostname, new DnsCacheEntry(inetAddresses));
-                    return inetAddresses;
+                List<InetAddress> addresses = dnsOverHttps.lookup(hostname);
+                if (!addresses.isEmpty()) {
+                    return addresses;
                 }
             } catch (Exception e) {
                 // DoH失败，继续使用系统DNS
             }
         }
 
-        // 4. 增强系统DNS解析（带超时和重试）
-        inetAddresses = performRobustDnsLookup(hostname);
-        if (inetAddresses != null && !inetAddresses.isEmpty()) {
-            inetAddresses = new ArrayList<>(inetAddresses);
-            Collections.shuffle(inetAddresses, new Random(System.currentTimeMillis()));
-            dnsCache.put(hostname, new DnsCacheEntry(inetAddresses));
-            return inetAddresses;
-        }
-
-        // 如果所有方法都失败
-        throw new UnknownHostException("Unable to resolve host: " + hostname);
+        // 增强系统DNS解析（带超时和重试）
+        return performRobustDnsLookup(hostname);
     }
 
     /**
@@ -17,7 +17,6 @@
 package com.hippo.ehviewer.client;
 
 import android.content.Context;
-import android.util.Base64;
 import android.util.Pair;
 
 import androidx.annotation.Nullable;
@@ -26,10 +25,8 @@ import com.google.firebase.crashlytics.FirebaseCrashlytics;
 import com.hippo.ehviewer.AppConfig;
 import com.hippo.ehviewer.EhApplication;
 import com.hippo.ehviewer.R;
-import com.hippo.ehviewer.client.data.Tag;
 import com.hippo.util.ExceptionUtils;
 import com.hippo.util.IoThreadPoolExecutor;
-import com.hippo.util.TextUrl;
 import com.hippo.lib.yorozuya.FileUtils;
 import com.hippo.lib.yorozuya.IOUtils;
 
@@ -39,10 +36,8 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -59,120 +54,20 @@ import okio.Okio;
 
 public class EhTagDatabase {
 
+    private static final int SUGGEST_LIMIT = 40;
+
     private final String name;
-    private final byte[] tags;
-    private final List<Tag> tagList;
+    private final EhTagIndex index;
 
-    public EhTagDatabase(String name, BufferedSource source) throws IOException {
+    private EhTagDatabase(String name, EhTagIndex index) {
         this.name = name;
-        int totalBytes = source.readInt();
-
-        tags = new byte[totalBytes];
-        source.readFully(tags);
-        byte[] newByte = tags.clone();
-        String sourceString = new String(newByte, StandardCharsets.UTF_8);
-
-        tagList = initTagList(sourceString);
+        this.index = index;
     }
 
     public String getTranslation(String tag) {
-        return search(tags, tag.getBytes(TextUrl.UTF_8));
-    }
-
-    private List<Tag> initTagList(String sourceString) {
-        String[] tagStrings = sourceString.split("\n");
-
-        List<Tag> initList = new ArrayList<>();
-
-        for (String tagString : tagStrings) {
-            initList.add(parseTag(tagString));
-        }
-
-        return initList;
-    }
-
-    private Tag parseTag(String source) {
-        String[] cArray = source.split("\r");
-        if (cArray.length == 2) {
-            String english;
-            String chinese = new String(Base64.decode(cArray[1], Base64.DEFAULT), StandardCharsets.UTF_8);
-            String[] eArray = cArray[0].split(":");
-            if (eArray.length == 2) {
-                String key = eArray[0] + ":";
-                english = (PREFIX_TO_NAMESPACE.containsKey(key) ? PREFIX_TO_NAMESPACE.get(key) : cArray[0]) + ":" + eArray[1];
-            } else {
-                english = cArray[0];
-            }
-            return new Tag(english, chinese);
-        }
-
-        return new Tag(source, "null");
-    }
-
-    @Nullable
-    private String search(byte[] tags, byte[] tag) {
-        int low = 0;
-        int high = tags.length;
-        while (low < high) {
-            int start = (low + high) / 2;
-            // Look for the starting '\n'
-            while (start > -1 && tags[start] != '\n') {
-                start--;
-            }
-            start++;
-
-            // Look for the middle '\r'.
-            int middle = 1;
-            while (tags[start + middle] != '\r') {
-                middle++;
-            }
-
-            // Look for the ending '\n'
-            int end = middle + 1;
-            while (tags[start + end] != '\n') {
-                end++;
-            }
-
-            int compare;
-            int tagIndex = 0;
-            int curIndex = start;
-
-            for (; ; ) {
-                int tagByte = tag[tagIndex] & 0xff;
-                int curByte = tags[curIndex] & 0xff;
-                compare = tagByte - curByte;
-                if (compare != 0) {
-                    break;
-                }
-
-                tagIndex++;
-                curIndex++;
-                if (tagIndex == tag.length && curIndex == start + middle) {
-                    break;
-                }
-                if (tagIndex == tag.length) {
-                    compare = -1;
-                    break;
-                }
-                if (curIndex == start + middle) {
-                    compare = 1;
-                    break;
-                }
-            }
-
-            if (compare < 0) {
-                high = start - 1;
-            } else if (compare > 0) {
-                low = start + end + 1;
-            } else {
-                byte[] bytes = Base64.decode(tags, start + middle + 1, end - middle - 1, Base64.DEFAULT);
-                return new String(bytes, TextUrl.UTF_8);
-            }
-        }
-        return null;
+        return index.getTranslation(tag);
     }
 
-
     public static final Map<String, String> NAMESPACE_TO_PREFIX = new HashMap<>();
     public static final Map<String, String> PREFIX_TO_NAMESPACE = new HashMap<>();
 
@@ -205,6 +100,8 @@ public class EhTagDatabase {
         PREFIX_TO_NAMESPACE.put("r:", "reclass");
     }
 
+    private static final String INDEX_SUFFIX = ".idx";
+
     private static volatile EhTagDatabase instance;
     // TODO more lock for different language
     private static final Lock lock = new ReentrantLock();
@@ -312,6 +209,29 @@ public class EhTagDatabase {
         return equals(s1, s2);
     }
 
+    @Nullable
+    private static EhTagDatabase open(String name, File indexFile, byte[] sha1) {
+        EhTagIndex index = EhTagIndex.open(indexFile, sha1);
+        return index != null ? new EhTagDatabase(name, index) : null;
+    }
+
+    @Nullable
+    private static EhTagDatabase build(String name, File dataFile, File indexFile, byte[] sha1) {
+        File tempIndexFile = new File(indexFile.getPath() + ".tmp");
+        try (BufferedSource source = Okio.buffer(Okio.source(dataFile))) {
+            EhTagIndex.build(source, sha1, tempIndexFile);
+        } catch (IOException e) {
+            FileUtils.delete(tempIndexFile);
+            return null;
+        }
+        FileUtils.delete(indexFile);
+        if (!tempIndexFile.renameTo(indexFile)) {
+            FileUtils.delete(tempIndexFile);
+            return null;
+        }
+        return open(name, indexFile, sha1);
+    }
+
     private static boolean save(OkHttpClient client, String url, File file) {
         Request request = new Request.Builder().url(url).build();
         Call call = client.newCall(request);
@@ -366,21 +286,26 @@ public class EhTagDatabase {
                     return;
                 }
 
-                // Check current sha1 and current data
                 File sha1File = new File(dir, sha1Name);
                 File dataFile = new File(dir, dataName);
-                if (!checkData(sha1File, dataFile)) {
-                    FileUtils.delete(sha1File);
-                    FileUtils.delete(dataFile);
+                File indexFile = new File(dir, dataName + INDEX_SUFFIX);
+                byte[] sha1 = getFileContent(sha1File, 20);
+
+                // Map current index, the data has been checked when the index is built
+                if (instance == null && sha1 != null) {
+                    instance = open(dataName, indexFile, sha1);
                 }
 
-                // Read current EhTagDatabase
-                if (instance == null && dataFile.exists()) {
-                    try (BufferedSource source = Okio.buffer(Okio.source(dataFile))) {
-                        instance = new EhTagDatabase(dataName, source);
-                    } catch (IOException e) {
+                // Check current sha1 and current data, then build the index
+                if (instance == null) {
+                    if (sha1 != null && checkData(sha1File, dataFile)) {
+                        instance = build(dataName, dataFile, indexFile, sha1);
+                    }
+                    if (instance == null) {
                         FileUtils.delete(sha1File);
                         FileUtils.delete(dataFile);
+                        FileUtils.delete(indexFile);
+                        sha1 = null;
                     }
                 }
 
@@ -393,8 +318,9 @@ public class EhTagDatabase {
                     return;
                 }
 
-                // Check new sha1 and current data
-                if (checkData(tempSha1File, dataFile)) {
+                // Check new sha1 and current sha1
+                byte[] newSha1 = getFileContent(tempSha1File, 20);
+                if (sha1 != null && equals(sha1, newSha1)) {
                     // The data is the same
                     FileUtils.delete(tempSha1File);
                     return;
@@ -417,14 +343,14 @@ public class EhTagDatabase {
                 // Replace current sha1 and current data with new sha1 and new data
                 FileUtils.delete(sha1File);
                 FileUtils.delete(dataFile);
+                FileUtils.delete(indexFile);
                 tempSha1File.renameTo(sha1File);
                 tempDataFile.renameTo(dataFile);
 
-                // Read new EhTagDatabase
-                try (BufferedSource source = Okio.buffer(Okio.source(dataFile))) {
-                    instance = new EhTagDatabase(dataName, source);
-                } catch (IOException e) {
-                    // Ignore
+                // Build and map new index
+                EhTagDatabase database = build(dataName, dataFile, indexFile, newSha1);
+                if (database != null) {
+                    instance = database;
                 }
             } finally {
                 lock.unlock();
@@ -433,23 +359,6 @@ public class EhTagDatabase {
     }
 
     public List<Pair<String, String>> suggest(String keyword) {
-        return searchTag(tagList, keyword);
-    }
-
-    private List<Pair<String, String>> searchTag(List<Tag> tags, String keyword) {
-
-        List<Pair<String, String>> searchList = new ArrayList<>();
-        int total = 0;
-        for (Tag tag : tags) {
-            if (total >= 40) {
-                break;
-            }
-            if (tag.involve(keyword)) {
-                searchList.add(new Pair<>(tag.chinese, tag.english));
-                total++;
-            }
-        }
-
-        return searchList;
+        return index.suggest(keyword, SUGGEST_LIMIT);
     }
 }
@@ -0,0 +1,446 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.client;
+
+import android.util.Base64;
+import android.util.Pair;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import okio.BufferedSource;
+
+/**
+ * Compiled tag translations, memory-mapped and queried in place.
+ * <p>
+ * Layout, all big-endian:
+ * <pre>
+ * header       magic, version, sha1 of the data, counts and section offsets
+ * tag table    (key offset, chinese offset) for each tag, sorted by key bytes
+ * gram tables  (gram, posting offset, posting count), sorted by gram,
+ *              one table for single chars and one for char pairs
+ * postings     ascending tag ids for each gram
+ * pool         length-prefixed UTF-8 strings
+ * </pre>
+ * A gram is taken from both the full English tag (with namespace) and the
+ * Chinese translation, so suggestions only verify the tags of the rarest
+ * gram of the keyword.
+ */
+final class EhTagIndex {
+
+    private static final int MAGIC = 0x45544442;
+    private static final int VERSION = 1;
+    private static final int SHA1_SIZE = 20;
+    private static final int HEADER_SIZE = 4 + 4 + SHA1_SIZE + 4 * 8;
+    private static final int TAG_ENTRY_SIZE = 8;
+    private static final int GRAM_ENTRY_SIZE = 12;
+
+    private final ByteBuffer mBuffer;
+    private final int mTagCount;
+    private final int mUnigramCount;
+    private final int mBigramCount;
+    private final int mTagTable;
+    private final int mUnigramTable;
+    private final int mBigramTable;
+    private final int mPostings;
+    private final int mPool;
+
+    private EhTagIndex(ByteBuffer buffer) {
+        mBuffer = buffer;
+        int position = 4 + 4 + SHA1_SIZE;
+        mTagCount = buffer.getInt(position);
+        mUnigramCount = buffer.getInt(position + 4);
+        mBigramCount = buffer.getInt(position + 8);
+        mTagTable = buffer.getInt(position + 12);
+        mUnigramTable = buffer.getInt(position + 16);
+        mBigramTable = buffer.getInt(position + 20);
+        mPostings = buffer.getInt(position + 24);
+        mPool = buffer.getInt(position + 28);
+    }
+
+    /**
+     * Check the sections follow each other and the pool ends at the file end,
+     * a truncated or broken file is built again instead of read out of range.
+     */
+    private boolean isValid(long size) {
+        if (mTagCount < 0 || mUnigramCount < 0 || mBigramCount < 0 ||
+                mTagTable != HEADER_SIZE ||
+                mUnigramTable != mTagTable + (long) mTagCount * TAG_ENTRY_SIZE ||
+                mBigramTable != mUnigramTable + (long) mUnigramCount * GRAM_ENTRY_SIZE ||
+                mPostings != mBigramTable + (long) mBigramCount * GRAM_ENTRY_SIZE ||
+                mPool < mPostings || mPool > size) {
+            return false;
+        }
+        if (mTagCount == 0) {
+            return mPool == size;
+        }
+        // The chinese of the last tag is the last string of the pool
+        int offset = mBuffer.getInt(mTagTable + (mTagCount - 1) * TAG_ENTRY_SIZE + 4);
+        if (offset < mPool || offset > size - 4) {
+            return false;
+        }
+        return offset + 4L + mBuffer.getInt(offset) == size;
+    }
+
+    /**
+     * @return null if the file is missing, broken or not built from the data of the sha1
+     */
+    @Nullable
+    static EhTagIndex open(@NonNull File file, @NonNull byte[] sha1) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            long size = channel.size();
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+                return null;
+            }
+            // The mapping is still valid after the channel is closed
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                return null;
+            }
+            for (int i = 0; i < SHA1_SIZE; i++) {
+                if (buffer.get(8 + i) != sha1[i]) {
+                    return null;
+                }
+            }
+            EhTagIndex index = new EhTagIndex(buffer);
+            return index.isValid(size) ? index : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    int getTagCount() {
+        return mTagCount;
+    }
+
+    @Nullable
+    String getTranslation(@NonNull String tag) {
+        byte[] key = tag.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = mTagCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int compare = compareKey(key, mBuffer.getInt(mTagTable + mid * TAG_ENTRY_SIZE));
+            if (compare < 0) {
+                high = mid - 1;
+            } else if (compare > 0) {
+                low = mid + 1;
+            } else {
+                return readString(mBuffer.getInt(mTagTable + mid * TAG_ENTRY_SIZE + 4));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return (chinese, english) of the tags which contain the keyword, in key order
+     */
+    @NonNull
+    List<Pair<String, String>> suggest(@NonNull String keyword, int limit) {
+        int length = keyword.length();
+        if (length == 0) {
+            return Collections.emptyList();
+        }
+
+        // Find the rarest gram, every tag containing the keyword is in its postings
+        int entry = -1;
+        if (length == 1) {
+            entry = findGram(mUnigramTable, mUnigramCount, keyword.charAt(0));
+        } else {
+            int minCount = Integer.MAX_VALUE;
+            for (int i = 0; i < length - 1; i++) {
+                int e = findGram(mBigramTable, mBigramCount, bigram(keyword.charAt(i), keyword.charAt(i + 1)));
+                if (e < 0) {
+                    return Collections.emptyList();
+                }
+                int count = mBuffer.getInt(e + 8);
+                if (count < minCount) {
+                    minCount = count;
+                    entry = e;
+                }
+            }
+        }
+        if (entry < 0) {
+            return Collections.emptyList();
+        }
+
+        List<Pair<String, String>> result = new ArrayList<>();
+        int posting = mBuffer.getInt(entry + 4);
+        int count = mBuffer.getInt(entry + 8);
+        for (int i = 0; i < count && result.size() < limit; i++) {
+            int id = mBuffer.getInt(posting + i * 4);
+            int tagEntry = mTagTable + id * TAG_ENTRY_SIZE;
+            String english = expand(readString(mBuffer.getInt(tagEntry)));
+            String chinese = readString(mBuffer.getInt(tagEntry + 4));
+            if (english.contains(keyword) || chinese.contains(keyword)) {
+                result.add(new Pair<>(chinese, english));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return offset of the gram entry, or -1
+     */
+    private int findGram(int table, int count, int gram) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int offset = table + mid * GRAM_ENTRY_SIZE;
+            int compare = Integer.compare(gram, mBuffer.getInt(offset));
+            if (compare < 0) {
+                high = mid - 1;
+            } else if (compare > 0) {
+                low = mid + 1;
+            } else {
+                return offset;
+            }
+        }
+        return -1;
+    }
+
+    private int compareKey(byte[] key, int offset) {
+        int length = mBuffer.getInt(offset);
+        offset += 4;
+        int n = Math.min(key.length, length);
+        for (int i = 0; i < n; i++) {
+            int compare = (key[i] & 0xff) - (mBuffer.get(offset + i) & 0xff);
+            if (compare != 0) {
+                return compare;
+            }
+        }
+        return key.length - length;
+    }
+
+    private String readString(int offset) {
+        int length = mBuffer.getInt(offset);
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = mBuffer.get(offset + 4 + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int bigram(char c1, char c2) {
+        return (c1 << 16) | c2;
+    }
+
+    /**
+     * "f:tag" to "female:tag".
+     */
+    private static String expand(String key) {
+        int index = key.indexOf(':');
+        if (index < 0 || key.indexOf(':', index + 1) >= 0) {
+            return key;
+        }
+        String namespace = EhTagDatabase.prefixToNamespace(key.substring(0, index + 1));
+        return namespace != null ? namespace + key.substring(index) : key;
+    }
+
+    private static final class Entry {
+
+        final byte[] key;
+        final byte[] chinese;
+
+        Entry(byte[] key, byte[] chinese) {
+            this.key = key;
+            this.chinese = chinese;
+        }
+    }
+
+    private static int compareBytes(byte[] b1, byte[] b2) {
+        int n = Math.min(b1.length, b2.length);
+        for (int i = 0; i < n; i++) {
+            int compare = (b1[i] & 0xff) - (b2[i] & 0xff);
+            if (compare != 0) {
+                return compare;
+            }
+        }
+        return b1.length - b2.length;
+    }
+
+    /**
+     * Compile the downloaded data, lines of "key\rbase64(chinese)\n" after a length int.
+     */
+    static void build(@NonNull BufferedSource source, @NonNull byte[] sha1, @NonNull File file) throws IOException {
+        int totalBytes = source.readInt();
+        byte[] data = source.readByteArray(totalBytes);
+
+        List<Entry> entries = new ArrayList<>();
+        int start = 0;
+        while (start < totalBytes) {
+            int end = start;
+            int middle = -1;
+            while (end < totalBytes && data[end] != '\n') {
+                if (middle < 0 && data[end] == '\r') {
+                    middle = end;
+                }
+                end++;
+            }
+            if (middle > start) {
+                byte[] key = Arrays.copyOfRange(data, start, middle);
+                byte[] chinese = Base64.decode(data, middle + 1, end - middle - 1, Base64.DEFAULT);
+                entries.add(new Entry(key, chinese));
+            }
+            start = end + 1;
+        }
+        Collections.sort(entries, (e1, e2) -> compareBytes(e1.key, e2.key));
+
+        // (gram << 32 | id), sorted by gram then id
+        LongList unigrams = new LongList();
+        LongList bigrams = new LongList();
+        for (int id = 0, n = entries.size(); id < n; id++) {
+            Entry entry = entries.get(id);
+            addGrams(expand(new String(entry.key, StandardCharsets.UTF_8)), id, unigrams, bigrams);
+            addGrams(new String(entry.chinese, StandardCharsets.UTF_8), id, unigrams, bigrams);
+        }
+        long[] unigramArray = unigrams.toSortedDistinctArray();
+        long[] bigramArray = bigrams.toSortedDistinctArray();
+        int unigramCount = countGrams(unigramArray);
+        int bigramCount = countGrams(bigramArray);
+
+        int tagCount = entries.size();
+        int tagTable = HEADER_SIZE;
+        int unigramTable = tagTable + tagCount * TAG_ENTRY_SIZE;
+        int bigramTable = unigramTable + unigramCount * GRAM_ENTRY_SIZE;
+        int postings = bigramTable + bigramCount * GRAM_ENTRY_SIZE;
+        int pool = postings + (unigramArray.length + bigramArray.length) * 4;
+
+        try (DataOutputStream os = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file), 64 * 1024))) {
+            os.writeInt(MAGIC);
+            os.writeInt(VERSION);
+            os.write(sha1, 0, SHA1_SIZE);
+            os.writeInt(tagCount);
+            os.writeInt(unigramCount);
+            os.writeInt(bigramCount);
+            os.writeInt(tagTable);
+            os.writeInt(unigramTable);
+            os.writeInt(bigramTable);
+            os.writeInt(postings);
+            os.writeInt(pool);
+
+            int offset = pool;
+            for (Entry entry : entries) {
+                os.writeInt(offset);
+                offset += 4 + entry.key.length;
+                os.writeInt(offset);
+                offset += 4 + entry.chinese.length;
+            }
+
+            int posting = writeGramTable(os, unigramArray, postings);
+            writeGramTable(os, bigramArray, posting);
+
+            for (long value : unigramArray) {
+                os.writeInt((int) value);
+            }
+            for (long value : bigramArray) {
+                os.writeInt((int) value);
+            }
+
+            for (Entry entry : entries) {
+                os.writeInt(entry.key.length);
+                os.write(entry.key);
+                os.writeInt(entry.chinese.length);
+                os.write(entry.chinese);
+            }
+        }
+    }
+
+    private static void addGrams(String str, int id, LongList unigrams, LongList bigrams) {
+        for (int i = 0, n = str.length(); i < n; i++) {
+            char c = str.charAt(i);
+            unigrams.add(((long) c << 32) | id);
+            if (i + 1 < n) {
+                bigrams.add(((long) bigram(c, str.charAt(i + 1)) << 32) | id);
+            }
+        }
+    }
+
+    private static int countGrams(long[] array) {
+        int count = 0;
+        for (int i = 0; i < array.length; i++) {
+            if (i == 0 || (array[i] >> 32) != (array[i - 1] >> 32)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the posting offset after the postings of the table
+     */
+    private static int writeGramTable(DataOutputStream os, long[] array, int posting) throws IOException {
+        int i = 0;
+        while (i < array.length) {
+            int gram = (int) (array[i] >> 32);
+            int j = i + 1;
+            while (j < array.length && (int) (array[j] >> 32) == gram) {
+                j++;
+            }
+            os.writeInt(gram);
+            os.writeInt(posting);
+            os.writeInt(j - i);
+            posting += (j - i) * 4;
+            i = j;
+        }
+        return posting;
+    }
+
+    private static final class LongList {
+
+        private long[] mArray = new long[1024];
+        private int mSize;
+
+        void add(long value) {
+            if (mSize == mArray.length) {
+                mArray = Arrays.copyOf(mArray, mSize * 2);
+            }
+            mArray[mSize++] = value;
+        }
+
+        long[] toSortedDistinctArray() {
+            Arrays.sort(mArray, 0, mSize);
+            int size = 0;
+            for (int i = 0; i < mSize; i++) {
+                if (size == 0 || mArray[size - 1] != mArray[i]) {
+                    mArray[size++] = mArray[i];
+                }
+            }
+            return Arrays.copyOf(mArray, size);
+        }
+    }
+}
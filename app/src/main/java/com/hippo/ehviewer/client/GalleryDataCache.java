@@ -0,0 +1,200 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.client;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.hippo.database.MSQLiteBuilder;
+import com.hippo.ehviewer.client.data.GalleryInfo;
+import com.hippo.ehviewer.client.parser.GalleryApiParser;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * gdata api responses of galleries, keyed by gid and token.
+ * Galleries filled here in {@link #fill(List)} don't need api requests.
+ */
+public final class GalleryDataCache {
+
+    private static final String TAG = GalleryDataCache.class.getSimpleName();
+
+    private static final String DB_NAME = "gallery_data.db";
+    private static final int VERSION_1 = 1;
+    private static final int DB_VERSION = VERSION_1;
+
+    private static final String TABLE_GALLERY_DATA = "GALLERY_DATA";
+    private static final String COLUMN_GID = "GID";
+    private static final String COLUMN_TOKEN = "TOKEN";
+    private static final String COLUMN_TIME = "TIME";
+    // One object in gmetadata
+    private static final String COLUMN_DATA = "DATA";
+    private static final String[] COLUMNS = {COLUMN_GID, COLUMN_TOKEN, COLUMN_TIME, COLUMN_DATA};
+
+    private static final long TTL = TimeUnit.HOURS.toMillis(12);
+    // SQLite allows 999 arguments at most
+    private static final int MAX_QUERY_SIZE = 500;
+
+    @Nullable
+    private static SQLiteOpenHelper sHelper;
+
+    private GalleryDataCache() {
+    }
+
+    public static void initialize(Context context) {
+        sHelper = new MSQLiteBuilder()
+                .version(VERSION_1)
+                .statement("CREATE TABLE " + TABLE_GALLERY_DATA + " (" +
+                        COLUMN_GID + " INTEGER PRIMARY KEY, " +
+                        COLUMN_TOKEN + " TEXT NOT NULL, " +
+                        COLUMN_TIME + " INTEGER NOT NULL, " +
+                        COLUMN_DATA + " TEXT NOT NULL);")
+                .build(context, DB_NAME, DB_VERSION);
+    }
+
+    @Nullable
+    private static SQLiteDatabase getDatabase() {
+        if (sHelper == null) {
+            return null;
+        }
+        try {
+            return sHelper.getWritableDatabase();
+        } catch (SQLiteException e) {
+            Log.e(TAG, "Can't open gallery data cache", e);
+            return null;
+        }
+    }
+
+    /**
+     * Fill galleries with fresh cached data.
+     *
+     * @return the galleries which are not filled
+     */
+    @NonNull
+    public static List<GalleryInfo> fill(@NonNull List<GalleryInfo> galleryInfoList) {
+        SQLiteDatabase db = getDatabase();
+        if (db == null || galleryInfoList.isEmpty()) {
+            return galleryInfoList;
+        }
+
+        List<GalleryInfo> missList = new ArrayList<>();
+        long expired = System.currentTimeMillis() - TTL;
+        for (int start = 0, size = galleryInfoList.size(); start < size; start += MAX_QUERY_SIZE) {
+            List<GalleryInfo> subList = galleryInfoList.subList(start, Math.min(start + MAX_QUERY_SIZE, size));
+            StringBuilder selection = new StringBuilder(COLUMN_GID).append(" IN (");
+            String[] args = new String[subList.size()];
+            for (int i = 0; i < args.length; i++) {
+                selection.append(i == 0 ? "?" : ",?");
+                args[i] = Long.toString(subList.get(i).gid);
+            }
+            selection.append(')');
+
+            List<GalleryInfo> filled = new ArrayList<>(subList.size());
+            try (Cursor cursor = db.query(TABLE_GALLERY_DATA, COLUMNS, selection.toString(),
+                    args, null, null, null)) {
+                while (cursor.moveToNext()) {
+                    if (cursor.getLong(2) < expired) {
+                        continue;
+                    }
+                    long gid = cursor.getLong(0);
+                    String token = cursor.getString(1);
+                    for (GalleryInfo gi : subList) {
+                        if (gi.gid == gid && token.equals(gi.token)) {
+                            GalleryApiParser.parse(new JSONObject(cursor.getString(3)), gi);
+                            filled.add(gi);
+                        }
+                    }
+                }
+            } catch (SQLiteException | JSONException e) {
+                Log.e(TAG, "Can't read gallery data", e);
+            }
+
+            for (GalleryInfo gi : subList) {
+                if (!filled.contains(gi)) {
+                    missList.add(gi);
+                }
+            }
+        }
+        return missList;
+    }
+
+    /**
+     * Put gmetadata of a gdata response, objects with error are skipped.
+     */
+    public static void put(@NonNull JSONArray gmetadata) {
+        SQLiteDatabase db = getDatabase();
+        if (db == null) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        try {
+            db.beginTransaction();
+            try {
+                ContentValues values = new ContentValues();
+                for (int i = 0, length = gmetadata.length(); i < length; i++) {
+                    JSONObject g = gmetadata.optJSONObject(i);
+                    if (g == null || g.has("error")) {
+                        continue;
+                    }
+                    values.clear();
+                    values.put(COLUMN_GID, g.getLong("gid"));
+                    values.put(COLUMN_TOKEN, g.getString("token"));
+                    values.put(COLUMN_TIME, now);
+                    values.put(COLUMN_DATA, g.toString());
+                    db.insertWithOnConflict(TABLE_GALLERY_DATA, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        } catch (SQLiteException | JSONException e) {
+            Log.e(TAG, "Can't write gallery data", e);
+        }
+    }
+
+    /**
+     * Remove expired data
+     */
+    public static void trim() {
+        SQLiteDatabase db = getDatabase();
+        if (db == null) {
+            return;
+        }
+
+        try {
+            db.delete(TABLE_GALLERY_DATA, COLUMN_TIME + " < ?",
+                    new String[]{Long.toString(System.currentTimeMillis() - TTL)});
+        } catch (SQLiteException e) {
+            Log.e(TAG, "Can't trim gallery data", e);
+        }
+    }
+}
@@ -19,6 +19,7 @@ package com.hippo.ehviewer.client.data;
 import android.os.Parcel;
 import android.os.Parcelable;
 
+import com.hippo.conaco.Sprite;
 import com.hippo.widget.LoadImageView;
 
 public class GalleryPreview implements Parcelable {
@@ -31,12 +32,19 @@ public class GalleryPreview implements Parcelable {
     int offsetY = Integer.MIN_VALUE;
     int clipWidth = Integer.MIN_VALUE;
     int clipHeight = Integer.MIN_VALUE;
+    // Not in parcel, fall back to clip
+    Sprite sprite;
+    int spriteIndex;
 
     public int getPosition() {
         return position;
     }
 
     public void load(LoadImageView view) {
+        if (sprite != null && imageKey != null) {
+            view.loadSprite(imageKey, imageUrl, sprite, spriteIndex);
+            return;
+        }
         view.setClip(offsetX, offsetY, clipWidth, clipHeight);
         view.load(imageKey, imageUrl);
     }
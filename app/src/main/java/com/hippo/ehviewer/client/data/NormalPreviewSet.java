@@ -16,12 +16,17 @@
 
 package com.hippo.ehviewer.client.data;
 
+import android.graphics.Rect;
 import android.os.Parcel;
 
+import com.hippo.conaco.Sprite;
 import com.hippo.widget.LoadImageView;
 import com.hippo.lib.yorozuya.collect.IntList;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 public class NormalPreviewSet extends PreviewSet {
 
@@ -33,6 +38,9 @@ public class NormalPreviewSet extends PreviewSet {
     private IntList mClipWidthList = new IntList();
     private IntList mClipHeightList = new IntList();
     private ArrayList<String> mPageUrlList = new ArrayList<>();
+    // Previews in the same image share a sprite, built from the lists above
+    private Sprite[] mSprites;
+    private int[] mSpriteIndexes;
 
     private String getImageKey(String imageUrl) {
         int index = imageUrl.indexOf('/');
@@ -55,6 +63,48 @@ public class NormalPreviewSet extends PreviewSet {
         mPageUrlList.add(pageUrl);
     }
 
+    private void ensureSprites() {
+        int size = size();
+        if (mSprites != null && mSprites.length == size) {
+            return;
+        }
+
+        Map<String, List<Integer>> groups = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            if (mClipWidthList.get(i) <= 0 || mClipHeightList.get(i) <= 0) {
+                continue;
+            }
+            String key = mImageKeyList.get(i);
+            List<Integer> group = groups.get(key);
+            if (group == null) {
+                group = new ArrayList<>();
+                groups.put(key, group);
+            }
+            group.add(i);
+        }
+
+        Sprite[] sprites = new Sprite[size];
+        int[] spriteIndexes = new int[size];
+        for (Map.Entry<String, List<Integer>> entry : groups.entrySet()) {
+            List<Integer> group = entry.getValue();
+            Rect[] cells = new Rect[group.size()];
+            for (int i = 0; i < cells.length; i++) {
+                int index = group.get(i);
+                int x = mOffsetXList.get(index);
+                int y = mOffsetYList.get(index);
+                cells[i] = new Rect(x, y, x + mClipWidthList.get(index), y + mClipHeightList.get(index));
+            }
+            Sprite sprite = new Sprite(entry.getKey(), cells);
+            for (int i = 0; i < cells.length; i++) {
+                int index = group.get(i);
+                sprites[index] = sprite;
+                spriteIndexes[index] = i;
+            }
+        }
+        mSprites = sprites;
+        mSpriteIndexes = spriteIndexes;
+    }
+
     @Override
     public int size() {
         return mPositionList.size();
@@ -81,11 +131,20 @@ public class NormalPreviewSet extends PreviewSet {
         galleryPreview.offsetY = mOffsetYList.get(index);
         galleryPreview.clipWidth = mClipWidthList.get(index);
         galleryPreview.clipHeight = mClipHeightList.get(index);
+        ensureSprites();
+        galleryPreview.sprite = mSprites[index];
+        galleryPreview.spriteIndex = mSpriteIndexes[index];
         return galleryPreview;
     }
 
     @Override
     public void load(LoadImageView view, long gid, int index) {
+        ensureSprites();
+        Sprite sprite = mSprites[index];
+        if (sprite != null) {
+            view.loadSprite(mImageKeyList.get(index), mImageUrlList.get(index), sprite, mSpriteIndexes[index]);
+            return;
+        }
         view.setClip(mOffsetXList.get(index), mOffsetYList.get(index),
                 mClipWidthList.get(index), mClipHeightList.get(index));
         view.load(mImageKeyList.get(index), mImageUrlList.get(index));
@@ -20,6 +20,7 @@ import android.text.TextUtils;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import com.hippo.ehviewer.EhDB;
 import com.hippo.ehviewer.client.EhUtils;
@@ -31,13 +32,15 @@ import com.hippo.util.ExceptionUtils;
 import com.hippo.util.JsoupUtils;
 import com.hippo.lib.yorozuya.NumberUtils;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
 import org.jsoup.select.Elements;
@@ -90,13 +93,26 @@ public class GalleryListParser {
     }
 
     public static Result parse(@NonNull String body, int mode) throws Exception {
-        Document d;
+        return parse(new StringReader(body), mode);
+    }
+
+    /**
+     * Parse gallery list straight from the response without building a document.
+     * Each gallery info is finished as soon as its row is read.
+     */
+    public static Result parse(@NonNull Reader reader, int mode) throws IOException {
+        Result result;
         try {
-            d = Jsoup.parse(body);
-            return parse(d, body, mode);
+            result = new GalleryListStreamParser(GalleryListParser::finishGalleryInfo).parse(reader);
+        } catch (IOException e) {
+            throw e;
         } catch (Exception ignored) {
             return new Result();
         }
+
+        new GalleryListTagsSyncTask(result.galleryInfoList).execute();
+
+        return result;
     }
 
     public static Result parse(@NonNull Document d,@NonNull String body, int mode) throws Exception {
@@ -137,33 +153,7 @@ public class GalleryListParser {
                 element = d.getElementsByClass("searchtext").first();
 
                 if (element != null) {
-                    String text = element.text();
-                    Matcher matcher = PATTERN_RESULT_COUNT_PAGE.matcher(text);
-                    if (matcher.find()) {
-                        String findString = matcher.group();
-                        String[] resultArr = findString.split(" ");
-                        if (resultArr.length > 3) {
-                            switch (resultArr[1]) {
-                                case "thousands":
-                                    result.resultCount = "1,000+";
-                                    break;
-                                case "about":
-                                    result.resultCount = resultArr[2] + "+";
-                                    break;
-                                default:
-                                    StringBuilder buffer = new StringBuilder();
-                                    for (int i = 1; i < resultArr.length - 1; i++) {
-                                        buffer.append(resultArr[i]);
-                                    }
-                                    result.resultCount = buffer.toString();
-                                    break;
-                            }
-                        } else if (resultArr.length == 3) {
-                            result.resultCount = resultArr[1];
-                        } else {
-                            result.resultCount = "";
-                        }
-                    }
+                    result.resultCount = parseResultCount(element.text());
                 } else {
                     result.resultCount = "";
                 }
@@ -175,11 +165,7 @@ public class GalleryListParser {
                 if (e != null) {
                     e = e.children().first();
                     if (e != null) {
-                        String href = e.attr("href");
-                        Matcher matcher = PATTERN_NEXT_PAGE.matcher(href);
-                        if (matcher.find()) {
-                            result.nextPage = NumberUtils.parseIntSafely(matcher.group(1), 0);
-                        }
+                        result.nextPage = parseNextPage(e.attr("href"), result.nextPage);
                     }
                 }
             }
@@ -212,6 +198,7 @@ public class GalleryListParser {
             for (int i = 0; i < es.size(); i++) {
                 GalleryInfo gi = parseGalleryInfo(es.get(i));
                 if (null != gi) {
+                    finishGalleryInfo(gi);
                     list.add(gi);
                 }
             }
@@ -238,7 +225,76 @@ public class GalleryListParser {
         return result;
     }
 
-    private static String parseRating(String ratingStyle) {
+    @Nullable
+    static String parseResultCount(String text) {
+        Matcher matcher = PATTERN_RESULT_COUNT_PAGE.matcher(text);
+        if (!matcher.find()) {
+            return null;
+        }
+        String findString = matcher.group();
+        String[] resultArr = findString.split(" ");
+        if (resultArr.length > 3) {
+            switch (resultArr[1]) {
+                case "thousands":
+                    return "1,000+";
+                case "about":
+                    return resultArr[2] + "+";
+                default:
+                    StringBuilder buffer = new StringBuilder();
+                    for (int i = 1; i < resultArr.length - 1; i++) {
+                        buffer.append(resultArr[i]);
+                    }
+                    return buffer.toString();
+            }
+        } else if (resultArr.length == 3) {
+            return resultArr[1];
+        } else {
+            return "";
+        }
+    }
+
+    static void parseThumbSize(GalleryInfo gi, String style) {
+        Matcher m = PATTERN_THUMB_SIZE.matcher(style);
+        if (m.find()) {
+            gi.thumbWidth = NumberUtils.parseIntSafely(m.group(2), 0);
+            gi.thumbHeight = NumberUtils.parseIntSafely(m.group(1), 0);
+        } else {
+            Log.w(TAG, "Can't parse gallery info thumb size");
+            gi.thumbWidth = 0;
+            gi.thumbHeight = 0;
+        }
+    }
+
+    /**
+     * Returns {@code defaultValue} if there is no "x pages" in the text
+     */
+    static int parsePageCount(String text, int defaultValue) {
+        Matcher matcher = PATTERN_PAGES.matcher(text);
+        if (matcher.find()) {
+            return NumberUtils.parseIntSafely(matcher.group(1), 0);
+        }
+        return defaultValue;
+    }
+
+    static int parseNextPage(String href, int defaultValue) {
+        Matcher matcher = PATTERN_NEXT_PAGE.matcher(href);
+        if (matcher.find()) {
+            return NumberUtils.parseIntSafely(matcher.group(1), 0);
+        }
+        return defaultValue;
+    }
+
+    /**
+     * The parts which depend on settings and local favorites
+     */
+    static void finishGalleryInfo(GalleryInfo gi) {
+        gi.thumb = EhUtils.handleThumbUrlResolution(gi.thumb);
+        if (gi.favoriteSlot == -2) {
+            gi.favoriteSlot = EhDB.containLocalFavorites(gi.gid) ? -1 : -2;
+        }
+    }
+
+    static String parseRating(String ratingStyle) {
         Matcher m = PATTERN_RATING.matcher(ratingStyle);
         int num1 = Integer.MIN_VALUE;
         int num2 = Integer.MIN_VALUE;
@@ -263,7 +319,7 @@ public class GalleryListParser {
         return re;
     }
 
-    private static int parseFavoriteSlot(String style) {
+    static int parseFavoriteSlot(String style) {
         Matcher m = PATTERN_FAVORITE_SLOT.matcher(style);
         if (m.find()) {
             String r = m.group(1);
@@ -280,7 +336,7 @@ public class GalleryListParser {
         return -2;
     }
 
-    private static GalleryInfo parseGalleryInfo(Element e) {
+    static GalleryInfo parseGalleryInfo(Element e) {
         GalleryInfo gi = new GalleryInfo();
 
         // Title, gid, token (required), tags
@@ -341,15 +397,7 @@ public class GalleryListParser {
             Element img = glThumb.select("div:nth-child(1)>img").first();
             if (img != null) {
                 // Thumb size
-                Matcher m = PATTERN_THUMB_SIZE.matcher(img.attr("style"));
-                if (m.find()) {
-                    gi.thumbWidth = NumberUtils.parseIntSafely(m.group(2), 0);
-                    gi.thumbHeight = NumberUtils.parseIntSafely(m.group(1), 0);
-                } else {
-                    Log.w(TAG, "Can't parse gallery info thumb size");
-                    gi.thumbWidth = 0;
-                    gi.thumbHeight = 0;
-                }
+                parseThumbSize(gi, img.attr("style"));
                 // Thumb url
                 String url = img.attr("data-src");
                 if (TextUtils.isEmpty(url)) {
@@ -358,7 +406,7 @@ public class GalleryListParser {
                 if (TextUtils.isEmpty(url)) {
                     url = null;
                 }
-                gi.thumb = EhUtils.handleThumbUrlResolution(url);
+                gi.thumb = url;
             }
 
             // Pages
@@ -380,16 +428,8 @@ public class GalleryListParser {
                 Element img = JsoupUtils.getElementByTag(gl, "img");
                 if (img != null) {
                     // Thumb size
-                    Matcher m = PATTERN_THUMB_SIZE.matcher(img.attr("style"));
-                    if (m.find()) {
-                        gi.thumbWidth = NumberUtils.parseIntSafely(m.group(2), 0);
-                        gi.thumbHeight = NumberUtils.parseIntSafely(m.group(1), 0);
-                    } else {
-                        Log.w(TAG, "Can't parse gallery info thumb size");
-                        gi.thumbWidth = 0;
-                        gi.thumbHeight = 0;
-                    }
-                    gi.thumb = EhUtils.handleThumbUrlResolution(img.attr("src"));
+                    parseThumbSize(gi, img.attr("style"));
+                    gi.thumb = img.attr("src");
                 }
             }
         }
@@ -401,9 +441,6 @@ public class GalleryListParser {
             gi.posted = posted.text().trim();
             gi.favoriteSlot = parseFavoriteSlot(posted.attr("style"));
         }
-        if (gi.favoriteSlot == -2) {
-            gi.favoriteSlot = EhDB.containLocalFavorites(gi.gid) ? -1 : -2;
-        }
 
         parserTag(gi, e);
 
@@ -0,0 +1,968 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.client.parser;
+
+import android.text.TextUtils;
+
+import androidx.annotation.Nullable;
+
+import com.hippo.ehviewer.client.EhUtils;
+import com.hippo.ehviewer.client.data.GalleryInfo;
+import com.hippo.ehviewer.client.exception.ParseException;
+import com.hippo.lib.yorozuya.NumberUtils;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Parses gallery list pages of all display modes in one pass over {@link HtmlTokenizer}.
+ * It only keeps a stack of open elements and the fields of the current row,
+ * and gets the same result as {@link GalleryListParser#parse(org.jsoup.nodes.Document, String, int)}.
+ */
+final class GalleryListStreamParser {
+
+    interface Listener {
+        /**
+         * Called as soon as a row of gallery list is read
+         */
+        void onGalleryInfo(GalleryInfo gi);
+    }
+
+    private static final String[] ATTRIBUTES = {"class", "id", "href", "style", "src", "data-src", "title"};
+
+    private static final int CAPTURE_TITLE = 0;
+    private static final int CAPTURE_CN = 1;
+    private static final int CAPTURE_CS = 2;
+    private static final int CAPTURE_THUMB_PAGES = 3;
+    private static final int CAPTURE_POSTED = 4;
+    private static final int CAPTURE_HIDE_UPLOADER = 5;
+    private static final int CAPTURE_HIDE_PAGES = 6;
+    private static final int CAPTURE_3E_UPLOADER = 7;
+    private static final int CAPTURE_3E_PAGES = 8;
+    private static final int CAPTURE_5T_PAGES = 9;
+    private static final int CAPTURE_TAG_NAMESPACE = 10;
+    private static final int CAPTURE_TAG = 11;
+    private static final int CAPTURE_PTT_CELL = 12;
+    private static final int CAPTURE_SEARCH_TEXT = 13;
+    private static final int CAPTURE_P = 14;
+
+    // Elements which separate text like jsoup Element.text()
+    private static final String[] BLOCK_TAGS = {
+            "div", "p", "td", "th", "tr", "table", "tbody", "thead", "br", "li", "ul", "h1", "h2", "form"};
+
+    private final Listener mListener;
+
+    // Open elements, 0 is the document
+    private String[] mTags = new String[64];
+    private String[] mClasses = new String[64];
+    private String[] mHrefs = new String[64];
+    private int[] mIndexes = new int[64];
+    private int[] mChildren = new int[64];
+    private int mDepth;
+
+    // Text captures of open elements
+    private StringBuilder[] mCaptureBuffers = new StringBuilder[8];
+    private int[] mCaptureTypes = new int[8];
+    private int[] mCaptureDepths = new int[8];
+    private int mCaptureCount;
+
+    // Depth of the first element with the class, 0 for not found, -1 for closed
+    private int mPttDepth;
+    private int mPttRowDepth;
+    private final List<String> mPttCells = new ArrayList<>();
+    private String mPttLastHref;
+    private int mSearchNavDepth;
+    private String mFirstHref;
+    private String mPrevHref;
+    private String mNextHref;
+    private String mLastHref;
+    private boolean mSearchTextFound;
+    private String mSearchText;
+    private boolean mNoWatchedTags;
+    private boolean mNoHits;
+    private int mItgDepth;
+    private boolean mItgTable;
+
+    private final Row mRow = new Row();
+    private final List<GalleryInfo> mList = new ArrayList<>();
+
+    GalleryListStreamParser(@Nullable Listener listener) {
+        mListener = listener;
+    }
+
+    GalleryListParser.Result parse(Reader reader) throws IOException, ParseException {
+        HtmlTokenizer tokenizer = new HtmlTokenizer(reader, ATTRIBUTES);
+        int token;
+        while ((token = tokenizer.next()) != HtmlTokenizer.EOF) {
+            switch (token) {
+                case HtmlTokenizer.START_TAG:
+                    onStartTag(tokenizer);
+                    break;
+                case HtmlTokenizer.END_TAG:
+                    onEndTag(tokenizer.getTagName());
+                    break;
+                case HtmlTokenizer.TEXT:
+                    onText(tokenizer.getText());
+                    break;
+            }
+        }
+        while (mDepth > 0) {
+            popElement();
+        }
+        return buildResult();
+    }
+
+    private GalleryListParser.Result buildResult() throws ParseException {
+        GalleryListParser.Result result = new GalleryListParser.Result();
+        boolean failed = false;
+        if (mPttDepth != 0) {
+            int size = mPttCells.size();
+            try {
+                result.pages = Integer.parseInt(mPttCells.get(size - 2).trim());
+                if (mPttLastHref != null) {
+                    result.nextPage = GalleryListParser.parseNextPage(mPttLastHref, result.nextPage);
+                }
+            } catch (IndexOutOfBoundsException | NumberFormatException e) {
+                failed = true;
+            }
+        } else if (mSearchNavDepth != 0) {
+            result.pages = -1;
+            result.nextPage = -1;
+            result.firstHref = mFirstHref != null ? mFirstHref : "";
+            result.prevHref = mPrevHref != null ? mPrevHref : "";
+            result.nextHref = mNextHref != null ? mNextHref : "";
+            result.lastHref = mLastHref != null ? mLastHref : "";
+            if (mSearchTextFound) {
+                result.resultCount = GalleryListParser.parseResultCount(mSearchText);
+            } else {
+                result.resultCount = "";
+            }
+        } else {
+            failed = true;
+        }
+
+        if (failed) {
+            result.noWatchedTags = mNoWatchedTags;
+            if (mNoHits) {
+                result.pages = 0;
+                result.galleryInfoList = Collections.emptyList();
+                return result;
+            } else if (mPttDepth == 0) {
+                result.pages = 1;
+            } else {
+                result.pages = Integer.MAX_VALUE;
+            }
+        }
+
+        if (mItgDepth == 0 || mList.isEmpty()) {
+            throw new ParseException("Can't parse gallery list", null);
+        }
+        result.galleryInfoList = mList;
+        return result;
+    }
+
+    private void onStartTag(HtmlTokenizer tokenizer) {
+        String tag = tokenizer.getTagName();
+        closeImplicitly(tag);
+
+        int parent = mDepth;
+        int depth = ++mDepth;
+        if (depth == mTags.length) {
+            int length = depth * 2;
+            mTags = Arrays.copyOf(mTags, length);
+            mClasses = Arrays.copyOf(mClasses, length);
+            mHrefs = Arrays.copyOf(mHrefs, length);
+            mIndexes = Arrays.copyOf(mIndexes, length);
+            mChildren = Arrays.copyOf(mChildren, length);
+        }
+        mTags[depth] = tag;
+        mClasses[depth] = tokenizer.getAttribute("class");
+        mHrefs[depth] = tokenizer.getAttribute("href");
+        mIndexes[depth] = mChildren[parent]++;
+        mChildren[depth] = 0;
+
+        if (isBlock(tag)) {
+            appendSpace(depth);
+        }
+        onElementStart(depth, tokenizer);
+
+        if (tokenizer.isSelfClosing()) {
+            popElement();
+        }
+    }
+
+    private void onEndTag(String tag) {
+        for (int i = mDepth; i > 0; i--) {
+            if (tag.equals(mTags[i])) {
+                while (mDepth >= i) {
+                    popElement();
+                }
+                return;
+            }
+        }
+    }
+
+    // Close elements which html closes without end tag
+    private void closeImplicitly(String tag) {
+        switch (tag) {
+            case "tr":
+                closeUntil("tr", "table");
+                break;
+            case "td":
+            case "th":
+                closeUntil("td", "tr");
+                closeUntil("th", "tr");
+                break;
+            case "div":
+            case "p":
+            case "table":
+                if (mDepth > 0 && "p".equals(mTags[mDepth])) {
+                    popElement();
+                }
+                break;
+        }
+    }
+
+    private void closeUntil(String tag, String boundary) {
+        for (int i = mDepth; i > 0; i--) {
+            String t = mTags[i];
+            if (boundary.equals(t)) {
+                return;
+            }
+            if (tag.equals(t)) {
+                while (mDepth >= i) {
+                    popElement();
+                }
+                return;
+            }
+        }
+    }
+
+    private void popElement() {
+        int depth = mDepth;
+        for (int i = mCaptureCount - 1; i >= 0; i--) {
+            if (mCaptureDepths[i] == depth) {
+                StringBuilder sb = mCaptureBuffers[i];
+                int type = mCaptureTypes[i];
+                String text = normalize(sb);
+                // Keep the buffer for later captures
+                System.arraycopy(mCaptureBuffers, i + 1, mCaptureBuffers, i, mCaptureCount - i - 1);
+                System.arraycopy(mCaptureTypes, i + 1, mCaptureTypes, i, mCaptureCount - i - 1);
+                System.arraycopy(mCaptureDepths, i + 1, mCaptureDepths, i, mCaptureCount - i - 1);
+                mCaptureCount--;
+                mCaptureBuffers[mCaptureCount] = sb;
+                onCaptured(type, text);
+            }
+        }
+        onElementEnd(depth);
+        mDepth--;
+        if (isBlock(mTags[depth])) {
+            appendSpace(depth);
+        }
+    }
+
+    private void onText(CharSequence text) {
+        for (int i = 0; i < mCaptureCount; i++) {
+            mCaptureBuffers[i].append(text);
+        }
+    }
+
+    private void appendSpace(int depth) {
+        for (int i = 0; i < mCaptureCount; i++) {
+            if (mCaptureDepths[i] < depth) {
+                mCaptureBuffers[i].append(' ');
+            }
+        }
+    }
+
+    private void startCapture(int type, int depth) {
+        if (mCaptureCount == mCaptureTypes.length) {
+            int length = mCaptureCount * 2;
+            mCaptureBuffers = Arrays.copyOf(mCaptureBuffers, length);
+            mCaptureTypes = Arrays.copyOf(mCaptureTypes, length);
+            mCaptureDepths = Arrays.copyOf(mCaptureDepths, length);
+        }
+        StringBuilder sb = mCaptureBuffers[mCaptureCount];
+        if (sb == null) {
+            sb = new StringBuilder();
+            mCaptureBuffers[mCaptureCount] = sb;
+        } else {
+            sb.setLength(0);
+        }
+        mCaptureTypes[mCaptureCount] = type;
+        mCaptureDepths[mCaptureCount] = depth;
+        mCaptureCount++;
+    }
+
+    // Title is the text of the first leaf under glname, restart it when going deeper
+    private void restartTitleCapture(int depth) {
+        for (int i = 0; i < mCaptureCount; i++) {
+            if (mCaptureTypes[i] == CAPTURE_TITLE) {
+                mCaptureDepths[i] = depth;
+                mCaptureBuffers[i].setLength(0);
+                return;
+            }
+        }
+        startCapture(CAPTURE_TITLE, depth);
+    }
+
+    private void onElementStart(int depth, HtmlTokenizer tokenizer) {
+        String tag = mTags[depth];
+        String cls = mClasses[depth];
+        String id = tokenizer.getAttribute("id");
+        Row row = mRow;
+
+        if (row.depth > 0) {
+            onRowElementStart(depth, tag, cls, id, tokenizer);
+            return;
+        }
+
+        if (mItgDepth > 0 && isRow(depth, tag)) {
+            row.reset(depth);
+            onRowElementStart(depth, tag, cls, id, tokenizer);
+            return;
+        }
+
+        if (mItgDepth == 0 && hasClass(cls, "itg")) {
+            mItgDepth = depth;
+            mItgTable = "table".equals(tag);
+            return;
+        }
+
+        // Page info
+        if (mPttDepth == 0 && hasClass(cls, "ptt")) {
+            mPttDepth = depth;
+        } else if (mPttDepth > 0) {
+            if (mPttRowDepth == 0 && "tr".equals(tag)) {
+                mPttRowDepth = depth;
+            } else if (mPttRowDepth > 0) {
+                if (depth == mPttRowDepth + 1) {
+                    mPttLastHref = null;
+                    startCapture(CAPTURE_PTT_CELL, depth);
+                } else if (depth == mPttRowDepth + 2 && mIndexes[depth] == 0) {
+                    String href = mHrefs[depth];
+                    mPttLastHref = href != null ? href : "";
+                }
+            }
+        }
+        if (mSearchNavDepth == 0 && hasClass(cls, "searchnav")) {
+            mSearchNavDepth = depth;
+        }
+        if (mSearchNavDepth > 0 && id != null) {
+            String href = mHrefs[depth] != null ? mHrefs[depth] : "";
+            if (mFirstHref == null && "uFirst".equals(id)) {
+                mFirstHref = href;
+            } else if (mPrevHref == null && "uprev".equals(id)) {
+                mPrevHref = href;
+            } else if (mNextHref == null && "unext".equals(id)) {
+                mNextHref = href;
+            } else if (mLastHref == null && "ulast".equals(id)) {
+                mLastHref = href;
+            }
+        }
+        if (!mSearchTextFound && hasClass(cls, "searchtext")) {
+            mSearchTextFound = true;
+            startCapture(CAPTURE_SEARCH_TEXT, depth);
+        }
+        if ("p".equals(tag)) {
+            startCapture(CAPTURE_P, depth);
+        }
+    }
+
+    private boolean isRow(int depth, String tag) {
+        if (!mItgTable) {
+            return depth == mItgDepth + 1;
+        }
+        if (!"tr".equals(tag)) {
+            return false;
+        }
+        if (depth == mItgDepth + 1) {
+            return true;
+        }
+        String parent = mTags[depth - 1];
+        return depth == mItgDepth + 2 && ("tbody".equals(parent) || "thead".equals(parent));
+    }
+
+    private void onRowElementStart(int depth, String tag, String cls, String id, HtmlTokenizer tokenizer) {
+        Row row = mRow;
+
+        // Title, gid, token, tags
+        if (row.glnameDepth == 0) {
+            if (hasClass(cls, "glname")) {
+                row.glnameDepth = depth;
+                if ("a".equals(tag)) {
+                    row.href = mHrefs[depth] != null ? mHrefs[depth] : "";
+                } else if ("a".equals(mTags[depth - 1])) {
+                    row.parentHref = mHrefs[depth - 1] != null ? mHrefs[depth - 1] : "";
+                }
+                row.titleDepth = depth;
+                restartTitleCapture(depth);
+            }
+        } else if (row.glnameDepth > 0) {
+            if (row.href == null && "a".equals(tag)) {
+                row.href = mHrefs[depth] != null ? mHrefs[depth] : "";
+            }
+            if (row.title == null && depth == row.titleDepth + 1 && mIndexes[depth] == 0) {
+                row.titleDepth = depth;
+                restartTitleCapture(depth);
+            }
+            onTagTableElementStart(depth, tag);
+        }
+
+        // Category
+        if (!row.cnFound && hasClass(cls, "cn")) {
+            row.cnFound = true;
+            startCapture(CAPTURE_CN, depth);
+        }
+        if (!row.csFound && hasClass(cls, "cs")) {
+            row.csFound = true;
+            startCapture(CAPTURE_CS, depth);
+        }
+
+        // Thumb
+        if (row.glthumbDepth == 0 && hasClass(cls, "glthumb")) {
+            row.glthumbDepth = depth;
+        }
+        if (row.glthumbDepth > 0) {
+            // div:nth-child(1)>img
+            if (!row.thumbFound && "img".equals(tag) && depth - 1 >= row.glthumbDepth &&
+                    "div".equals(mTags[depth - 1]) && mIndexes[depth - 1] == 0) {
+                row.thumbFound = true;
+                row.thumbStyle = attr(tokenizer, "style");
+                String url = tokenizer.getAttribute("data-src");
+                if (TextUtils.isEmpty(url)) {
+                    url = tokenizer.getAttribute("src");
+                }
+                row.thumbUrl = TextUtils.isEmpty(url) ? null : url;
+            }
+            // div:nth-child(2)>div:nth-child(2)>div:nth-child(2)
+            if (!row.thumbPagesFound && matchesSecondDivs(depth, 3, row.glthumbDepth)) {
+                row.thumbPagesFound = true;
+                startCapture(CAPTURE_THUMB_PAGES, depth);
+            }
+        }
+
+        // Thumb of extended and thumbnail mode
+        if (row.gl1eDepth == 0 && hasClass(cls, "gl1e")) {
+            row.gl1eDepth = depth;
+        } else if (row.gl1eDepth > 0 && row.gl1eStyle == null && "img".equals(tag)) {
+            row.gl1eStyle = attr(tokenizer, "style");
+            row.gl1eUrl = attr(tokenizer, "src");
+        }
+        if (row.gl3tDepth == 0 && hasClass(cls, "gl3t")) {
+            row.gl3tDepth = depth;
+        } else if (row.gl3tDepth > 0 && row.gl3tStyle == null && "img".equals(tag)) {
+            row.gl3tStyle = attr(tokenizer, "style");
+            row.gl3tUrl = attr(tokenizer, "src");
+        }
+
+        // Posted, the gid may be unknown now
+        if (row.postedId == null && id != null && id.startsWith("posted_")) {
+            row.postedId = id;
+            row.postedStyle = attr(tokenizer, "style");
+            startCapture(CAPTURE_POSTED, depth);
+        }
+
+        // Tags
+        if (hasClass(cls, "gt")) {
+            if (row.gtTitles == null) {
+                row.gtTitles = new ArrayList<>();
+            }
+            String title = tokenizer.getAttribute("title");
+            if (title != null) {
+                row.gtTitles.add(title);
+            }
+        }
+        if (hasClass(cls, "gtl")) {
+            if (row.gtlTitles == null) {
+                row.gtlTitles = new ArrayList<>();
+            }
+            String title = tokenizer.getAttribute("title");
+            if (title != null) {
+                row.gtlTitles.add(title);
+            }
+        }
+
+        // Rating
+        if (row.irStyle == null && hasClass(cls, "ir")) {
+            row.irStyle = attr(tokenizer, "style");
+            row.rated = hasClass(cls, "irr") || hasClass(cls, "irg") || hasClass(cls, "irb");
+        }
+
+        // Uploader and pages
+        if (row.glhideDepth == 0 && hasClass(cls, "glhide")) {
+            row.glhideDepth = depth;
+        } else if (row.glhideDepth > 0) {
+            captureChild(depth, row.glhideDepth, 0, 1, CAPTURE_HIDE_UPLOADER, CAPTURE_HIDE_PAGES);
+        }
+        if (row.gl3eDepth == 0 && hasClass(cls, "gl3e")) {
+            row.gl3eDepth = depth;
+        } else if (row.gl3eDepth > 0) {
+            captureChild(depth, row.gl3eDepth, 3, 4, CAPTURE_3E_UPLOADER, CAPTURE_3E_PAGES);
+        }
+
+        // Pages of thumbnail mode, div:nth-child(2)>div:nth-child(2)
+        if (row.gl5tDepth == 0 && hasClass(cls, "gl5t")) {
+            row.gl5tDepth = depth;
+        }
+        if (row.gl5tDepth > 0 && !row.gl5tPagesFound && matchesSecondDivs(depth, 2, row.gl5tDepth)) {
+            row.gl5tPagesFound = true;
+            startCapture(CAPTURE_5T_PAGES, depth);
+        }
+    }
+
+    // Tag table under glname, rows are namespace cell and tags cell
+    private void onTagTableElementStart(int depth, String tag) {
+        Row row = mRow;
+        if (row.tagTableDepth == 0) {
+            if ("table".equals(tag) || "tbody".equals(tag)) {
+                row.tagTableDepth = depth;
+                row.simpleTags = new ArrayList<>();
+            }
+        } else if (row.tagTableDepth > 0) {
+            if ("tr".equals(tag) && (depth == row.tagTableDepth + 1 ||
+                    (depth == row.tagTableDepth + 2 && "tbody".equals(mTags[depth - 1])))) {
+                row.tagRowDepth = depth;
+                row.tagNamespace = null;
+                row.tagCells = 0;
+                row.tags.clear();
+            } else if (row.tagRowDepth > 0) {
+                if (depth == row.tagRowDepth + 1) {
+                    row.tagCells++;
+                    if (mIndexes[depth] == 0) {
+                        startCapture(CAPTURE_TAG_NAMESPACE, depth);
+                    }
+                } else if (depth == row.tagRowDepth + 2 && mIndexes[depth - 1] == 1) {
+                    startCapture(CAPTURE_TAG, depth);
+                }
+            }
+        }
+    }
+
+    private void captureChild(int depth, int rootDepth, int uploaderIndex, int pagesIndex,
+            int uploaderCapture, int pagesCapture) {
+        if (depth == rootDepth + 1 && mIndexes[depth] == pagesIndex) {
+            startCapture(pagesCapture, depth);
+        } else if (depth == rootDepth + 2 && mIndexes[depth] == 0 && mIndexes[depth - 1] == uploaderIndex) {
+            startCapture(uploaderCapture, depth);
+        }
+    }
+
+    // Whether the element and its count - 1 ancestors are all div:nth-child(2) under root
+    private boolean matchesSecondDivs(int depth, int count, int rootDepth) {
+        if (depth - count + 1 < rootDepth) {
+            return false;
+        }
+        for (int i = 0; i < count; i++) {
+            if (!"div".equals(mTags[depth - i]) || mIndexes[depth - i] != 1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void onElementEnd(int depth) {
+        Row row = mRow;
+        if (row.depth > 0) {
+            if (depth == row.depth) {
+                finishRow();
+                return;
+            }
+            if (depth == row.glnameDepth) {
+                row.glnameDepth = -1;
+            }
+            if (depth == row.tagRowDepth) {
+                row.tagRowDepth = 0;
+                addTagGroup();
+            }
+            if (depth == row.tagTableDepth) {
+                row.tagTableDepth = -1;
+            }
+            if (depth == row.glthumbDepth) {
+                row.glthumbDepth = -1;
+            }
+            if (depth == row.gl1eDepth) {
+                row.gl1eDepth = -1;
+            }
+            if (depth == row.gl3tDepth) {
+                row.gl3tDepth = -1;
+            }
+            if (depth == row.glhideDepth) {
+                row.glhideDepth = -1;
+            }
+            if (depth == row.gl3eDepth) {
+                row.gl3eDepth = -1;
+            }
+            if (depth == row.gl5tDepth) {
+                row.gl5tDepth = -1;
+            }
+            return;
+        }
+
+        if (depth == mItgDepth) {
+            mItgDepth = -1;
+        } else if (depth == mPttDepth) {
+            mPttDepth = -1;
+        } else if (depth == mPttRowDepth) {
+            mPttRowDepth = -1;
+        } else if (depth == mSearchNavDepth) {
+            mSearchNavDepth = -1;
+        }
+    }
+
+    private void onCaptured(int type, String text) {
+        Row row = mRow;
+        switch (type) {
+            case CAPTURE_TITLE:
+                row.title = text;
+                break;
+            case CAPTURE_CN:
+                row.cn = text;
+                break;
+            case CAPTURE_CS:
+                row.cs = text;
+                break;
+            case CAPTURE_THUMB_PAGES:
+                row.thumbPages = text;
+                break;
+            case CAPTURE_POSTED:
+                row.posted = text;
+                break;
+            case CAPTURE_HIDE_UPLOADER:
+                if (row.hideUploader == null) {
+                    row.hideUploader = text;
+                }
+                break;
+            case CAPTURE_HIDE_PAGES:
+                if (row.hidePages == null) {
+                    row.hidePages = text;
+                }
+                break;
+            case CAPTURE_3E_UPLOADER:
+                if (row.extendedUploader == null) {
+                    row.extendedUploader = text;
+                }
+                break;
+            case CAPTURE_3E_PAGES:
+                if (row.extendedPages == null) {
+                    row.extendedPages = text;
+                }
+                break;
+            case CAPTURE_5T_PAGES:
+                row.thumbnailPages = text;
+                break;
+            case CAPTURE_TAG_NAMESPACE:
+                row.tagNamespace = text;
+                break;
+            case CAPTURE_TAG:
+                // Sometimes parody tag is followed with '|' and english translate, just remove them
+                int index = text.indexOf('|');
+                row.tags.add(index >= 0 ? text.substring(0, index).trim() : text);
+                break;
+            case CAPTURE_PTT_CELL:
+                mPttCells.add(text);
+                break;
+            case CAPTURE_SEARCH_TEXT:
+                mSearchText = text;
+                break;
+            case CAPTURE_P:
+                if (text.startsWith("You do not have any watched tags")) {
+                    mNoWatchedTags = true;
+                } else if (text.endsWith("No hits found")) {
+                    mNoHits = true;
+                }
+                break;
+        }
+    }
+
+    private void addTagGroup() {
+        Row row = mRow;
+        String namespace = row.tagNamespace;
+        if (row.simpleTags == null || TextUtils.isEmpty(namespace) || row.tagCells < 2 || row.tags.isEmpty()) {
+            return;
+        }
+        // Remove last ':'
+        namespace = namespace.substring(0, namespace.length() - 1);
+        for (String tag : row.tags) {
+            row.simpleTags.add(namespace + ":" + tag);
+        }
+    }
+
+    private void finishRow() {
+        Row row = mRow;
+        row.depth = 0;
+        if (row.title == null) {
+            return;
+        }
+
+        GalleryInfo gi = new GalleryInfo();
+        String href = row.href != null ? row.href : row.parentHref;
+        if (href != null) {
+            GalleryDetailUrlParser.Result result = GalleryDetailUrlParser.parse(href);
+            if (result != null) {
+                gi.gid = result.gid;
+                gi.token = result.token;
+            }
+        }
+        gi.title = row.title;
+        if (row.simpleTags != null) {
+            gi.simpleTags = row.simpleTags.toArray(new String[0]);
+        }
+
+        gi.category = EhUtils.UNKNOWN;
+        String category = row.cn != null ? row.cn : row.cs;
+        if (category != null) {
+            gi.category = EhUtils.getCategory(category);
+        }
+
+        if (row.thumbFound) {
+            GalleryListParser.parseThumbSize(gi, row.thumbStyle);
+            gi.thumb = row.thumbUrl;
+        }
+        if (row.thumbPages != null) {
+            gi.pages = GalleryListParser.parsePageCount(row.thumbPages, gi.pages);
+        }
+        if (gi.thumb == null) {
+            if (row.gl1eDepth != 0 ? row.gl1eStyle != null : row.gl3tStyle != null) {
+                boolean extended = row.gl1eDepth != 0;
+                GalleryListParser.parseThumbSize(gi, extended ? row.gl1eStyle : row.gl3tStyle);
+                gi.thumb = extended ? row.gl1eUrl : row.gl3tUrl;
+            }
+        }
+
+        gi.favoriteSlot = -2;
+        if (row.postedId != null && row.postedId.equals("posted_" + gi.gid)) {
+            gi.posted = row.posted;
+            gi.favoriteSlot = GalleryListParser.parseFavoriteSlot(row.postedStyle);
+        }
+
+        if (row.gtTitles != null) {
+            gi.tgList = row.gtTitles;
+        }
+        if (row.gtlTitles != null) {
+            if (gi.tgList == null) {
+                gi.tgList = new ArrayList<>();
+            }
+            gi.tgList.addAll(row.gtlTitles);
+        }
+
+        if (row.irStyle != null) {
+            gi.rating = NumberUtils.parseFloatSafely(GalleryListParser.parseRating(row.irStyle), -1.0f);
+            gi.rated = row.rated;
+        }
+
+        String uploader = row.glhideDepth != 0 ? row.hideUploader : row.extendedUploader;
+        String pages = row.glhideDepth != 0 ? row.hidePages : row.extendedPages;
+        if (uploader != null) {
+            gi.uploader = uploader;
+        }
+        if (pages != null) {
+            gi.pages = GalleryListParser.parsePageCount(pages, gi.pages);
+        }
+        if (row.thumbnailPages != null) {
+            gi.pages = GalleryListParser.parsePageCount(row.thumbnailPages, gi.pages);
+        }
+
+        gi.generateSLang();
+
+        if (mListener != null) {
+            mListener.onGalleryInfo(gi);
+        }
+        mList.add(gi);
+    }
+
+    private static String attr(HtmlTokenizer tokenizer, String name) {
+        String value = tokenizer.getAttribute(name);
+        return value != null ? value : "";
+    }
+
+    private static boolean hasClass(String classes, String name) {
+        if (classes == null) {
+            return false;
+        }
+        int length = name.length();
+        int index = 0;
+        while ((index = classes.indexOf(name, index)) >= 0) {
+            int end = index + length;
+            if ((index == 0 || isWhitespace(classes.charAt(index - 1))) &&
+                    (end == classes.length() || isWhitespace(classes.charAt(end)))) {
+                return true;
+            }
+            index = end;
+        }
+        return false;
+    }
+
+    private static boolean isBlock(String tag) {
+        for (String block : BLOCK_TAGS) {
+            if (block.equals(tag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\n' || c == '\t' || c == '\r' || c == '\f';
+    }
+
+    // Collapse whitespaces and trim, like jsoup Element.text()
+    private static String normalize(StringBuilder sb) {
+        int length = sb.length();
+        int start = 0;
+        while (start < length && sb.charAt(start) <= ' ') {
+            start++;
+        }
+        int end = length;
+        while (end > start && sb.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        boolean clean = true;
+        for (int i = start; i < end; i++) {
+            char c = sb.charAt(i);
+            if (c < ' ' || (c == ' ' && sb.charAt(i + 1) == ' ')) {
+                clean = false;
+                break;
+            }
+        }
+        if (clean) {
+            return sb.substring(start, end);
+        }
+        StringBuilder out = new StringBuilder(end - start);
+        boolean space = false;
+        for (int i = start; i < end; i++) {
+            char c = sb.charAt(i);
+            if (c <= ' ') {
+                space = true;
+            } else {
+                if (space) {
+                    out.append(' ');
+                    space = false;
+                }
+                out.append(c);
+            }
+        }
+        return out.toString();
+    }
+
+    private static final class Row {
+        int depth;
+
+        int glnameDepth;
+        String href;
+        String parentHref;
+        int titleDepth;
+        String title;
+        int tagTableDepth;
+        int tagRowDepth;
+        int tagCells;
+        String tagNamespace;
+        final List<String> tags = new ArrayList<>();
+        List<String> simpleTags;
+
+        boolean cnFound;
+        String cn;
+        boolean csFound;
+        String cs;
+
+        int glthumbDepth;
+        boolean thumbFound;
+        String thumbStyle;
+        String thumbUrl;
+        boolean thumbPagesFound;
+        String thumbPages;
+
+        int gl1eDepth;
+        String gl1eStyle;
+        String gl1eUrl;
+        int gl3tDepth;
+        String gl3tStyle;
+        String gl3tUrl;
+
+        String postedId;
+        String postedStyle;
+        String posted;
+
+        ArrayList<String> gtTitles;
+        ArrayList<String> gtlTitles;
+
+        String irStyle;
+        boolean rated;
+
+        int glhideDepth;
+        String hideUploader;
+        String hidePages;
+        int gl3eDepth;
+        String extendedUploader;
+        String extendedPages;
+
+        int gl5tDepth;
+        boolean gl5tPagesFound;
+        String thumbnailPages;
+
+        void reset(int depth) {
+            this.depth = depth;
+            glnameDepth = 0;
+            href = null;
+            parentHref = null;
+            titleDepth = 0;
+            title = null;
+            tagTableDepth = 0;
+            tagRowDepth = 0;
+            tagCells = 0;
+            tagNamespace = null;
+            tags.clear();
+            simpleTags = null;
+            cnFound = false;
+            cn = null;
+            csFound = false;
+            cs = null;
+            glthumbDepth = 0;
+            thumbFound = false;
+            thumbStyle = null;
+            thumbUrl = null;
+            thumbPagesFound = false;
+            thumbPages = null;
+            gl1eDepth = 0;
+            gl1eStyle = null;
+            gl1eUrl = null;
+            gl3tDepth = 0;
+            gl3tStyle = null;
+            gl3tUrl = null;
+            postedId = null;
+            postedStyle = null;
+            posted = null;
+            gtTitles = null;
+            gtlTitles = null;
+            irStyle = null;
+            rated = false;
+            glhideDepth = 0;
+            hideUploader = null;
+            hidePages = null;
+            gl3eDepth = 0;
+            extendedUploader = null;
+            extendedPages = null;
+            gl5tDepth = 0;
+            gl5tPagesFound = false;
+            thumbnailPages = null;
+        }
+    }
+}
@@ -0,0 +1,415 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.client.parser;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * A pull tokenizer for html which reads straight from a {@link Reader}.
+ * Only attributes passed to the constructor are kept, the others are skipped
+ * without creating strings. Content of script and style is skipped.
+ */
+final class HtmlTokenizer {
+
+    static final int EOF = 0;
+    static final int START_TAG = 1;
+    static final int END_TAG = 2;
+    static final int TEXT = 3;
+
+    private static final String[] KNOWN_TAGS = {
+            "div", "a", "td", "tr", "img", "table", "tbody", "th", "thead", "p", "span",
+            "br", "input", "option", "select", "form", "script", "style", "html", "head",
+            "body", "meta", "link", "title", "label", "button", "h1", "h2", "iframe", "noscript"};
+
+    private static final String[] VOID_TAGS = {
+            "area", "base", "br", "col", "embed", "hr", "img", "input", "link", "meta",
+            "param", "source", "track", "wbr"};
+
+    private final Reader mReader;
+    private final char[] mBuffer = new char[8192];
+    private int mPos;
+    private int mLimit;
+
+    private final String[] mAttributeFilter;
+    private final String[] mAttributeValues;
+    private final StringBuilder mName = new StringBuilder();
+    private final StringBuilder mValue = new StringBuilder();
+    private final StringBuilder mText = new StringBuilder();
+
+    private String mTagName;
+    private boolean mSelfClosing;
+
+    HtmlTokenizer(Reader reader, String... attributes) {
+        mReader = reader;
+        mAttributeFilter = attributes;
+        mAttributeValues = new String[attributes.length];
+    }
+
+    /**
+     * The tag name of the last START_TAG or END_TAG, in lower case
+     */
+    String getTagName() {
+        return mTagName;
+    }
+
+    /**
+     * Whether the last START_TAG has no content, like {@code <img>} or {@code <div/>}
+     */
+    boolean isSelfClosing() {
+        return mSelfClosing;
+    }
+
+    /**
+     * Attribute of the last START_TAG, it must be one of the attributes passed to constructor
+     */
+    String getAttribute(String name) {
+        for (int i = 0; i < mAttributeFilter.length; i++) {
+            if (mAttributeFilter[i].equals(name)) {
+                return mAttributeValues[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Decoded text of the last TEXT, only valid until next call of {@link #next()}
+     */
+    CharSequence getText() {
+        return mText;
+    }
+
+    int next() throws IOException {
+        mText.setLength(0);
+        while (true) {
+            int c = peek(0);
+            if (c == -1) {
+                if (mText.length() > 0) {
+                    return TEXT;
+                }
+                return EOF;
+            }
+            if (c == '<') {
+                int c1 = peek(1);
+                boolean tag = isLetter(c1) || c1 == '/' || c1 == '!' || c1 == '?';
+                if (tag && mText.length() > 0) {
+                    return TEXT;
+                }
+                if (isLetter(c1)) {
+                    mPos++;
+                    readStartTag();
+                    return START_TAG;
+                } else if (c1 == '/' && isLetter(peek(2))) {
+                    mPos += 2;
+                    readEndTag();
+                    return END_TAG;
+                } else if (tag) {
+                    skipMarkup();
+                    continue;
+                }
+            }
+            if (c == '&') {
+                mPos++;
+                readEntity(mText);
+            } else {
+                mText.append((char) c);
+                mPos++;
+            }
+        }
+    }
+
+    private void readStartTag() throws IOException {
+        readName(mName);
+        mTagName = intern(mName);
+        for (int i = 0; i < mAttributeValues.length; i++) {
+            mAttributeValues[i] = null;
+        }
+        mSelfClosing = false;
+
+        while (true) {
+            skipWhitespace();
+            int c = peek(0);
+            if (c == -1) {
+                break;
+            } else if (c == '>') {
+                mPos++;
+                break;
+            } else if (c == '/') {
+                mPos++;
+                if (peek(0) == '>') {
+                    mPos++;
+                    mSelfClosing = true;
+                    break;
+                }
+                continue;
+            }
+
+            readName(mName);
+            if (mName.length() == 0) {
+                // Unexpected char, like '=' without name
+                mPos++;
+                continue;
+            }
+            int index = -1;
+            for (int i = 0; i < mAttributeFilter.length; i++) {
+                if (contentEquals(mName, mAttributeFilter[i])) {
+                    index = i;
+                    break;
+                }
+            }
+            skipWhitespace();
+            if (peek(0) != '=') {
+                if (index >= 0 && mAttributeValues[index] == null) {
+                    mAttributeValues[index] = "";
+                }
+                continue;
+            }
+            mPos++;
+            skipWhitespace();
+            readAttributeValue(index >= 0 ? mValue : null);
+            if (index >= 0 && mAttributeValues[index] == null) {
+                mAttributeValues[index] = mValue.toString();
+            }
+        }
+
+        if (!mSelfClosing) {
+            for (String tag : VOID_TAGS) {
+                if (tag.equals(mTagName)) {
+                    mSelfClosing = true;
+                    break;
+                }
+            }
+        }
+        if (!mSelfClosing && ("script".equals(mTagName) || "style".equals(mTagName))) {
+            skipRawText(mTagName);
+        }
+    }
+
+    private void readEndTag() throws IOException {
+        readName(mName);
+        mTagName = intern(mName);
+        mSelfClosing = false;
+        int c;
+        while ((c = peek(0)) != -1) {
+            mPos++;
+            if (c == '>') {
+                break;
+            }
+        }
+    }
+
+    private void readName(StringBuilder sb) throws IOException {
+        sb.setLength(0);
+        int c;
+        while ((c = peek(0)) != -1 && c != '>' && c != '/' && c != '=' && !isWhitespace(c)) {
+            sb.append(Character.toLowerCase((char) c));
+            mPos++;
+        }
+    }
+
+    private void readAttributeValue(StringBuilder sb) throws IOException {
+        if (sb != null) {
+            sb.setLength(0);
+        }
+        int quote = peek(0);
+        if (quote == '"' || quote == '\'') {
+            mPos++;
+        } else {
+            quote = -1;
+        }
+        int c;
+        while ((c = peek(0)) != -1) {
+            if (quote == -1 ? (c == '>' || isWhitespace(c)) : c == quote) {
+                break;
+            }
+            mPos++;
+            if (sb == null) {
+                continue;
+            }
+            if (c == '&') {
+                readEntity(sb);
+            } else {
+                sb.append((char) c);
+            }
+        }
+        if (quote != -1 && c == quote) {
+            mPos++;
+        }
+    }
+
+    // Comment, doctype or processing instruction
+    private void skipMarkup() throws IOException {
+        if (peek(1) == '!' && peek(2) == '-' && peek(3) == '-') {
+            mPos += 4;
+            int c;
+            while ((c = peek(0)) != -1) {
+                if (c == '-' && peek(1) == '-' && peek(2) == '>') {
+                    mPos += 3;
+                    return;
+                }
+                mPos++;
+            }
+            return;
+        }
+        int c;
+        while ((c = peek(0)) != -1) {
+            mPos++;
+            if (c == '>') {
+                return;
+            }
+        }
+    }
+
+    private void skipRawText(String tagName) throws IOException {
+        int length = tagName.length();
+        int c;
+        while ((c = peek(0)) != -1) {
+            if (c == '<' && peek(1) == '/') {
+                boolean match = true;
+                for (int i = 0; i < length; i++) {
+                    if (Character.toLowerCase((char) peek(2 + i)) != tagName.charAt(i)) {
+                        match = false;
+                        break;
+                    }
+                }
+                if (match) {
+                    return;
+                }
+            }
+            mPos++;
+        }
+    }
+
+    // The '&' is consumed
+    private void readEntity(StringBuilder sb) throws IOException {
+        int length = 0;
+        int c;
+        while (length < 10 && (c = peek(length)) != -1 && (isLetter(c) || isDigit(c) || c == '#')) {
+            length++;
+        }
+        if (length == 0 || peek(length) != ';') {
+            sb.append('&');
+            return;
+        }
+
+        int code = -1;
+        if (peek(0) == '#') {
+            boolean hex = peek(1) == 'x' || peek(1) == 'X';
+            int value = 0;
+            for (int i = hex ? 2 : 1; i < length; i++) {
+                int digit = Character.digit((char) peek(i), hex ? 16 : 10);
+                if (digit < 0 || value > 0x10FFFF) {
+                    value = -1;
+                    break;
+                }
+                value = value * (hex ? 16 : 10) + digit;
+            }
+            code = value > 0 && value <= 0x10FFFF ? value : -1;
+        } else {
+            mName.setLength(0);
+            for (int i = 0; i < length; i++) {
+                mName.append((char) peek(i));
+            }
+            if (contentEquals(mName, "amp")) {
+                code = '&';
+            } else if (contentEquals(mName, "lt")) {
+                code = '<';
+            } else if (contentEquals(mName, "gt")) {
+                code = '>';
+            } else if (contentEquals(mName, "quot")) {
+                code = '"';
+            } else if (contentEquals(mName, "apos")) {
+                code = '\'';
+            } else if (contentEquals(mName, "nbsp")) {
+                code = ' ';
+            }
+        }
+
+        if (code == -1) {
+            sb.append('&');
+        } else {
+            sb.appendCodePoint(code);
+            mPos += length + 1;
+        }
+    }
+
+    private void skipWhitespace() throws IOException {
+        int c;
+        while ((c = peek(0)) != -1 && isWhitespace(c)) {
+            mPos++;
+        }
+    }
+
+    private int peek(int offset) throws IOException {
+        if (mPos + offset >= mLimit) {
+            fill(offset + 1);
+            if (mPos + offset >= mLimit) {
+                return -1;
+            }
+        }
+        return mBuffer[mPos + offset];
+    }
+
+    private void fill(int minimum) throws IOException {
+        if (mPos > 0) {
+            System.arraycopy(mBuffer, mPos, mBuffer, 0, mLimit - mPos);
+            mLimit -= mPos;
+            mPos = 0;
+        }
+        while (mLimit < minimum) {
+            int read = mReader.read(mBuffer, mLimit, mBuffer.length - mLimit);
+            if (read == -1) {
+                return;
+            }
+            mLimit += read;
+        }
+    }
+
+    private static String intern(StringBuilder sb) {
+        for (String tag : KNOWN_TAGS) {
+            if (contentEquals(sb, tag)) {
+                return tag;
+            }
+        }
+        return sb.toString();
+    }
+
+    private static boolean contentEquals(StringBuilder sb, String str) {
+        int length = sb.length();
+        if (length != str.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (sb.charAt(i) != str.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isLetter(int c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isDigit(int c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isWhitespace(int c) {
+        return c == ' ' || c == '\n' || c == '\t' || c == '\r' || c == '\f';
+    }
+}
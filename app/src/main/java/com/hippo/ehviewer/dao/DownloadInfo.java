@@ -18,6 +18,7 @@ public class DownloadInfo extends GalleryInfo {
 	public int legacy;
 	public long time;
 	public String label;
+	public int priority = PRIORITY_NORMAL;
 
 	public static final Creator<DownloadInfo> CREATOR = new Creator<DownloadInfo>() {
 		@Override
@@ -30,6 +31,11 @@ public class DownloadInfo extends GalleryInfo {
 			return new DownloadInfo[size];
 		}
 	};
+	// Download priority, higher one gets image download slots first
+	public static final int PRIORITY_LOW = 0;
+	public static final int PRIORITY_NORMAL = 1;
+	public static final int PRIORITY_HIGH = 2;
+
 	public static final int STATE_INVALID = -1;
 	public static final int STATE_NONE = 0;
 	public static final int STATE_WAIT = 1;
@@ -53,7 +59,7 @@ public class DownloadInfo extends GalleryInfo {
 	@Generated
 	public DownloadInfo(long gid, String token, String title, String titleJpn, String thumb, int category,
 			String posted, String uploader, float rating, String simpleLanguage, int state, int legacy, long time,
-			String label) {
+			String label, int priority) {
 		this.gid = gid;
 		this.token = token;
 		this.title = title;
@@ -68,6 +74,7 @@ public class DownloadInfo extends GalleryInfo {
 		this.legacy = legacy;
 		this.time = time;
 		this.label = label;
+		this.priority = priority;
 	}
 
 	public long getGid() {
@@ -182,6 +189,14 @@ public class DownloadInfo extends GalleryInfo {
 		this.label = label;
 	}
 
+	public int getPriority() {
+		return priority;
+	}
+
+	public void setPriority(int priority) {
+		this.priority = priority;
+	}
+
 	@Override
 	public int describeContents() {
 		return 0;
@@ -194,6 +209,7 @@ public class DownloadInfo extends GalleryInfo {
 		dest.writeInt(this.legacy);
 		dest.writeLong(this.time);
 		dest.writeString(this.label);
+		dest.writeInt(this.priority);
 	}
 
 	protected DownloadInfo(Parcel in) {
@@ -202,6 +218,7 @@ public class DownloadInfo extends GalleryInfo {
 		this.legacy = in.readInt();
 		this.time = in.readLong();
 		this.label = in.readString();
+		this.priority = in.readInt();
 	}
 
 	public DownloadInfo(GalleryInfo galleryInfo) {
@@ -236,6 +253,7 @@ public class DownloadInfo extends GalleryInfo {
 		jsonObject.put("finished", finished);
 		jsonObject.put("legacy", legacy);
 		jsonObject.put("label", label);
+		jsonObject.put("priority", priority);
 		jsonObject.put("downloaded", downloaded);
 		jsonObject.put("remaining", remaining);
 		jsonObject.put("speed", speed);
@@ -250,6 +268,9 @@ public class DownloadInfo extends GalleryInfo {
 		downloadInfo.finished = object.getIntValue("finished");
 		downloadInfo.legacy = object.getIntValue("legacy");
 		downloadInfo.label = object.getString("label");
+		if (object.containsKey("priority")) {
+			downloadInfo.priority = object.getIntValue("priority");
+		}
 		downloadInfo.downloaded = object.getIntValue("downloaded");
 		downloadInfo.remaining = object.getLongValue("remaining");
 		downloadInfo.speed = object.getLongValue("speed");
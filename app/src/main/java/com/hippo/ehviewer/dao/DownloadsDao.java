@@ -36,6 +36,7 @@ public class DownloadsDao extends AbstractDao<DownloadInfo, Long> {
         public final static Property Legacy = new Property(11, int.class, "legacy", false, "LEGACY");
         public final static Property Time = new Property(12, long.class, "time", false, "TIME");
         public final static Property Label = new Property(13, String.class, "label", false, "LABEL");
+        public final static Property Priority = new Property(14, int.class, "priority", false, "PRIORITY");
     };
 
 
@@ -64,7 +65,8 @@ public class DownloadsDao extends AbstractDao<DownloadInfo, Long> {
                 "\"STATE\" INTEGER NOT NULL ," + // 10: state
                 "\"LEGACY\" INTEGER NOT NULL ," + // 11: legacy
                 "\"TIME\" INTEGER NOT NULL ," + // 12: time
-                "\"LABEL\" TEXT);"); // 13: label
+                "\"LABEL\" TEXT," + // 13: label
+                "\"PRIORITY\" INTEGER NOT NULL DEFAULT 1);"); // 14: priority
     }
 
     /** Drops the underlying database table. */
@@ -122,6 +124,7 @@ public class DownloadsDao extends AbstractDao<DownloadInfo, Long> {
         if (label != null) {
             stmt.bindString(14, label);
         }
+        stmt.bindLong(15, entity.getPriority());
     }
 
     @Override
@@ -173,6 +176,7 @@ public class DownloadsDao extends AbstractDao<DownloadInfo, Long> {
         if (label != null) {
             stmt.bindString(14, label);
         }
+        stmt.bindLong(15, entity.getPriority());
     }
 
     @Override
@@ -196,7 +200,8 @@ public class DownloadsDao extends AbstractDao<DownloadInfo, Long> {
             cursor.getInt(offset + 10), // state
             cursor.getInt(offset + 11), // legacy
             cursor.getLong(offset + 12), // time
-            cursor.isNull(offset + 13) ? null : cursor.getString(offset + 13) // label
+            cursor.isNull(offset + 13) ? null : cursor.getString(offset + 13), // label
+            cursor.getInt(offset + 14) // priority
         );
         return entity;
     }
@@ -217,6 +222,7 @@ public class DownloadsDao extends AbstractDao<DownloadInfo, Long> {
         entity.setLegacy(cursor.getInt(offset + 11));
         entity.setTime(cursor.getLong(offset + 12));
         entity.setLabel(cursor.isNull(offset + 13) ? null : cursor.getString(offset + 13));
+        entity.setPriority(cursor.getInt(offset + 14));
      }
     
     @Override
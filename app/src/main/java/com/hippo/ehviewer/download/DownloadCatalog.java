@@ -0,0 +1,321 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.download;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.hippo.ehviewer.EhDB;
+import com.hippo.ehviewer.dao.DownloadInfo;
+import com.hippo.ehviewer.dao.GalleryTags;
+import com.hippo.lib.yorozuya.collect.IntList;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Indexes of all downloads, kept by {@link DownloadManager} as downloads are added or removed.
+ * <p>
+ * Every download has a slot. Sort orders are slot arrays built once and reused until the
+ * downloads change, tags are indexed from "namespace:tag" to a bitset of slots.
+ */
+public final class DownloadCatalog {
+
+    public static final int SORT_GID = 0;
+    public static final int SORT_TIME = 1;
+    public static final int SORT_RATING = 2;
+    private static final int SORT_COUNT = 3;
+
+    // SQLite allows 999 variables in a statement
+    private static final int TAGS_QUERY_BATCH = 500;
+
+    private final HashMap<Long, Integer> mSlotMap = new HashMap<>();
+    // Null for free slots
+    private final ArrayList<DownloadInfo> mSlots = new ArrayList<>();
+    private final IntList mFreeSlots = new IntList();
+
+    // Tags of each slot, null if they are not read from DB yet
+    private final ArrayList<String[]> mSlotTags = new ArrayList<>();
+    private final HashMap<String, BitSet> mTagIndex = new HashMap<>();
+
+    // Slots in ascending order of each sort key, null if downloads changed
+    private final int[][] mSortedSlots = new int[SORT_COUNT][];
+
+    synchronized void add(@NonNull DownloadInfo info) {
+        Integer old = mSlotMap.get(info.gid);
+        if (old != null) {
+            // Same gallery, new info
+            mSlots.set(old, info);
+            clearSortedSlots();
+            return;
+        }
+
+        int slot;
+        if (!mFreeSlots.isEmpty()) {
+            slot = mFreeSlots.removeAt(mFreeSlots.size() - 1);
+            mSlots.set(slot, info);
+        } else {
+            slot = mSlots.size();
+            mSlots.add(info);
+            mSlotTags.add(null);
+        }
+        mSlotMap.put(info.gid, slot);
+        clearSortedSlots();
+    }
+
+    synchronized void addAll(@NonNull Collection<DownloadInfo> infos) {
+        for (DownloadInfo info : infos) {
+            add(info);
+        }
+    }
+
+    synchronized void remove(long gid) {
+        Integer slot = mSlotMap.remove(gid);
+        if (slot == null) {
+            return;
+        }
+        unindexTags(slot);
+        mSlots.set(slot, null);
+        mFreeSlots.add(slot);
+        clearSortedSlots();
+    }
+
+    /**
+     * Tags of the gallery are changed in DB, read them again when needed.
+     */
+    public synchronized void invalidateTags(long gid) {
+        Integer slot = mSlotMap.get(gid);
+        if (slot != null) {
+            unindexTags(slot);
+        }
+    }
+
+    private void clearSortedSlots() {
+        Arrays.fill(mSortedSlots, null);
+    }
+
+    private void unindexTags(int slot) {
+        String[] tags = mSlotTags.get(slot);
+        if (tags == null) {
+            return;
+        }
+        for (String tag : tags) {
+            BitSet bits = mTagIndex.get(tag);
+            if (bits != null) {
+                bits.clear(slot);
+                if (bits.isEmpty()) {
+                    mTagIndex.remove(tag);
+                }
+            }
+        }
+        mSlotTags.set(slot, null);
+    }
+
+    private void indexTags(int slot, @NonNull String[] tags) {
+        mSlotTags.set(slot, tags);
+        for (String tag : tags) {
+            BitSet bits = mTagIndex.get(tag);
+            if (bits == null) {
+                bits = new BitSet();
+                mTagIndex.put(tag, bits);
+            }
+            bits.set(slot);
+        }
+    }
+
+    @NonNull
+    private int[] getSortedSlotsLocked(int sort) {
+        int[] slots = mSortedSlots[sort];
+        if (slots != null) {
+            return slots;
+        }
+
+        Integer[] boxed = mSlotMap.values().toArray(new Integer[0]);
+        Comparator<Integer> comparator;
+        switch (sort) {
+            case SORT_TIME:
+                comparator = (a, b) -> Long.compare(mSlots.get(a).time, mSlots.get(b).time);
+                break;
+            case SORT_RATING:
+                comparator = (a, b) -> Float.compare(mSlots.get(a).rating, mSlots.get(b).rating);
+                break;
+            case SORT_GID:
+            default:
+                comparator = (a, b) -> Long.compare(mSlots.get(a).gid, mSlots.get(b).gid);
+                break;
+        }
+        Arrays.sort(boxed, comparator);
+        slots = new int[boxed.length];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = boxed[i];
+        }
+        mSortedSlots[sort] = slots;
+        return slots;
+    }
+
+    /**
+     * @return a new list of downloads in {@code list}, in the order of the sort key
+     */
+    @NonNull
+    public synchronized List<DownloadInfo> sort(@Nullable List<DownloadInfo> list, int sort, boolean desc) {
+        if (list == null) {
+            return new ArrayList<>();
+        }
+
+        BitSet members = new BitSet(mSlots.size());
+        List<DownloadInfo> unknown = null;
+        for (DownloadInfo info : list) {
+            Integer slot = mSlotMap.get(info.gid);
+            if (slot != null) {
+                members.set(slot);
+            } else {
+                if (unknown == null) {
+                    unknown = new ArrayList<>();
+                }
+                unknown.add(info);
+            }
+        }
+
+        int[] slots = getSortedSlotsLocked(sort);
+        List<DownloadInfo> result = new ArrayList<>(list.size());
+        for (int i = 0, n = slots.length; i < n; i++) {
+            int slot = slots[desc ? n - 1 - i : i];
+            if (members.get(slot)) {
+                result.add(mSlots.get(slot));
+            }
+        }
+        // Not in catalog, keep them at the end
+        if (unknown != null) {
+            result.addAll(unknown);
+        }
+        return result;
+    }
+
+    /**
+     * Read tags of downloads which are not indexed yet from DB.
+     * Call it on a background thread.
+     */
+    private void loadTags() {
+        List<Long> gids = new ArrayList<>();
+        synchronized (this) {
+            for (int slot = 0, n = mSlots.size(); slot < n; slot++) {
+                DownloadInfo info = mSlots.get(slot);
+                if (info != null && mSlotTags.get(slot) == null) {
+                    gids.add(info.gid);
+                }
+            }
+        }
+        if (gids.isEmpty()) {
+            return;
+        }
+
+        // Query DB without holding the lock
+        HashMap<Long, String[]> tagsMap = new HashMap<>(gids.size() * 4 / 3 + 1);
+        for (int i = 0, n = gids.size(); i < n; i += TAGS_QUERY_BATCH) {
+            List<GalleryTags> list = EhDB.queryGalleryTags(gids.subList(i, Math.min(n, i + TAGS_QUERY_BATCH)));
+            for (GalleryTags tags : list) {
+                tagsMap.put(tags.gid, getTags(tags));
+            }
+        }
+
+        synchronized (this) {
+            for (Long gid : gids) {
+                Integer slot = mSlotMap.get(gid);
+                if (slot == null || mSlotTags.get(slot) != null) {
+                    // Removed or loaded by others
+                    continue;
+                }
+                String[] tags = tagsMap.get(gid);
+                // No tags in DB yet, invalidateTags() is called when they are saved
+                indexTags(slot, tags != null ? tags : new String[0]);
+            }
+        }
+    }
+
+    /**
+     * @param tags "namespace:tag"
+     * @return gids of downloads with all the tags
+     */
+    @NonNull
+    public Set<Long> queryTags(@NonNull String[] tags) {
+        loadTags();
+
+        synchronized (this) {
+            Set<Long> result = new HashSet<>();
+            BitSet bits = null;
+            for (String tag : tags) {
+                BitSet tagBits = mTagIndex.get(tag);
+                if (tagBits == null) {
+                    return result;
+                }
+                if (bits == null) {
+                    bits = (BitSet) tagBits.clone();
+                } else {
+                    bits.and(tagBits);
+                }
+            }
+            if (bits != null) {
+                for (int slot = bits.nextSetBit(0); slot >= 0; slot = bits.nextSetBit(slot + 1)) {
+                    result.add(mSlots.get(slot).gid);
+                }
+            }
+            return result;
+        }
+    }
+
+    @NonNull
+    private static String[] getTags(@NonNull GalleryTags tags) {
+        List<String> list = new ArrayList<>();
+        addTags(list, "artist", tags.artist);
+        addTags(list, "rows", tags.rows);
+        addTags(list, "cosplayer", tags.cosplayer);
+        addTags(list, "character", tags.character);
+        addTags(list, "female", tags.female);
+        addTags(list, "group", tags.group);
+        addTags(list, "language", tags.language);
+        addTags(list, "male", tags.male);
+        addTags(list, "misc", tags.misc);
+        addTags(list, "mixed", tags.mixed);
+        addTags(list, "other", tags.other);
+        addTags(list, "parody", tags.parody);
+        addTags(list, "reclass", tags.reclass);
+        return list.toArray(new String[0]);
+    }
+
+    private static void addTags(@NonNull List<String> list, @NonNull String namespace, @Nullable String content) {
+        if (content == null) {
+            return;
+        }
+        int start = 0;
+        int length = content.length();
+        while (start <= length) {
+            int end = content.indexOf(',', start);
+            if (end < 0) {
+                end = length;
+            }
+            list.add(namespace + ':' + content.substring(start, end));
+            start = end + 1;
+        }
+    }
+}
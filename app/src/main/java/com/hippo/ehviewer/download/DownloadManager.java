@@ -33,7 +33,9 @@ import com.hippo.ehviewer.dao.DownloadInfo;
 import com.hippo.ehviewer.dao.DownloadLabel;
 import com.hippo.ehviewer.spider.SpiderDen;
 import com.hippo.ehviewer.spider.SpiderInfo;
+import com.hippo.ehviewer.spider.SpiderInfoStore;
 import com.hippo.ehviewer.spider.SpiderQueen;
+import com.hippo.ehviewer.spider.SpiderWorkerBudget;
 import com.hippo.lib.image.Image;
 import com.hippo.unifile.UniFile;
 import com.hippo.util.IoThreadPoolExecutor;
@@ -57,16 +59,20 @@ import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 
-public class DownloadManager implements SpiderQueen.OnSpiderListener {
+public class DownloadManager {
 
     private static final String TAG = DownloadManager.class.getSimpleName();
 
+    private static final int MAX_CONCURRENT_DOWNLOAD = 4;
+
     private final Context mContext;
 
     // All download info list
     private final LinkedList<DownloadInfo> mAllInfoList;
     // All download info map
     private final SparseJLArray<DownloadInfo> mAllInfoMap;
+    // Indexes of all download info for filtering, sorting and tag searching
+    private final DownloadCatalog mCatalog = new DownloadCatalog();
     // label and info list map, without default label info list
     private final Map<String, LinkedList<DownloadInfo>> mMap;
 
@@ -84,10 +90,8 @@ public class DownloadManager implements SpiderQueen.OnSpiderListener {
     private DownloadListener mDownloadListener;
     private final List<DownloadInfoListener> mDownloadInfoListeners;
 
-    @Nullable
-    private DownloadInfo mCurrentTask;
-    @Nullable
-    private SpiderQueen mCurrentSpider;
+    // Running download tasks, in start order
+    private final List<DownloadTask> mTaskList = new ArrayList<>();
 
     private final ConcurrentPool<NotifyTask> mNotifyTaskPool = new ConcurrentPool<>(5);
 
@@ -115,6 +119,7 @@ public class DownloadManager implements SpiderQueen.OnSpiderListener {
         // Create all info map
         SparseJLArray<DownloadInfo> allInfoMap = new SparseJLArray<>(allInfoList.size() + 10);
         mAllInfoMap = allInfoMap;
+        mCatalog.addAll(allInfoList);
 
         for (int i = 0, n = allInfoList.size(); i < n; i++) {
             DownloadInfo info = allInfoList.get(i);
@@ -167,6 +172,8 @@ public class DownloadManager implements SpiderQueen.OnSpiderListener {
 
         mAllInfoMap.remove(oldInfo.gid);
         mAllInfoMap.put(newInfo.gid, newInfo);
+        mCatalog.remove(oldInfo.gid);
+        mCatalog.add(newInfo);
 
 
         for (DownloadInfoListener l : mDownloadInfoListeners) {
@@ -244,6 +251,11 @@ public class DownloadManager implements SpiderQueen.OnSpiderListener {
         return mMap.get(label);
     }
 
+    @NonNull
+    public DownloadCatalog getCatalog() {
+        return mCatalog;
+    }
+
     @Nullable
     public DownloadInfo getDownloadInfo(long gid) {
         return mAllInfoMap.get(gid);
@@ -251,9 +263,10 @@ public class DownloadManager implements SpiderQueen.OnSpiderListener {
 
     @Nullable
     public DownloadInfo getNoneDownloadInfo(long gid) {
-        if (mCurrentTask != null && mCurrentTask.gid == gid) {
-            // Stop current
-            stopCurrentDownloadInternal();
+        DownloadTask task = findTask(gid);
+        if (task != null) {
+            // Stop running
+            stopTaskInternal(task);
         } else {
             // Remove wait
             for (Iterator<DownloadInfo> iterator = mWaitList.iterator(); iterator.hasNext(); ) {
@@ -290,85 +303,159 @@ public class DownloadManager implements SpiderQueen.OnSpiderListener {
         mDownloadListener = listener;
     }
 
-    private void ensureDownload() {
-        if (mCurrentTask != null) {
-            // Only one download
-            return;
+    @Nullable
+    private DownloadTask findTask(long gid) {
+        for (DownloadTask task : mTaskList) {
+            if (task.mInfo.gid == gid) {
+                return task;
+            }
         }
+        return null;
+    }
 
-        // Get download from wait list
-        if (!mWaitList.isEmpty()) {
-            DownloadInfo info = mWaitList.removeFirst();
+    public int getActiveTaskCount() {
+        return mTaskList.size();
+    }
 
-            try {
-                Log.d(TAG, "Starting download for gallery: " + info.title + " (GID: " + info.gid + ")");
+    /**
+     * @return the sum of speed of all running downloads
+     */
+    public long getTotalSpeed() {
+        return mSpeedReminder.getTotalSpeed();
+    }
 
-                // 检查DownloadInfo本身是否有效（它继承自GalleryInfo）
-                if (info == null) {
-                    Log.e(TAG, "DownloadInfo is null");
-                    // 递归调用以处理下一个任务
-                    ensureDownload();
-                    return;
+    public int getDownloadPriority(long gid) {
+        DownloadInfo info = mAllInfoMap.get(gid);
+        return info != null ? info.priority : DownloadInfo.PRIORITY_NORMAL;
+    }
+
+    /**
+     * Higher priority downloads leave the wait list first and
+     * get page workers from {@link SpiderWorkerBudget} first.
+     */
+    public void setRangeDownloadPriority(LongList gidList, int priority) {
+        priority = SpiderWorkerBudget.clampPriority(priority);
+        for (int i = 0, n = gidList.size(); i < n; i++) {
+            long gid = gidList.get(i);
+            DownloadInfo info = mAllInfoMap.get(gid);
+            if (info == null || info.priority == priority) {
+                continue;
+            }
+            info.priority = priority;
+            // Update in DB
+            EhDB.putDownloadInfo(info);
+
+            DownloadTask task = findTask(gid);
+            if (task != null) {
+                task.mSpider.setDownloadPriority(priority);
+            }
+
+            // Notify
+            List<DownloadInfo> list = getInfoListForLabel(info.label);
+            if (list != null) {
+                for (DownloadInfoListener l : mDownloadInfoListeners) {
+                    l.onUpdate(info, list, mWaitList);
                 }
+            }
+        }
+    }
+
+    // Take the first download info with the highest priority
+    @Nullable
+    private DownloadInfo pollWaitList() {
+        DownloadInfo result = null;
+        int resultPriority = -1;
+        for (DownloadInfo info : mWaitList) {
+            int priority = info.priority;
+            if (priority > resultPriority) {
+                result = info;
+                resultPriority = priority;
+            }
+        }
+        if (result != null) {
+            mWaitList.remove(result);
+        }
+        return result;
+    }
 
-                SpiderQueen spider = SpiderQueen.obtainSpiderQueen(mContext, info, SpiderQueen.MODE_DOWNLOAD);
-                mCurrentTask = info;
-                mCurrentSpider = spider;
-                spider.addOnSpiderListener(this);
+    private void ensureDownload() {
+        int maxCount = MathUtils.clamp(Settings.getConcurrentDownload(), 1, MAX_CONCURRENT_DOWNLOAD);
+        while (mTaskList.size() < maxCount) {
+            // Get download from wait list
+            DownloadInfo info = pollWaitList();
+            if (info == null) {
+                break;
+            }
+            startTask(info);
+        }
+    }
 
-                info.state = DownloadInfo.STATE_DOWNLOAD;
-                info.speed = -1;
-                info.remaining = -1;
-                info.total = -1;
-                info.finished = 0;
-                info.downloaded = 0;
-                info.legacy = -1;
+    private void startTask(@NonNull DownloadInfo info) {
+        DownloadTask task = null;
+        try {
+            Log.d(TAG, "Starting download for gallery: " + info.title + " (GID: " + info.gid + ")");
+
+            SpiderQueen spider = SpiderQueen.obtainSpiderQueen(mContext, info, SpiderQueen.MODE_DOWNLOAD);
+            spider.setDownloadPriority(info.priority);
+            task = new DownloadTask(info, spider);
+            mTaskList.add(task);
+            spider.addOnSpiderListener(task);
+
+            info.state = DownloadInfo.STATE_DOWNLOAD;
+            info.speed = -1;
+            info.remaining = -1;
+            info.total = -1;
+            info.finished = 0;
+            info.downloaded = 0;
+            info.legacy = -1;
 
-                // Update in DB
-                EhDB.putDownloadInfo(info);
+            // Update in DB
+            EhDB.putDownloadInfo(info);
 
-                // Start speed count
-                mSpeedReminder.start();
+            // Start speed count
+            mSpeedReminder.start();
 
-                // Notify start downloading
-                if (mDownloadListener != null) {
-                    mDownloadListener.onStart(info);
-                }
+            // Notify start downloading
+            if (mDownloadListener != null) {
+                mDownloadListener.onStart(info);
+            }
 
-                // Notify state update
-                List<DownloadInfo> list = getInfoListForLabel(info.label);
-                if (list != null) {
-                    for (DownloadInfoListener l : mDownloadInfoListeners) {
-                        l.onUpdate(info, list, mWaitList);
-                    }
+            // Notify state update
+            List<DownloadInfo> list = getInfoListForLabel(info.label);
+            if (list != null) {
+                for (DownloadInfoListener l : mDownloadInfoListeners) {
+                    l.onUpdate(info, list, mWaitList);
                 }
+            }
 
-                Log.d(TAG, "Download started successfully for: " + info.title);
-
-            } catch (Exception e) {
-                Log.e(TAG, "Error starting download for gallery: " + info.title + " (GID: " + info.gid + ")", e);
+            Log.d(TAG, "Download started successfully for: " + info.title);
 
-                // 记录崩溃信息到Firebase
-                FirebaseCrashlytics.getInstance().recordException(e);
+        } catch (Exception e) {
+            Log.e(TAG, "Error starting download for gallery: " + info.title + " (GID: " + info.gid + ")", e);
 
-                // 将任务标记为失败
-                info.state = DownloadInfo.STATE_FAILED;
-                EhDB.putDownloadInfo(info);
+            // 记录崩溃信息到Firebase
+            FirebaseCrashlytics.getInstance().recordException(e);
 
-                // 清理当前任务
-                mCurrentTask = null;
-                mCurrentSpider = null;
+            // 将任务标记为失败
+            info.state = DownloadInfo.STATE_FAILED;
+            EhDB.putDownloadInfo(info);
 
-                // 递归调用以处理下一个任务
-                ensureDownload();
+            // 清理当前任务
+            if (task != null) {
+                mTaskList.remove(task);
+                task.mSpider.removeOnSpiderListener(task);
+                SpiderQueen.releaseSpiderQueen(task.mSpider, SpiderQueen.MODE_DOWNLOAD);
+            }
+            if (mTaskList.isEmpty()) {
+                mSpeedReminder.stop();
             }
         }
     }
 
     void startDownload(GalleryInfo galleryInfo, @Nullable String label) {
         try {
-            if (mCurrentTask != null && mCurrentTask.gid == galleryInfo.gid) {
-                // It is current task
+            if (galleryInfo != null && findTask(galleryInfo.gid) != null) {
+                // It is running task
                 Log.d(TAG, "Download already in progress for GID: " + galleryInfo.gid);
                 return;
             }
@@ -430,6 +517,7 @@ public class DownloadManager implements SpiderQueen.OnSpiderListener {
                 // Add to all download list and map
                 mAllInfoList.addFirst(info);
                 mAllInfoMap.put(galleryInfo.gid, info);
+                mCatalog.add(info);
 
                 // Add to wait list
                 mWaitList.add(info);
@@ -591,6 +679,7 @@ public class DownloadManager implements SpiderQueen.OnSpiderListener {
             // Add to all download list and map
             mAllInfoList.add(info);
             mAllInfoMap.put(info.gid, info);
+            mCatalog.add(info);
 
             // Save to
             EhDB.putDownloadInfo(info);
@@ -646,6 +735,7 @@ public class DownloadManager implements SpiderQueen.OnSpiderListener {
         // Add to all download list and map
         mAllInfoList.addFirst(info);
         mAllInfoMap.put(galleryInfo.gid, info);
+        mCatalog.add(info);
 
         // Save to
         EhDB.putDownloadInfo(info);
@@ -685,6 +775,7 @@ public class DownloadManager implements SpiderQueen.OnSpiderListener {
         // Save to
         EhDB.putDownloadInfo(info);
         mAllInfoMap.put(galleryInfo.gid, info);
+        mCatalog.add(info);
     }
 
 
@@ -704,13 +795,15 @@ public class DownloadManager implements SpiderQueen.OnSpiderListener {
     }
 
     void stopCurrentDownload() {
-        DownloadInfo info = stopCurrentDownloadInternal();
-        if (info != null) {
+        List<DownloadInfo> infoList = stopAllTaskInternal();
+        if (!infoList.isEmpty()) {
             // Update listener
-            List<DownloadInfo> list = getInfoListForLabel(info.label);
-            if (list != null) {
-                for (DownloadInfoListener l : mDownloadInfoListeners) {
-                    l.onUpdate(info, list, mWaitList);
+            for (DownloadInfo info : infoList) {
+                List<DownloadInfo> list = getInfoListForLabel(info.label);
+                if (list != null) {
+                    for (DownloadInfoListener l : mDownloadInfoListeners) {
+                        l.onUpdate(info, list, mWaitList);
+                    }
                 }
             }
             // Ensure download
@@ -739,8 +832,8 @@ public class DownloadManager implements SpiderQueen.OnSpiderListener {
         }
         mWaitList.clear();
 
-        // Stop current
-        stopCurrentDownloadInternal();
+        // Stop running
+        stopAllTaskInternal();
 
         // Notify mDownloadInfoListener
         for (DownloadInfoListener l : mDownloadInfoListeners) {
@@ -754,10 +847,12 @@ public class DownloadManager implements SpiderQueen.OnSpiderListener {
         if (info != null) {
             // Remove from DB
             EhDB.removeDownloadInfo(info.gid);
+            SpiderInfoStore.remove(info.gid);
 
             // Remove all list and map
             mAllInfoList.remove(info);
             mAllInfoMap.remove(info.gid);
+            mCatalog.remove(info.gid);
 
             // Remove label list
             LinkedList<DownloadInfo> list = getInfoListForLabel(info.label);
@@ -790,10 +885,12 @@ public class DownloadManager implements SpiderQueen.OnSpiderListener {
 
             // Remove from DB
             EhDB.removeDownloadInfo(info.gid);
+            SpiderInfoStore.remove(info.gid);
 
             // Remove from all info map
             mAllInfoList.remove(info);
             mAllInfoMap.remove(info.gid);
+            mCatalog.remove(info.gid);
 
             // Remove from label list
             LinkedList<DownloadInfo> list = getInfoListForLabel(info.label);
@@ -819,6 +916,8 @@ public class DownloadManager implements SpiderQueen.OnSpiderListener {
 
         // 使用线程池并发处理，提高效率
         IoThreadPoolExecutor.getInstance().execute(() -> {
+            SpiderInfoStore.resetAllStartPages();
+
             // 分批处理，避免一次性占用太多资源
             final int BATCH_SIZE = 10;
             List<DownloadInfo> batch = new ArrayList<>(BATCH_SIZE);
@@ -894,10 +993,11 @@ public class DownloadManager implements SpiderQueen.OnSpiderListener {
     // Update listener
     // No ensureDownload
     private DownloadInfo stopDownloadInternal(long gid) {
-        // Check current task
-        if (mCurrentTask != null && mCurrentTask.gid == gid) {
-            // Stop current
-            return stopCurrentDownloadInternal();
+        // Check running task
+        DownloadTask task = findTask(gid);
+        if (task != null) {
+            // Stop running
+            return stopTaskInternal(task);
         }
 
         for (Iterator<DownloadInfo> iterator = mWaitList.iterator(); iterator.hasNext(); ) {
@@ -917,20 +1017,25 @@ public class DownloadManager implements SpiderQueen.OnSpiderListener {
 
     // Update in DB
     // Update mDownloadListener
-    private DownloadInfo stopCurrentDownloadInternal() {
-        DownloadInfo info = mCurrentTask;
-        SpiderQueen spider = mCurrentSpider;
-        // Release spider
-        if (spider != null) {
-            spider.removeOnSpiderListener(DownloadManager.this);
-            SpiderQueen.releaseSpiderQueen(spider, SpiderQueen.MODE_DOWNLOAD);
+    private List<DownloadInfo> stopAllTaskInternal() {
+        List<DownloadInfo> result = new ArrayList<>(mTaskList.size());
+        for (DownloadTask task : new ArrayList<>(mTaskList)) {
+            result.add(stopTaskInternal(task));
         }
-        mCurrentTask = null;
-        mCurrentSpider = null;
+        return result;
+    }
+
+    // Update in DB
+    // Update mDownloadListener
+    private DownloadInfo stopTaskInternal(@NonNull DownloadTask task) {
+        DownloadInfo info = task.mInfo;
+        // Release spider
+        task.mSpider.removeOnSpiderListener(task);
+        SpiderQueen.releaseSpiderQueen(task.mSpider, SpiderQueen.MODE_DOWNLOAD);
+        mTaskList.remove(task);
         // Stop speed reminder
-        mSpeedReminder.stop();
-        if (info == null) {
-            return null;
+        if (mTaskList.isEmpty()) {
+            mSpeedReminder.stop();
         }
 
         // Update state
@@ -953,10 +1058,12 @@ public class DownloadManager implements SpiderQueen.OnSpiderListener {
                 stopDownloadInternal(gidList.get(i));
             }
         } else {
-            // Check current task
-            if (mCurrentTask != null && gidList.contains(mCurrentTask.gid)) {
-                // Stop current
-                stopCurrentDownloadInternal();
+            // Check running tasks
+            for (DownloadTask task : new ArrayList<>(mTaskList)) {
+                if (gidList.contains(task.mInfo.gid)) {
+                    // Stop running
+                    stopTaskInternal(task);
+                }
             }
 
             // Check all in wait list
@@ -1070,9 +1177,9 @@ public class DownloadManager implements SpiderQueen.OnSpiderListener {
         // Update info label
         for (DownloadInfo info : list) {
             info.label = to;
-            // Update in DB
-            EhDB.putDownloadInfo(info);
         }
+        // Update in DB
+        EhDB.putDownloadInfo(list);
         // Put list back with new label
         mMap.put(to, list);
 
@@ -1121,77 +1228,129 @@ public class DownloadManager implements SpiderQueen.OnSpiderListener {
     }
 
     boolean isIdle() {
-        return mCurrentTask == null && mWaitList.isEmpty();
+        return mTaskList.isEmpty() && mWaitList.isEmpty();
     }
 
-    @Override
-    public void onGetPages(int pages) {
-        NotifyTask task = mNotifyTaskPool.pop();
-        if (task == null) {
-            task = new NotifyTask();
+    private final class DownloadTask implements SpiderQueen.OnSpiderListener {
+
+        private final DownloadInfo mInfo;
+        private final SpiderQueen mSpider;
+
+        // Speed count, only used in UI thread
+        private long mBytesRead;
+        private long mOldSpeed = -1;
+        private final SparseIJArray mContentLengthMap = new SparseIJArray();
+        private final SparseIJArray mReceivedSizeMap = new SparseIJArray();
+
+        private DownloadTask(DownloadInfo info, SpiderQueen spider) {
+            mInfo = info;
+            mSpider = spider;
         }
-        task.setOnGetPagesData(pages);
-        SimpleHandler.getInstance().post(task);
-    }
 
-    @Override
-    public void onGet509(int index) {
-        NotifyTask task = mNotifyTaskPool.pop();
-        if (task == null) {
-            task = new NotifyTask();
+        private NotifyTask obtainNotifyTask() {
+            NotifyTask task = mNotifyTaskPool.pop();
+            if (task == null) {
+                task = new NotifyTask();
+            }
+            task.mTask = this;
+            return task;
         }
-        task.setOnGet509Data(index);
-        SimpleHandler.getInstance().post(task);
-    }
 
-    @Override
-    public void onPageDownload(int index, long contentLength, long receivedSize, int bytesRead) {
-        NotifyTask task = mNotifyTaskPool.pop();
-        if (task == null) {
-            task = new NotifyTask();
+        private void onDownload(int index, long contentLength, long receivedSize, int bytesRead) {
+            mContentLengthMap.put(index, contentLength);
+            mReceivedSizeMap.put(index, receivedSize);
+            mBytesRead += bytesRead;
         }
-        task.setOnPageDownloadData(index, contentLength, receivedSize, bytesRead);
-        SimpleHandler.getInstance().post(task);
-    }
 
-    @Override
-    public void onPageSuccess(int index, int finished, int downloaded, int total) {
-        NotifyTask task = mNotifyTaskPool.pop();
-        if (task == null) {
-            task = new NotifyTask();
+        private void onDone(int index) {
+            mContentLengthMap.delete(index);
+            mReceivedSizeMap.delete(index);
+        }
+
+        private void updateSpeed(long interval) {
+            DownloadInfo info = mInfo;
+            long newSpeed = mBytesRead * 1000 / interval;
+            if (mOldSpeed != -1) {
+                newSpeed = (long) MathUtils.lerp(mOldSpeed, newSpeed, 0.75f);
+            }
+            mOldSpeed = newSpeed;
+            mBytesRead = 0;
+            info.speed = newSpeed;
+
+            // Calculate remaining
+            if (info.total <= 0) {
+                info.remaining = -1;
+            } else if (newSpeed == 0) {
+                info.remaining = 300L * 24L * 60L * 60L * 1000L; // 300 days
+            } else {
+                int downloadingCount = 0;
+                long downloadingContentLengthSum = 0;
+                long totalSize = 0;
+                for (int i = 0, n = Math.max(mContentLengthMap.size(), mReceivedSizeMap.size()); i < n; i++) {
+                    long contentLength = mContentLengthMap.valueAt(i);
+                    long receivedSize = mReceivedSizeMap.valueAt(i);
+                    downloadingCount++;
+                    downloadingContentLengthSum += contentLength;
+                    totalSize += contentLength - receivedSize;
+                }
+                if (downloadingCount != 0) {
+                    totalSize += downloadingContentLengthSum * (info.total - info.downloaded - downloadingCount) / downloadingCount;
+                    info.remaining = totalSize / newSpeed * 1000;
+                }
+            }
         }
-        task.setOnPageSuccessData(index, finished, downloaded, total);
-        SimpleHandler.getInstance().post(task);
-    }
 
-    @Override
-    public void onPageFailure(int index, String error, int finished, int downloaded, int total) {
-        NotifyTask task = mNotifyTaskPool.pop();
-        if (task == null) {
-            task = new NotifyTask();
+        @Override
+        public void onGetPages(int pages) {
+            NotifyTask task = obtainNotifyTask();
+            task.setOnGetPagesData(pages);
+            SimpleHandler.getInstance().post(task);
         }
-        task.setOnPageFailureDate(index, error, finished, downloaded, total);
-        SimpleHandler.getInstance().post(task);
-    }
 
-    @Override
-    public void onFinish(int finished, int downloaded, int total) {
-        NotifyTask task = mNotifyTaskPool.pop();
-        if (task == null) {
-            task = new NotifyTask();
+        @Override
+        public void onGet509(int index) {
+            NotifyTask task = obtainNotifyTask();
+            task.setOnGet509Data(index);
+            SimpleHandler.getInstance().post(task);
         }
-        task.setOnFinishDate(finished, downloaded, total);
-        SimpleHandler.getInstance().post(task);
-    }
 
-    @Override
-    public void onGetImageSuccess(int index, Image image) {
-        // Ignore
-    }
+        @Override
+        public void onPageDownload(int index, long contentLength, long receivedSize, int bytesRead) {
+            NotifyTask task = obtainNotifyTask();
+            task.setOnPageDownloadData(index, contentLength, receivedSize, bytesRead);
+            SimpleHandler.getInstance().post(task);
+        }
+
+        @Override
+        public void onPageSuccess(int index, int finished, int downloaded, int total) {
+            NotifyTask task = obtainNotifyTask();
+            task.setOnPageSuccessData(index, finished, downloaded, total);
+            SimpleHandler.getInstance().post(task);
+        }
+
+        @Override
+        public void onPageFailure(int index, String error, int finished, int downloaded, int total) {
+            NotifyTask task = obtainNotifyTask();
+            task.setOnPageFailureDate(index, error, finished, downloaded, total);
+            SimpleHandler.getInstance().post(task);
+        }
+
+        @Override
+        public void onFinish(int finished, int downloaded, int total) {
+            NotifyTask task = obtainNotifyTask();
+            task.setOnFinishDate(finished, downloaded, total);
+            SimpleHandler.getInstance().post(task);
+        }
+
+        @Override
+        public void onGetImageSuccess(int index, Image image) {
+            // Ignore
+        }
 
-    @Override
-    public void onGetImageFailure(int index, String error) {
-        // Ignore
+        @Override
+        public void onGetImageFailure(int index, String error) {
+            // Ignore
+        }
     }
 
     private class NotifyTask implements Runnable {
@@ -1203,6 +1362,7 @@ public class DownloadManager implements SpiderQueen.OnSpiderListener {
         public static final int TYPE_ON_PAGE_FAILURE = 4;
         public static final int TYPE_ON_FINISH = 5;
 
+        private DownloadTask mTask;
         private int mType;
         private int mPages;
         private int mIndex;
@@ -1259,12 +1419,17 @@ public class DownloadManager implements SpiderQueen.OnSpiderListener {
 
         @Override
         public void run() {
+            DownloadTask task = mTask;
+            mTask = null;
+            // The task may be stopped before the notification arrives
+            boolean running = task != null && mTaskList.contains(task);
+
             switch (mType) {
                 case TYPE_ON_GET_PAGES: {
-                    DownloadInfo info = mCurrentTask;
-                    if (info == null) {
-                        Log.e(TAG, "Current task is null, but it should not be");
+                    if (!running) {
+                        Log.d(TAG, "Task is not running, ignore pages");
                     } else {
+                        DownloadInfo info = task.mInfo;
                         info.total = mPages;
                         List<DownloadInfo> list = getInfoListForLabel(info.label);
                         if (list != null) {
@@ -1282,15 +1447,17 @@ public class DownloadManager implements SpiderQueen.OnSpiderListener {
                     break;
                 }
                 case TYPE_ON_PAGE_DOWNLOAD: {
-                    mSpeedReminder.onDownload(mIndex, mContentLength, mReceivedSize, mBytesRead);
+                    if (running) {
+                        task.onDownload(mIndex, mContentLength, mReceivedSize, mBytesRead);
+                    }
                     break;
                 }
                 case TYPE_ON_PAGE_SUCCESS: {
-                    mSpeedReminder.onDone(mIndex);
-                    DownloadInfo info = mCurrentTask;
-                    if (info == null) {
-                        Log.e(TAG, "Current task is null, but it should not be");
+                    if (!running) {
+                        Log.d(TAG, "Task is not running, ignore page success");
                     } else {
+                        task.onDone(mIndex);
+                        DownloadInfo info = task.mInfo;
                         info.finished = mFinished;
                         info.downloaded = mDownloaded;
                         info.total = mTotal;
@@ -1307,11 +1474,11 @@ public class DownloadManager implements SpiderQueen.OnSpiderListener {
                     break;
                 }
                 case TYPE_ON_PAGE_FAILURE: {
-                    mSpeedReminder.onDone(mIndex);
-                    DownloadInfo info = mCurrentTask;
-                    if (info == null) {
-                        Log.e(TAG, "Current task is null, but it should not be");
+                    if (!running) {
+                        Log.d(TAG, "Task is not running, ignore page failure");
                     } else {
+                        task.onDone(mIndex);
+                        DownloadInfo info = task.mInfo;
                         info.finished = mFinished;
                         info.downloaded = mDownloaded;
                         info.total = mTotal;
@@ -1325,24 +1492,20 @@ public class DownloadManager implements SpiderQueen.OnSpiderListener {
                     break;
                 }
                 case TYPE_ON_FINISH: {
-                    mSpeedReminder.onFinish();
-                    // Download done
-                    DownloadInfo info = mCurrentTask;
-                    mCurrentTask = null;
-                    SpiderQueen spider = mCurrentSpider;
-                    mCurrentSpider = null;
-                    // Release spider
-                    if (spider != null) {
-                        spider.removeOnSpiderListener(DownloadManager.this);
-                        SpiderQueen.releaseSpiderQueen(spider, SpiderQueen.MODE_DOWNLOAD);
-                    }
-                    // Check null
-                    if (info == null || spider == null) {
-                        Log.e(TAG, "Current stuff is null, but it should not be");
+                    if (!running) {
+                        Log.d(TAG, "Task is not running, ignore finish");
                         break;
                     }
+                    // Download done
+                    DownloadInfo info = task.mInfo;
+                    mTaskList.remove(task);
+                    // Release spider
+                    task.mSpider.removeOnSpiderListener(task);
+                    SpiderQueen.releaseSpiderQueen(task.mSpider, SpiderQueen.MODE_DOWNLOAD);
                     // Stop speed count
-                    mSpeedReminder.stop();
+                    if (mTaskList.isEmpty()) {
+                        mSpeedReminder.stop();
+                    }
                     // Update state
                     info.finished = mFinished;
                     info.downloaded = mDownloaded;
@@ -1378,13 +1541,10 @@ public class DownloadManager implements SpiderQueen.OnSpiderListener {
 
     class SpeedReminder implements Runnable {
 
-        private boolean mStop = true;
+        private static final long INTERVAL = 2000;
 
-        private long mBytesRead;
-        private long oldSpeed = -1;
-
-        private final SparseIJArray mContentLengthMap = new SparseIJArray();
-        private final SparseIJArray mReceivedSizeMap = new SparseIJArray();
+        private boolean mStop = true;
+        private long mTotalSpeed;
 
         public void start() {
             if (mStop) {
@@ -1396,62 +1556,26 @@ public class DownloadManager implements SpiderQueen.OnSpiderListener {
         public void stop() {
             if (!mStop) {
                 mStop = true;
-                mBytesRead = 0;
-                oldSpeed = -1;
-                mContentLengthMap.clear();
-                mReceivedSizeMap.clear();
+                mTotalSpeed = 0;
                 SimpleHandler.getInstance().removeCallbacks(this);
+                for (DownloadInfoListener l : mDownloadInfoListeners) {
+                    l.onUpdateSpeed(0);
+                }
             }
         }
 
-        public void onDownload(int index, long contentLength, long receivedSize, int bytesRead) {
-            mContentLengthMap.put(index, contentLength);
-            mReceivedSizeMap.put(index, receivedSize);
-            mBytesRead += bytesRead;
-        }
-
-        public void onDone(int index) {
-            mContentLengthMap.delete(index);
-            mReceivedSizeMap.delete(index);
-        }
-
-        public void onFinish() {
-            mContentLengthMap.clear();
-            mReceivedSizeMap.clear();
+        public long getTotalSpeed() {
+            return mTotalSpeed;
         }
 
         @Override
         public void run() {
-            DownloadInfo info = mCurrentTask;
-            if (info != null) {
-                long newSpeed = mBytesRead / 2;
-                if (oldSpeed != -1) {
-                    newSpeed = (long) MathUtils.lerp(oldSpeed, newSpeed, 0.75f);
-                }
-                oldSpeed = newSpeed;
-                info.speed = newSpeed;
-
-                // Calculate remaining
-                if (info.total <= 0) {
-                    info.remaining = -1;
-                } else if (newSpeed == 0) {
-                    info.remaining = 300L * 24L * 60L * 60L * 1000L; // 300 days
-                } else {
-                    int downloadingCount = 0;
-                    long downloadingContentLengthSum = 0;
-                    long totalSize = 0;
-                    for (int i = 0, n = Math.max(mContentLengthMap.size(), mReceivedSizeMap.size()); i < n; i++) {
-                        long contentLength = mContentLengthMap.valueAt(i);
-                        long receivedSize = mReceivedSizeMap.valueAt(i);
-                        downloadingCount++;
-                        downloadingContentLengthSum += contentLength;
-                        totalSize += contentLength - receivedSize;
-                    }
-                    if (downloadingCount != 0) {
-                        totalSize += downloadingContentLengthSum * (info.total - info.downloaded - downloadingCount) / downloadingCount;
-                        info.remaining = totalSize / newSpeed * 1000;
-                    }
-                }
+            long totalSpeed = 0;
+            for (DownloadTask task : mTaskList) {
+                task.updateSpeed(INTERVAL);
+                DownloadInfo info = task.mInfo;
+                totalSpeed += Math.max(0, info.speed);
+
                 if (mDownloadListener != null) {
                     mDownloadListener.onDownload(info);
                 }
@@ -1462,11 +1586,13 @@ public class DownloadManager implements SpiderQueen.OnSpiderListener {
                     }
                 }
             }
-
-            mBytesRead = 0;
+            mTotalSpeed = totalSpeed;
+            for (DownloadInfoListener l : mDownloadInfoListeners) {
+                l.onUpdateSpeed(totalSpeed);
+            }
 
             if (!mStop) {
-                SimpleHandler.getInstance().postDelayed(this, 2000);
+                SimpleHandler.getInstance().postDelayed(this, INTERVAL);
             }
         }
     }
@@ -1503,6 +1629,11 @@ public class DownloadManager implements SpiderQueen.OnSpiderListener {
          */
         void onUpdate(@NonNull DownloadInfo info, @NonNull List<DownloadInfo> list, LinkedList<DownloadInfo> mWaitList);
 
+        /**
+         * The sum of speed of all running downloads, updated with the speed of each info
+         */
+        void onUpdateSpeed(long totalSpeed);
+
         /**
          * Maybe all data is changed, but size is the same
          */
@@ -308,6 +308,11 @@ class DownloadService : Service(), DownloadManager.DownloadListener {
         if (speed < 0) {
             speed = 0
         }
+        // Show the speed of all galleries if there are more than one running
+        val activeCount = mDownloadManager?.activeTaskCount ?: 0
+        if (activeCount > 1) {
+            speed = mDownloadManager!!.totalSpeed
+        }
         var text = FileUtils.humanReadableByteCount(speed, false) + "/S"
         val remaining = info.remaining
         text = if (remaining >= 0) {
@@ -340,7 +345,7 @@ class DownloadService : Service(), DownloadManager.DownloadListener {
             return
         }
 
-        if (null != mDownloadingDelay) {
+        if (null != mDownloadingDelay && !hasActiveTask()) {
             mDownloadingDelay!!.cancel()
         }
 
@@ -453,13 +458,17 @@ class DownloadService : Service(), DownloadManager.DownloadListener {
             return
         }
 
-        if (null != mDownloadingDelay) {
+        if (null != mDownloadingDelay && !hasActiveTask()) {
             mDownloadingDelay!!.cancel()
         }
 
         checkStopSelf()
     }
 
+    private fun hasActiveTask(): Boolean {
+        return (mDownloadManager?.activeTaskCount ?: 0) > 0
+    }
+
     private fun checkStopSelf() {
         if (mDownloadManager == null || mDownloadManager!!.isIdle) {
 //            stopForeground(true);
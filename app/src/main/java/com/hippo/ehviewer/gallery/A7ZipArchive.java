@@ -82,6 +82,13 @@ class A7ZipArchive implements Closeable {
         return entries;
     }
 
+    /**
+     * @param index the index of the entry in the archive, see {@link A7ZipArchiveEntry#getIndex()}
+     */
+    void extract(int index, OutputStream os) throws ArchiveException {
+        archive.extractEntry(index, new OutputStreamSequentialOutStream(os));
+    }
+
     static A7ZipArchive create(UniRandomAccessFile file) throws ArchiveException {
         SeekableInputStream store = new UniRandomAccessFileInStream(file);
         InArchive archive = InArchive.open(store);
@@ -109,6 +116,10 @@ class A7ZipArchive implements Closeable {
             return path;
         }
 
+        int getIndex() {
+            return index;
+        }
+
         void extract(OutputStream os) throws ArchiveException {
             archive.extractEntry(index, new OutputStreamSequentialOutStream(os));
         }
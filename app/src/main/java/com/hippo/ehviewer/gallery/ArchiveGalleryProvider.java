@@ -17,17 +17,12 @@
 package com.hippo.ehviewer.gallery;
 
 import android.content.Context;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.drawable.BitmapDrawable;
-import android.graphics.drawable.Drawable;
 import android.net.Uri;
-import android.os.Build;
 import android.os.Process;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import com.hippo.a7zip.ArchiveException;
-import com.hippo.ehviewer.EhApplication;
 import com.hippo.ehviewer.GetText;
 import com.hippo.ehviewer.R;
 import com.hippo.lib.glgallery.GalleryPageView;
@@ -35,17 +30,20 @@ import com.hippo.lib.image.Image;
 import com.hippo.unifile.UniFile;
 import com.hippo.unifile.UniRandomAccessFile;
 import com.hippo.util.NaturalComparator;
+import com.hippo.lib.yorozuya.MathUtils;
 import com.hippo.lib.yorozuya.thread.PriorityThread;
 
-import java.io.FileInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
 import java.util.Stack;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -53,18 +51,29 @@ public class ArchiveGalleryProvider extends GalleryProvider2 {
 
   private static final AtomicInteger sIdGenerator = new AtomicInteger();
 
+  private static final int MAX_EXTRACTOR_COUNT = 3;
+  // Pages around the requested page to decode ahead
+  private static final int PRELOAD_AHEAD = 3;
+  private static final int PRELOAD_BEHIND = 1;
+
   private final UniFile file;
 
-  private Thread archiveThread;
-  private Thread decodeThread;
+  private final List<Thread> extractorThreads = new ArrayList<>();
 
   private volatile int size = STATE_WAIT;
   private String error;
 
+  // Entry index in archive of each page, in natural order
+  private int[] pageEntries;
+
+  // All below are guarded by lock
+  private final Object lock = new Object();
   private final Stack<Integer> requests = new Stack<>();
-  private final AtomicInteger extractingIndex = new AtomicInteger(GalleryPageView.INVALID_INDEX);
-  private final LinkedHashMap<Integer, InputStream> streams = new LinkedHashMap<>();
-  private final AtomicInteger decodingIndex = new AtomicInteger(GalleryPageView.INVALID_INDEX);
+  // Pages in extracting or decoding
+  private final Set<Integer> workingPages = new HashSet<>();
+  // Pages decoded ahead, they are in image cache
+  private final Set<Integer> preloadedPages = new HashSet<>();
+  private int currentIndex = GalleryPageView.INVALID_INDEX;
 
   public ArchiveGalleryProvider(Context context, Uri uri) {
     file = UniFile.fromUri(context, uri);
@@ -75,28 +84,24 @@ public class ArchiveGalleryProvider extends GalleryProvider2 {
     super.start();
 
     int id = sIdGenerator.incrementAndGet();
-
-    archiveThread = new PriorityThread(
-        new ArchiveTask(), "ArchiveTask" + '-' + id, Process.THREAD_PRIORITY_BACKGROUND);
-    archiveThread.start();
-
-    decodeThread = new PriorityThread(
-        new DecodeTask(), "DecodeTask" + '-' + id, Process.THREAD_PRIORITY_BACKGROUND);
-    decodeThread.start();
+    // Every extractor has its own file handle, so zip entries are extracted in parallel
+    int count = MathUtils.clamp(Runtime.getRuntime().availableProcessors() - 1, 1, MAX_EXTRACTOR_COUNT);
+    for (int i = 0; i < count; i++) {
+      Thread thread = new PriorityThread(new ExtractTask(i == 0),
+          "ArchiveTask" + '-' + id + '-' + i, Process.THREAD_PRIORITY_BACKGROUND);
+      extractorThreads.add(thread);
+      thread.start();
+    }
   }
 
   @Override
   public void stop() {
     super.stop();
 
-    if (archiveThread != null) {
-      archiveThread.interrupt();
-      archiveThread = null;
-    }
-    if (decodeThread != null) {
-      decodeThread.interrupt();
-      decodeThread = null;
+    for (Thread thread : extractorThreads) {
+      thread.interrupt();
     }
+    extractorThreads.clear();
   }
 
   @Override
@@ -106,17 +111,21 @@ public class ArchiveGalleryProvider extends GalleryProvider2 {
 
   @Override
   protected void onRequest(int index) {
-    boolean inDecodeTask;
-    synchronized (streams) {
-      inDecodeTask = streams.keySet().contains(index) || index == decodingIndex.get();
-    }
-
-    synchronized (requests) {
-      boolean inArchiveTask = requests.contains(index) || index == extractingIndex.get();
-      if (!inArchiveTask && !inDecodeTask) {
+    synchronized (lock) {
+      // Not in image cache any more
+      preloadedPages.remove(index);
+      currentIndex = index;
+      // Forget preloaded pages far away
+      for (Iterator<Integer> iterator = preloadedPages.iterator(); iterator.hasNext(); ) {
+        int page = iterator.next();
+        if (page > index + PRELOAD_AHEAD || page < index - PRELOAD_BEHIND) {
+          iterator.remove();
+        }
+      }
+      if (!requests.contains(index) && !workingPages.contains(index)) {
         requests.add(index);
-        requests.notify();
       }
+      lock.notifyAll();
     }
     notifyPageWait(index);
   }
@@ -128,7 +137,7 @@ public class ArchiveGalleryProvider extends GalleryProvider2 {
 
   @Override
   protected void onCancelRequest(int index) {
-    synchronized (requests) {
+    synchronized (lock) {
       requests.remove(Integer.valueOf(index));
     }
   }
@@ -158,9 +167,47 @@ public class ArchiveGalleryProvider extends GalleryProvider2 {
     return null;
   }
 
-  private class ArchiveTask implements Runnable {
-    @Override
-    public void run() {
+  // Call it in lock
+  private int nextPageLocked() {
+    int[] entries = pageEntries;
+    if (entries == null) {
+      return GalleryPageView.INVALID_INDEX;
+    }
+
+    while (!requests.isEmpty()) {
+      int index = requests.pop();
+      if (!workingPages.contains(index)) {
+        return index;
+      }
+    }
+
+    // Decode pages around current page when idle
+    int current = currentIndex;
+    if (current == GalleryPageView.INVALID_INDEX) {
+      return GalleryPageView.INVALID_INDEX;
+    }
+    for (int i = 1; i <= PRELOAD_AHEAD + PRELOAD_BEHIND; i++) {
+      int index = i <= PRELOAD_AHEAD ? current + i : current - (i - PRELOAD_AHEAD);
+      if (index >= 0 && index < entries.length &&
+          !workingPages.contains(index) && !preloadedPages.contains(index)) {
+        preloadedPages.add(index);
+        return index;
+      }
+    }
+    return GalleryPageView.INVALID_INDEX;
+  }
+
+  private class ExtractTask implements Runnable {
+
+    // The first extractor reads the entry list
+    private final boolean primary;
+
+    private ExtractTask(boolean primary) {
+      this.primary = primary;
+    }
+
+    @Nullable
+    private A7ZipArchive openArchive() {
       UniRandomAccessFile uraf = null;
       if (file != null) {
         try {
@@ -170,10 +217,12 @@ public class ArchiveGalleryProvider extends GalleryProvider2 {
         }
       }
       if (uraf == null) {
-        size = STATE_ERROR;
-        error = GetText.getString(R.string.error_reading_failed);
-        notifyDataChanged();
-        return;
+        if (primary) {
+          size = STATE_ERROR;
+          error = GetText.getString(R.string.error_reading_failed);
+          notifyDataChanged();
+        }
+        return null;
       }
 
       A7ZipArchive archive = null;
@@ -183,115 +232,124 @@ public class ArchiveGalleryProvider extends GalleryProvider2 {
         e.printStackTrace();
       }
       if (archive == null) {
-        size = STATE_ERROR;
-        error = GetText.getString(R.string.error_invalid_archive);
-        notifyDataChanged();
-        return;
+        if (primary) {
+          size = STATE_ERROR;
+          error = GetText.getString(R.string.error_invalid_archive);
+          notifyDataChanged();
+        }
+        return null;
       }
+      return archive;
+    }
 
-      List<A7ZipArchive.A7ZipArchiveEntry> entries = archive.getArchiveEntries();
-      Collections.sort(entries, naturalComparator);
-
+    private void publishPageEntries(int[] indexes) {
+      synchronized (lock) {
+        pageEntries = indexes;
+        lock.notifyAll();
+      }
       // Update size and notify changed
-      size = entries.size();
+      size = indexes.length;
       notifyDataChanged();
+    }
 
-      while (!Thread.currentThread().isInterrupted()) {
-        int index;
-        synchronized (requests) {
-          if (requests.isEmpty()) {
-            try {
-              requests.wait();
-            } catch (InterruptedException e) {
-              // Interrupted
-              break;
-            }
-            continue;
-          }
-          index = requests.pop();
-          extractingIndex.lazySet(index);
-        }
-
-        // Check index valid
-        if (index < 0 || index >= entries.size()) {
-          extractingIndex.lazySet(GalleryPageView.INVALID_INDEX);
-          notifyPageFailed(index, GetText.getString(R.string.error_out_of_range));
-          continue;
+    @Override
+    public void run() {
+      // Show pages before the archive is opened if it is indexed
+      boolean indexed = false;
+      if (primary) {
+        int[] indexes = ArchiveIndex.read(file);
+        if (indexes != null) {
+          publishPageEntries(indexes);
+          indexed = true;
         }
+      }
 
-        Pipe pipe = new Pipe(4 * 1024);
+      A7ZipArchive archive = openArchive();
+      if (archive == null) {
+        return;
+      }
 
-        synchronized (streams) {
-          if (streams.get(index) != null) {
-            continue;
+      // Reused by all pages of this thread
+      PageBuffer buffer = new PageBuffer();
+      try {
+        if (primary && !indexed) {
+          List<A7ZipArchive.A7ZipArchiveEntry> entries = archive.getArchiveEntries();
+          Collections.sort(entries, naturalComparator);
+          int[] indexes = new int[entries.size()];
+          for (int i = 0; i < indexes.length; i++) {
+            indexes[i] = entries.get(i).getIndex();
           }
-          streams.put(index, pipe.inputStream);
-          streams.notify();
+          publishPageEntries(indexes);
+          ArchiveIndex.write(file, indexes);
         }
 
-        try {
-          entries.get(index).extract(pipe.outputStream);
-        } catch (ArchiveException e) {
-          e.printStackTrace();
-        } finally {
-          extractingIndex.lazySet(GalleryPageView.INVALID_INDEX);
-        }
-      }
-    }
-  }
-
-  private class DecodeTask implements Runnable {
-    @Override
-    public void run() {
-      while (!Thread.currentThread().isInterrupted()) {
-        int index;
-        InputStream stream;
-        synchronized (streams) {
-          if (streams.isEmpty()) {
-            try {
-              streams.wait();
-            } catch (InterruptedException e) {
-              // Interrupted
-              break;
+        while (!Thread.currentThread().isInterrupted()) {
+          int index;
+          int[] entries;
+          synchronized (lock) {
+            index = nextPageLocked();
+            if (index == GalleryPageView.INVALID_INDEX) {
+              try {
+                lock.wait();
+              } catch (InterruptedException e) {
+                // Interrupted
+                break;
+              }
+              continue;
             }
-            continue;
+            workingPages.add(index);
+            entries = pageEntries;
           }
 
-          Iterator<Map.Entry<Integer, InputStream>> iterator = streams.entrySet().iterator();
-          Map.Entry<Integer, InputStream> entry = iterator.next();
-          iterator.remove();
-          index = entry.getKey();
-          try{
-            stream = entry.getValue();
-          } catch (ClassCastException e) {
-            notifyPageFailed(index, GetText.getString(R.string.error_decoding_failed));
-            decodingIndex.lazySet(index);
-            return;
+          try {
+            // Check index valid
+            if (index < 0 || index >= entries.length) {
+              notifyPageFailed(index, GetText.getString(R.string.error_out_of_range));
+              continue;
+            }
+            decodePage(archive, index, entries[index], buffer);
+          } finally {
+            synchronized (lock) {
+              workingPages.remove(index);
+            }
           }
-          decodingIndex.lazySet(index);
         }
+      } finally {
+        archive.close();
+      }
+    }
 
-        try {
-//          BitmapFactory.Options option = new BitmapFactory.Options();
-//          if (stream.available()>40960){
-//            option.inSampleSize = 4;
-//          }
-//          Bitmap bitmap = BitmapFactory.decodeStream(stream,null,option);
-//          BitmapDrawable drawable = new BitmapDrawable(EhApplication.getInstance().getResources(),bitmap);
-//          Image image = Image.decode(drawable, false);
-          Image image = Image.decode(BitmapDrawable.createFromStream(stream,null), false);
-          if (image != null) {
-            notifyPageSucceed(index, image);
-          } else {
-            notifyPageFailed(index, GetText.getString(R.string.error_decoding_failed));
-          }
-        } finally {
-          decodingIndex.lazySet(GalleryPageView.INVALID_INDEX);
-        }
+    private void decodePage(A7ZipArchive archive, int index, int entry, PageBuffer buffer) {
+      buffer.reset();
+      try {
+        archive.extract(entry, buffer);
+      } catch (ArchiveException e) {
+        e.printStackTrace();
+        notifyPageFailed(index, GetText.getString(R.string.error_reading_failed));
+        return;
+      }
+
+      // The drawable is decoded before it returns, the buffer can be reused after it
+      Image image = Image.decode(BitmapDrawable.createFromStream(
+          buffer.toInputStream(), null), false);
+      if (image != null) {
+        notifyPageSucceed(index, image);
+      } else {
+        notifyPageFailed(index, GetText.getString(R.string.error_decoding_failed));
       }
     }
   }
 
+  /**
+   * Decodes the extracted page from its own array, without a copy.
+   */
+  private static class PageBuffer extends ByteArrayOutputStream {
+
+    InputStream toInputStream() {
+      return new ByteArrayInputStream(buf, 0, count);
+    }
+  }
+
   private static Comparator<A7ZipArchive.A7ZipArchiveEntry> naturalComparator = new Comparator<A7ZipArchive.A7ZipArchiveEntry>() {
     private NaturalComparator comparator = new NaturalComparator();
     @Override
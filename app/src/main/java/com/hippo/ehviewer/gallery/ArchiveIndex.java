@@ -0,0 +1,162 @@
+/*
+ * Copyright 2019 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.gallery;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.hippo.ehviewer.AppConfig;
+import com.hippo.unifile.UniFile;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Sorted page entries of local archives, saved in cache dir.
+ * <p>
+ * An index is keyed by the uri, length and last modified time of the archive,
+ * so a changed archive is enumerated again.
+ */
+final class ArchiveIndex {
+
+    private static final int VERSION = 1;
+    private static final int MAX_INDEX_COUNT = 64;
+
+    private ArchiveIndex() {
+    }
+
+    @Nullable
+    private static String getKey(@NonNull UniFile file) {
+        long length = file.length();
+        long lastModified = file.lastModified();
+        if (length <= 0 || lastModified <= 0) {
+            // Can't tell whether the archive is changed
+            return null;
+        }
+        return file.getUri() + "\n" + length + "\n" + lastModified;
+    }
+
+    @Nullable
+    private static File getIndexFile(@NonNull String key) {
+        File dir = AppConfig.getArchiveIndexDir();
+        if (dir == null) {
+            return null;
+        }
+
+        String name;
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            byte[] bytes = digest.digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder(bytes.length * 2);
+            for (byte b : bytes) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+                sb.append(Character.forDigit(b & 0xf, 16));
+            }
+            name = sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            name = Integer.toHexString(key.hashCode());
+        }
+        return new File(dir, name);
+    }
+
+    /**
+     * @return entry indexes in archive of all pages, null if no valid index
+     */
+    @Nullable
+    static int[] read(@Nullable UniFile archive) {
+        if (archive == null) {
+            return null;
+        }
+        String key = getKey(archive);
+        File file = key != null ? getIndexFile(key) : null;
+        if (file == null || !file.isFile()) {
+            return null;
+        }
+
+        try (DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (is.readInt() != VERSION || !key.equals(is.readUTF())) {
+                return null;
+            }
+            int count = is.readInt();
+            if (count < 0) {
+                return null;
+            }
+            int[] entries = new int[count];
+            for (int i = 0; i < count; i++) {
+                entries[i] = is.readInt();
+            }
+            // Mark it recently used
+            file.setLastModified(System.currentTimeMillis());
+            return entries;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    static void write(@Nullable UniFile archive, @NonNull int[] entries) {
+        if (archive == null) {
+            return;
+        }
+        String key = getKey(archive);
+        File file = key != null ? getIndexFile(key) : null;
+        if (file == null) {
+            return;
+        }
+
+        File tempFile = new File(file.getPath() + ".tmp");
+        try (DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            os.writeInt(VERSION);
+            os.writeUTF(key);
+            os.writeInt(entries.length);
+            for (int entry : entries) {
+                os.writeInt(entry);
+            }
+        } catch (IOException e) {
+            tempFile.delete();
+            return;
+        }
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            return;
+        }
+
+        trim(file.getParentFile());
+    }
+
+    // Remove least recently used indexes
+    private static void trim(@Nullable File dir) {
+        File[] files = dir != null ? dir.listFiles() : null;
+        if (files == null || files.length <= MAX_INDEX_COUNT) {
+            return;
+        }
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (int i = 0, n = files.length - MAX_INDEX_COUNT; i < n; i++) {
+            files[i].delete();
+        }
+    }
+}
@@ -108,6 +108,20 @@ public class EhGalleryProvider extends GalleryProvider2 implements SpiderQueen.O
         }
     }
 
+    @Override
+    public void onPageChanged(int index) {
+        SpiderQueen spiderQueen = mSpiderQueen;
+        if (spiderQueen != null) {
+            for (int page : spiderQueen.onPageChanged(index)) {
+                // Decoded pages are served from memory, animated pages
+                // aren't cached, decoding them ahead is wasted
+                if (!isCached(page) && !isAnimated(page)) {
+                    spiderQueen.preDecode(page);
+                }
+            }
+        }
+    }
+
     @Override
     public int size() {
         if (mSpiderQueen != null) {
@@ -38,6 +38,11 @@ public abstract class GalleryProvider2 extends GalleryProvider {
 
     public void putStartPage(int page) {}
 
+    /**
+     * Called when the current page of the reader changes
+     */
+    public void onPageChanged(int index) {}
+
     /**
      * @return without extension
      */
@@ -22,6 +22,7 @@ import android.util.Log;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import com.hippo.beerbelly.MemoryBudget;
 import com.hippo.ehviewer.Settings;
 import com.hippo.ehviewer.client.data.GalleryInfo;
 import com.hippo.ehviewer.gallery.EhGalleryProvider;
@@ -174,6 +175,11 @@ public class EhGalleryProviderWrapper extends GalleryProvider2 implements Spider
         }
     }
 
+    @Override
+    public void onPageChanged(int index) {
+        mOriginalProvider.onPageChanged(index);
+    }
+
     @Override
     public String getError() {
         try {
@@ -393,6 +399,10 @@ public class EhGalleryProviderWrapper extends GalleryProvider2 implements Spider
         
         if (mCacheManager != null) {
             stats.append(mCacheManager.getCacheStats()).append("\n\n");
+            for (MemoryBudget.Stats budgetStats : MemoryBudget.getInstance().getStats()) {
+                stats.append(budgetStats).append("\n");
+            }
+            stats.append("\n");
         }
         
         if (mImageLoader != null) {
@@ -418,7 +428,6 @@ public class EhGalleryProviderWrapper extends GalleryProvider2 implements Spider
         
         // 初始化智能缓存管理器
         mCacheManager = new SmartCacheManager(context);
-        context.registerComponentCallbacks(mCacheManager);
         
         // 初始化增强图片加载器
         mImageLoader = new EnhancedImageLoader(mOriginalProvider, mCacheManager);
@@ -669,6 +678,7 @@ public class EhGalleryProviderWrapper extends GalleryProvider2 implements Spider
         if (mCacheManager != null) {
             // 注意：不要清理缓存，可能有其他实例在使用
             // mCacheManager.clearCache();
+            mCacheManager.release();
         }
         
         // 调用原始stop方法
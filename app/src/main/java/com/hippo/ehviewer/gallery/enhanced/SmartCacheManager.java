@@ -17,15 +17,14 @@
 package com.hippo.ehviewer.gallery.enhanced;
 
 import android.app.ActivityManager;
-import android.content.ComponentCallbacks2;
 import android.content.Context;
-import android.content.res.Configuration;
 import android.util.Log;
 import android.util.LruCache;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import com.hippo.beerbelly.MemoryBudget;
 import com.hippo.lib.image.Image;
 
 import java.util.concurrent.ConcurrentHashMap;
@@ -41,7 +40,7 @@ import java.util.concurrent.atomic.AtomicLong;
  * 3. 智能清理：基于LRU + 访问频率 + 图片重要性
  * 4. 预测性加载：基于用户浏览模式预测
  */
-public class SmartCacheManager implements ComponentCallbacks2 {
+public class SmartCacheManager {
 
     private static final String TAG = "SmartCacheManager";
     
@@ -71,10 +70,6 @@ public class SmartCacheManager implements ComponentCallbacks2 {
     private final AtomicLong mEvictCount = new AtomicLong(0);
     private final AtomicInteger mCurrentMemoryUsage = new AtomicInteger(0);
     
-    // 内存监控
-    private volatile int mMemoryPressureLevel = ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE;
-    private volatile boolean mLowMemoryMode = false;
-    
     public SmartCacheManager(@NonNull Context context) {
         mContext = context.getApplicationContext();
         
@@ -107,10 +102,22 @@ public class SmartCacheManager implements ComponentCallbacks2 {
             }
         };
         
+        // 内存上限由 MemoryBudget 统一分配，trim memory 也由它处理
+        MemoryBudget.getInstance().register("SmartCache", mMemoryCache, memoryCacheSize / 4);
+        MemoryBudget.getInstance().register("SmartCacheHighPriority", mHighPriorityCache, highPriorityCacheSize / 2);
+
         Log.d(TAG, "SmartCacheManager initialized with memory cache: " + memoryCacheSize + 
               ", high priority cache: " + highPriorityCacheSize);
     }
 
+    /**
+     * 不再使用时从 MemoryBudget 注销
+     */
+    public void release() {
+        MemoryBudget.getInstance().unregister(mMemoryCache);
+        MemoryBudget.getInstance().unregister(mHighPriorityCache);
+    }
+
     /**
      * 获取图片缓存
      */
@@ -157,12 +164,6 @@ public class SmartCacheManager implements ComponentCallbacks2 {
         int imageSize = estimateImageSize(image);
         CacheEntry entry = new CacheEntry(image, priority, System.currentTimeMillis(), imageSize);
         
-        // 检查内存压力
-        if (mLowMemoryMode && priority < PRIORITY_HIGH) {
-            Log.d(TAG, "Low memory mode, skipping cache for: " + key);
-            return;
-        }
-        
         // 高优先级图片直接进入高优先级缓存
         if (priority >= PRIORITY_HIGH) {
             mHighPriorityCache.put(key, entry);
@@ -205,39 +206,6 @@ public class SmartCacheManager implements ComponentCallbacks2 {
         Log.d(TAG, "Cache cleared");
     }
 
-    /**
-     * 智能清理：基于内存压力自动清理
-     */
-    public void smartCleanup(int trimLevel) {
-        Log.d(TAG, "Smart cleanup triggered, trim level: " + trimLevel);
-        
-        switch (trimLevel) {
-            case ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL:
-                // 严重内存不足：清理所有低优先级缓存
-                clearLowPriorityCache();
-                mLowMemoryMode = true;
-                break;
-                
-            case ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW:
-                // 内存不足：清理部分缓存
-                reduceCacheSize(0.6f);
-                mLowMemoryMode = true;
-                break;
-                
-            case ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE:
-                // 中等内存压力：清理老的缓存项
-                reduceCacheSize(0.8f);
-                mLowMemoryMode = false;
-                break;
-                
-            default:
-                mLowMemoryMode = false;
-                break;
-        }
-        
-        mMemoryPressureLevel = trimLevel;
-    }
-
     /**
      * 获取缓存统计信息
      */
@@ -252,16 +220,12 @@ public class SmartCacheManager implements ComponentCallbacks2 {
             "- High Priority Cache Size: %d entries\n" +
             "- Memory Usage: %d bytes\n" +
             "- Hit Rate: %.1f%% (%d / %d)\n" +
-            "- Evictions: %d\n" +
-            "- Low Memory Mode: %s\n" +
-            "- Memory Pressure: %d",
+            "- Evictions: %d",
             mMemoryCache.size(), MAX_CACHE_ENTRIES,
             mHighPriorityCache.size(),
             mCurrentMemoryUsage.get(),
             hitRate, mHitCount.get(), totalAccess,
-            mEvictCount.get(),
-            mLowMemoryMode,
-            mMemoryPressureLevel
+            mEvictCount.get()
         );
     }
 
@@ -297,27 +261,6 @@ public class SmartCacheManager implements ComponentCallbacks2 {
         return result;
     }
 
-    // ===============================
-    // ComponentCallbacks2 接口实现
-    // ===============================
-
-    @Override
-    public void onTrimMemory(int level) {
-        Log.d(TAG, "onTrimMemory called with level: " + level);
-        smartCleanup(level);
-    }
-
-    @Override
-    public void onConfigurationChanged(Configuration newConfig) {
-        // 配置变化时不需要特殊处理
-    }
-
-    @Override
-    public void onLowMemory() {
-        Log.w(TAG, "onLowMemory called");
-        smartCleanup(ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL);
-    }
-
     // ===============================
     // 私有辅助方法
     // ===============================
@@ -363,26 +306,6 @@ public class SmartCacheManager implements ComponentCallbacks2 {
         }
     }
 
-    private void clearLowPriorityCache() {
-        // 清理普通缓存中的低优先级项目
-        for (String key : mMemoryCache.snapshot().keySet()) {
-            CacheEntry entry = mMemoryCache.get(key);
-            if (entry != null && entry.priority <= PRIORITY_NORMAL) {
-                mMemoryCache.remove(key);
-            }
-        }
-        Log.d(TAG, "Low priority cache cleared");
-    }
-
-    private void reduceCacheSize(float factor) {
-        int targetSize = (int) (mMemoryCache.size() * factor);
-        while (mMemoryCache.size() > targetSize) {
-            // LruCache会自动移除最老的项目
-            mMemoryCache.trimToSize(targetSize);
-        }
-        Log.d(TAG, "Cache size reduced to: " + mMemoryCache.size());
-    }
-
     // ===============================
     // 内部数据类
     // ===============================
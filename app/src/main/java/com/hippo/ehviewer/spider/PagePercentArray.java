@@ -0,0 +1,59 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.spider;
+
+import androidx.annotation.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * Download percent of each page, in a primitive array, no boxing for every read.
+ * Negative value means unknown.
+ */
+final class PagePercentArray {
+
+    private final float[] mPercents;
+
+    PagePercentArray(int size) {
+        mPercents = new float[size];
+        Arrays.fill(mPercents, -1.0f);
+    }
+
+    int size() {
+        return mPercents.length;
+    }
+
+    @Nullable
+    Float get(int index) {
+        if (index >= 0 && index < mPercents.length) {
+            float percent = mPercents[index];
+            return percent >= 0.0f ? percent : null;
+        } else {
+            return null;
+        }
+    }
+
+    void set(int index, float percent) {
+        if (index >= 0 && index < mPercents.length) {
+            mPercents[index] = percent;
+        }
+    }
+
+    void clear() {
+        Arrays.fill(mPercents, -1.0f);
+    }
+}
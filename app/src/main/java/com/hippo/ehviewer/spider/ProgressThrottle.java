@@ -0,0 +1,65 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.spider;
+
+/**
+ * Collect download progress and let it out at most once in the interval.
+ * Not thread safe, every {@link SpiderQueen} worker has its own.
+ */
+final class ProgressThrottle {
+
+    private final long mInterval;
+
+    private int mBytes;
+    private long mLastTime;
+    private boolean mStarted;
+
+    ProgressThrottle(long interval) {
+        mInterval = interval;
+    }
+
+    /**
+     * @return true if it is time to notify, then take the bytes with {@link #take(long)}
+     */
+    boolean onProgress(int bytes, long now) {
+        mBytes += bytes;
+        return !mStarted || now - mLastTime >= mInterval;
+    }
+
+    /**
+     * @return bytes since last take
+     */
+    int take(long now) {
+        int bytes = mBytes;
+        mBytes = 0;
+        mLastTime = now;
+        mStarted = true;
+        return bytes;
+    }
+
+    /**
+     * @return bytes not taken yet
+     */
+    int pending() {
+        return mBytes;
+    }
+
+    void reset() {
+        mBytes = 0;
+        mStarted = false;
+    }
+}
@@ -18,8 +18,11 @@ package com.hippo.ehviewer.spider;
 
 import android.content.Context;
 import android.graphics.BitmapFactory;
+import android.os.SystemClock;
+import android.util.SparseArray;
 import android.webkit.MimeTypeMap;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import com.hippo.beerbelly.SimpleDiskCache;
@@ -38,25 +41,77 @@ import com.hippo.unifile.UniFile;
 import com.hippo.lib.yorozuya.FileUtils;
 import com.hippo.lib.yorozuya.IOUtils;
 import com.hippo.lib.yorozuya.MathUtils;
+import com.hippo.lib.yorozuya.NumberUtils;
 import com.hippo.lib.yorozuya.Utilities;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Locale;
+import java.util.Map;
 
 public final class SpiderDen {
 
+    private static final String PARTIAL_SUFFIX = ".part";
+    private static final String PARTIAL_INFO_FILENAME = ".ehviewer_partial";
+    // List the dir again at most once in it, if it couldn't be listed
+    private static final long LIST_RETRY_INTERVAL = 5000;
+
     @Nullable
     private final UniFile mDownloadDir;
+    // Only the existing download dir is remembered, it may be created later
+    private volatile boolean mDownloadDirExists;
     private volatile int mMode = SpiderQueen.MODE_READ;
 
+    private final Object mSnapshotLock = new Object();
+    // Filename to file in download dir, listed once and updated as files are written or removed.
+    // Every findFile() is a content provider query on SAF storage.
+    @Nullable
+    private Map<String, UniFile> mSnapshot;
+    // False if the dir couldn't be listed, the snapshot only has the files known so far
+    private boolean mSnapshotComplete;
+    private long mLastListTime;
+
+    private final Object mPartialLock = new Object();
+    // Validators of partial images in download dir, read from PARTIAL_INFO_FILENAME lazily
+    @Nullable
+    private SparseArray<Partial> mPartialMap;
+
 
     private long mGid;
 
     @Nullable
     private static SimpleDiskCache sCache;
 
+    /**
+     * An image which is partly downloaded to the download dir.
+     */
+    public static final class Partial {
+
+        // ETag or Last-Modified, for If-Range
+        public final String validator;
+        // Length of the whole image
+        public final long contentLength;
+        // With dot
+        public final String extension;
+        // Length of the partial file
+        public final long length;
+
+        Partial(String validator, long contentLength, String extension, long length) {
+            this.validator = validator;
+            this.contentLength = contentLength;
+            this.extension = extension;
+            this.length = length;
+        }
+    }
+
     public static void initialize(Context context) {
         sCache = new SimpleDiskCache(new File(context.getCacheDir(), "image"),
                 MathUtils.clamp(Settings.getReadCacheSize(), 40, 640) * 1024 * 1024);
@@ -147,7 +202,7 @@ public final class SpiderDen {
             case SpiderQueen.MODE_READ:
                 return sCache != null;
             case SpiderQueen.MODE_DOWNLOAD:
-                return mDownloadDir != null && mDownloadDir.isDirectory();
+                return getDownloadDir() != null;
             default:
                 return false;
         }
@@ -155,7 +210,161 @@ public final class SpiderDen {
 
     @Nullable
     public UniFile getDownloadDir() {
-        return mDownloadDir != null && mDownloadDir.isDirectory() ? mDownloadDir : null;
+        if (mDownloadDirExists) {
+            return mDownloadDir;
+        }
+        if (mDownloadDir != null && mDownloadDir.isDirectory()) {
+            mDownloadDirExists = true;
+            return mDownloadDir;
+        }
+        return null;
+    }
+
+    // Call it in mSnapshotLock
+    @NonNull
+    private Map<String, UniFile> getSnapshotLocked(@NonNull UniFile dir) {
+        if (mSnapshot == null) {
+            mSnapshot = new HashMap<>();
+        }
+        long now = SystemClock.uptimeMillis();
+        if (mSnapshotComplete || now - mLastListTime < LIST_RETRY_INTERVAL) {
+            return mSnapshot;
+        }
+
+        mLastListTime = now;
+        UniFile[] files = dir.listFiles();
+        if (files == null) {
+            // Can't list it now, keep the known files and try again next time
+            return mSnapshot;
+        }
+        for (UniFile file : files) {
+            String name = file.getName();
+            if (name != null) {
+                mSnapshot.put(name, file);
+            }
+        }
+        mSnapshotComplete = true;
+        return mSnapshot;
+    }
+
+    // Call it in mSnapshotLock
+    @Nullable
+    private UniFile getFileLocked(@NonNull UniFile dir, @NonNull Map<String, UniFile> snapshot,
+            @NonNull String filename) {
+        UniFile file = snapshot.get(filename);
+        if (file == null && !mSnapshotComplete) {
+            // Not listed, ask the dir
+            file = dir.findFile(filename);
+            if (file != null) {
+                snapshot.put(filename, file);
+            }
+        }
+        return file;
+    }
+
+    /**
+     * The file is gone without the app knowing it, drop it from the snapshot.
+     * The dir is checked again too.
+     */
+    private void onFileMissing(@NonNull UniFile file) {
+        synchronized (mSnapshotLock) {
+            if (mSnapshot != null) {
+                Iterator<UniFile> iterator = mSnapshot.values().iterator();
+                while (iterator.hasNext()) {
+                    if (iterator.next() == file) {
+                        iterator.remove();
+                    }
+                }
+            }
+            if (mDownloadDir == null || !mDownloadDir.isDirectory()) {
+                mDownloadDirExists = false;
+                mSnapshot = null;
+                mSnapshotComplete = false;
+                mLastListTime = 0;
+            }
+        }
+    }
+
+    @Nullable
+    private UniFile findFile(@NonNull UniFile dir, @NonNull String filename) {
+        synchronized (mSnapshotLock) {
+            return getFileLocked(dir, getSnapshotLocked(dir), filename);
+        }
+    }
+
+    @Nullable
+    private UniFile createFile(@NonNull UniFile dir, @NonNull String filename) {
+        synchronized (mSnapshotLock) {
+            Map<String, UniFile> snapshot = getSnapshotLocked(dir);
+            UniFile file = getFileLocked(dir, snapshot, filename);
+            if (file == null) {
+                file = dir.createFile(filename);
+                if (file != null) {
+                    snapshot.put(filename, file);
+                }
+            }
+            return file;
+        }
+    }
+
+    /**
+     * Like {@link #createFile(UniFile, String)}, but the existing file is deleted first,
+     * it isn't truncated by every document provider when it is opened.
+     */
+    @Nullable
+    private UniFile createNewFile(@NonNull UniFile dir, @NonNull String filename) {
+        synchronized (mSnapshotLock) {
+            Map<String, UniFile> snapshot = getSnapshotLocked(dir);
+            UniFile old = getFileLocked(dir, snapshot, filename);
+            if (old != null) {
+                snapshot.remove(filename);
+                old.delete();
+            }
+            UniFile file = dir.createFile(filename);
+            if (file != null) {
+                snapshot.put(filename, file);
+            }
+            return file;
+        }
+    }
+
+    private boolean deleteFile(@NonNull UniFile dir, @NonNull String filename) {
+        synchronized (mSnapshotLock) {
+            Map<String, UniFile> snapshot = getSnapshotLocked(dir);
+            UniFile file = getFileLocked(dir, snapshot, filename);
+            if (file == null) {
+                return false;
+            }
+            snapshot.remove(filename);
+            return file.delete();
+        }
+    }
+
+    private boolean renameFile(@NonNull UniFile dir, @NonNull String from, @NonNull String to) {
+        synchronized (mSnapshotLock) {
+            Map<String, UniFile> snapshot = getSnapshotLocked(dir);
+            UniFile file = getFileLocked(dir, snapshot, from);
+            if (file == null || !file.renameTo(to)) {
+                return false;
+            }
+            snapshot.remove(from);
+            snapshot.put(to, file);
+            return true;
+        }
+    }
+
+    @Nullable
+    private UniFile findImageFileInSnapshot(@NonNull UniFile dir, int index) {
+        synchronized (mSnapshotLock) {
+            Map<String, UniFile> snapshot = getSnapshotLocked(dir);
+            for (String extension : GalleryProvider2.SUPPORT_IMAGE_EXTENSIONS) {
+                UniFile file = getFileLocked(dir, snapshot, generateImageFilename(index, extension));
+                if (file != null) {
+                    return file;
+                }
+            }
+            return null;
+        }
     }
 
     public UniFile getDownloadDirName() {
@@ -197,7 +406,7 @@ public final class SpiderDen {
         }
 
         // Find image file in download dir
-        return findImageFile(dir, index) != null;
+        return findImageFileInSnapshot(dir, index) != null;
     }
 
     /**
@@ -244,7 +453,7 @@ public final class SpiderDen {
             // Fix extension
             extension = fixExtension(extension);
             // Copy from cache to download dir
-            UniFile file = dir.createFile(generateImageFilename(index, extension));
+            UniFile file = createFile(dir, generateImageFilename(index, extension));
             if (file == null) {
                 return false;
             }
@@ -288,10 +497,7 @@ public final class SpiderDen {
         boolean result = false;
         for (int i = 0, n = GalleryProvider2.SUPPORT_IMAGE_EXTENSIONS.length; i < n; i++) {
             String filename = generateImageFilename(index, GalleryProvider2.SUPPORT_IMAGE_EXTENSIONS[i]);
-            UniFile file = dir.subFile(filename);
-            if (file != null) {
-                result |= file.delete();
-            }
+            result |= deleteFile(dir, filename);
         }
         return result;
     }
@@ -327,7 +533,7 @@ public final class SpiderDen {
             extension = fixExtension(extension);
         }
 
-        UniFile file = dir.createFile(generateImageFilename(index, extension));
+        UniFile file = createNewFile(dir, generateImageFilename(index, extension));
         if (file != null) {
             return new UniFileOutputStreamPipe(file);
         } else {
@@ -352,6 +558,190 @@ public final class SpiderDen {
     }
 
 
+    private static String generatePartialFilename(int index) {
+        return generateImageFilename(index, PARTIAL_SUFFIX);
+    }
+
+    /**
+     * Only images in download dir can be resumed, disk cache entries are always written at once.
+     */
+    public boolean isResumable() {
+        return getDownloadDir() != null;
+    }
+
+    @NonNull
+    private SparseArray<Partial> getPartialMap(@NonNull UniFile dir) {
+        if (mPartialMap != null) {
+            return mPartialMap;
+        }
+
+        SparseArray<Partial> map = new SparseArray<>();
+        UniFile file = findFile(dir, PARTIAL_INFO_FILENAME);
+        if (file != null) {
+            InputStream is = null;
+            try {
+                is = file.openInputStream();
+                BufferedReader reader = new BufferedReader(new InputStreamReader(is));
+                String line;
+                // index contentLength extension validator
+                while ((line = reader.readLine()) != null) {
+                    String[] parts = line.split(" ", 4);
+                    if (parts.length != 4) {
+                        continue;
+                    }
+                    int index = NumberUtils.parseIntSafely(parts[0], -1);
+                    long contentLength = NumberUtils.parseLongSafely(parts[1], -1L);
+                    if (index >= 0 && contentLength > 0) {
+                        map.put(index, new Partial(parts[3], contentLength, parts[2], 0));
+                    }
+                }
+            } catch (IOException e) {
+                // Ignore, start from scratch
+            } finally {
+                IOUtils.closeQuietly(is);
+            }
+        }
+        mPartialMap = map;
+        return map;
+    }
+
+    private void writePartialMap(@NonNull UniFile dir, @NonNull SparseArray<Partial> map) {
+        if (map.size() == 0) {
+            deleteFile(dir, PARTIAL_INFO_FILENAME);
+            return;
+        }
+
+        UniFile file = createNewFile(dir, PARTIAL_INFO_FILENAME);
+        if (file == null) {
+            return;
+        }
+        Writer writer = null;
+        try {
+            writer = new OutputStreamWriter(file.openOutputStream());
+            for (int i = 0, n = map.size(); i < n; i++) {
+                Partial partial = map.valueAt(i);
+                writer.write(map.keyAt(i) + " " + partial.contentLength + " " +
+                        partial.extension + " " + partial.validator + "\n");
+            }
+            writer.flush();
+        } catch (IOException e) {
+            // Ignore
+        } finally {
+            IOUtils.closeQuietly(writer);
+        }
+    }
+
+    /**
+     * @return the partial image with its current length, null if it can't be resumed
+     */
+    @Nullable
+    public Partial getPartial(int index) {
+        UniFile dir = getDownloadDir();
+        if (dir == null) {
+            return null;
+        }
+
+        synchronized (mPartialLock) {
+            SparseArray<Partial> map = getPartialMap(dir);
+            Partial partial = map.get(index);
+            if (partial == null) {
+                return null;
+            }
+            UniFile file = findFile(dir, generatePartialFilename(index));
+            long length = file != null ? file.length() : -1;
+            if (length <= 0 || length >= partial.contentLength) {
+                removePartialLocked(dir, map, index);
+                return null;
+            }
+            return new Partial(partial.validator, partial.contentLength, partial.extension, length);
+        }
+    }
+
+    /**
+     * Keep the interrupted image in download dir as the partial file, with the validator,
+     * so that it can be resumed. Images are written to the image file directly, the partial
+     * file and its validator are only written when the download fails.
+     *
+     * @param extension with dot
+     */
+    public void savePartial(int index, @NonNull String extension,
+            @NonNull String validator, long contentLength) {
+        UniFile dir = getDownloadDir();
+        if (dir == null) {
+            return;
+        }
+
+        extension = fixExtension(extension);
+        synchronized (mPartialLock) {
+            String filename = generatePartialFilename(index);
+            deleteFile(dir, filename);
+            if (!renameFile(dir, generateImageFilename(index, extension), filename)) {
+                return;
+            }
+            SparseArray<Partial> map = getPartialMap(dir);
+            map.put(index, new Partial(validator, contentLength, extension, 0));
+            writePartialMap(dir, map);
+        }
+    }
+
+    /**
+     * Open the partial file of the image to append the rest.
+     */
+    @Nullable
+    public OutputStreamPipe openPartialOutputStreamPipe(int index) {
+        UniFile dir = getDownloadDir();
+        if (dir == null) {
+            return null;
+        }
+
+        synchronized (mPartialLock) {
+            UniFile file = findFile(dir, generatePartialFilename(index));
+            return file != null ? new UniFileOutputStreamPipe(file, true) : null;
+        }
+    }
+
+    /**
+     * Turn the finished partial file into the image file.
+     *
+     * @param extension with dot
+     */
+    public boolean commitPartial(int index, @NonNull String extension) {
+        UniFile dir = getDownloadDir();
+        if (dir == null) {
+            return false;
+        }
+
+        synchronized (mPartialLock) {
+            String filename = generatePartialFilename(index);
+            if (findFile(dir, filename) == null) {
+                return false;
+            }
+            removeFromDownloadDir(index);
+            boolean result = renameFile(dir, filename, generateImageFilename(index, fixExtension(extension)));
+            removePartialLocked(dir, getPartialMap(dir), index);
+            return result;
+        }
+    }
+
+    public void removePartial(int index) {
+        UniFile dir = getDownloadDir();
+        if (dir == null) {
+            return;
+        }
+
+        synchronized (mPartialLock) {
+            removePartialLocked(dir, getPartialMap(dir), index);
+        }
+    }
+
+    private void removePartialLocked(@NonNull UniFile dir, @NonNull SparseArray<Partial> map, int index) {
+        deleteFile(dir, generatePartialFilename(index));
+        if (map.indexOfKey(index) >= 0) {
+            map.remove(index);
+            writePartialMap(dir, map);
+        }
+    }
+
     @Nullable
     private InputStreamPipe openCacheInputStreamPipe(int index) {
         if (sCache == null) {
@@ -370,9 +760,9 @@ public final class SpiderDen {
         }
 
         for (int i = 0; i < 2; i++) {
-            UniFile file = findImageFile(dir, index);
+            UniFile file = findImageFileInSnapshot(dir, index);
             if (file != null) {
-                return new UniFileInputStreamPipe(file);
+                return new DownloadInputStreamPipe(index, file);
             } else if (!copyFromCacheToDownloadDir(index)) {
                 return null;
             }
@@ -395,4 +785,82 @@ public final class SpiderDen {
             return null;
         }
     }
+
+    /**
+     * The image file in download dir may be deleted outside the app, the snapshot doesn't
+     * know it until the file can't be opened. Then the file is dropped from the snapshot,
+     * and the image is read from the disk cache instead.
+     */
+    private class DownloadInputStreamPipe implements InputStreamPipe {
+
+        private final int mIndex;
+        private final UniFile mFile;
+        private final UniFileInputStreamPipe mFilePipe;
+        @Nullable
+        private InputStreamPipe mFallback;
+
+        DownloadInputStreamPipe(int index, @NonNull UniFile file) {
+            mIndex = index;
+            mFile = file;
+            mFilePipe = new UniFileInputStreamPipe(file);
+        }
+
+        @Override
+        public void obtain() {
+            // Empty
+        }
+
+        @Override
+        public void release() {
+            if (mFallback != null) {
+                mFallback.release();
+                mFallback = null;
+            }
+        }
+
+        @NonNull
+        @Override
+        public InputStream open() throws IOException {
+            if (mFallback != null) {
+                return mFallback.open();
+            }
+
+            try {
+                return mFilePipe.open();
+            } catch (IOException e) {
+                onFileMissing(mFile);
+                InputStreamPipe fallback = openFallback();
+                if (fallback == null) {
+                    throw e;
+                }
+                fallback.obtain();
+                mFallback = fallback;
+                return fallback.open();
+            }
+        }
+
+        @Nullable
+        private InputStreamPipe openFallback() {
+            if (mMode == SpiderQueen.MODE_READ) {
+                return openCacheInputStreamPipe(mIndex);
+            }
+            // Download mode, the cache may have it
+            UniFile dir = getDownloadDir();
+            if (dir != null && copyFromCacheToDownloadDir(mIndex)) {
+                UniFile file = findImageFileInSnapshot(dir, mIndex);
+                if (file != null) {
+                    return new UniFileInputStreamPipe(file);
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public void close() {
+            mFilePipe.close();
+            if (mFallback != null) {
+                mFallback.close();
+            }
+        }
+    }
 }
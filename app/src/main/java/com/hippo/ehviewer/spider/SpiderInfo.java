@@ -232,6 +232,7 @@ public class SpiderInfo {
     public synchronized void writeNewSpiderInfoToLocal(@NonNull SpiderDen spiderDen, Context context) {
         UniFile downloadDir = spiderDen.getDownloadDir();
         if (downloadDir != null) {
+            SpiderInfoStore.put(this);
             UniFile file = downloadDir.createFile(SPIDER_INFO_FILENAME);
             try {
                 write(file.openOutputStream());
@@ -254,13 +255,19 @@ public class SpiderInfo {
     }
 
     public static SpiderInfo getSpiderInfo(GalleryInfo info) {
-        SpiderInfo spiderInfo;
+        SpiderInfo spiderInfo = SpiderInfoStore.get(info.gid, info.token);
+        if (spiderInfo != null) {
+            return spiderInfo;
+        }
+
+        // Not in the store yet, read the file in download dir and put it
         UniFile mDownloadDir = getGalleryDownloadDir(info);
         if (mDownloadDir != null && mDownloadDir.isDirectory()) {
             UniFile file = mDownloadDir.findFile(SPIDER_INFO_FILENAME);
             spiderInfo = SpiderInfo.read(file);
             if (spiderInfo != null && spiderInfo.gid == info.gid &&
                     spiderInfo.token.equals(info.token)) {
+                SpiderInfoStore.put(spiderInfo);
                 return spiderInfo;
             }
         }
@@ -0,0 +1,275 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.spider;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.text.TextUtils;
+import android.util.Log;
+import android.util.SparseArray;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.hippo.database.MSQLiteBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * SpiderInfo of downloaded galleries in one table, so the whole library is read in one query.
+ * <p>
+ * The {@link SpiderQueen#SPIDER_INFO_FILENAME} file in download dir is still written as a
+ * portable backup, it is read and put here if the gallery isn't in this store.
+ */
+public final class SpiderInfoStore {
+
+    private static final String TAG = SpiderInfoStore.class.getSimpleName();
+
+    private static final String DB_NAME = "spider_info.db";
+    private static final int VERSION_1 = 1;
+    private static final int DB_VERSION = VERSION_1;
+
+    private static final String TABLE_SPIDER_INFO = "SPIDER_INFO";
+    private static final String COLUMN_GID = "GID";
+    private static final String COLUMN_TOKEN = "TOKEN";
+    private static final String COLUMN_START_PAGE = "START_PAGE";
+    private static final String COLUMN_PAGES = "PAGES";
+    private static final String COLUMN_PREVIEW_PAGES = "PREVIEW_PAGES";
+    private static final String COLUMN_PREVIEW_PER_PAGE = "PREVIEW_PER_PAGE";
+    // index and pToken pairs, see writePTokens()
+    private static final String COLUMN_P_TOKENS = "P_TOKENS";
+    // Column indexes in cursor are used in read()
+    private static final String[] COLUMNS = {
+            COLUMN_GID, COLUMN_TOKEN, COLUMN_START_PAGE, COLUMN_PAGES,
+            COLUMN_PREVIEW_PAGES, COLUMN_PREVIEW_PER_PAGE, COLUMN_P_TOKENS};
+
+    @Nullable
+    private static SQLiteOpenHelper sHelper;
+
+    private SpiderInfoStore() {
+    }
+
+    public static void initialize(Context context) {
+        sHelper = new MSQLiteBuilder()
+                .version(VERSION_1)
+                .statement("CREATE TABLE " + TABLE_SPIDER_INFO + " (" +
+                        COLUMN_GID + " INTEGER PRIMARY KEY, " +
+                        COLUMN_TOKEN + " TEXT NOT NULL, " +
+                        COLUMN_START_PAGE + " INTEGER NOT NULL DEFAULT 0, " +
+                        COLUMN_PAGES + " INTEGER NOT NULL, " +
+                        COLUMN_PREVIEW_PAGES + " INTEGER NOT NULL DEFAULT -1, " +
+                        COLUMN_PREVIEW_PER_PAGE + " INTEGER NOT NULL DEFAULT -1, " +
+                        COLUMN_P_TOKENS + " BLOB);")
+                .build(context, DB_NAME, DB_VERSION);
+    }
+
+    @Nullable
+    private static SQLiteDatabase getDatabase() {
+        if (sHelper == null) {
+            return null;
+        }
+        try {
+            return sHelper.getWritableDatabase();
+        } catch (SQLiteException e) {
+            Log.e(TAG, "Can't open spider info store", e);
+            return null;
+        }
+    }
+
+    @NonNull
+    private static byte[] writePTokens(@Nullable SparseArray<String> pTokenMap) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        int size = pTokenMap != null ? pTokenMap.size() : 0;
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            String value = pTokenMap.valueAt(i);
+            if (!SpiderInfo.TOKEN_FAILED.equals(value) && !TextUtils.isEmpty(value)) {
+                count++;
+            }
+        }
+        dos.writeInt(count);
+        for (int i = 0; i < size; i++) {
+            String value = pTokenMap.valueAt(i);
+            if (SpiderInfo.TOKEN_FAILED.equals(value) || TextUtils.isEmpty(value)) {
+                continue;
+            }
+            dos.writeInt(pTokenMap.keyAt(i));
+            dos.writeUTF(value);
+        }
+        dos.flush();
+        return baos.toByteArray();
+    }
+
+    @NonNull
+    private static SparseArray<String> readPTokens(@Nullable byte[] bytes, int pages) throws IOException {
+        SparseArray<String> pTokenMap = new SparseArray<>(pages);
+        if (bytes == null) {
+            return pTokenMap;
+        }
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(bytes));
+        for (int i = 0, n = dis.readInt(); i < n; i++) {
+            int index = dis.readInt();
+            pTokenMap.put(index, dis.readUTF());
+        }
+        return pTokenMap;
+    }
+
+    @Nullable
+    private static SpiderInfo read(@NonNull Cursor cursor) {
+        try {
+            SpiderInfo spiderInfo = new SpiderInfo();
+            spiderInfo.gid = cursor.getLong(0);
+            spiderInfo.token = cursor.getString(1);
+            spiderInfo.startPage = cursor.getInt(2);
+            spiderInfo.pages = cursor.getInt(3);
+            spiderInfo.previewPages = cursor.getInt(4);
+            spiderInfo.previewPerPage = cursor.getInt(5);
+            spiderInfo.pTokenMap = readPTokens(cursor.getBlob(6), spiderInfo.pages);
+            return spiderInfo;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return null if the gallery isn't in this store or the token doesn't match
+     */
+    @Nullable
+    public static SpiderInfo get(long gid, @Nullable String token) {
+        SQLiteDatabase db = getDatabase();
+        if (db == null) {
+            return null;
+        }
+
+        try (Cursor cursor = db.query(TABLE_SPIDER_INFO, COLUMNS, COLUMN_GID + " = ?",
+                new String[]{Long.toString(gid)}, null, null, null)) {
+            if (cursor.moveToNext()) {
+                SpiderInfo spiderInfo = read(cursor);
+                if (spiderInfo != null && spiderInfo.token != null && spiderInfo.token.equals(token)) {
+                    return spiderInfo;
+                }
+            }
+        } catch (SQLiteException e) {
+            Log.e(TAG, "Can't read spider info", e);
+        }
+        return null;
+    }
+
+    /**
+     * Read all SpiderInfo in one query.
+     */
+    @NonNull
+    public static Map<Long, SpiderInfo> getAll() {
+        Map<Long, SpiderInfo> map = new HashMap<>();
+        SQLiteDatabase db = getDatabase();
+        if (db == null) {
+            return map;
+        }
+
+        try (Cursor cursor = db.query(TABLE_SPIDER_INFO, COLUMNS, null, null, null, null, null)) {
+            while (cursor.moveToNext()) {
+                SpiderInfo spiderInfo = read(cursor);
+                if (spiderInfo != null) {
+                    map.put(spiderInfo.gid, spiderInfo);
+                }
+            }
+        } catch (SQLiteException e) {
+            Log.e(TAG, "Can't read spider info", e);
+        }
+        return map;
+    }
+
+    public static void put(@NonNull SpiderInfo spiderInfo) {
+        SQLiteDatabase db = getDatabase();
+        if (db == null || spiderInfo.token == null || spiderInfo.pages <= 0) {
+            return;
+        }
+
+        try {
+            ContentValues values = new ContentValues();
+            values.put(COLUMN_GID, spiderInfo.gid);
+            values.put(COLUMN_TOKEN, spiderInfo.token);
+            values.put(COLUMN_START_PAGE, Math.max(spiderInfo.startPage, 0));
+            values.put(COLUMN_PAGES, spiderInfo.pages);
+            values.put(COLUMN_PREVIEW_PAGES, spiderInfo.previewPages);
+            values.put(COLUMN_PREVIEW_PER_PAGE, spiderInfo.previewPerPage);
+            values.put(COLUMN_P_TOKENS, writePTokens(spiderInfo.pTokenMap));
+            db.insertWithOnConflict(TABLE_SPIDER_INFO, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+        } catch (IOException | SQLiteException e) {
+            Log.e(TAG, "Can't write spider info", e);
+        }
+    }
+
+    /**
+     * @return false if the gallery isn't in this store
+     */
+    public static boolean putStartPage(long gid, int startPage) {
+        SQLiteDatabase db = getDatabase();
+        if (db == null) {
+            return false;
+        }
+
+        try {
+            ContentValues values = new ContentValues();
+            values.put(COLUMN_START_PAGE, Math.max(startPage, 0));
+            return db.update(TABLE_SPIDER_INFO, values, COLUMN_GID + " = ?",
+                    new String[]{Long.toString(gid)}) > 0;
+        } catch (SQLiteException e) {
+            Log.e(TAG, "Can't write start page", e);
+            return false;
+        }
+    }
+
+    public static void resetAllStartPages() {
+        SQLiteDatabase db = getDatabase();
+        if (db == null) {
+            return;
+        }
+
+        try {
+            ContentValues values = new ContentValues();
+            values.put(COLUMN_START_PAGE, 0);
+            db.update(TABLE_SPIDER_INFO, values, null, null);
+        } catch (SQLiteException e) {
+            Log.e(TAG, "Can't reset start pages", e);
+        }
+    }
+
+    public static void remove(long gid) {
+        SQLiteDatabase db = getDatabase();
+        if (db == null) {
+            return;
+        }
+
+        try {
+            db.delete(TABLE_SPIDER_INFO, COLUMN_GID + " = ?", new String[]{Long.toString(gid)});
+        } catch (SQLiteException e) {
+            Log.e(TAG, "Can't remove spider info", e);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.spider;
+
+/**
+ * Reading direction and speed of {@link SpiderQueen}, learned from page changes
+ * of the reader. It decides which pages to download and to decode ahead.
+ */
+final class SpiderPrefetcher {
+
+    // Moving farther than it is a jump, like the seek bar
+    static final int JUMP_DISTANCE = 3;
+    static final int MAX_DECODE_AHEAD = 3;
+
+    // Weight of the latest page turn in reading speed
+    private static final float SPEED_ALPHA = 0.3f;
+    // Download the pages read in the next seconds, besides preload number
+    private static final float LOOKAHEAD_SECONDS = 2.0f;
+
+    private final int mPreloadNumber;
+
+    private int mIndex = -1;
+    private long mTime;
+    private int mDirection = 1;
+    // Pages per second, 0 for unknown
+    private float mSpeed;
+
+    SpiderPrefetcher(int preloadNumber) {
+        mPreloadNumber = preloadNumber;
+    }
+
+    /**
+     * @return true if it is a jump, prefetch for the old position is stale
+     */
+    synchronized boolean onPageChanged(int index, long time) {
+        if (mIndex < 0) {
+            mIndex = index;
+            mTime = time;
+            return false;
+        }
+
+        int delta = index - mIndex;
+        if (delta == 0) {
+            return false;
+        }
+
+        boolean jump = Math.abs(delta) > JUMP_DISTANCE;
+        if (jump) {
+            // Keep direction, speed is learned again
+            mSpeed = 0.0f;
+        } else {
+            mDirection = delta > 0 ? 1 : -1;
+            float speed = Math.abs(delta) * 1000.0f / Math.max(1L, time - mTime);
+            mSpeed = mSpeed == 0.0f ? speed : mSpeed + SPEED_ALPHA * (speed - mSpeed);
+        }
+        mIndex = index;
+        mTime = time;
+        return jump;
+    }
+
+    synchronized int getDirection() {
+        return mDirection;
+    }
+
+    synchronized float getSpeed() {
+        return mSpeed;
+    }
+
+    /**
+     * Pages to download around the index, the nearest page ahead first,
+     * then one page behind.
+     */
+    synchronized int[] getDownloadPages(int index, int size) {
+        if (mPreloadNumber <= 0) {
+            return new int[0];
+        }
+        int ahead = Math.min(mPreloadNumber * 2,
+                mPreloadNumber + (int) (mSpeed * LOOKAHEAD_SECONDS));
+        return collectPages(index, size, ahead, 1);
+    }
+
+    /**
+     * Pages to decode ahead of the index, the nearest first.
+     * Faster reading decodes more pages.
+     */
+    synchronized int[] getDecodePages(int index, int size) {
+        int ahead = Math.min(MAX_DECODE_AHEAD, 1 + (int) mSpeed);
+        return collectPages(index, size, ahead, 0);
+    }
+
+    private int[] collectPages(int index, int size, int ahead, int behind) {
+        int[] pages = new int[ahead + behind];
+        int count = 0;
+        for (int i = 1; i <= ahead; i++) {
+            int page = index + mDirection * i;
+            if (page >= 0 && page < size) {
+                pages[count++] = page;
+            }
+        }
+        for (int i = 1; i <= behind; i++) {
+            int page = index - mDirection * i;
+            if (page >= 0 && page < size) {
+                pages[count++] = page;
+            }
+        }
+
+        if (count == pages.length) {
+            return pages;
+        }
+        int[] result = new int[count];
+        System.arraycopy(pages, 0, result, 0, count);
+        return result;
+    }
+}
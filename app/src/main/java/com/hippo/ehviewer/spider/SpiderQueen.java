@@ -21,6 +21,7 @@ import android.content.Context;
 import android.graphics.BitmapFactory;
 import android.os.AsyncTask;
 import android.os.Process;
+import android.os.SystemClock;
 import android.text.TextUtils;
 import android.util.Log;
 import android.util.SparseArray;
@@ -48,7 +49,6 @@ import com.hippo.ehviewer.client.parser.GalleryPageApiParser;
 import com.hippo.ehviewer.client.parser.GalleryPageParser;
 import com.hippo.ehviewer.client.parser.GalleryPageUrlParser;
 import com.hippo.ehviewer.gallery.GalleryProvider2;
-import com.hippo.lib.glgallery.GalleryPageView;
 import com.hippo.lib.glgallery.GalleryProvider;
 import com.hippo.lib.image.Image;
 import com.hippo.streampipe.InputStreamPipe;
@@ -58,6 +58,7 @@ import com.hippo.util.ExceptionUtils;
 import com.hippo.util.IoThreadPoolExecutor;
 import com.hippo.lib.yorozuya.IOUtils;
 import com.hippo.lib.yorozuya.MathUtils;
+import com.hippo.lib.yorozuya.NumberUtils;
 import com.hippo.lib.yorozuya.OSUtils;
 import com.hippo.lib.yorozuya.StringUtils;
 import com.hippo.lib.yorozuya.Utilities;
@@ -74,25 +75,27 @@ import java.io.OutputStream;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Queue;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 import okhttp3.Call;
+import okhttp3.HttpUrl;
 import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
 import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSource;
 
 public final class SpiderQueen implements Runnable {
 
@@ -125,31 +128,32 @@ public final class SpiderQueen implements Runnable {
     private final GalleryInfo mGalleryInfo;
     @NonNull
     private final SpiderDen mSpiderDen;
-    private final Object mQueenLock = new Object();
     private final Thread[] mDecodeThreadArray = new Thread[DECODE_THREAD_NUM];
-    private final int[] mDecodeIndexArray = new int[DECODE_THREAD_NUM];
-    private final Queue<Integer> mDecodeRequestQueue = new LinkedList<>();
+    // Requested pages at head, prefetch pages at tail
+    private final LinkedBlockingDeque<Integer> mDecodeRequestQueue = new LinkedBlockingDeque<>();
+    // Index in decode queue or being decoded
+    private final Set<Integer> mDecodePendingSet = ConcurrentHashMap.newKeySet();
+    // Index in decode queue for prefetch
+    private final Set<Integer> mDecodePrefetchSet = ConcurrentHashMap.newKeySet();
     private final Object mWorkerLock = new Object();
     private final Object mPTokenLock = new Object();
     private final AtomicReference<SpiderInfo> mSpiderInfo = new AtomicReference<>();
-    private final Queue<Integer> mRequestPTokenQueue = new ConcurrentLinkedQueue<>();
+    private final BlockingQueue<Integer> mRequestPTokenQueue = new LinkedBlockingQueue<>();
+    // Workers waiting for pToken of the index
+    private final ConcurrentHashMap<Integer, CountDownLatch> mPTokenWaiterMap = new ConcurrentHashMap<>();
     private final Object mPageStateLock = new Object();
     // Store request page. The index may be invalid
-    private final Queue<Integer> mRequestPageQueue = new LinkedList<>();
-    // Store preload page. The index may be invalid
-    private final Queue<Integer> mRequestPageQueue2 = new LinkedList<>();
-    // Store force request page. The index may be invalid
-    private final Queue<Integer> mForceRequestPageQueue = new LinkedList<>();
+    private final SpiderRequestQueue mRequestQueue = new SpiderRequestQueue();
     private final AtomicInteger mDownloadedPages = new AtomicInteger(0);
     private final AtomicInteger mFinishedPages = new AtomicInteger(0);
     private final Object showKeyLock = new Object();
     // Store page error
     private final ConcurrentHashMap<Integer, String> mPageErrorMap = new ConcurrentHashMap<>();
-    // Store page download percent
-    private final ConcurrentHashMap<Integer, Float> mPagePercentMap = new ConcurrentHashMap<>();
+    // Store page download percent, negative for unknown
+    private volatile PagePercentArray mPagePercentArray;
     private final List<OnSpiderListener> mSpiderListeners = new ArrayList<>();
     private final int mWorkerMaxCount;
-    private final int mPreloadNumber;
+    private final SpiderPrefetcher mPrefetcher;
     private final int mDownloadDelay;
     private int mReadReference = 0;
     private int mDownloadReference = 0;
@@ -159,13 +163,12 @@ public final class SpiderQueen implements Runnable {
     private ThreadPoolExecutor mWorkerPoolExecutor;
     private int mWorkerCount;
     private volatile int[] mPageStateArray;
-    // For download, when it go to mPageStateArray.size(), done
-    private volatile int mDownloadPage = -1;
     private final AtomicReference<String> showKey = new AtomicReference<>();
 
     private final int downloadTimeout;
 
-    private long receiveBytesBefore;
+    // Priority of background download pages in SpiderWorkerBudget
+    private volatile int mDownloadPriority = SpiderWorkerBudget.PRIORITY_NORMAL;
 
     private SpiderQueen(EhApplication application, @NonNull GalleryInfo galleryInfo) {
         mHttpClient = EhApplication.getOkHttpClient(application);
@@ -175,11 +178,7 @@ public final class SpiderQueen implements Runnable {
         mSpiderDen = new SpiderDen(mGalleryInfo);
 
         mWorkerMaxCount = MathUtils.clamp(Settings.getMultiThreadDownload(), 1, 10);
-        mPreloadNumber = MathUtils.clamp(Settings.getPreloadImage(), 0, 100);
-
-        for (int i = 0; i < DECODE_THREAD_NUM; i++) {
-            mDecodeIndexArray[i] = GalleryPageView.INVALID_INDEX;
-        }
+        mPrefetcher = new SpiderPrefetcher(MathUtils.clamp(Settings.getPreloadImage(), 0, 100));
 
         mWorkerPoolExecutor = new ThreadPoolExecutor(mWorkerMaxCount, mWorkerMaxCount,
                 0, TimeUnit.SECONDS, new LinkedBlockingDeque<>(),
@@ -210,7 +209,11 @@ public final class SpiderQueen implements Runnable {
 
     @UiThread
     public static int findStartPage(@NonNull Context context, @NonNull GalleryInfo galleryInfo) {
-        SpiderInfo spiderInfo = null;
+        SpiderInfo spiderInfo = SpiderInfoStore.get(galleryInfo.gid, galleryInfo.token);
+        if (spiderInfo != null) {
+            return spiderInfo.startPage;
+        }
+
         SimpleDiskCache msic;
         EhApplication application = (EhApplication) context.getApplicationContext();
         msic = EhApplication.getSpiderInfoCache(application);
@@ -249,15 +252,6 @@ public final class SpiderQueen implements Runnable {
         }
     }
 
-    public static boolean contain(int[] array, int value) {
-        for (int v : array) {
-            if (v == value) {
-                return true;
-            }
-        }
-        return false;
-    }
-
     public void addOnSpiderListener(OnSpiderListener listener) {
         synchronized (mSpiderListeners) {
             mSpiderListeners.add(listener);
@@ -363,17 +357,7 @@ public final class SpiderQueen implements Runnable {
         mSpiderDen.setMode(mode);
 
         // Update download page
-        boolean intoDownloadMode = false;
-        synchronized (mRequestPageQueue) {
-            if (mode == MODE_DOWNLOAD) {
-                if (mDownloadPage < 0) {
-                    mDownloadPage = 0;
-                    intoDownloadMode = true;
-                }
-            } else {
-                mDownloadPage = -1;
-            }
-        }
+        boolean intoDownloadMode = mRequestQueue.setDownloadMode(mode == MODE_DOWNLOAD);
 
         if (intoDownloadMode && mPageStateArray != null) {
             // Clear download state
@@ -388,7 +372,7 @@ public final class SpiderQueen implements Runnable {
                 mDownloadedPages.lazySet(0);
                 mFinishedPages.lazySet(0);
                 mPageErrorMap.clear();
-                mPagePercentMap.clear();
+                clearPagePercent();
             }
             // Ensure download workers
             ensureWorkers();
@@ -462,6 +446,10 @@ public final class SpiderQueen implements Runnable {
         }
     }
 
+    public void setDownloadPriority(int priority) {
+        mDownloadPriority = SpiderWorkerBudget.clampPriority(priority);
+    }
+
     public Object forceRequest(int index) {
         return request(index, true, true, false);
     }
@@ -481,18 +469,9 @@ public final class SpiderQueen implements Runnable {
     }
 
     private void tryToEnsureWorkers() {
-        boolean startWorkers = false;
-        synchronized (mRequestPageQueue) {
-            if (mPageStateArray != null &&
-                    (!mForceRequestPageQueue.isEmpty() ||
-                            !mRequestPageQueue.isEmpty() ||
-                            !mRequestPageQueue2.isEmpty() ||
-                            mDownloadPage >= 0 && mDownloadPage < mPageStateArray.length)) {
-                startWorkers = true;
-            }
-        }
-
-        if (startWorkers) {
+        int[] pageStateArray = mPageStateArray;
+        if (pageStateArray != null &&
+                (!mRequestQueue.isEmpty() || mRequestQueue.hasDownloadPage(pageStateArray.length))) {
             ensureWorkers();
         }
     }
@@ -502,11 +481,70 @@ public final class SpiderQueen implements Runnable {
             return;
         }
 
-        synchronized (mRequestPageQueue) {
-            mRequestPageQueue.remove(index);
+        mRequestQueue.cancel(index, SpiderRequestQueue.PRIORITY_VISIBLE);
+        if (mDecodeRequestQueue.remove(index)) {
+            mDecodePrefetchSet.remove(index);
+            mDecodePendingSet.remove(index);
+        }
+    }
+
+    /**
+     * Called when the current page of the reader changes. Pages ahead in the
+     * reading direction are downloaded, stale prefetch is dropped after a jump.
+     *
+     * @return pages worth decoding ahead, the nearest first
+     */
+    @NonNull
+    public int[] onPageChanged(int index) {
+        int[] pageStateArray = mPageStateArray;
+        if (mQueenThread == null || pageStateArray == null || index < 0) {
+            return new int[0];
+        }
+
+        if (mPrefetcher.onPageChanged(index, SystemClock.uptimeMillis())) {
+            dropPrefetchDecode();
+        }
+        offerNeighbors(index);
+        tryToEnsureWorkers();
+
+        return mPrefetcher.getDecodePages(index, pageStateArray.length);
+    }
+
+    /**
+     * Decode the downloaded page after requested pages,
+     * the image is sent to {@link OnSpiderListener#onGetImageSuccess(int, Image)}.
+     */
+    public void preDecode(int index) {
+        if (mQueenThread == null || STATE_FINISHED != getPageState(index)) {
+            return;
+        }
+        if (mDecodePendingSet.add(index)) {
+            mDecodePrefetchSet.add(index);
+            mDecodeRequestQueue.offerLast(index);
+        }
+    }
+
+    private void dropPrefetchDecode() {
+        for (Integer index : mDecodePrefetchSet) {
+            if (mDecodePrefetchSet.remove(index) && mDecodeRequestQueue.remove(index)) {
+                mDecodePendingSet.remove(index);
+            }
+        }
+    }
+
+    private void offerNeighbors(int index) {
+        mRequestQueue.clear(SpiderRequestQueue.PRIORITY_NEIGHBOR);
+        int[] pageStateArray = mPageStateArray;
+        int size;
+        if (pageStateArray != null) {
+            size = pageStateArray.length;
+        } else {
+            size = Integer.MAX_VALUE;
         }
-        synchronized (mDecodeRequestQueue) {
-            mDecodeRequestQueue.remove(index);
+        for (int i : mPrefetcher.getDownloadPages(index, size)) {
+            if (STATE_NONE == getPageState(i)) {
+                mRequestQueue.offer(i, SpiderRequestQueue.PRIORITY_NEIGHBOR);
+            }
         }
     }
 
@@ -532,31 +570,14 @@ public final class SpiderQueen implements Runnable {
         }
 
         // Add to request
-        synchronized (mRequestPageQueue) {
-            if (state == STATE_NONE) {
-                if (force) {
-                    mForceRequestPageQueue.add(index);
-                } else {
-                    mRequestPageQueue.add(index);
-                }
-            }
+        if (state == STATE_NONE) {
+            mRequestQueue.offer(index, force ? SpiderRequestQueue.PRIORITY_FORCE
+                    : SpiderRequestQueue.PRIORITY_VISIBLE);
+        }
 
-            // Add next some pages to request queue
-            if (addNeighbor) {
-                mRequestPageQueue2.clear();
-                int[] pageStateArray = mPageStateArray;
-                int size;
-                if (pageStateArray != null) {
-                    size = pageStateArray.length;
-                } else {
-                    size = Integer.MAX_VALUE;
-                }
-                for (int i = index + 1, n = index + 1 + mPreloadNumber; i < n && i < size; i++) {
-                    if (STATE_NONE == getPageState(i)) {
-                        mRequestPageQueue2.add(i);
-                    }
-                }
-            }
+        // Add some pages in reading direction to request queue
+        if (addNeighbor) {
+            offerNeighbors(index);
         }
 
         Object result;
@@ -567,7 +588,7 @@ public final class SpiderQueen implements Runnable {
                 result = null;
                 break;
             case STATE_DOWNLOADING:
-                result = mPagePercentMap.get(index);
+                result = getPagePercent(index);
                 break;
             case STATE_FAILED:
                 String error = mPageErrorMap.get(index);
@@ -577,11 +598,11 @@ public final class SpiderQueen implements Runnable {
                 result = error;
                 break;
             case STATE_FINISHED:
-                synchronized (mDecodeRequestQueue) {
-                    if (!contain(mDecodeIndexArray, index) && !mDecodeRequestQueue.contains(index)) {
-                        mDecodeRequestQueue.add(index);
-                        mDecodeRequestQueue.notify();
-                    }
+                if (mDecodePendingSet.add(index)) {
+                    mDecodeRequestQueue.offerFirst(index);
+                } else if (mDecodePrefetchSet.remove(index) && mDecodeRequestQueue.remove(index)) {
+                    // Queued for prefetch, decode it now
+                    mDecodeRequestQueue.offerFirst(index);
                 }
                 result = null;
                 break;
@@ -726,7 +747,10 @@ public final class SpiderQueen implements Runnable {
             new AsyncTask<Void, Void, Void>() {
                 @Override
                 protected Void doInBackground(Void... params) {
-                    writeSpiderInfoToLocal(spiderInfo);
+                    // Only update one column if it is in the store
+                    if (!SpiderInfoStore.putStartPage(spiderInfo.gid, page)) {
+                        writeSpiderInfoToLocal(spiderInfo);
+                    }
                     return null;
                 }
             }.executeOnExecutor(IoThreadPoolExecutor.getInstance());
@@ -739,6 +763,12 @@ public final class SpiderQueen implements Runnable {
             return spiderInfo;
         }
 
+        // Read from spider info store
+        spiderInfo = SpiderInfoStore.get(mGalleryInfo.gid, mGalleryInfo.token);
+        if (spiderInfo != null) {
+            return spiderInfo;
+        }
+
         // Read from download dir
         UniFile downloadDir = mSpiderDen.getDownloadDir();
         if (downloadDir != null) {
@@ -746,6 +776,7 @@ public final class SpiderQueen implements Runnable {
             spiderInfo = SpiderInfo.read(file);
             if (spiderInfo != null && spiderInfo.gid == mGalleryInfo.gid &&
                     spiderInfo.token.equals(mGalleryInfo.token)) {
+                SpiderInfoStore.put(spiderInfo);
                 return spiderInfo;
             }
         }
@@ -861,9 +892,10 @@ public final class SpiderQueen implements Runnable {
     }
 
     private synchronized void writeSpiderInfoToLocal(@NonNull SpiderInfo spiderInfo) {
-        // Write to download dir
+        // Write to download dir, the file is a backup of the store
         UniFile downloadDir = mSpiderDen.getDownloadDir();
         if (downloadDir != null) {
+            SpiderInfoStore.put(spiderInfo);
             UniFile file = downloadDir.createFile(SPIDER_INFO_FILENAME);
             try {
                 spiderInfo.write(file.openOutputStream());
@@ -921,6 +953,7 @@ public final class SpiderQueen implements Runnable {
 
         // Setup page state
         synchronized (mPageStateLock) {
+            mPagePercentArray = new PagePercentArray(spiderInfo.pages);
             mPageStateArray = new int[spiderInfo.pages];
         }
 
@@ -940,18 +973,12 @@ public final class SpiderQueen implements Runnable {
 
         // handle pToken request
         while (!Thread.currentThread().isInterrupted()) {
-            Integer index = mRequestPTokenQueue.poll();
-
-            if (index == null) {
+            int index;
+            try {
                 // No request index, wait here
-                synchronized (mQueenLock) {
-                    try {
-                        mQueenLock.wait();
-                    } catch (InterruptedException e) {
-                        break;
-                    }
-                }
-                continue;
+                index = mRequestPTokenQueue.take();
+            } catch (InterruptedException e) {
+                break;
             }
 
             // Check it in spider info
@@ -961,9 +988,7 @@ public final class SpiderQueen implements Runnable {
             }
             if (pToken != null) {
                 // Get pToken from spider info, notify worker
-                synchronized (mWorkerLock) {
-                    mWorkerLock.notifyAll();
-                }
+                notifyPTokenWaiter(index);
                 continue;
             }
 
@@ -982,10 +1007,57 @@ public final class SpiderQueen implements Runnable {
             }
 
             // Notify worker
-            synchronized (mWorkerLock) {
-                mWorkerLock.notifyAll();
+            notifyPTokenWaiter(index);
+        }
+    }
+
+    private void notifyPTokenWaiter(int index) {
+        CountDownLatch latch = mPTokenWaiterMap.remove(index);
+        if (latch != null) {
+            latch.countDown();
+        }
+    }
+
+    /**
+     * Get pToken from spider info, or wait the queen to get it from internet.
+     *
+     * @return null for interrupted
+     */
+    @Nullable
+    private String requirePToken(@NonNull SpiderInfo spiderInfo, int index) {
+        while (!Thread.currentThread().isInterrupted()) {
+            String pToken;
+            synchronized (mPTokenLock) {
+                pToken = spiderInfo.pTokenMap.get(index);
+            }
+            if (pToken != null) {
+                return pToken;
+            }
+
+            CountDownLatch latch = mPTokenWaiterMap.computeIfAbsent(index, i -> new CountDownLatch(1));
+            // Check again, the queen might put pToken before the latch is registered
+            synchronized (mPTokenLock) {
+                pToken = spiderInfo.pTokenMap.get(index);
+            }
+            if (pToken != null) {
+                return pToken;
+            }
+
+            // Notify Queen
+            mRequestPTokenQueue.offer(index);
+            // Wait
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                // Interrupted
+                if (DEBUG_LOG) {
+                    Log.d(TAG, Thread.currentThread().getName() + " Interrupted");
+                }
+                Thread.currentThread().interrupt();
+                return null;
             }
         }
+        return null;
     }
 
     @Override
@@ -1022,6 +1094,26 @@ public final class SpiderQueen implements Runnable {
         updatePageState(index, state, null);
     }
 
+    @Nullable
+    private Float getPagePercent(int index) {
+        PagePercentArray pagePercentArray = mPagePercentArray;
+        return pagePercentArray != null ? pagePercentArray.get(index) : null;
+    }
+
+    private void setPagePercent(int index, float percent) {
+        PagePercentArray pagePercentArray = mPagePercentArray;
+        if (pagePercentArray != null) {
+            pagePercentArray.set(index, percent);
+        }
+    }
+
+    private void clearPagePercent() {
+        PagePercentArray pagePercentArray = mPagePercentArray;
+        if (pagePercentArray != null) {
+            pagePercentArray.clear();
+        }
+    }
+
     private boolean isStateDone(int state) {
         return state == STATE_FINISHED || state == STATE_FAILED;
     }
@@ -1047,7 +1139,7 @@ public final class SpiderQueen implements Runnable {
             if (state == STATE_DOWNLOADING) {
                 mPageErrorMap.remove(index);
             } else if (state == STATE_FINISHED || state == STATE_FAILED) {
-                mPagePercentMap.remove(index);
+                setPagePercent(index, -1.0f);
             }
 
             // Get default error
@@ -1130,10 +1222,15 @@ public final class SpiderQueen implements Runnable {
     }
 
     private class SpiderWorker implements Runnable {
-        private Timer downloadSpeedZeroTimeCount;
 
-        private boolean cancelDownload = false;
+        private static final long MIN_WRITE_SIZE = 16 * 1024;
+        // okio segment pool keeps 64 KB, segments of a larger batch can't be recycled
+        private static final long MAX_WRITE_SIZE = 64 * 1024;
+        private static final long NOTIFY_INTERVAL = 100;
 
+        // Read buffer, segments are recycled by okio
+        private final Buffer mBuffer = new Buffer();
+        private final ProgressThrottle mThrottle = new ProgressThrottle(NOTIFY_INTERVAL);
         private final long mGid;
 
         public SpiderWorker() {
@@ -1183,8 +1280,37 @@ public final class SpiderQueen implements Runnable {
             return result;
         }
 
+        /**
+         * @return ETag or Last-Modified of the response, null if it can't be used in If-Range
+         */
+        @Nullable
+        private String getValidator(Response response) {
+            String eTag = response.header("ETag");
+            if (eTag != null) {
+                // Weak ETag is not allowed in If-Range
+                return eTag.startsWith("W/") ? null : eTag;
+            }
+            return response.header("Last-Modified");
+        }
+
+        /**
+         * @param contentRange like "bytes 200-1000/1001"
+         * @return the first byte position, -1 for invalid
+         */
+        private long getContentRangeStart(@Nullable String contentRange) {
+            if (contentRange == null || !contentRange.startsWith("bytes ")) {
+                return -1;
+            }
+            int end = contentRange.indexOf('-');
+            if (end < 0) {
+                return -1;
+            }
+            return NumberUtils.parseLongSafely(contentRange.substring("bytes ".length(), end).trim(), -1L);
+        }
+
         // false for stop
-        private boolean downloadImage(long gid, int index, String pToken, String previousPToken, boolean force) {
+        private boolean downloadImage(long gid, int index, String pToken, String previousPToken,
+                                      boolean force, boolean background) {
             String skipHathKey = null;
             List<String> skipHathKeys = new ArrayList<>(5);
             String originImageUrl = null;
@@ -1194,6 +1320,11 @@ public final class SpiderQueen implements Runnable {
             boolean interrupt = false;
             boolean leakSkipHathKey = false;
 
+            // Force request downloads the whole image again
+            if (force) {
+                mSpiderDen.removePartial(index);
+            }
+
             for (int i = 0; i < 5; i++) {
                 String imageUrl = null;
                 String localShowKey;
@@ -1324,18 +1455,47 @@ public final class SpiderQueen implements Runnable {
                     Log.d(TAG, targetImageUrl);
                 }
 
+                HttpUrl targetHttpUrl = HttpUrl.parse(targetImageUrl);
+                String host = targetHttpUrl != null ? targetHttpUrl.host() : "";
+
+                // Background download pages share the global worker budget
+                String budgetHost = null;
+                if (background) {
+                    try {
+                        SpiderWorkerBudget.getInstance().acquire(host, mDownloadPriority);
+                        budgetHost = host;
+                    } catch (InterruptedException e) {
+                        error = "Interrupted";
+                        interrupt = true;
+                        break;
+                    }
+                }
+
                 // Download image
-                InputStream is = null;
+                BufferedSource source = null;
+                // Set while a new image is written to download dir, the written part
+                // is saved for resuming if the download fails
+                String resumeValidator = null;
+                String resumeExtension = null;
+                long resumeContentLength = -1;
                 try {
 
                     if (DEBUG_LOG) {
                         Log.d(TAG, "Start download image " + index);
                     }
 
+                    // Resume the partial image, the server sends the whole image if it is changed
+                    SpiderDen.Partial partial = mSpiderDen.getPartial(index);
+                    EhRequestBuilder builder = new EhRequestBuilder(targetImageUrl, referer);
+                    if (partial != null) {
+                        builder.addHeader("Range", "bytes=" + partial.length + "-");
+                        builder.addHeader("If-Range", partial.validator);
+                    }
+
                     // disable Call Timeout for image-downloading requests
                     Call call = mHttpClient.newBuilder()
                             .callTimeout(downloadTimeout, TimeUnit.SECONDS).build()
-                            .newCall(new EhRequestBuilder(targetImageUrl, referer).build());
+                            .newCall(builder.build());
                     Response response = call.execute();
                     ResponseBody responseBody = response.body();
 
@@ -1356,6 +1516,10 @@ public final class SpiderQueen implements Runnable {
                     if (response.code() >= 400) {
                         // Maybe 404
                         response.close();
+                        if (response.code() == 416) {
+                            // Range not satisfiable, the partial image is useless
+                            mSpiderDen.removePartial(index);
+                        }
                         error = "Bad code: " + response.code();
                         forceHtml = true;
                         continue;
@@ -1367,6 +1531,18 @@ public final class SpiderQueen implements Runnable {
                         continue;
                     }
 
+                    // Start offset of the body in the image
+                    long offset = 0;
+                    if (partial != null && response.code() == 206) {
+                        if (getContentRangeStart(response.header("Content-Range")) != partial.length) {
+                            response.close();
+                            mSpiderDen.removePartial(index);
+                            error = "Bad content range";
+                            continue;
+                        }
+                        offset = partial.length;
+                    }
+
                     // Get extension
                     String extension = null;
                     MediaType mediaType = responseBody.contentType();
@@ -1377,14 +1553,44 @@ public final class SpiderQueen implements Runnable {
                         }
                     }
                     // Ensure extension
-                    if (!Utilities.contain(GalleryProvider2.SUPPORT_IMAGE_EXTENSIONS, extension)) {
+                    if (offset > 0) {
+                        extension = partial.extension;
+                    } else if (!Utilities.contain(GalleryProvider2.SUPPORT_IMAGE_EXTENSIONS, extension)) {
                         extension = GalleryProvider2.SUPPORT_IMAGE_EXTENSIONS[0];
                     }
 
+                    long bodyLength = responseBody.contentLength();
+                    long contentLength = bodyLength >= 0 ? offset + bodyLength : -1;
+                    String validator = offset > 0 ? partial.validator : getValidator(response);
+
                     OutputStreamPipe osPipe = null;
+                    // Append to the partial file
+                    boolean partialMode = false;
                     try {
                         // Get out put pipe
-                        osPipe = mSpiderDen.openOutputStreamPipe(index, extension);
+                        if (offset > 0) {
+                            osPipe = mSpiderDen.openPartialOutputStreamPipe(index);
+                            if (osPipe == null) {
+                                // Can't append, download the whole image again
+                                response.close();
+                                mSpiderDen.removePartial(index);
+                                error = GetText.getString(R.string.error_write_failed);
+                                continue;
+                            }
+                            partialMode = true;
+                        } else {
+                            if (partial != null) {
+                                // The whole image is sent
+                                mSpiderDen.removePartial(index);
+                            }
+                            osPipe = mSpiderDen.openOutputStreamPipe(index, extension);
+                            if (osPipe != null && validator != null && contentLength > 0 &&
+                                    mSpiderDen.isResumable()) {
+                                resumeValidator = validator;
+                                resumeExtension = extension;
+                                resumeContentLength = contentLength;
+                            }
+                        }
                         if (osPipe == null) {
                             // Can't get pipe
                             error = GetText.getString(R.string.error_write_failed);
@@ -1392,49 +1598,67 @@ public final class SpiderQueen implements Runnable {
                             break;
                         }
 
-                        long contentLength = responseBody.contentLength();
-                        is = responseBody.byteStream();
+                        source = responseBody.source();
                         osPipe.obtain();
                         OutputStream os = osPipe.open();
 
-                        final byte[] data = new byte[1024 * 4];
-                        long receivedSize = 0;
-
-                        while (!Thread.currentThread().isInterrupted()) {
-                            int bytesRead = is.read(data);
-                            if (bytesRead == -1) {
-                                response.close();
-                                break;
-                            }
-                            os.write(data, 0, bytesRead);
-                            receivedSize += bytesRead;
-                            // Update page percent
-                            if (contentLength > 0) {
-                                mPagePercentMap.put(index, (float) receivedSize / contentLength);
-                            }
-                            if (receivedSize == receiveBytesBefore) {
-                                if (downloadSpeedZeroTimeCount == null) {
-                                    try {
-                                        downloadSpeedZeroTimeCount = new Timer();
-                                        cancelDownload = false;
-                                        downloadSpeedZeroTimeCount.schedule(new TimeCount(), 3000);
-                                    } catch (Throwable e) {
-                                        FirebaseCrashlytics.getInstance().recordException(e);
-                                    }
-                                }
-                                if (cancelDownload) {
-                                    cancelTimeCount();
+                        long receivedSize = offset;
+                        // Okio segments are written to the pipe directly, no copy to a byte array.
+                        // A read returns the segments the source has, they are collected
+                        // and written together. Write size grows while the source fills
+                        // it within NOTIFY_INTERVAL.
+                        long writeSize = MIN_WRITE_SIZE;
+                        long lastWriteTime = SystemClock.uptimeMillis();
+                        mThrottle.reset();
+
+                        // Stalled download is canceled by the watcher, read throws IOException
+                        SpiderStallWatcher.Watch watch = SpiderStallWatcher.getInstance().watch(host, call);
+                        try {
+                            while (!Thread.currentThread().isInterrupted()) {
+                                long bytesRead = source.read(mBuffer, MAX_WRITE_SIZE);
+                                if (bytesRead == -1) {
                                     response.close();
                                     break;
                                 }
-                            } else {
-                                cancelTimeCount();
-                                receiveBytesBefore = receivedSize;
+                                watch.onProgress((int) bytesRead);
+                                receivedSize += bytesRead;
+                                long now = SystemClock.uptimeMillis();
+                                long buffered = mBuffer.size();
+                                if (buffered >= writeSize || now - lastWriteTime >= NOTIFY_INTERVAL) {
+                                    if (buffered >= writeSize && now - lastWriteTime < NOTIFY_INTERVAL &&
+                                            writeSize < MAX_WRITE_SIZE) {
+                                        writeSize *= 2;
+                                    }
+                                    mBuffer.writeTo(os);
+                                    lastWriteTime = now;
+                                }
+                                // Update page percent
+                                if (contentLength > 0) {
+                                    setPagePercent(index, (float) receivedSize / contentLength);
+                                }
+                                // Notify listener, at most once in NOTIFY_INTERVAL
+                                if (mThrottle.onProgress((int) bytesRead, now)) {
+                                    notifyPageDownload(index, contentLength, receivedSize, mThrottle.take(now));
+                                }
                             }
-                            // Notify listener
-                            notifyPageDownload(index, contentLength, receivedSize, bytesRead);
+                            // Write the rest
+                            mBuffer.writeTo(os);
+                        } finally {
+                            watch.finish();
+                            mBuffer.clear();
+                        }
+                        if (mThrottle.pending() > 0) {
+                            notifyPageDownload(index, contentLength, receivedSize,
+                                    mThrottle.take(SystemClock.uptimeMillis()));
+                        }
+                        // Commit it, the disk cache may reject the image
+                        try {
+                            os.close();
+                        } catch (IOException e) {
+                            Log.e(TAG, "Can't write image " + index, e);
+                            error = GetText.getString(R.string.error_write_failed);
+                            break;
                         }
-                        os.flush();
 
                         // check download size
                         if (contentLength >= 0) {
@@ -1447,6 +1671,8 @@ public final class SpiderQueen implements Runnable {
                                 Log.w(TAG, "Received data is more than contentLength");
                             }
                         }
+                        // The whole image is written
+                        resumeValidator = null;
                     } finally {
                         if (osPipe != null) {
                             osPipe.close();
@@ -1454,6 +1680,11 @@ public final class SpiderQueen implements Runnable {
                         }
                     }
 
+                    if (partialMode && !mSpiderDen.commitPartial(index, extension)) {
+                        error = GetText.getString(R.string.error_write_failed);
+                        break;
+                    }
+
                     InputStreamPipe isPipe = null;
                     try {
                         // Get InputStreamPipe
@@ -1514,7 +1745,14 @@ public final class SpiderQueen implements Runnable {
                     error = GetText.getString(R.string.error_socket);
                     forceHtml = true;
                 } finally {
-                    IOUtils.closeQuietly(is);
+                    IOUtils.closeQuietly(source);
+                    if (resumeValidator != null) {
+                        // The pipe is closed, keep the written part for resuming
+                        mSpiderDen.savePartial(index, resumeExtension, resumeValidator, resumeContentLength);
+                    }
+                    if (budgetHost != null) {
+                        SpiderWorkerBudget.getInstance().release(budgetHost);
+                    }
 
                     if (DEBUG_LOG) {
                         Log.d(TAG, "End download image " + index);
@@ -1522,7 +1760,7 @@ public final class SpiderQueen implements Runnable {
                 }
             }
 
-            // Remove download failed image
+            // Remove download failed image, the partial one is kept for resuming
             mSpiderDen.remove(index);
 
             updatePageState(index, STATE_FAILED, error);
@@ -1545,27 +1783,25 @@ public final class SpiderQueen implements Runnable {
             int index;
             // From force request
             boolean force = false;
-            synchronized (mRequestPageQueue) {
-                if (!mForceRequestPageQueue.isEmpty()) {
-                    index = mForceRequestPageQueue.remove();
-                    force = true;
-                } else if (!mRequestPageQueue.isEmpty()) {
-                    index = mRequestPageQueue.remove();
-                } else if (!mRequestPageQueue2.isEmpty()) {
-                    index = mRequestPageQueue2.remove();
-                } else if (mDownloadPage >= 0 && mDownloadPage < size) {
-                    index = mDownloadPage;
-                    mDownloadPage++;
-                } else {
+            // From download mode, not requested by reader
+            boolean background = false;
+            SpiderRequestQueue.Request request = mRequestQueue.poll();
+            if (request != null) {
+                index = request.index;
+                force = request.priority == SpiderRequestQueue.PRIORITY_FORCE;
+            } else {
+                index = mRequestQueue.nextDownloadPage(size);
+                if (index < 0) {
                     // No index any more, stop
                     return false;
                 }
+                background = true;
+            }
 
-                // Check out of range
-                if (index < 0 || index >= size) {
-                    // Invalid index
-                    return true;
-                }
+            // Check out of range
+            if (index < 0 || index >= size) {
+                // Invalid index
+                return true;
             }
 
             synchronized (mPageStateLock) {
@@ -1598,34 +1834,8 @@ public final class SpiderQueen implements Runnable {
                 }
             }
 
-            String pToken = null;
             // Get token
-            while (!Thread.currentThread().isInterrupted()) {
-                synchronized (mPTokenLock) {
-                    pToken = spiderInfo.pTokenMap.get(index);
-                }
-                if (pToken == null) {
-                    mRequestPTokenQueue.add(index);
-                    // Notify Queen
-                    synchronized (mQueenLock) {
-                        mQueenLock.notify();
-                    }
-                    // Wait
-                    synchronized (mWorkerLock) {
-                        try {
-                            mWorkerLock.wait();
-                        } catch (InterruptedException e) {
-                            // Interrupted
-                            if (DEBUG_LOG) {
-                                Log.d(TAG, Thread.currentThread().getName() + " Interrupted");
-                            }
-                            break;
-                        }
-                    }
-                } else {
-                    break;
-                }
-            }
+            String pToken = requirePToken(spiderInfo, index);
 
             if (pToken == null) {
                 // Interrupted
@@ -1637,31 +1847,8 @@ public final class SpiderQueen implements Runnable {
             String previousPToken = null;
             int previousIndex = index - 1;
             // Get token
-            while (previousIndex >= 0 && !Thread.currentThread().isInterrupted()) {
-                synchronized (mPTokenLock) {
-                    previousPToken = spiderInfo.pTokenMap.get(previousIndex);
-                }
-                if (previousPToken == null) {
-                    mRequestPTokenQueue.add(previousIndex);
-                    // Notify Queen
-                    synchronized (mQueenLock) {
-                        mQueenLock.notify();
-                    }
-                    // Wait
-                    synchronized (mWorkerLock) {
-                        try {
-                            mWorkerLock.wait();
-                        } catch (InterruptedException e) {
-                            // Interrupted
-                            if (DEBUG_LOG) {
-                                Log.d(TAG, Thread.currentThread().getName() + " Interrupted");
-                            }
-                            break;
-                        }
-                    }
-                } else {
-                    break;
-                }
+            if (previousIndex >= 0) {
+                previousPToken = requirePToken(spiderInfo, previousIndex);
             }
 
             if (SpiderInfo.TOKEN_FAILED.equals(pToken)) {
@@ -1671,15 +1858,7 @@ public final class SpiderQueen implements Runnable {
             }
 
             // Get image url
-            return downloadImage(mGid, index, pToken, previousPToken, force);
-        }
-
-        private void cancelTimeCount() {
-            if (downloadSpeedZeroTimeCount != null) {
-                downloadSpeedZeroTimeCount.cancel();
-                downloadSpeedZeroTimeCount = null;
-            }
-            cancelDownload = false;
+            return downloadImage(mGid, index, pToken, previousPToken, force, background);
         }
 
         @Override
@@ -1706,23 +1885,10 @@ public final class SpiderQueen implements Runnable {
             if (finish) {
                 notifyFinish();
             }
-            cancelTimeCount();
             if (DEBUG_LOG) {
                 Log.i(TAG, Thread.currentThread().getName() + ": end");
             }
         }
-
-        private class TimeCount extends TimerTask {
-            public TimeCount() {
-
-            }
-
-            @Override
-            public void run() {
-                cancelDownload = true;
-            }
-
-        }
     }
 
     private class SpiderDecoder implements Runnable {
@@ -1733,10 +1899,8 @@ public final class SpiderQueen implements Runnable {
             mThreadIndex = index;
         }
 
-        private void resetDecodeIndex() {
-            synchronized (mDecodeRequestQueue) {
-                mDecodeIndexArray[mThreadIndex] = GalleryPageView.INVALID_INDEX;
-            }
+        private void resetDecodeIndex(int index) {
+            mDecodePendingSet.remove(index);
         }
 
         @Override
@@ -1747,30 +1911,24 @@ public final class SpiderQueen implements Runnable {
 
             while (!Thread.currentThread().isInterrupted()) {
                 int index;
-                synchronized (mDecodeRequestQueue) {
-                    if (mDecodeRequestQueue.isEmpty()) {
-                        try {
-                            mDecodeRequestQueue.wait();
-                        } catch (InterruptedException e) {
-                            // Interrupted
-                            break;
-                        }
-                        continue;
-                    }
-                    index = mDecodeRequestQueue.remove();
-                    mDecodeIndexArray[mThreadIndex] = index;
+                try {
+                    index = mDecodeRequestQueue.take();
+                } catch (InterruptedException e) {
+                    // Interrupted
+                    break;
                 }
+                mDecodePrefetchSet.remove(index);
 
                 // Check index valid
                 if (index < 0 || index >= mPageStateArray.length) {
-                    resetDecodeIndex();
+                    resetDecodeIndex(index);
                     notifyGetImageFailure(index, GetText.getString(R.string.error_out_of_range));
                     continue;
                 }
 
                 InputStreamPipe pipe = mSpiderDen.openInputStreamPipe(index);
                 if (pipe == null) {
-                    resetDecodeIndex();
+                    resetDecodeIndex(index);
                     // Can't find the file, it might be removed from cache,
                     // Reset it state and request it
                     updatePageState(index, STATE_NONE, null);
@@ -1818,7 +1976,7 @@ public final class SpiderQueen implements Runnable {
                     notifyGetImageFailure(index, error);
                 }
 
-                resetDecodeIndex();
+                resetDecodeIndex(index);
             }
 
             if (DEBUG_LOG) {
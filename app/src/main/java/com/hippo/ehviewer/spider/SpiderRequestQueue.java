@@ -0,0 +1,157 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.spider;
+
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Page request queue of {@link SpiderQueen}, safe for any thread without lock.
+ * <p>
+ * Requests are served in priority order force &gt; visible &gt; neighbor,
+ * then the sequential download page. An index is queued at most once, a request
+ * with higher priority replaces the queued one. Replaced and canceled requests
+ * stay in the queue and are skipped by {@link #poll()}.
+ */
+final class SpiderRequestQueue {
+
+    static final int PRIORITY_FORCE = 0;
+    static final int PRIORITY_VISIBLE = 1;
+    static final int PRIORITY_NEIGHBOR = 2;
+
+    private static final int PRIORITY_COUNT = 3;
+
+    static final class Request {
+
+        final int index;
+        final int priority;
+
+        Request(int index, int priority) {
+            this.index = index;
+            this.priority = priority;
+        }
+    }
+
+    // One queue for each priority, index is the priority
+    private final List<ConcurrentLinkedQueue<Request>> mQueues = new ArrayList<>(PRIORITY_COUNT);
+    // The live request for each index
+    private final ConcurrentHashMap<Integer, Request> mPendingMap = new ConcurrentHashMap<>();
+    // Next page for download mode, -1 for not in download mode
+    private final AtomicInteger mDownloadPage = new AtomicInteger(-1);
+
+    SpiderRequestQueue() {
+        for (int i = 0; i < PRIORITY_COUNT; i++) {
+            mQueues.add(new ConcurrentLinkedQueue<>());
+        }
+    }
+
+    /**
+     * @return false if the index is already queued with the same or higher priority
+     */
+    boolean offer(int index, int priority) {
+        Request request = new Request(index, priority);
+        for (;;) {
+            Request old = mPendingMap.putIfAbsent(index, request);
+            if (old == null) {
+                break;
+            }
+            if (old.priority <= priority) {
+                return false;
+            }
+            if (mPendingMap.replace(index, old, request)) {
+                break;
+            }
+        }
+        mQueues.get(priority).offer(request);
+        return true;
+    }
+
+    @Nullable
+    Request poll() {
+        for (ConcurrentLinkedQueue<Request> queue : mQueues) {
+            Request request;
+            while ((request = queue.poll()) != null) {
+                // Skip canceled or replaced request
+                if (mPendingMap.remove(request.index, request)) {
+                    return request;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Cancel the index only if it is queued with the priority.
+     */
+    boolean cancel(int index, int priority) {
+        Request request = mPendingMap.get(index);
+        return request != null && request.priority == priority &&
+                mPendingMap.remove(index, request);
+    }
+
+    /**
+     * Cancel all requests with the priority.
+     */
+    void clear(int priority) {
+        ConcurrentLinkedQueue<Request> queue = mQueues.get(priority);
+        Request request;
+        while ((request = queue.poll()) != null) {
+            mPendingMap.remove(request.index, request);
+        }
+    }
+
+    boolean isEmpty() {
+        return mPendingMap.isEmpty();
+    }
+
+    /**
+     * @return true if it turns into download mode
+     */
+    boolean setDownloadMode(boolean downloadMode) {
+        if (downloadMode) {
+            return mDownloadPage.compareAndSet(-1, 0);
+        } else {
+            mDownloadPage.set(-1);
+            return false;
+        }
+    }
+
+    boolean hasDownloadPage(int size) {
+        int page = mDownloadPage.get();
+        return page >= 0 && page < size;
+    }
+
+    /**
+     * @return next page to download, or -1 if no page left
+     */
+    int nextDownloadPage(int size) {
+        for (;;) {
+            int page = mDownloadPage.get();
+            if (page < 0 || page >= size) {
+                return -1;
+            }
+            if (mDownloadPage.compareAndSet(page, page + 1)) {
+                return page;
+            }
+        }
+    }
+}
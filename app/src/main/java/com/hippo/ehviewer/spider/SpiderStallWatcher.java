@@ -0,0 +1,204 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.spider;
+
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.hippo.lib.yorozuya.MathUtils;
+import com.hippo.lib.yorozuya.thread.PriorityThreadFactory;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.Call;
+
+/**
+ * Watch all running image downloads with one scheduler thread.
+ * <p>
+ * A download which receives no byte for the stall threshold of its host is
+ * canceled, so the blocking read in the worker fails at once and the worker
+ * can retry. The threshold grows for hosts with low observed throughput.
+ */
+public final class SpiderStallWatcher {
+
+    private static final String TAG = SpiderStallWatcher.class.getSimpleName();
+
+    private static final long TICK_INTERVAL = 500;
+    private static final long MIN_STALL_THRESHOLD = 3000;
+    private static final long MAX_STALL_THRESHOLD = 20000;
+    // A host is stalled if it can't deliver this many bytes in the threshold
+    private static final long STALL_BYTES = 64 * 1024;
+    private static final float THROUGHPUT_ALPHA = 0.3f;
+
+    private static final SpiderStallWatcher sInstance = new SpiderStallWatcher();
+
+    private final ScheduledThreadPoolExecutor mExecutor = new ScheduledThreadPoolExecutor(1,
+            new PriorityThreadFactory(TAG, Process.THREAD_PRIORITY_BACKGROUND));
+    private final Set<Watch> mWatchSet = ConcurrentHashMap.newKeySet();
+    private final ConcurrentHashMap<String, HostStat> mHostStatMap = new ConcurrentHashMap<>();
+    private final AtomicInteger mStallCount = new AtomicInteger();
+    private ScheduledFuture<?> mTickFuture;
+
+    private SpiderStallWatcher() {
+        mExecutor.setRemoveOnCancelPolicy(true);
+    }
+
+    public static SpiderStallWatcher getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Start watching the call, {@link Watch#finish()} must be called after the body is read.
+     */
+    @NonNull
+    public Watch watch(@NonNull String host, @NonNull Call call) {
+        Watch watch = new Watch(getHostStat(host), call);
+        mWatchSet.add(watch);
+        ensureTick();
+        return watch;
+    }
+
+    /**
+     * @return stall count of all hosts since app start
+     */
+    public int getStallCount() {
+        return mStallCount.get();
+    }
+
+    public int getStallCount(@NonNull String host) {
+        HostStat stat = mHostStatMap.get(host);
+        return stat != null ? stat.stallCount.get() : 0;
+    }
+
+    public long getStallThreshold(@NonNull String host) {
+        return getHostStat(host).getStallThreshold();
+    }
+
+    @NonNull
+    private HostStat getHostStat(@NonNull String host) {
+        return mHostStatMap.computeIfAbsent(host, HostStat::new);
+    }
+
+    private synchronized void ensureTick() {
+        if (mTickFuture == null) {
+            mTickFuture = mExecutor.scheduleWithFixedDelay(this::tick,
+                    TICK_INTERVAL, TICK_INTERVAL, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private synchronized void stopTickIfIdle() {
+        if (mWatchSet.isEmpty() && mTickFuture != null) {
+            mTickFuture.cancel(false);
+            mTickFuture = null;
+        }
+    }
+
+    private void tick() {
+        long now = SystemClock.elapsedRealtime();
+        for (Watch watch : mWatchSet) {
+            if (now - watch.mLastProgressTime > watch.mHostStat.getStallThreshold()) {
+                mWatchSet.remove(watch);
+                watch.stall();
+            }
+        }
+        stopTickIfIdle();
+    }
+
+    private final class HostStat {
+
+        private final String host;
+        private final AtomicInteger stallCount = new AtomicInteger();
+        // Bytes per second, 0 for unknown
+        private volatile float throughput;
+
+        private HostStat(String host) {
+            this.host = host;
+        }
+
+        private long getStallThreshold() {
+            float t = throughput;
+            if (t <= 0) {
+                return MIN_STALL_THRESHOLD;
+            }
+            return MathUtils.clamp((long) (STALL_BYTES * 1000 / t),
+                    MIN_STALL_THRESHOLD, MAX_STALL_THRESHOLD);
+        }
+
+        private void onComplete(long bytes, long time) {
+            if (bytes <= 0 || time <= 0) {
+                return;
+            }
+            float sample = bytes * 1000f / time;
+            float old = throughput;
+            throughput = old <= 0 ? sample : MathUtils.lerp(old, sample, THROUGHPUT_ALPHA);
+        }
+
+        private void onStall() {
+            stallCount.incrementAndGet();
+            mStallCount.incrementAndGet();
+            Log.d(TAG, "Stall on " + host + ", count " + stallCount.get());
+        }
+    }
+
+    public final class Watch {
+
+        private final HostStat mHostStat;
+        private final Call mCall;
+        private final long mStartTime;
+        private volatile long mLastProgressTime;
+        private volatile boolean mStalled;
+        private long mBytes;
+
+        private Watch(HostStat hostStat, Call call) {
+            mHostStat = hostStat;
+            mCall = call;
+            mStartTime = SystemClock.elapsedRealtime();
+            mLastProgressTime = mStartTime;
+        }
+
+        public void onProgress(int bytes) {
+            if (bytes > 0) {
+                mBytes += bytes;
+                mLastProgressTime = SystemClock.elapsedRealtime();
+            }
+        }
+
+        public boolean isStalled() {
+            return mStalled;
+        }
+
+        private void stall() {
+            mStalled = true;
+            mHostStat.onStall();
+            mCall.cancel();
+        }
+
+        public void finish() {
+            if (mWatchSet.remove(this) && !mStalled) {
+                mHostStat.onComplete(mBytes, mLastProgressTime - mStartTime);
+            }
+        }
+    }
+}
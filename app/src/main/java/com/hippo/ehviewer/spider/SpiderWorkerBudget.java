@@ -0,0 +1,180 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.spider;
+
+import androidx.annotation.NonNull;
+
+import com.hippo.ehviewer.Settings;
+import com.hippo.ehviewer.dao.DownloadInfo;
+import com.hippo.lib.yorozuya.MathUtils;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Page download slots shared by every {@link SpiderQueen} in download mode.
+ * <p>
+ * Total running image downloads are bounded by {@link Settings#getDownloadWorkerBudget()},
+ * a host can't take more than its fair share while other hosts are waiting,
+ * and a waiter is only served when no waiter with higher priority could run instead.
+ */
+public final class SpiderWorkerBudget {
+
+    public static final int PRIORITY_LOW = DownloadInfo.PRIORITY_LOW;
+    public static final int PRIORITY_NORMAL = DownloadInfo.PRIORITY_NORMAL;
+    public static final int PRIORITY_HIGH = DownloadInfo.PRIORITY_HIGH;
+
+    private static final int PRIORITY_COUNT = 3;
+
+    private static final SpiderWorkerBudget sInstance = new SpiderWorkerBudget();
+
+    private final ReentrantLock mLock = new ReentrantLock();
+    private final Condition mCondition = mLock.newCondition();
+    // Running slots for each host
+    private final Map<String, Integer> mHostActiveMap = new HashMap<>();
+    // Waiting slots for each host, by priority
+    private final Map<String, int[]> mHostWaitingMap = new HashMap<>();
+    private int mActiveCount;
+
+    private SpiderWorkerBudget() {
+    }
+
+    public static SpiderWorkerBudget getInstance() {
+        return sInstance;
+    }
+
+    public static int clampPriority(int priority) {
+        return MathUtils.clamp(priority, PRIORITY_LOW, PRIORITY_HIGH);
+    }
+
+    /**
+     * Block until a slot for the host is available.
+     */
+    public void acquire(@NonNull String host, int priority) throws InterruptedException {
+        priority = clampPriority(priority);
+        mLock.lockInterruptibly();
+        try {
+            int[] waiting = mHostWaitingMap.get(host);
+            if (waiting == null) {
+                waiting = new int[PRIORITY_COUNT];
+                mHostWaitingMap.put(host, waiting);
+            }
+            waiting[priority]++;
+            try {
+                while (!canRun(host, priority)) {
+                    mCondition.await();
+                }
+            } finally {
+                waiting[priority]--;
+                if (isEmpty(waiting)) {
+                    mHostWaitingMap.remove(host);
+                }
+                // Waiters giving way to it or counting its host may run now
+                mCondition.signalAll();
+            }
+            mActiveCount++;
+            increase(mHostActiveMap, host);
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    public void release(@NonNull String host) {
+        mLock.lock();
+        try {
+            if (mActiveCount > 0) {
+                mActiveCount--;
+            }
+            decrease(mHostActiveMap, host);
+            mCondition.signalAll();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    public int getActiveCount() {
+        mLock.lock();
+        try {
+            return mActiveCount;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    private boolean canRun(String host, int priority) {
+        int budget = Math.max(1, Settings.getDownloadWorkerBudget());
+        if (mActiveCount >= budget) {
+            return false;
+        }
+
+        // Fair share between all hosts which are running or waiting
+        int hostCount = mHostActiveMap.size();
+        for (String key : mHostWaitingMap.keySet()) {
+            if (!mHostActiveMap.containsKey(key)) {
+                hostCount++;
+            }
+        }
+        int hostLimit = Math.max(1, (budget + hostCount - 1) / Math.max(1, hostCount));
+        if (getActive(host) >= hostLimit) {
+            return false;
+        }
+
+        // Give way to higher priority waiters, unless their hosts are full
+        for (Map.Entry<String, int[]> entry : mHostWaitingMap.entrySet()) {
+            if (getActive(entry.getKey()) >= hostLimit) {
+                continue;
+            }
+            int[] waiting = entry.getValue();
+            for (int i = priority + 1; i < PRIORITY_COUNT; i++) {
+                if (waiting[i] > 0) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private int getActive(String host) {
+        Integer active = mHostActiveMap.get(host);
+        return active == null ? 0 : active;
+    }
+
+    private static boolean isEmpty(int[] waiting) {
+        for (int count : waiting) {
+            if (count > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void increase(Map<String, Integer> map, String key) {
+        Integer value = map.get(key);
+        map.put(key, value == null ? 1 : value + 1);
+    }
+
+    private static void decrease(Map<String, Integer> map, String key) {
+        Integer value = map.get(key);
+        if (value == null || value <= 1) {
+            map.remove(key);
+        } else {
+            map.put(key, value - 1);
+        }
+    }
+}
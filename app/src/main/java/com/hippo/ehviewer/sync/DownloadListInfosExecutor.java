@@ -1,22 +1,21 @@
 package com.hippo.ehviewer.sync;
 
-import android.annotation.SuppressLint;
 import android.os.Handler;
 import android.os.Looper;
 
 import androidx.annotation.Nullable;
 
-import com.hippo.ehviewer.EhDB;
 import com.hippo.ehviewer.R;
 import com.hippo.ehviewer.callBack.DownloadSearchCallback;
 import com.hippo.ehviewer.client.EhUtils;
 import com.hippo.ehviewer.dao.DownloadInfo;
-import com.hippo.ehviewer.dao.GalleryTags;
+import com.hippo.ehviewer.download.DownloadCatalog;
 import com.hippo.ehviewer.download.DownloadManager;
 
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;;
 
@@ -43,11 +42,13 @@ public class DownloadListInfosExecutor {
 
     private final String mSearchKey;
 
-    private DownloadManager mDownloadManager;
+    private final DownloadManager mDownloadManager;
 
-    public DownloadListInfosExecutor(@Nullable List<DownloadInfo> mList, String searchKey) {
+    public DownloadListInfosExecutor(@Nullable List<DownloadInfo> mList, String searchKey,
+            DownloadManager downloadManager) {
         this.mList = mList;
         this.mSearchKey = searchKey;
+        mDownloadManager = downloadManager;
     }
 
     public DownloadListInfosExecutor(@Nullable List<DownloadInfo> mList, DownloadManager downloadManager) {
@@ -103,91 +104,22 @@ public class DownloadListInfosExecutor {
     }
 
     private List<DownloadInfo> sortByType(int type) {
-        if (mList == null) {
+        if (mList == null || mDownloadManager == null) {
             return new ArrayList<>();
         }
-        DownloadInfo[] arr = new DownloadInfo[mList.size()];
-        mList.toArray(arr);
-
-        int n = arr.length;
-        // 子数组的大小分别为1，2，4，8...
-        // 刚开始合并的数组大小是1，接着是2，接着4....
-        for (int i = 1; i < n; i += i) {
-            //进行数组进行划分
-            int left = 0;
-            int mid = left + i - 1;
-            int right = mid + i;
-            //进行合并，对数组大小为 i 的数组进行两两合并
-            while (right < n) {
-                // 合并函数和递归式的合并函数一样
-                merge(arr, left, mid, right, type);
-                left = right + 1;
-                mid = left + i - 1;
-                right = mid + i;
-            }
-            // 还有一些被遗漏的数组没合并，千万别忘了
-            // 因为不可能每个字数组的大小都刚好为 i
-            if (left < n && mid < n) {
-                merge(arr, left, mid, n - 1, type);
-            }
-        }
-        return Arrays.asList(arr);
-    }
-
-    // 合并函数，把两个有序的数组合并起来
-    // arr[left..mif]表示一个数组，arr[mid+1 .. right]表示一个数组
-    @SuppressLint("NonConstantResourceId")
-    private static void merge(DownloadInfo[] arr, int left, int mid, int right, int sortType) {
-        //先用一个临时数组把他们合并汇总起来
-        DownloadInfo[] a = new DownloadInfo[right - left + 1];
-        int i = left;
-        int j = mid + 1;
-        int k = 0;
-        while (i <= mid && j <= right) {
-            if (sortType == R.id.sort_by_gallery_id_asc) {
-                if (arr[i].gid < arr[j].gid) {
-                    a[k++] = arr[i++];
-                } else {
-                    a[k++] = arr[j++];
-                }
-            } else if (sortType == R.id.sort_by_gallery_id_desc) {
-                if (arr[i].gid > arr[j].gid) {
-                    a[k++] = arr[i++];
-                } else {
-                    a[k++] = arr[j++];
-                }
-            } else if (sortType == R.id.sort_by_create_time_asc) {
-                if (arr[i].time < arr[j].time) {
-                    a[k++] = arr[i++];
-                } else {
-                    a[k++] = arr[j++];
-                }
-            } else if (sortType == R.id.sort_by_create_time_desc) {
-                if (arr[i].time > arr[j].time) {
-                    a[k++] = arr[i++];
-                } else {
-                    a[k++] = arr[j++];
-                }
-            } else if (sortType == R.id.sort_by_rating_asc) {
-                if (arr[i].rating < arr[j].rating) {
-                    a[k++] = arr[i++];
-                } else {
-                    a[k++] = arr[j++];
-                }
-            } else if (sortType == R.id.sort_by_rating_desc) {
-                if (arr[i].rating > arr[j].rating) {
-                    a[k++] = arr[i++];
-                } else {
-                    a[k++] = arr[j++];
-                }
-            }
-
-        }
-        while (i <= mid) a[k++] = arr[i++];
-        while (j <= right) a[k++] = arr[j++];
-        // 把临时数组复制到原数组
-        for (i = 0; i < k; i++) {
-            arr[left++] = a[i];
+        DownloadCatalog catalog = mDownloadManager.getCatalog();
+        if (type == R.id.sort_by_gallery_id_asc) {
+            return catalog.sort(mList, DownloadCatalog.SORT_GID, false);
+        } else if (type == R.id.sort_by_gallery_id_desc) {
+            return catalog.sort(mList, DownloadCatalog.SORT_GID, true);
+        } else if (type == R.id.sort_by_create_time_asc) {
+            return catalog.sort(mList, DownloadCatalog.SORT_TIME, false);
+        } else if (type == R.id.sort_by_create_time_desc) {
+            return catalog.sort(mList, DownloadCatalog.SORT_TIME, true);
+        } else if (type == R.id.sort_by_rating_asc) {
+            return catalog.sort(mList, DownloadCatalog.SORT_RATING, false);
+        } else {
+            return catalog.sort(mList, DownloadCatalog.SORT_RATING, true);
         }
     }
 
@@ -196,8 +128,8 @@ public class DownloadListInfosExecutor {
         if (mList == null) {
             return list;
         }
-        for (int i = 0; i < mList.size(); i++) {
-            DownloadInfo info = mList.get(i);
+        // mList is usually a LinkedList, don't get(i)
+        for (DownloadInfo info : mList) {
             if (info.state == state) {
                 list.add(info);
             }
@@ -216,13 +148,14 @@ public class DownloadListInfosExecutor {
         if (mList == null) {
             return new ArrayList<>();
         }
-        List<DownloadInfo> cache = new ArrayList<>();
+        // Gids with all the tags, from the tag index of downloads
+        Set<Long> tagMatched = mDownloadManager != null ?
+                mDownloadManager.getCatalog().queryTags(mSearchKey.split("  ")) :
+                Collections.emptySet();
 
-        for (int i = 0; i < mList.size(); i++) {
-            DownloadInfo info = mList.get(i);
-            if (EhUtils.judgeSuitableTitle(info, mSearchKey)) {
-                cache.add(info);
-            } else if (matchTag(mSearchKey, info)) {
+        List<DownloadInfo> cache = new ArrayList<>();
+        for (DownloadInfo info : mList) {
+            if (EhUtils.judgeSuitableTitle(info, mSearchKey) || tagMatched.contains(info.gid)) {
                 cache.add(info);
             }
         }
@@ -230,67 +163,4 @@ public class DownloadListInfosExecutor {
         return cache;
     }
 
-    private boolean matchTag(String mSearchKey, DownloadInfo info) {
-        if (info.tgList == null || info.tgList.isEmpty()) {
-            info.tgList = searchTagList(info.gid);
-        }
-        if (info.tgList == null) {
-            return false;
-        }
-
-        String[] searchTags = mSearchKey.split("  ");
-
-        boolean result = true;
-        for (String searchTag : searchTags) {
-            if (!info.tgList.contains(searchTag)) {
-                result = false;
-                break;
-            }
-        }
-
-
-        return result;
-    }
-
-    private ArrayList<String> searchTagList(long gid) {
-        GalleryTags tags = EhDB.queryGalleryTags(gid);
-
-        if (tags == null) {
-            return null;
-        }
-
-        ArrayList<String> tagList = new ArrayList<>();
-
-        tagList.addAll(parserList("artist", tags.artist));
-        tagList.addAll(parserList("rows", tags.rows));
-        tagList.addAll(parserList("cosplayer", tags.cosplayer));
-        tagList.addAll(parserList("character", tags.character));
-        tagList.addAll(parserList("female", tags.female));
-        tagList.addAll(parserList("group", tags.group));
-        tagList.addAll(parserList("language", tags.language));
-        tagList.addAll(parserList("male", tags.male));
-        tagList.addAll(parserList("misc", tags.misc));
-        tagList.addAll(parserList("mixed", tags.mixed));
-        tagList.addAll(parserList("other", tags.other));
-        tagList.addAll(parserList("parody", tags.parody));
-        tagList.addAll(parserList("reclass", tags.reclass));
-
-        return tagList;
-    }
-
-    private ArrayList<String> parserList(String name, String content) {
-        if (name == null || content == null) {
-            return new ArrayList<>();
-        }
-        ArrayList<String> list = new ArrayList<>();
-
-        String[] tagNames = content.split(",");
-
-        for (String s : tagNames) {
-            list.add(name + ":" + s);
-        }
-
-        return list;
-    }
-
 }
@@ -1,16 +1,12 @@
 package com.hippo.ehviewer.sync;
 
-import static com.hippo.ehviewer.spider.SpiderDen.getGalleryDownloadDir;
-import static com.hippo.ehviewer.spider.SpiderQueen.SPIDER_INFO_FILENAME;
-
 import android.os.Handler;
 import android.os.Looper;
 
 import com.hippo.ehviewer.callBack.SpiderInfoReadCallBack;
-import com.hippo.ehviewer.client.data.GalleryInfo;
 import com.hippo.ehviewer.dao.DownloadInfo;
 import com.hippo.ehviewer.spider.SpiderInfo;
-import com.hippo.unifile.UniFile;
+import com.hippo.ehviewer.spider.SpiderInfoStore;
 
 import java.util.HashMap;
 import java.util.List;
@@ -35,9 +31,14 @@ public class DownloadSpiderInfoExecutor {
 
     public void execute() {
         service.execute(() -> {
-            for (int i = 0; i < mList.size(); i++) {
-                DownloadInfo info = mList.get(i);
-                resultMap.put(info.gid,getSpiderInfo(info));
+            // All SpiderInfo in one query, only the missing ones are read from download dir
+            Map<Long, SpiderInfo> storeMap = SpiderInfoStore.getAll();
+            for (DownloadInfo info : mList) {
+                SpiderInfo spiderInfo = storeMap.get(info.gid);
+                if (spiderInfo == null || !spiderInfo.token.equals(info.token)) {
+                    spiderInfo = SpiderInfo.getSpiderInfo(info);
+                }
+                resultMap.put(info.gid, spiderInfo);
             }
             handler.post(()->{
                 if (callBack==null){
@@ -47,17 +48,4 @@ public class DownloadSpiderInfoExecutor {
             });
         });
     }
-    private SpiderInfo getSpiderInfo(GalleryInfo info) {
-        SpiderInfo spiderInfo;
-        UniFile mDownloadDir = getGalleryDownloadDir(info);
-        if (mDownloadDir != null && mDownloadDir.isDirectory()) {
-            UniFile file = mDownloadDir.findFile(SPIDER_INFO_FILENAME);
-            spiderInfo = SpiderInfo.read(file);
-            if (spiderInfo != null && spiderInfo.gid == info.gid &&
-                    spiderInfo.token.equals(info.token)) {
-                return spiderInfo;
-            }
-        }
-        return null;
-    }
 }
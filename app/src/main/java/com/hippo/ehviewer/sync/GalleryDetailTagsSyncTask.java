@@ -2,6 +2,7 @@ package com.hippo.ehviewer.sync;
 
 import android.util.Log;
 
+import com.hippo.ehviewer.EhApplication;
 import com.hippo.ehviewer.EhDB;
 import com.hippo.ehviewer.client.data.GalleryDetail;
 import com.hippo.ehviewer.client.data.GalleryTagGroup;
@@ -32,6 +33,8 @@ public class GalleryDetailTagsSyncTask extends Thread{
             }else{
                 EhDB.insertGalleryTags(galleryTags);
             }
+            // Tags of downloads are indexed
+            EhApplication.getDownloadManager().getCatalog().invalidateTags(detail.gid);
         }catch (Exception e){
             Log.e(TAG,e.toString());
         }
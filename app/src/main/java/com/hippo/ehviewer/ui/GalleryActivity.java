@@ -791,6 +791,7 @@ public class GalleryActivity extends EhActivity implements SeekBar.OnSeekBarChan
     public void onUpdateCurrentIndex(int index) {
         if (null != mGalleryProvider) {
             mGalleryProvider.putStartPage(index);
+            mGalleryProvider.onPageChanged(index);
         }
 
         NotifyTask task = mNotifyTaskPool.pop();
@@ -165,6 +165,8 @@ public class DownloadsScene extends ToolbarScene
     private List<DownloadInfo> mList;
     @Nullable
     private List<DownloadInfo> mBackList;
+    // Speed of all running downloads, shown in title
+    private long mTotalSpeed;
 
     /*---------------
      List pagination
@@ -350,9 +352,13 @@ public class DownloadsScene extends ToolbarScene
     @SuppressLint("StringFormatMatches")
     private void updateTitle() {
         try {
-            setTitle(getString(R.string.scene_download_title,
+            String title = getString(R.string.scene_download_title,
                     Integer.toString(mList == null ? 0 : mList.size()),
-                    mLabel != null ? mLabel : getString(R.string.default_download_label_name)));
+                    mLabel != null ? mLabel : getString(R.string.default_download_label_name));
+            if (mTotalSpeed > 0) {
+                title += " · " + FileUtils.humanReadableByteCount(mTotalSpeed, false) + "/S";
+            }
+            setTitle(title);
         } catch (Exception e) {
             e.printStackTrace();
             FirebaseCrashlytics.getInstance().recordException(e);
@@ -841,7 +847,7 @@ public class DownloadsScene extends ToolbarScene
 
             LongList gidList = null;
             List<DownloadInfo> downloadInfoList = null;
-            boolean collectGid = position == 1 || position == 2 || position == 3; // Start, Stop, Delete
+            boolean collectGid = position == 1 || position == 2 || position == 3 || position == 5; // Start, Stop, Delete, Priority
             boolean collectDownloadInfo = position == 3 || position == 4; // Delete or Move
             if (collectGid) {
                 gidList = new LongList();
@@ -922,7 +928,19 @@ public class DownloadsScene extends ToolbarScene
                             .show();
                     break;
                 }
-                case 5:
+                case 5: { // Priority
+                    if (gidList.isEmpty()) {
+                        break;
+                    }
+                    PriorityDialogHelper helper = new PriorityDialogHelper(gidList);
+                    new AlertDialog.Builder(context)
+                            .setTitle(R.string.download_priority_dialog_title)
+                            .setSingleChoiceItems(R.array.download_priority_entries,
+                                    helper.getCheckedItem(), helper)
+                            .show();
+                    break;
+                }
+                case 6:
                     if (mList == null || mList.isEmpty()) {
                         return;
                     }
@@ -997,6 +1015,14 @@ public class DownloadsScene extends ToolbarScene
         }
     }
 
+    @Override
+    public void onUpdateSpeed(long totalSpeed) {
+        if (mTotalSpeed != totalSpeed) {
+            mTotalSpeed = totalSpeed;
+            updateTitle();
+        }
+    }
+
     @SuppressLint("NotifyDataSetChanged")
     @Override
     public void onUpdateAll() {
@@ -1199,7 +1225,7 @@ public class DownloadsScene extends ToolbarScene
 
         updateForLabel();
 
-        DownloadListInfosExecutor executor = new DownloadListInfosExecutor(mList, searchKey);
+        DownloadListInfosExecutor executor = new DownloadListInfosExecutor(mList, searchKey, mDownloadManager);
 
         executor.setDownloadSearchingListener(this);
 
@@ -1505,6 +1531,41 @@ public class DownloadsScene extends ToolbarScene
         }
     }
 
+    private class PriorityDialogHelper implements DialogInterface.OnClickListener {
+
+        private final LongList mGidList;
+
+        public PriorityDialogHelper(LongList gidList) {
+            mGidList = gidList;
+        }
+
+        // Entries are in the order of priority, -1 if the priorities are mixed
+        public int getCheckedItem() {
+            if (mDownloadManager == null) {
+                return -1;
+            }
+            int priority = mDownloadManager.getDownloadPriority(mGidList.get(0));
+            for (int i = 1, n = mGidList.size(); i < n; i++) {
+                if (mDownloadManager.getDownloadPriority(mGidList.get(i)) != priority) {
+                    return -1;
+                }
+            }
+            return priority;
+        }
+
+        @Override
+        public void onClick(DialogInterface dialog, int which) {
+            dialog.dismiss();
+            // Cancel check mode
+            if (null != mRecyclerView) {
+                mRecyclerView.outOfCustomChoiceMode();
+            }
+            if (null != mDownloadManager) {
+                mDownloadManager.setRangeDownloadPriority(mGidList, which);
+            }
+        }
+    }
+
     private class DownloadHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
 
         public final LoadImageView thumb;
@@ -1858,6 +1858,10 @@ public class GalleryDetailScene extends BaseScene implements View.OnClickListene
         updateDownloadState();
     }
 
+    @Override
+    public void onUpdateSpeed(long totalSpeed) {
+    }
+
     @Override
     public void onUpdateAll() {
         updateDownloadState();
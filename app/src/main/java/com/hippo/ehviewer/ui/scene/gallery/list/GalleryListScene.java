@@ -368,6 +368,10 @@ public final class GalleryListScene extends BaseScene
             public void onUpdate(@NonNull DownloadInfo info, @NonNull List<DownloadInfo> list, LinkedList<DownloadInfo> mWaitList) {
             }
 
+            @Override
+            public void onUpdateSpeed(long totalSpeed) {
+            }
+
             @Override
             public void onUpdateAll() {
             }
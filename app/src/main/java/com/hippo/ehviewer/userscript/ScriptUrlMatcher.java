@@ -0,0 +1,281 @@
+package com.hippo.ehviewer.userscript;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * 脚本URL匹配器 - 安装/启用脚本时把 @include/@exclude/@match 模式编译一次，
+ * 按域名建立索引，查找一个URL适用的脚本只需遍历该域名相关的模式
+ */
+final class ScriptUrlMatcher {
+
+    private final List<UserScript> scripts;
+    // 精确域名 -> 模式
+    private final Map<String, List<Entry>> hostEntries = new HashMap<>();
+    // *.example.com 形式，以 example.com 为键
+    private final Map<String, List<Entry>> domainEntries = new HashMap<>();
+    // 任意域名或无法按域名索引的模式
+    private final List<Entry> anyHostEntries = new ArrayList<>();
+    // 没有包含模式的脚本对所有URL生效
+    private final BitSet matchAll = new BitSet();
+
+    ScriptUrlMatcher(List<UserScript> allScripts) {
+        scripts = new ArrayList<>();
+        for (UserScript script : allScripts) {
+            if (!script.isEnabled()) {
+                continue;
+            }
+            int index = scripts.size();
+            scripts.add(script);
+            if (script.getIncludePatterns().isEmpty()) {
+                matchAll.set(index);
+            }
+            for (String pattern : script.getIncludePatterns()) {
+                addEntry(new Entry(index, false, UrlPattern.compile(pattern)));
+            }
+            for (String pattern : script.getExcludePatterns()) {
+                addEntry(new Entry(index, true, UrlPattern.compile(pattern)));
+            }
+        }
+    }
+
+    private void addEntry(Entry entry) {
+        UrlPattern pattern = entry.pattern;
+        List<Entry> entries;
+        if (pattern.host == null) {
+            entries = anyHostEntries;
+        } else {
+            Map<String, List<Entry>> map = pattern.subdomains ? domainEntries : hostEntries;
+            entries = map.get(pattern.host);
+            if (entries == null) {
+                entries = new ArrayList<>();
+                map.put(pattern.host, entries);
+            }
+        }
+        entries.add(entry);
+    }
+
+    /**
+     * 获取适用于URL的已启用脚本，保持安装顺序
+     */
+    List<UserScript> match(String url) {
+        if (url == null || url.isEmpty() || scripts.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        ParsedUrl parsed = ParsedUrl.parse(url);
+        BitSet included = (BitSet) matchAll.clone();
+        BitSet excluded = new BitSet();
+
+        check(anyHostEntries, parsed, included, excluded);
+        if (parsed.host != null) {
+            check(hostEntries.get(parsed.host), parsed, included, excluded);
+            // example.com 及其所有子域名匹配 *.example.com
+            String domain = parsed.host;
+            while (domain != null) {
+                check(domainEntries.get(domain), parsed, included, excluded);
+                int dot = domain.indexOf('.');
+                domain = dot >= 0 ? domain.substring(dot + 1) : null;
+            }
+        }
+
+        List<UserScript> result = new ArrayList<>();
+        for (int i = included.nextSetBit(0); i >= 0; i = included.nextSetBit(i + 1)) {
+            if (!excluded.get(i)) {
+                result.add(scripts.get(i));
+            }
+        }
+        return result;
+    }
+
+    private static void check(List<Entry> entries, ParsedUrl url, BitSet included, BitSet excluded) {
+        if (entries == null) {
+            return;
+        }
+        for (int i = 0, n = entries.size(); i < n; i++) {
+            Entry entry = entries.get(i);
+            BitSet target = entry.exclude ? excluded : included;
+            // 已确定的脚本不必再匹配
+            if (!target.get(entry.script) && entry.pattern.matches(url)) {
+                target.set(entry.script);
+            }
+        }
+    }
+
+    private static final class Entry {
+        final int script;
+        final boolean exclude;
+        final UrlPattern pattern;
+
+        Entry(int script, boolean exclude, UrlPattern pattern) {
+            this.script = script;
+            this.exclude = exclude;
+            this.pattern = pattern;
+        }
+    }
+
+    /**
+     * 拆分后的URL，域名为小写，rest 为路径及之后的部分
+     */
+    static final class ParsedUrl {
+        final String url;
+        final String scheme;
+        final String host;
+        final String rest;
+
+        private ParsedUrl(String url, String scheme, String host, String rest) {
+            this.url = url;
+            this.scheme = scheme;
+            this.host = host;
+            this.rest = rest;
+        }
+
+        static ParsedUrl parse(String url) {
+            int schemeEnd = url.indexOf("://");
+            if (schemeEnd <= 0) {
+                return new ParsedUrl(url, null, null, null);
+            }
+            int hostStart = schemeEnd + 3;
+            int hostEnd = hostStart;
+            while (hostEnd < url.length()) {
+                char c = url.charAt(hostEnd);
+                if (c == '/' || c == '?' || c == '#') {
+                    break;
+                }
+                hostEnd++;
+            }
+            String host = url.substring(hostStart, hostEnd);
+            // 去掉用户信息和端口
+            int at = host.lastIndexOf('@');
+            if (at >= 0) {
+                host = host.substring(at + 1);
+            }
+            int colon = host.lastIndexOf(':');
+            if (colon >= 0 && host.indexOf(']') < colon) {
+                host = host.substring(0, colon);
+            }
+            return new ParsedUrl(url, url.substring(0, schemeEnd).toLowerCase(Locale.US),
+                    host.toLowerCase(Locale.US), url.substring(hostEnd));
+        }
+    }
+
+    /**
+     * 编译后的URL模式，scheme://host/path 形式的模式按三部分匹配，其他模式整体作为通配符匹配
+     */
+    static final class UrlPattern {
+
+        private static final Pattern HTTP_SCHEME = Pattern.compile("https?");
+
+        // 为 null 时匹配任意URL
+        final Pattern scheme;
+        // 为 null 时匹配任意域名
+        final String host;
+        // host 是否为 *.example.com 形式
+        final boolean subdomains;
+        // 路径及之后部分的通配符，为 null 时匹配任意
+        final Pattern rest;
+        // 无法拆分的模式，匹配整个URL
+        final Pattern whole;
+
+        private UrlPattern(Pattern scheme, String host, boolean subdomains, Pattern rest, Pattern whole) {
+            this.scheme = scheme;
+            this.host = host;
+            this.subdomains = subdomains;
+            this.rest = rest;
+            this.whole = whole;
+        }
+
+        static UrlPattern compile(String pattern) {
+            if ("*".equals(pattern) || "<all_urls>".equals(pattern)) {
+                return new UrlPattern(null, null, false, null, null);
+            }
+
+            int schemeEnd = pattern.indexOf("://");
+            int hostStart = schemeEnd + 3;
+            int hostEnd = schemeEnd > 0 ? pattern.indexOf('/', hostStart) : -1;
+            if (hostEnd < 0) {
+                return whole(pattern);
+            }
+
+            String scheme = pattern.substring(0, schemeEnd);
+            String host = pattern.substring(hostStart, hostEnd).toLowerCase(Locale.US);
+            String rest = pattern.substring(hostEnd);
+            boolean subdomains = false;
+            if ("*".equals(host)) {
+                host = null;
+            } else if (host.startsWith("*.")) {
+                host = host.substring(2);
+                subdomains = true;
+            }
+            // 域名里的其他通配符和端口无法索引
+            if (host != null && (hasWildcard(host) || host.indexOf(':') >= 0 || host.isEmpty())) {
+                return whole(pattern);
+            }
+
+            Pattern schemePattern = "*".equals(scheme) ? HTTP_SCHEME :
+                    Pattern.compile(globToRegex(scheme.toLowerCase(Locale.US)));
+            Pattern restPattern = "/*".equals(rest) ? null : Pattern.compile(globToRegex(rest));
+            return new UrlPattern(schemePattern, host, subdomains, restPattern, null);
+        }
+
+        private static UrlPattern whole(String pattern) {
+            return new UrlPattern(null, null, false, null, Pattern.compile(globToRegex(pattern)));
+        }
+
+        private static boolean hasWildcard(String str) {
+            return str.indexOf('*') >= 0 || str.indexOf('?') >= 0;
+        }
+
+        // * 匹配任意字符串，? 匹配单个字符，其余字符按原样匹配
+        private static String globToRegex(String glob) {
+            StringBuilder sb = new StringBuilder(glob.length() + 16);
+            int start = 0;
+            for (int i = 0, n = glob.length(); i < n; i++) {
+                char c = glob.charAt(i);
+                if (c == '*' || c == '?') {
+                    if (start < i) {
+                        sb.append(Pattern.quote(glob.substring(start, i)));
+                    }
+                    sb.append(c == '*' ? ".*" : ".");
+                    start = i + 1;
+                }
+            }
+            if (start < glob.length()) {
+                sb.append(Pattern.quote(glob.substring(start)));
+            }
+            return sb.toString();
+        }
+
+        boolean matches(String url) {
+            return url != null && !url.isEmpty() && matches(ParsedUrl.parse(url));
+        }
+
+        boolean matches(ParsedUrl url) {
+            if (whole != null) {
+                return whole.matcher(url.url).matches();
+            }
+            if (scheme == null) {
+                return true;
+            }
+            if (url.host == null || !scheme.matcher(url.scheme).matches()) {
+                return false;
+            }
+            if (host != null && !url.host.equals(host) &&
+                    !(subdomains && url.host.endsWith(host) &&
+                            url.host.charAt(url.host.length() - host.length() - 1) == '.')) {
+                return false;
+            }
+            if (rest == null) {
+                return true;
+            }
+            // 没有路径的URL视为根路径
+            String urlRest = url.rest.isEmpty() || url.rest.charAt(0) != '/' ? "/" + url.rest : url.rest;
+            return rest.matcher(urlRest).matches();
+        }
+    }
+}
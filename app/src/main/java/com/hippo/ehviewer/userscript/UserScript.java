@@ -2,7 +2,6 @@ package com.hippo.ehviewer.userscript;
 
 import java.util.List;
 import java.util.ArrayList;
-import java.util.regex.Pattern;
 
 /**
  * 用户脚本类 - 表示一个Tampermonkey用户脚本
@@ -62,7 +61,7 @@ public class UserScript {
     public void setLastUpdateTime(long lastUpdateTime) { this.lastUpdateTime = lastUpdateTime; }
 
     /**
-     * 检查URL是否匹配脚本的运行条件
+     * 检查URL是否匹配脚本的运行条件，批量查找请用 {@link UserScriptManager#getMatchingScripts(String)}
      */
     public boolean matchesUrl(String url) {
         if (url == null || url.isEmpty()) return false;
@@ -92,14 +91,7 @@ public class UserScript {
      * 匹配URL模式
      */
     private boolean matchesPattern(String url, String pattern) {
-        try {
-            // 转换为正则表达式
-            String regex = pattern.replace("*", ".*").replace("?", ".");
-            Pattern p = Pattern.compile(regex);
-            return p.matcher(url).matches();
-        } catch (Exception e) {
-            return false;
-        }
+        return ScriptUrlMatcher.UrlPattern.compile(pattern).matches(url);
     }
 
     /**
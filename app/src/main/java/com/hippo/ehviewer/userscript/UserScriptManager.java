@@ -22,6 +22,8 @@ public class UserScriptManager {
     private boolean isEnabled;
     private X5WebViewManager x5Manager;
     private X5UserScriptManager x5ScriptManager;
+    // 已启用脚本的URL匹配器，脚本变化时重建
+    private volatile ScriptUrlMatcher urlMatcher;
 
     protected UserScriptManager(Context context) {
         this.context = context;
@@ -35,6 +37,7 @@ public class UserScriptManager {
 
         // 加载已保存的脚本
         loadPersistedScripts();
+        rebuildUrlMatcher();
     }
 
     public static synchronized UserScriptManager getInstance(Context context) {
@@ -95,6 +98,7 @@ public class UserScriptManager {
                 }
                 // 保存到存储
                 scriptStorage.saveScripts(userScripts);
+                rebuildUrlMatcher();
             }
         } catch (Exception e) {
             android.util.Log.e("UserScriptManager", "Failed to load default scripts from assets", e);
@@ -131,6 +135,7 @@ public class UserScriptManager {
                 userScripts.add(script);
                 // 保存到存储
                 scriptStorage.saveScripts(userScripts);
+                rebuildUrlMatcher();
                 return true;
             }
         } catch (Exception e) {
@@ -175,6 +180,7 @@ public class UserScriptManager {
         boolean removed = userScripts.removeIf(script -> script.getId().equals(scriptId));
         if (removed) {
             scriptStorage.saveScripts(userScripts);
+            rebuildUrlMatcher();
         }
         return removed;
     }
@@ -187,6 +193,7 @@ public class UserScriptManager {
             if (script.getId().equals(scriptId)) {
                 script.setEnabled(enabled);
                 scriptStorage.saveScripts(userScripts);
+                rebuildUrlMatcher();
                 break;
             }
         }
@@ -203,13 +210,14 @@ public class UserScriptManager {
      * 根据URL获取适用的脚本
      */
     public List<UserScript> getMatchingScripts(String url) {
-        List<UserScript> matchingScripts = new ArrayList<>();
-        for (UserScript script : userScripts) {
-            if (script.isEnabled() && script.matchesUrl(url)) {
-                matchingScripts.add(script);
-            }
-        }
-        return matchingScripts;
+        return urlMatcher.match(url);
+    }
+
+    /**
+     * 重新编译已启用脚本的URL模式
+     */
+    private synchronized void rebuildUrlMatcher() {
+        urlMatcher = new ScriptUrlMatcher(userScripts);
     }
 
     /**
@@ -0,0 +1,254 @@
+/*
+ * Copyright 2025 EhViewer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.util;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 启动任务依赖图
+ * 每个任务声明依赖、是否必须在主线程运行、是否可以推迟到首帧之后。
+ * {@link #start()} 在主线程运行主线程任务，同时在后台线程并行运行其他任务，
+ * 所有非推迟任务完成后返回；推迟任务在主线程第一次空闲后运行。
+ * 每个任务的耗时记录到 {@link StartupLogger}。
+ */
+public final class StartupGraph {
+
+    /** 在后台线程运行，启动时完成 */
+    public static final int BACKGROUND = 0;
+    /** 在主线程运行，启动时完成 */
+    public static final int MAIN = 1;
+    /** 在后台线程运行，首帧之后开始 */
+    public static final int DEFERRED_BACKGROUND = 2;
+    /** 在主线程运行，首帧之后开始 */
+    public static final int DEFERRED_MAIN = 3;
+
+    private static final int MAX_THREADS = 4;
+
+    private final StartupLogger mLogger;
+    private final Map<String, Node> mNodes = new LinkedHashMap<>();
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    // 启动阶段的主线程任务，start()在主线程依次运行
+    private final LinkedBlockingQueue<Node> mMainQueue = new LinkedBlockingQueue<>();
+    private final AtomicInteger mRemainingCritical = new AtomicInteger();
+    private final AtomicInteger mRemaining = new AtomicInteger();
+    private final Node mEnd = new Node("", MAIN, null, new String[0]);
+    private ExecutorService mExecutor;
+    private long mStartTime;
+    private volatile Throwable mCriticalError;
+    private volatile boolean mDeferredStarted;
+
+    public StartupGraph(StartupLogger logger) {
+        mLogger = logger;
+    }
+
+    /**
+     * 添加任务，依赖必须先添加
+     */
+    public StartupGraph add(String name, int mode, Runnable task, String... dependencies) {
+        if (mNodes.containsKey(name)) {
+            throw new IllegalStateException("Duplicate startup task: " + name);
+        }
+        Node node = new Node(name, mode, task, dependencies);
+        for (String dependency : dependencies) {
+            Node parent = mNodes.get(dependency);
+            if (parent == null) {
+                throw new IllegalStateException("Unknown dependency " + dependency + " of " + name);
+            }
+            if (parent.isDeferred() && !node.isDeferred()) {
+                throw new IllegalStateException(name + " can't depend on deferred task " + dependency);
+            }
+            parent.dependents.add(node);
+        }
+        mNodes.put(name, node);
+        return this;
+    }
+
+    /**
+     * 在主线程调用，所有非推迟任务完成后返回
+     */
+    public void start() {
+        mStartTime = SystemClock.elapsedRealtime();
+        mRemaining.set(mNodes.size());
+        int critical = 0;
+        boolean hasBackground = false;
+        for (Node node : mNodes.values()) {
+            node.pending.set(node.dependencies.length);
+            if (!node.isDeferred()) {
+                critical++;
+            }
+            if (node.mode == BACKGROUND || node.mode == DEFERRED_BACKGROUND) {
+                hasBackground = true;
+            }
+        }
+        mRemainingCritical.set(critical);
+        if (hasBackground) {
+            AtomicInteger threadCount = new AtomicInteger();
+            int threads = Math.max(1, Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors() - 1));
+            mExecutor = Executors.newFixedThreadPool(threads,
+                    r -> new Thread(r, "Startup-" + threadCount.incrementAndGet()));
+        }
+
+        if (critical == 0) {
+            mMainQueue.add(mEnd);
+        }
+        for (Node node : mNodes.values()) {
+            if (node.dependencies.length == 0 && !node.isDeferred()) {
+                schedule(node);
+            }
+        }
+
+        // 运行主线程任务，等待后台任务
+        while (true) {
+            Node node;
+            try {
+                node = mMainQueue.take();
+            } catch (InterruptedException e) {
+                continue;
+            }
+            if (node == mEnd) {
+                break;
+            }
+            run(node);
+        }
+
+        mLogger.logStartupStep("StartupGraph", "Critical tasks finished in " +
+                (SystemClock.elapsedRealtime() - mStartTime) + "ms");
+        Throwable error = mCriticalError;
+        if (error != null) {
+            if (error instanceof RuntimeException) {
+                throw (RuntimeException) error;
+            } else if (error instanceof Error) {
+                throw (Error) error;
+            } else {
+                throw new RuntimeException(error);
+            }
+        }
+
+        if (mRemaining.get() == 0) {
+            finish();
+            return;
+        }
+        // 主线程第一次空闲时首帧已经绘制
+        Looper.myQueue().addIdleHandler(() -> {
+            mDeferredStarted = true;
+            for (Node node : mNodes.values()) {
+                if (node.isDeferred() && node.pending.get() == 0) {
+                    schedule(node);
+                }
+            }
+            return false;
+        });
+    }
+
+    private void schedule(Node node) {
+        if (!node.scheduled.compareAndSet(false, true)) {
+            return;
+        }
+        switch (node.mode) {
+            case MAIN:
+                mMainQueue.add(node);
+                break;
+            case DEFERRED_MAIN:
+                mHandler.post(() -> run(node));
+                break;
+            default:
+                mExecutor.execute(() -> run(node));
+                break;
+        }
+    }
+
+    private void run(Node node) {
+        node.start = SystemClock.elapsedRealtime();
+        node.thread = Thread.currentThread().getName();
+        try {
+            node.task.run();
+        } catch (Throwable e) {
+            mLogger.logError("Startup task " + node.name + " failed", e);
+            if (!node.isDeferred() && mCriticalError == null) {
+                mCriticalError = e;
+            }
+        }
+        node.end = SystemClock.elapsedRealtime();
+        mLogger.logStartupStep(node.name, "Initialized in " + (node.end - node.start) + "ms on " + node.thread);
+
+        for (Node dependent : node.dependents) {
+            // 推迟任务在主线程空闲后才能调度
+            if (dependent.pending.decrementAndGet() == 0 && (!dependent.isDeferred() || mDeferredStarted)) {
+                schedule(dependent);
+            }
+        }
+        if (!node.isDeferred() && mRemainingCritical.decrementAndGet() == 0) {
+            mMainQueue.add(mEnd);
+        }
+        if (mRemaining.decrementAndGet() == 0) {
+            finish();
+        }
+    }
+
+    private void finish() {
+        if (mExecutor != null) {
+            mExecutor.shutdown();
+        }
+        // name, mode, thread, start offset, duration
+        StringBuilder sb = new StringBuilder();
+        sb.append("name,mode,thread,start_ms,duration_ms\n");
+        for (Node node : mNodes.values()) {
+            sb.append(node.name).append(',')
+                    .append(node.mode).append(',')
+                    .append(node.thread).append(',')
+                    .append(node.start - mStartTime).append(',')
+                    .append(node.end - node.start).append('\n');
+        }
+        mLogger.saveTrace(sb.toString());
+    }
+
+    private static final class Node {
+        final String name;
+        final int mode;
+        final Runnable task;
+        final String[] dependencies;
+        final List<Node> dependents = new ArrayList<>();
+        final AtomicInteger pending = new AtomicInteger();
+        final AtomicBoolean scheduled = new AtomicBoolean();
+        volatile long start;
+        volatile long end;
+        volatile String thread;
+
+        Node(String name, int mode, Runnable task, String[] dependencies) {
+            this.name = name;
+            this.mode = mode;
+            this.task = task;
+            this.dependencies = dependencies;
+        }
+
+        boolean isDeferred() {
+            return mode == DEFERRED_BACKGROUND || mode == DEFERRED_MAIN;
+        }
+    }
+}
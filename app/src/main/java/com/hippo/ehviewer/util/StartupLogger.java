@@ -38,6 +38,7 @@ public class StartupLogger {
 
     private static final String TAG = "StartupLogger";
     private static final String STARTUP_LOG_FILENAME = "startup_log.txt";
+    private static final String STARTUP_TRACE_FILENAME = "startup_trace.csv";
 
     private final Context context;
     private final long startTime;
@@ -206,7 +207,7 @@ public class StartupLogger {
     /**
      * 记录通用日志
      */
-    private void log(String message) {
+    private synchronized void log(String message) {
         String timestampedMessage = "[" + timestampFormat.format(new Date()) + "] " + message;
         logBuffer.append(timestampedMessage).append("\n");
 
@@ -252,10 +253,33 @@ public class StartupLogger {
         }
     }
 
+    /**
+     * 保存启动任务耗时，见 {@link StartupGraph}
+     */
+    public void saveTrace(String trace) {
+        try {
+            File logDir = new File(context.getExternalFilesDir(null), "logs");
+            if (!logDir.exists()) {
+                logDir.mkdirs();
+            }
+
+            File traceFile = new File(logDir, STARTUP_TRACE_FILENAME);
+            try (FileWriter writer = new FileWriter(traceFile, false)) {
+                writer.write(trace);
+                writer.flush();
+            }
+
+            Log.i(TAG, "Startup trace saved to: " + traceFile.getAbsolutePath());
+
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to save startup trace", e);
+        }
+    }
+
     /**
      * 获取日志内容
      */
-    public String getLogContent() {
+    public synchronized String getLogContent() {
         return logBuffer.toString();
     }
 
@@ -26,10 +26,16 @@ import java.io.OutputStream;
 public class UniFileOutputStreamPipe implements OutputStreamPipe {
 
     private final UniFile mUniFile;
+    private final boolean mAppend;
     private OutputStream mOs;
 
     public UniFileOutputStreamPipe(UniFile uniFile) {
+        this(uniFile, false);
+    }
+
+    public UniFileOutputStreamPipe(UniFile uniFile, boolean append) {
         mUniFile = uniFile;
+        mAppend = append;
     }
 
     @Override
@@ -49,7 +55,7 @@ public class UniFileOutputStreamPipe implements OutputStreamPipe {
             throw new IllegalStateException("Please close it first");
         }
 
-        mOs = mUniFile.openOutputStream();
+        mOs = mUniFile.openOutputStream(mAppend);
         return mOs;
     }
 
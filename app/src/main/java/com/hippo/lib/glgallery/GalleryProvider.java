@@ -21,6 +21,7 @@ import android.util.LruCache;
 import androidx.annotation.IntDef;
 import androidx.annotation.UiThread;
 
+import com.hippo.beerbelly.MemoryBudget;
 import com.hippo.lib.glview.glrenderer.GLCanvas;
 import com.hippo.lib.glview.image.ImageWrapper;
 import com.hippo.lib.glview.view.GLRoot;
@@ -31,6 +32,8 @@ import com.hippo.lib.yorozuya.OSUtils;
 
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 public abstract class GalleryProvider {
 
@@ -42,6 +45,8 @@ public abstract class GalleryProvider {
     private volatile GLRoot mGLRoot;
 
     private final ImageCache mImageCache = new ImageCache();
+    // Animated pages aren't kept in the image cache
+    private final Set<Integer> mAnimatedSet = ConcurrentHashMap.newKeySet();
 
     private boolean mStarted = false;
 
@@ -53,12 +58,15 @@ public abstract class GalleryProvider {
             throw new IllegalStateException("Can't start it twice");
         }
         mStarted = true;
+        MemoryBudget.getInstance().register("Gallery", mImageCache, (int) ImageCache.MIN_CACHE_SIZE);
     }
 
     @UiThread
     public void stop() {
         OSUtils.checkMainLoop();
+        MemoryBudget.getInstance().unregister(mImageCache);
         mImageCache.evictAll();
+        mAnimatedSet.clear();
     }
 
     public void setGLRoot(GLRoot glRoot) {
@@ -87,6 +95,22 @@ public abstract class GalleryProvider {
 
     public void removeCache(int index) {
         mImageCache.remove(index);
+        mAnimatedSet.remove(index);
+    }
+
+    /**
+     * @return true if the decoded image of the page is in memory
+     */
+    public boolean isCached(int index) {
+        return mImageCache.contains(index);
+    }
+
+    /**
+     * @return true if the page has been decoded as an animated image,
+     * it is decoded again for every request
+     */
+    public boolean isAnimated(int index) {
+        return mAnimatedSet.contains(index);
     }
 
     protected abstract void onRequest(int index);
@@ -123,6 +147,9 @@ public abstract class GalleryProvider {
 
     public void notifyPageSucceed(int index, Image image) {
         ImageWrapper imageWrapper = new ImageWrapper(image);
+        if (imageWrapper.getAnimated()) {
+            mAnimatedSet.add(index);
+        }
         mImageCache.add(index, imageWrapper);
         notifyPageSucceed(index, imageWrapper);
     }
@@ -226,19 +253,28 @@ public abstract class GalleryProvider {
 
     private static class ImageCache extends LruCache<Integer, ImageWrapper> {
 
+        // Keys in cache, checked without touching the lru order
+        private final Set<Integer> mKeys = ConcurrentHashMap.newKeySet();
+
         private static final long MAX_CACHE_SIZE = 128 * 1024 * 1024;
         private static final long MIN_CACHE_SIZE = 32 * 1024 * 1024;
 
         public ImageCache() {
+            // Resized by MemoryBudget after start
             super((int) MathUtils.clamp(OSUtils.getTotalMemory() / 16, MIN_CACHE_SIZE, MAX_CACHE_SIZE));
         }
 
         public void add(Integer key, ImageWrapper value) {
             if (!value.getAnimated() && value.obtain()) {
+                mKeys.add(key);
                 put(key, value);
             }
         }
 
+        public boolean contains(Integer key) {
+            return mKeys.contains(key);
+        }
+
         @Override
         protected int sizeOf(Integer key, ImageWrapper value) {
             return value.getWidth() * value.getHeight() * 4;
@@ -246,6 +282,9 @@ public abstract class GalleryProvider {
 
         @Override
         protected void entryRemoved(boolean evicted, Integer key, ImageWrapper oldValue, ImageWrapper newValue) {
+            if (newValue == null) {
+                mKeys.remove(key);
+            }
             if (oldValue != null) {
                 oldValue.release();
             }
@@ -11,6 +11,7 @@ import android.graphics.ImageDecoder.DecodeException
 import android.graphics.ImageDecoder.ImageInfo
 import android.graphics.ImageDecoder.Source
 import android.graphics.PixelFormat
+import android.graphics.Rect
 import android.graphics.drawable.AnimatedImageDrawable
 import android.graphics.drawable.AnimationDrawable
 import android.graphics.drawable.BitmapDrawable
@@ -30,12 +31,18 @@ class Image private constructor(
     source: FileInputStream?,
     drawable: Drawable? = null,
     val hardware: Boolean = false,
-    val release: () -> Unit? = {}
+    val release: () -> Unit? = {},
+    targetWidth: Int = 0,
+    targetHeight: Int = 0
 ) {
     private var mObtainedDrawable: Drawable?
     private var mBitmap: Bitmap? = null
     private var mReferences = 0
 
+    // 解码时使用的采样率，大于 1 说明比原图小
+    var sampleSize: Int = 1
+        private set
+
     init {
         mObtainedDrawable = null
         source?.let {
@@ -57,13 +64,19 @@ class Image private constructor(
                                 if (hardware) ALLOCATOR_DEFAULT else ALLOCATOR_SOFTWARE
                             // Sadly we must use software memory since we need copy it to tile buffer, fuck glgallery
                             // Idk it will cause how much performance regression
-                            val screenSize = min(
-                                info.size.width / screenWidth,
-                                info.size.height / screenHeight
-                            ).coerceAtLeast(1)
-                            decoder.setTargetSampleSize(
-                                max(screenSize, simpleSize ?: 1)
-                            )
+                            val targetSize = if (targetWidth > 0 || targetHeight > 0) {
+                                calculateSampleSize(
+                                    info.size.width, info.size.height,
+                                    targetWidth, targetHeight
+                                )
+                            } else {
+                                min(
+                                    info.size.width / screenWidth,
+                                    info.size.height / screenHeight
+                                ).coerceAtLeast(1)
+                            }
+                            sampleSize = max(targetSize, simpleSize ?: 1)
+                            decoder.setTargetSampleSize(sampleSize)
                             // Don't
                         }
                 } catch (e: DecodeException) {
@@ -71,7 +84,21 @@ class Image private constructor(
                 }
                 // Should we lazy decode it?
             } else {
+                if (targetWidth > 0 || targetHeight > 0) {
+                    // 先只读尺寸，再按目标大小采样
+                    val bounds = BitmapFactory.Options().apply {
+                        inJustDecodeBounds = true
+                    }
+                    BitmapFactory.decodeStream(source, null, bounds)
+                    source.channel.position(0)
+                    val targetSize = calculateSampleSize(
+                        bounds.outWidth, bounds.outHeight,
+                        targetWidth, targetHeight
+                    )
+                    simpleSize = max(targetSize, simpleSize ?: 1).takeIf { it > 1 }
+                }
                 if (simpleSize != null) {
+                    sampleSize = simpleSize
                     val option = BitmapFactory.Options().apply {
                         inSampleSize = simpleSize
                     }
@@ -232,6 +259,82 @@ class Image private constructor(
             }
         }
 
+        /**
+         * 按目标大小解码，结果不小于目标大小
+         *
+         * @param targetWidth 为 0 时不限制
+         * @param targetHeight 为 0 时不限制
+         */
+        @JvmStatic
+        fun decode(
+            stream: FileInputStream,
+            hardware: Boolean,
+            targetWidth: Int,
+            targetHeight: Int
+        ): Image? {
+            try {
+                return Image(
+                    stream,
+                    hardware = hardware,
+                    targetWidth = targetWidth,
+                    targetHeight = targetHeight
+                )
+            } catch (e: Exception) {
+                e.printStackTrace()
+                FirebaseCrashlytics.getInstance().recordException(e)
+                return null
+            }
+        }
+
+        /**
+         * 解码整张雪碧图后切成小图，超出图片范围的格子为 null
+         */
+        @JvmStatic
+        fun decodeSprite(stream: FileInputStream, cells: Array<Rect>): List<Image?>? {
+            val sheet = try {
+                BitmapFactory.decodeStream(stream)
+            } catch (e: OutOfMemoryError) {
+                null
+            } ?: return null
+            val images = ArrayList<Image?>(cells.size)
+            var sheetUsed = false
+            for (cell in cells) {
+                val rect = Rect(cell)
+                if (!rect.intersect(0, 0, sheet.width, sheet.height)) {
+                    images.add(null)
+                    continue
+                }
+                val bitmap = try {
+                    Bitmap.createBitmap(sheet, rect.left, rect.top, rect.width(), rect.height())
+                } catch (e: OutOfMemoryError) {
+                    null
+                }
+                if (bitmap === sheet) {
+                    sheetUsed = true
+                }
+                images.add(bitmap?.let { create(it) })
+            }
+            if (!sheetUsed) {
+                sheet.recycle()
+            }
+            return images
+        }
+
+        /**
+         * 计算不小于目标大小的最大采样率
+         */
+        @JvmStatic
+        fun calculateSampleSize(srcWidth: Int, srcHeight: Int, targetWidth: Int, targetHeight: Int): Int {
+            var sampleSize = Int.MAX_VALUE
+            if (targetWidth > 0) {
+                sampleSize = min(sampleSize, srcWidth / targetWidth)
+            }
+            if (targetHeight > 0) {
+                sampleSize = min(sampleSize, srcHeight / targetHeight)
+            }
+            return if (sampleSize == Int.MAX_VALUE) 1 else sampleSize.coerceAtLeast(1)
+        }
+
         @JvmStatic
         fun decode(drawable: Drawable?, hardware: Boolean = true): Image? {
             try {
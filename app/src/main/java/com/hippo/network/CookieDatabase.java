@@ -229,6 +229,24 @@ class CookieDatabase {
     cookieIdMap.remove(cookie);
   }
 
+  /**
+   * Run add, update, remove and clear operations in one transaction.
+   */
+  public void runInTransaction(List<Runnable> ops) {
+    if (!db.isOpen()) {
+      return;
+    }
+    db.beginTransaction();
+    try {
+      for (Runnable op : ops) {
+        op.run();
+      }
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+  }
+
   public void clear() {
     db.delete(TABLE_COOKIE, null, null);
     cookieIdMap.clear();
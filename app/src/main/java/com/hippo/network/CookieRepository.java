@@ -25,8 +25,12 @@ import com.hippo.lib.yorozuya.ObjectUtils;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.regex.Pattern;
 import okhttp3.Cookie;
 import okhttp3.CookieJar;
@@ -34,12 +38,19 @@ import okhttp3.HttpUrl;
 
 public class CookieRepository implements CookieJar {
 
-  private CookieDatabase db;
-  private Map<String, CookieSet> map;
+  private final CookieDatabase db;
+  // Domain to cookies, guarded by this
+  private final Map<String, CookieSet> map;
+  // Host to cookies for the host, read without lock, cleared when any cookie changes
+  private final Map<String, HostCookies> hostCache = new ConcurrentHashMap<>();
+
+  // Database operations are batched and run in order on one thread
+  private final ExecutorService dbExecutor = Executors.newSingleThreadExecutor();
+  private final List<Runnable> pendingDbOps = new ArrayList<>();
 
   public CookieRepository(Context context, String name) {
     db = new CookieDatabase(context, name);
-    map = db.getAllCookies();
+    map = new HashMap<>(db.getAllCookies());
   }
 
   public synchronized void addCookie(Cookie cookie) {
@@ -73,48 +84,105 @@ public class CookieRepository implements CookieJar {
       }
     }
 
+    hostCache.clear();
+
     if (toRemove != null) {
-      db.remove(toRemove);
+      final Cookie removed = toRemove;
+      postDbOp(() -> db.remove(removed));
     }
     if (toAdd != null) {
+      final Cookie added = toAdd;
       if (toUpdate != null) {
-        db.update(toUpdate, toAdd);
+        final Cookie updated = toUpdate;
+        postDbOp(() -> db.update(updated, added));
       } else {
-        db.add(toAdd);
+        postDbOp(() -> db.add(added));
       }
     }
   }
 
-  public String getCookieHeader(HttpUrl url) {
-    List<Cookie> cookies = getCookies(url);
-    StringBuilder cookieHeader = new StringBuilder();
-    for (int i = 0, size = cookies.size(); i < size; i++) {
-      if (i > 0) {
-        cookieHeader.append("; ");
+  private void postDbOp(Runnable op) {
+    if (dbExecutor.isShutdown()) {
+      return;
+    }
+    synchronized (pendingDbOps) {
+      pendingDbOps.add(op);
+      // Flush task of previous ops hasn't started yet
+      if (pendingDbOps.size() > 1) {
+        return;
       }
-      Cookie cookie = cookies.get(i);
-      cookieHeader.append(cookie.name()).append('=').append(cookie.value());
     }
+    dbExecutor.execute(this::flushDbOps);
+  }
+
+  private void flushDbOps() {
+    List<Runnable> ops;
+    synchronized (pendingDbOps) {
+      ops = new ArrayList<>(pendingDbOps);
+      pendingDbOps.clear();
+    }
+    db.runInTransaction(ops);
+  }
+
+  public String getCookieHeader(HttpUrl url) {
+    HostCookies hostCookies = getHostCookies(url.host());
+    if (hostCookies.allMatch(url)) {
+      return hostCookies.header;
+    }
+
+    List<Cookie> cookies = hostCookies.filter(url);
+    StringBuilder cookieHeader = new StringBuilder();
+    appendCookieHeader(cookieHeader, cookies);
     return cookieHeader.toString();
   }
 
-  public synchronized List<Cookie> getCookies(HttpUrl url) {
+  public List<Cookie> getCookies(HttpUrl url) {
+    HostCookies hostCookies = getHostCookies(url.host());
+    if (hostCookies.allMatch(url)) {
+      return hostCookies.cookies;
+    }
+    return hostCookies.filter(url);
+  }
+
+  private HostCookies getHostCookies(String host) {
+    HostCookies hostCookies = hostCache.get(host);
+    if (hostCookies == null || hostCookies.expiresAt <= System.currentTimeMillis()) {
+      hostCookies = buildHostCookies(host);
+    }
+    return hostCookies;
+  }
+
+  private synchronized HostCookies buildHostCookies(String host) {
+    long now = System.currentTimeMillis();
+    HostCookies hostCookies = hostCache.get(host);
+    if (hostCookies != null && hostCookies.expiresAt > now) {
+      return hostCookies;
+    }
+
     List<Cookie> accepted = new ArrayList<>();
     List<Cookie> expired = new ArrayList<>();
 
-    for (Map.Entry<String, CookieSet> entry : map.entrySet()) {
-      String domain = entry.getKey();
-      CookieSet cookieSet = entry.getValue();
-      if (domainMatch(url, domain)) {
-        cookieSet.get(url, accepted, expired);
+    // Only the host and its parent domains can match, as in 'example.com' matching 'www.example.com'
+    boolean ipAddress = verifyAsIpAddress(host);
+    String domain = host;
+    while (domain != null) {
+      CookieSet cookieSet = map.get(domain);
+      if (cookieSet != null) {
+        cookieSet.get(now, accepted, expired);
       }
+      int index = domain.indexOf('.');
+      domain = !ipAddress && index >= 0 ? domain.substring(index + 1) : null;
     }
 
     for (Cookie cookie : expired) {
       if (cookie.persistent()) {
-        db.remove(cookie);
+        postDbOp(() -> db.remove(cookie));
       }
     }
+    if (!expired.isEmpty()) {
+      // Other hosts may share these cookies
+      hostCache.clear();
+    }
 
     // RFC 6265 Section-5.4 step 2, sort the cookie-list
     // Cookies with longer paths are listed before cookies with shorter paths.
@@ -126,7 +194,63 @@ public class CookieRepository implements CookieJar {
       }
     });
 
-    return accepted;
+    hostCookies = new HostCookies(accepted);
+    hostCache.put(host, hostCookies);
+    return hostCookies;
+  }
+
+  private static void appendCookieHeader(StringBuilder cookieHeader, List<Cookie> cookies) {
+    for (int i = 0, size = cookies.size(); i < size; i++) {
+      if (i > 0) {
+        cookieHeader.append("; ");
+      }
+      Cookie cookie = cookies.get(i);
+      cookieHeader.append(cookie.name()).append('=').append(cookie.value());
+    }
+  }
+
+  /**
+   * Cookies whose domain matches a host, sorted. Path and secure are checked for each url.
+   */
+  private static class HostCookies {
+
+    final List<Cookie> cookies;
+    // Header of all cookies
+    final String header;
+    // The time the first cookie expires
+    final long expiresAt;
+
+    HostCookies(List<Cookie> cookies) {
+      this.cookies = Collections.unmodifiableList(cookies);
+      StringBuilder cookieHeader = new StringBuilder();
+      appendCookieHeader(cookieHeader, cookies);
+      this.header = cookieHeader.toString();
+      long expiresAt = Long.MAX_VALUE;
+      for (Cookie cookie : cookies) {
+        expiresAt = Math.min(expiresAt, cookie.expiresAt());
+      }
+      this.expiresAt = expiresAt;
+    }
+
+    boolean allMatch(HttpUrl url) {
+      for (int i = 0, size = cookies.size(); i < size; i++) {
+        if (!cookies.get(i).matches(url)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    List<Cookie> filter(HttpUrl url) {
+      List<Cookie> result = new ArrayList<>(cookies.size());
+      for (int i = 0, size = cookies.size(); i < size; i++) {
+        Cookie cookie = cookies.get(i);
+        if (cookie.matches(url)) {
+          result.add(cookie);
+        }
+      }
+      return result;
+    }
   }
 //mystery
   public boolean contains(HttpUrl url, String name) {
@@ -143,11 +267,14 @@ public class CookieRepository implements CookieJar {
    */
   public synchronized void clear() {
     map.clear();
-    db.clear();
+    hostCache.clear();
+    postDbOp(db::clear);
   }
 
   public synchronized void close() {
-    db.close();
+    // After pending operations
+    dbExecutor.execute(db::close);
+    dbExecutor.shutdown();
   }
 
   @Override
@@ -27,7 +27,6 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import okhttp3.Cookie;
-import okhttp3.HttpUrl;
 
 class CookieSet {
 
@@ -52,17 +51,17 @@ class CookieSet {
   }
 
   /**
-   * Get cookies for the url. Fill {@code accepted} and {@code expired}.
+   * Get all cookies. Fill {@code accepted} and {@code expired}.
+   * Expired cookies are removed.
    */
-  public void get(HttpUrl url, List<Cookie> accepted, List<Cookie> expired) {
-    long now = System.currentTimeMillis();
+  public void get(long now, List<Cookie> accepted, List<Cookie> expired) {
     Iterator<Map.Entry<Key, Cookie>> iterator = map.entrySet().iterator();
     while (iterator.hasNext()) {
       Cookie cookie = iterator.next().getValue();
       if (cookie.expiresAt() <= now) {
         iterator.remove();
         expired.add(cookie);
-      } else if (cookie.matches(url)) {
+      } else {
         accepted.add(cookie);
       }
     }
@@ -28,6 +28,7 @@ import android.os.Build;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.view.View;
+import android.view.ViewGroup;
 
 import androidx.annotation.DrawableRes;
 import androidx.annotation.IntDef;
@@ -37,6 +38,7 @@ import androidx.annotation.Nullable;
 import com.hippo.conaco.Conaco;
 import com.hippo.conaco.ConacoTask;
 import com.hippo.conaco.DataContainer;
+import com.hippo.conaco.Sprite;
 import com.hippo.conaco.Unikery;
 import com.hippo.drawable.PreciselyClipDrawable;
 import com.hippo.ehviewer.EhApplication;
@@ -51,6 +53,7 @@ import com.hippo.ehviewer.dao.DownloadInfo;
 import com.hippo.ehviewer.ui.scene.download.DownloadsScene;
 import com.hippo.lib.image.Image;
 import com.hippo.lib.yorozuya.IntIdGenerator;
+import com.hippo.lib.yorozuya.SimpleHandler;
 import com.hippo.util.DrawableManager;
 
 import java.lang.annotation.Retention;
@@ -63,11 +66,16 @@ public class LoadImageView extends FixedAspectImageView implements Unikery<Image
     public static final int RETRY_TYPE_CLICK = 1;
     public static final int RETRY_TYPE_LONG_CLICK = 2;
     private static final String TAG = LoadImageView.class.getSimpleName();
+    // Loading of the view detached for so long is dropped, like the views of a destroyed scene
+    private static final long DETACHED_CANCEL_DELAY = 3000;
     private int mTaskId = Unikery.INVALID_ID;
     private Conaco<Image> mConaco;
     private String mKey;
     private String mUrl;
     private boolean mUseNetwork;
+    @Nullable
+    private Sprite mSprite;
+    private int mSpriteIndex;
     private int mOffsetX = Integer.MIN_VALUE;
     private int mOffsetY = Integer.MIN_VALUE;
     private int mClipWidth = Integer.MIN_VALUE;
@@ -78,9 +86,19 @@ public class LoadImageView extends FixedAspectImageView implements Unikery<Image
     private boolean secondTry = false;
     @Nullable
     private DownloadInfo downloadInfo = null;
+    @Nullable
+    private DataContainer mDataContainer;
+    // The target size is unknown before layout, load it in onLayout
+    private boolean mLoadOnLayout;
 
     private int mRequestId = IntIdGenerator.INVALID_ID;
 
+    private final Runnable mCancelDetachedTask = () -> {
+        if (!isAttachedToWindow() && mConaco != null) {
+            mConaco.cancel(this);
+        }
+    };
+
     public LoadImageView(Context context) {
         super(context);
         init(context, null, 0);
@@ -120,12 +138,16 @@ public class LoadImageView extends FixedAspectImageView implements Unikery<Image
     @Override
     protected void onAttachedToWindow() {
         super.onAttachedToWindow();
+        SimpleHandler.getInstance().removeCallbacks(mCancelDetachedTask);
 
         if (!mLoadFromDrawable) {
             if (mFailed) {
                 onFailure();
             } else if (mTaskId == Unikery.INVALID_ID) /* if (!mConaco.isLoading(mTaskId)) TODO Update Conaco */ {
-                load(mKey, mUrl, mUseNetwork);
+                reload(mUseNetwork);
+            } else {
+                // Shown again, load it before the others
+                mConaco.setPriority(this, Conaco.PRIORITY_HIGH);
             }
         }
     }
@@ -136,8 +158,10 @@ public class LoadImageView extends FixedAspectImageView implements Unikery<Image
 
         if (!mLoadFromDrawable) {
             try {
-                // Cancel
-                mConaco.cancel(this);
+                // Keep loading after the shown ones for a while, it is dropped
+                // if the view is recycled for another image or isn't attached again
+                mConaco.setPriority(this, Conaco.PRIORITY_LOW);
+                SimpleHandler.getInstance().postDelayed(mCancelDetachedTask, DETACHED_CANCEL_DELAY);
             } catch (Exception e) {
                 // Ignore
             }
@@ -216,6 +240,21 @@ public class LoadImageView extends FixedAspectImageView implements Unikery<Image
         load(key, url, true);
     }
 
+    /**
+     * Load a cell of the sprite sheet, the sheet is decoded once for all the cells
+     *
+     * @param key the key of the sheet
+     * @param url the url of the sheet
+     */
+    public void loadSprite(String key, String url, @NonNull Sprite sprite, int index) {
+        resetClip();
+        load(key, url, null, true, sprite, index);
+    }
+
+    private void reload(boolean useNetwork) {
+        load(mKey, mUrl, null, useNetwork, mSprite, mSpriteIndex);
+    }
+
     public void load(String key, String url, boolean useNetwork, DownloadInfo downloadInfo) {
         this.downloadInfo = downloadInfo;
         load(key, url, useNetwork);
@@ -228,6 +267,11 @@ public class LoadImageView extends FixedAspectImageView implements Unikery<Image
     }
 
     public void load(String key, String url, DataContainer dataContainer, boolean useNetwork) {
+        load(key, url, dataContainer, useNetwork, null, 0);
+    }
+
+    private void load(String key, String url, DataContainer dataContainer, boolean useNetwork,
+            @Nullable Sprite sprite, int spriteIndex) {
         if (url == null || key == null) {
             return;
         }
@@ -239,19 +283,68 @@ public class LoadImageView extends FixedAspectImageView implements Unikery<Image
         mKey = key;
         mUrl = url;
         mUseNetwork = useNetwork;
+        mSprite = sprite;
+        mSpriteIndex = spriteIndex;
+        mDataContainer = dataContainer;
 
+        // The clipped one needs the full image
+        if (sprite == null && Integer.MIN_VALUE == mOffsetX && !isLaidOut()) {
+            mConaco.cancel(this);
+            clearDrawable();
+            mLoadOnLayout = true;
+            return;
+        }
+        mLoadOnLayout = false;
+        startLoad();
+    }
+
+    private void startLoad() {
         ConacoTask.Builder<Image> builder = new ConacoTask.Builder<Image>()
                 .setUnikery(this)
-                .setKey(key)
-                .setUrl(url)
-                .setUseNetwork(useNetwork);
-        if (dataContainer!=null){
-            builder.setDataContainer(dataContainer);
+                .setKey(mKey)
+                .setUrl(mUrl)
+                .setUseNetwork(mUseNetwork)
+                .setPriority(isAttachedToWindow() ? Conaco.PRIORITY_HIGH : Conaco.PRIORITY_NORMAL);
+        if (mDataContainer != null) {
+            builder.setDataContainer(mDataContainer);
+        }
+        if (mSprite != null) {
+            builder.setSprite(mSprite, mSpriteIndex);
+        } else if (Integer.MIN_VALUE == mOffsetX) {
+            builder.setTargetSize(getTargetWidth(), getTargetHeight());
         }
 
         mConaco.load(builder);
     }
 
+    @Override
+    protected void onLayout(boolean changed, int left, int top, int right, int bottom) {
+        super.onLayout(changed, left, top, right, bottom);
+
+        if (mLoadOnLayout) {
+            mLoadOnLayout = false;
+            startLoad();
+        }
+    }
+
+    private int getTargetWidth() {
+        int width = getWidth();
+        if (width <= 0) {
+            ViewGroup.LayoutParams lp = getLayoutParams();
+            width = lp != null ? Math.max(0, lp.width) : 0;
+        }
+        return width;
+    }
+
+    private int getTargetHeight() {
+        int height = getHeight();
+        if (height <= 0) {
+            ViewGroup.LayoutParams lp = getLayoutParams();
+            height = lp != null ? Math.max(0, lp.height) : 0;
+        }
+        return height;
+    }
+
     public void load(Drawable drawable) {
         unload();
         mLoadFromDrawable = true;
@@ -268,6 +361,7 @@ public class LoadImageView extends FixedAspectImageView implements Unikery<Image
 
     public void unload() {
         mConaco.cancel(this);
+        mLoadOnLayout = false;
         mKey = null;
         mUrl = null;
         clearDrawable();
@@ -405,12 +499,12 @@ public class LoadImageView extends FixedAspectImageView implements Unikery<Image
 
     @Override
     public void onClick(@NonNull View v) {
-        load(mKey, mUrl, true);
+        reload(true);
     }
 
     @Override
     public boolean onLongClick(@NonNull View v) {
-        load(mKey, mUrl, true);
+        reload(true);
         return true;
     }
 
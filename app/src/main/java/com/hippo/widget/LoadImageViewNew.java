@@ -30,6 +30,7 @@ import android.os.Build;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.view.View;
+import android.view.ViewGroup;
 
 import androidx.annotation.DrawableRes;
 import androidx.annotation.IntDef;
@@ -42,6 +43,7 @@ import com.hippo.drawable.PreciselyClipDrawable;
 import com.hippo.ehviewer.EhApplication;
 import com.hippo.ehviewer.R;
 import com.hippo.lib.image.Image;
+import com.hippo.lib.yorozuya.SimpleHandler;
 import com.hippo.util.DrawableManager;
 
 import java.lang.annotation.Retention;
@@ -54,6 +56,8 @@ public class LoadImageViewNew extends FixedAspectImageView implements Unikery<Im
     public static final int RETRY_TYPE_CLICK = 1;
     public static final int RETRY_TYPE_LONG_CLICK = 2;
     private static final String TAG = LoadImageViewNew.class.getSimpleName();
+    // Loading of the view detached for so long is dropped, like the views of a destroyed scene
+    private static final long DETACHED_CANCEL_DELAY = 3000;
     private int mTaskId = Unikery.INVALID_ID;
     private Conaco<Image> mConaco;
     private String mKey;
@@ -66,8 +70,16 @@ public class LoadImageViewNew extends FixedAspectImageView implements Unikery<Im
     private int mRetryType;
     public boolean mFailed;
     private boolean mLoadFromDrawable;
+    // The target size is unknown before layout, load it in onLayout
+    private boolean mLoadOnLayout;
 
 
+    private final Runnable mCancelDetachedTask = () -> {
+        if (!isAttachedToWindow() && mConaco != null) {
+            mConaco.cancel(this);
+        }
+    };
+
     public LoadImageViewNew(Context context) {
         super(context);
         init(context, null, 0);
@@ -106,12 +118,16 @@ public class LoadImageViewNew extends FixedAspectImageView implements Unikery<Im
     @Override
     protected void onAttachedToWindow() {
         super.onAttachedToWindow();
+        SimpleHandler.getInstance().removeCallbacks(mCancelDetachedTask);
 
         if (!mLoadFromDrawable) {
             if (mFailed) {
                 onFailure();
             } else if (mTaskId == Unikery.INVALID_ID) /* if (!mConaco.isLoading(mTaskId)) TODO Update Conaco */ {
                 load(mKey, mUrl, mUseNetwork);
+            } else {
+                // Shown again, load it before the others
+                mConaco.setPriority(this, Conaco.PRIORITY_HIGH);
             }
         }
     }
@@ -122,8 +138,10 @@ public class LoadImageViewNew extends FixedAspectImageView implements Unikery<Im
 
         if (!mLoadFromDrawable) {
             try {
-                // Cancel
-                mConaco.cancel(this);
+                // Keep loading after the shown ones for a while, it is dropped
+                // if the view is recycled for another image or isn't attached again
+                mConaco.setPriority(this, Conaco.PRIORITY_LOW);
+                SimpleHandler.getInstance().postDelayed(mCancelDetachedTask, DETACHED_CANCEL_DELAY);
             } catch (Exception e) {
                 // Ignore
             }
@@ -226,14 +244,58 @@ public class LoadImageViewNew extends FixedAspectImageView implements Unikery<Im
         mUrl = url;
         mUseNetwork = useNetwork;
 
+        // The clipped one needs the full image
+        if (Integer.MIN_VALUE == mOffsetX && !isLaidOut()) {
+            mConaco.cancel(this);
+            clearDrawable();
+            mLoadOnLayout = true;
+            return;
+        }
+        mLoadOnLayout = false;
+        startLoad();
+    }
+
+    private void startLoad() {
         ConacoTask.Builder<Image> builder = new ConacoTask.Builder<Image>()
                 .setUnikery(this)
-                .setKey(key)
-                .setUrl(url)
-                .setUseNetwork(useNetwork);
+                .setKey(mKey)
+                .setUrl(mUrl)
+                .setUseNetwork(mUseNetwork)
+                .setPriority(isAttachedToWindow() ? Conaco.PRIORITY_HIGH : Conaco.PRIORITY_NORMAL);
+        if (Integer.MIN_VALUE == mOffsetX) {
+            builder.setTargetSize(getTargetWidth(), getTargetHeight());
+        }
         mConaco.load(builder);
     }
 
+    @Override
+    protected void onLayout(boolean changed, int left, int top, int right, int bottom) {
+        super.onLayout(changed, left, top, right, bottom);
+
+        if (mLoadOnLayout) {
+            mLoadOnLayout = false;
+            startLoad();
+        }
+    }
+
+    private int getTargetWidth() {
+        int width = getWidth();
+        if (width <= 0) {
+            ViewGroup.LayoutParams lp = getLayoutParams();
+            width = lp != null ? Math.max(0, lp.width) : 0;
+        }
+        return width;
+    }
+
+    private int getTargetHeight() {
+        int height = getHeight();
+        if (height <= 0) {
+            ViewGroup.LayoutParams lp = getLayoutParams();
+            height = lp != null ? Math.max(0, lp.height) : 0;
+        }
+        return height;
+    }
+
     public void load(Drawable drawable) {
         unload();
         mLoadFromDrawable = true;
@@ -250,6 +312,7 @@ public class LoadImageViewNew extends FixedAspectImageView implements Unikery<Im
 
     public void unload() {
         mConaco.cancel(this);
+        mLoadOnLayout = false;
         mKey = null;
         mUrl = null;
         clearDrawable();
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.beerbelly;
+
+import android.content.ComponentCallbacks2;
+import android.util.LruCache;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class MemoryBudgetTest {
+
+    private static LruCache<String, byte[]> newCache() {
+        return new LruCache<String, byte[]>(1000) {
+            @Override
+            protected int sizeOf(String key, byte[] value) {
+                return value.length;
+            }
+        };
+    }
+
+    @Test
+    public void testSharedByHits() {
+        MemoryBudget budget = new MemoryBudget(1000);
+        LruCache<String, byte[]> hot = newCache();
+        LruCache<String, byte[]> cold = newCache();
+        budget.register("hot", hot, 100);
+        budget.register("cold", cold, 100);
+        assertEquals(500, hot.maxSize());
+        assertEquals(500, cold.maxSize());
+
+        hot.put("a", new byte[10]);
+        for (int i = 0; i < 99; i++) {
+            hot.get("a");
+        }
+        budget.rebalance();
+
+        assertTrue(hot.maxSize() > 800);
+        assertTrue(cold.maxSize() >= 100);
+        assertTrue(hot.maxSize() + cold.maxSize() <= 1000);
+
+        List<MemoryBudget.Stats> stats = budget.getStats();
+        assertEquals(2, stats.size());
+        assertEquals("hot", stats.get(0).name);
+        assertEquals(10, stats.get(0).size);
+        assertEquals(99, stats.get(0).hitCount);
+    }
+
+    @Test
+    public void testTrimMemory() {
+        MemoryBudget budget = new MemoryBudget(1000);
+        LruCache<String, byte[]> cache = newCache();
+        budget.register("cache", cache, 100);
+        cache.put("a", new byte[400]);
+        cache.put("b", new byte[400]);
+        assertEquals(1000, cache.maxSize());
+
+        budget.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW);
+        assertEquals(500, cache.maxSize());
+        assertEquals(400, cache.size());
+
+        budget.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testPauseWhileUiHidden() {
+        MemoryBudget budget = new MemoryBudget(1000);
+        LruCache<String, byte[]> cache = newCache();
+        budget.register("cache", cache, 100);
+
+        budget.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+        assertEquals(500, cache.maxSize());
+        // Doesn't grow back in background
+        ShadowLooper.idleMainLooper(60, TimeUnit.SECONDS);
+        assertEquals(500, cache.maxSize());
+
+        // Grows step by step after the UI is shown
+        budget.onUiShown();
+        ShadowLooper.idleMainLooper(10, TimeUnit.SECONDS);
+        assertEquals(625, cache.maxSize());
+        ShadowLooper.idleMainLooper(30, TimeUnit.SECONDS);
+        assertEquals(1000, cache.maxSize());
+        budget.unregister(cache);
+    }
+
+    @Test
+    public void testUnregister() {
+        MemoryBudget budget = new MemoryBudget(1000);
+        LruCache<String, byte[]> a = newCache();
+        LruCache<String, byte[]> b = newCache();
+        budget.register("a", a, 100);
+        budget.register("b", b, 100);
+        budget.unregister(a);
+
+        assertEquals(1000, b.maxSize());
+        assertEquals(1, budget.getStats().size());
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.beerbelly;
+
+import com.hippo.streampipe.InputStreamPipe;
+import com.hippo.streampipe.OutputStreamPipe;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+public class SimpleDiskCacheTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private static byte[] data(int size, int seed) {
+        byte[] bytes = new byte[size];
+        for (int i = 0; i < size; i++) {
+            bytes[i] = (byte) (i * 31 + seed);
+        }
+        return bytes;
+    }
+
+    private static byte[] read(SimpleDiskCache cache, String key) throws IOException {
+        InputStreamPipe pipe = cache.getInputStreamPipe(key);
+        if (pipe == null) {
+            return null;
+        }
+        try {
+            pipe.obtain();
+            InputStream is = pipe.open();
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            Util.copy(is, os);
+            return os.toByteArray();
+        } finally {
+            pipe.close();
+            pipe.release();
+        }
+    }
+
+    @Test
+    public void testPutAndGet() throws IOException {
+        SimpleDiskCache cache = new SimpleDiskCache(mFolder.getRoot(), 1024 * 1024);
+        byte[] a = data(1000, 1);
+        byte[] b = data(2000, 2);
+
+        assertTrue(cache.put("a", new ByteArrayInputStream(a)));
+        OutputStreamPipe pipe = cache.getOutputStreamPipe("b");
+        try {
+            pipe.obtain();
+            OutputStream os = pipe.open();
+            os.write(b);
+        } finally {
+            pipe.close();
+            pipe.release();
+        }
+
+        assertTrue(cache.contain("a"));
+        assertArrayEquals(a, read(cache, "a"));
+        assertArrayEquals(b, read(cache, "b"));
+        assertEquals(3000, cache.size());
+        assertNull(cache.getInputStreamPipe("c"));
+
+        assertTrue(cache.remove("a"));
+        assertFalse(cache.contain("a"));
+        assertEquals(2000, cache.size());
+    }
+
+    @Test
+    public void testReopen() throws IOException {
+        SimpleDiskCache cache = new SimpleDiskCache(mFolder.getRoot(), 1024 * 1024);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(cache.put("key" + i, new ByteArrayInputStream(data(100, i))));
+        }
+        cache.remove("key0");
+        cache.put("key1", new ByteArrayInputStream(data(50, 1)));
+        cache.flush();
+
+        cache = new SimpleDiskCache(mFolder.getRoot(), 1024 * 1024);
+        assertFalse(cache.contain("key0"));
+        assertArrayEquals(data(50, 1), read(cache, "key1"));
+        for (int i = 2; i < 100; i++) {
+            assertArrayEquals(data(100, i), read(cache, "key" + i));
+        }
+        assertEquals(50 + 98 * 100, cache.size());
+    }
+
+    @Test
+    public void testScanResistance() throws IOException {
+        // The cache can keep 80 entries
+        SimpleDiskCache cache = new SimpleDiskCache(mFolder.getRoot(), 8 * 10 * 1000);
+        for (int i = 0; i < 20; i++) {
+            cache.put("hot" + i, new ByteArrayInputStream(data(1000, i)));
+            // The first read is like a read back, the second read promotes it
+            assertNotNull(read(cache, "hot" + i));
+            assertNotNull(read(cache, "hot" + i));
+        }
+        for (int i = 0; i < 1000; i++) {
+            cache.put("scan" + i, new ByteArrayInputStream(data(1000, i)));
+        }
+
+        for (int i = 0; i < 20; i++) {
+            assertArrayEquals(data(1000, i), read(cache, "hot" + i));
+        }
+        assertTrue(cache.size() <= 8 * 10 * 1000);
+    }
+
+    @Test
+    public void testReadBack() throws IOException {
+        // The cache can keep 80 entries
+        SimpleDiskCache cache = new SimpleDiskCache(mFolder.getRoot(), 8 * 10 * 1000);
+        // Like Conaco, every entry is read once after it is written
+        for (int i = 0; i < 200; i++) {
+            assertTrue(cache.put("once" + i, new ByteArrayInputStream(data(1000, i))));
+            assertArrayEquals(data(1000, i), read(cache, "once" + i));
+        }
+        assertTrue(cache.size() <= 8 * 10 * 1000);
+        assertTrue(cache.put("new", new ByteArrayInputStream(data(1000, 1))));
+        assertArrayEquals(data(1000, 1), read(cache, "new"));
+
+        // All entries are read again, protected ones can't take the whole cache
+        for (int i = 0; i < 200; i++) {
+            assertTrue(cache.put("twice" + i, new ByteArrayInputStream(data(1000, i))));
+            assertArrayEquals(data(1000, i), read(cache, "twice" + i));
+            assertArrayEquals(data(1000, i), read(cache, "twice" + i));
+        }
+        assertTrue(cache.size() <= 8 * 10 * 1000);
+        assertTrue(cache.put("new", new ByteArrayInputStream(data(1000, 2))));
+        assertArrayEquals(data(1000, 2), read(cache, "new"));
+    }
+
+    @Test
+    public void testLargeEntry() throws IOException {
+        SimpleDiskCache cache = new SimpleDiskCache(mFolder.getRoot(), 8 * 1000);
+        for (int i = 0; i < 6; i++) {
+            assertTrue(cache.put("small" + i, new ByteArrayInputStream(data(1000, i))));
+        }
+
+        // Larger than size / 8, older entries of any shard are evicted for it
+        byte[] large = data(5000, 1);
+        OutputStreamPipe pipe = cache.getOutputStreamPipe("large");
+        try {
+            pipe.obtain();
+            OutputStream os = pipe.open();
+            os.write(large);
+            os.close();
+        } finally {
+            pipe.close();
+            pipe.release();
+        }
+        assertArrayEquals(large, read(cache, "large"));
+        assertTrue(cache.size() <= 8 * 1000);
+        assertFalse(cache.contain("small0"));
+        assertTrue(cache.contain("small5"));
+
+        // Larger than the whole cache, the writer knows it
+        pipe = cache.getOutputStreamPipe("huge");
+        try {
+            pipe.obtain();
+            OutputStream os = pipe.open();
+            os.write(data(9000, 2));
+            try {
+                os.close();
+                fail();
+            } catch (IOException e) {
+                // Expected
+            }
+        } finally {
+            pipe.close();
+            pipe.release();
+        }
+        assertFalse(cache.contain("huge"));
+        assertTrue(cache.contain("large"));
+        assertFalse(cache.put("huge", new ByteArrayInputStream(data(9000, 2))));
+    }
+
+    @Test
+    public void testClear() throws IOException {
+        SimpleDiskCache cache = new SimpleDiskCache(mFolder.getRoot(), 1024 * 1024);
+        cache.put("a", new ByteArrayInputStream(data(100, 1)));
+
+        // Edit started before clear is dropped
+        OutputStreamPipe pipe = cache.getOutputStreamPipe("b");
+        pipe.obtain();
+        OutputStream os = pipe.open();
+        os.write(data(100, 2));
+        assertTrue(cache.clear());
+        pipe.close();
+        pipe.release();
+
+        assertFalse(cache.contain("a"));
+        assertFalse(cache.contain("b"));
+        assertEquals(0, cache.size());
+    }
+
+    // Key of the file, the same as SimpleDiskCache
+    private static String md5(String key) throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : MessageDigest.getInstance("MD5").digest(key.getBytes())) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    private static void write(File file, byte[] bytes) throws IOException {
+        try (OutputStream os = new FileOutputStream(file)) {
+            os.write(bytes);
+        }
+    }
+
+    @Test
+    public void testLegacyCacheMigrated() throws Exception {
+        File dir = mFolder.getRoot();
+        String a = md5("a");
+        String b = md5("b");
+        String c = md5("c");
+        write(new File(dir, a + ".0"), data(100, 1));
+        write(new File(dir, b + ".0"), data(200, 2));
+        write(new File(dir, c + ".0"), data(300, 3));
+        write(new File(dir, "journal.tmp"), data(10, 4));
+        write(new File(dir, "journal"), ("libcore.io.DiskLruCache\n1\n1\n1\n\n" +
+                "DIRTY " + a + "\nCLEAN " + a + " 100\n" +
+                "DIRTY " + b + "\nCLEAN " + b + " 200\n" +
+                "DIRTY " + c + "\nCLEAN " + c + " 300\n" +
+                "READ " + a + "\nREMOVE " + c + "\n").getBytes());
+
+        SimpleDiskCache cache = new SimpleDiskCache(dir, 1024 * 1024);
+        assertFalse(new File(dir, "journal").exists());
+        assertFalse(new File(dir, "journal.tmp").exists());
+        assertFalse(new File(dir, c + ".0").exists());
+        assertArrayEquals(data(100, 1), read(cache, "a"));
+        assertArrayEquals(data(200, 2), read(cache, "b"));
+        assertFalse(cache.contain("c"));
+        assertEquals(300, cache.size());
+        assertTrue(cache.put("d", new ByteArrayInputStream(data(100, 5))));
+
+        // Kept in the index
+        cache.flush();
+        cache = new SimpleDiskCache(dir, 1024 * 1024);
+        assertArrayEquals(data(100, 1), read(cache, "a"));
+        assertEquals(400, cache.size());
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.conaco;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LoadSchedulerTest {
+
+    private LoadScheduler mScheduler;
+    private CountDownLatch mBlocker;
+    private List<Integer> mOrder;
+
+    @Before
+    public void setUp() throws InterruptedException {
+        mScheduler = new LoadScheduler(1, Thread::new);
+        mOrder = Collections.synchronizedList(new ArrayList<>());
+        // Occupy the only thread, so the others wait in queue
+        mBlocker = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        mScheduler.execute(() -> {
+            started.countDown();
+            try {
+                mBlocker.await();
+            } catch (InterruptedException e) {
+                // Ignore
+            }
+        }, Conaco.PRIORITY_HIGH);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+    }
+
+    private LoadScheduler.Job submit(int id, int priority) {
+        return mScheduler.execute(() -> mOrder.add(id), priority);
+    }
+
+    private void runAll(int count) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        mScheduler.execute(done::countDown, Conaco.PRIORITY_LOW - 1);
+        mBlocker.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(count, mOrder.size());
+    }
+
+    @Test
+    public void testPriorityAndLifo() throws InterruptedException {
+        submit(1, Conaco.PRIORITY_NORMAL);
+        submit(2, Conaco.PRIORITY_LOW);
+        submit(3, Conaco.PRIORITY_NORMAL);
+        submit(4, Conaco.PRIORITY_HIGH);
+        submit(5, Conaco.PRIORITY_HIGH);
+        runAll(5);
+
+        assertEquals(Arrays.asList(5, 4, 3, 1, 2), mOrder);
+    }
+
+    @Test
+    public void testSetPriority() throws InterruptedException {
+        LoadScheduler.Job job1 = submit(1, Conaco.PRIORITY_HIGH);
+        submit(2, Conaco.PRIORITY_HIGH);
+        LoadScheduler.Job job3 = submit(3, Conaco.PRIORITY_LOW);
+        // Detached
+        mScheduler.setPriority(job1, Conaco.PRIORITY_LOW);
+        // Attached again
+        mScheduler.setPriority(job3, Conaco.PRIORITY_HIGH);
+        runAll(3);
+
+        assertEquals(Arrays.asList(3, 2, 1), mOrder);
+    }
+
+    @Test
+    public void testCancel() throws InterruptedException {
+        submit(1, Conaco.PRIORITY_NORMAL);
+        LoadScheduler.Job job2 = submit(2, Conaco.PRIORITY_NORMAL);
+        assertTrue(mScheduler.cancel(job2));
+        assertFalse(mScheduler.cancel(job2));
+        runAll(1);
+
+        assertEquals(Collections.singletonList(1), mOrder);
+    }
+}
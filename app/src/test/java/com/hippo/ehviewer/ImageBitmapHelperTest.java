@@ -0,0 +1,38 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ImageBitmapHelperTest {
+
+    @Test
+    public void testIsLargeEnough() {
+        // Not sampled, it is the largest one
+        assertTrue(ImageBitmapHelper.isLargeEnough(1, 100, 100, 400, 400));
+        assertTrue(ImageBitmapHelper.isLargeEnough(0, 100, 100, 400, 400));
+
+        // Sampled for a smaller target
+        assertTrue(ImageBitmapHelper.isLargeEnough(4, 250, 250, 250, 250));
+        assertTrue(ImageBitmapHelper.isLargeEnough(4, 250, 250, 200, 0));
+        assertFalse(ImageBitmapHelper.isLargeEnough(4, 250, 250, 300, 200));
+        assertFalse(ImageBitmapHelper.isLargeEnough(4, 250, 250, 200, 300));
+    }
+}
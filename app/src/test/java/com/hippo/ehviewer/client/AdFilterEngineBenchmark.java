@@ -0,0 +1,72 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.client;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Requests per second of {@link AdFilterEngine} against the rules of {@link AdFilterEngineTest}
+ * and 10000 generated filters, printed for comparison.
+ * Run it manually, it is not a part of unit tests.
+ */
+@Ignore("Benchmark")
+public class AdFilterEngineBenchmark {
+
+    @Test
+    public void benchmarkMatches() throws IOException {
+        Random random = new Random(1);
+        AdFilterEngine.Builder builder = new AdFilterEngine.Builder().addRules(new StringReader(AdFilterEngineTest.RULES));
+        for (int i = 0; i < 5000; i++) {
+            builder.addRule("||host" + i + ".example" + (i % 37) + ".com^");
+            builder.addRule("/path" + i + "/ad*.js");
+        }
+        AdFilterEngine engine = builder.build(0);
+        List<String> urls = AdFilterEngineTest.corpus(random, 10000);
+
+        // Warm up
+        int blocked = 0;
+        for (int i = 0; i < 5; i++) {
+            for (String url : urls) {
+                if (engine.matches(url)) {
+                    blocked++;
+                }
+            }
+        }
+
+        int rounds = 20;
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            for (String url : urls) {
+                if (engine.matches(url)) {
+                    blocked++;
+                }
+            }
+        }
+        long time = System.nanoTime() - start;
+        System.out.println("AdFilterEngine: " + (long) (rounds * urls.size() / (time / 1e9)) +
+                " requests/s, " + engine.getFilterCount() + " filters, blocked " + blocked);
+        assertTrue(blocked > 0);
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.client;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AdFilterEngineTest {
+
+    static final String RULES =
+            "[Adblock Plus 2.0]\n" +
+            "! Comment\n" +
+            "||doubleclick.net^\n" +
+            "||ads.example.com^\n" +
+            "@@||good.ads.example.com^\n" +
+            "||cdn.example.org/banners/\n" +
+            "|https://tracker.\n" +
+            "/ads/*.js|\n" +
+            "&ad_type=\n" +
+            "popunder\n" +
+            "@@/ads/allowed.js|\n" +
+            "example.com##.ad\n" +
+            "||script.example.net^$script\n" +
+            "/banner[0-9]+/\n" +
+            "0.0.0.0 hosts.example.net\n";
+
+    private static AdFilterEngine engine() throws IOException {
+        return new AdFilterEngine.Builder().addRules(new StringReader(RULES)).build(1);
+    }
+
+    @Test
+    public void testDomain() throws IOException {
+        AdFilterEngine engine = engine();
+        assertTrue(engine.matches("https://doubleclick.net/"));
+        assertTrue(engine.matches("https://stats.g.DoubleClick.net/x?y=1"));
+        assertTrue(engine.matches("http://ads.example.com:8080/a"));
+        assertTrue(engine.matches("https://hosts.example.net/"));
+        assertFalse(engine.matches("https://notdoubleclick.net/"));
+        assertFalse(engine.matches("https://example.com/"));
+        assertFalse(engine.matches("https://good.ads.example.com/a"));
+        assertFalse(engine.matches("https://script.example.net/a.js"));
+    }
+
+    @Test
+    public void testUrlFilter() throws IOException {
+        AdFilterEngine engine = engine();
+        assertTrue(engine.matches("https://cdn.example.org/banners/1.png"));
+        assertTrue(engine.matches("https://img.cdn.example.org/banners/1.png"));
+        assertFalse(engine.matches("https://xcdn.example.org/banners/1.png"));
+        assertTrue(engine.matches("https://tracker.example.com/t"));
+        assertFalse(engine.matches("http://tracker.example.com/t"));
+        assertTrue(engine.matches("https://example.com/ads/a/b.js"));
+        assertFalse(engine.matches("https://example.com/ads/a/b.js?x"));
+        assertFalse(engine.matches("https://example.com/ads/allowed.js"));
+        assertTrue(engine.matches("https://example.com/p?x=1&ad_type=2"));
+        assertTrue(engine.matches("https://example.com/apopunders"));
+        assertFalse(engine.matches("https://example.com/banner12/"));
+        assertFalse(engine.matches(null));
+        assertFalse(engine.matches(""));
+    }
+
+    @Test
+    public void testSnapshot() throws IOException {
+        AdFilterEngine engine = engine();
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        engine.write(os);
+        byte[] bytes = os.toByteArray();
+
+        AdFilterEngine read = AdFilterEngine.read(new ByteArrayInputStream(bytes));
+        assertNotNull(read);
+        assertEquals(engine.getSourceKey(), read.getSourceKey());
+        assertEquals(engine.getFilterCount(), read.getFilterCount());
+        for (String url : corpus(new Random(0), 500)) {
+            assertEquals(url, engine.matches(url), read.matches(url));
+        }
+
+        bytes[0] = 0;
+        assertNull(AdFilterEngine.read(new ByteArrayInputStream(bytes)));
+    }
+
+    static List<String> corpus(Random random, int count) {
+        String[] hosts = {"e-hentai.org", "ehgt.org", "exhentai.org", "ads.example.com",
+                "stats.doubleclick.net", "cdn.example.org", "www.google.com", "tracker.example.com"};
+        String[] paths = {"/g/1234/abcdef/", "/t/ab/cd/abcd-1234-100-100-jpg_l.jpg", "/ads/a.js",
+                "/banners/1.png", "/p?x=1&ad_type=2", "/favicon.ico", "/s/abc/1-2", "/z/0347/ehg.css"};
+        List<String> urls = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            urls.add((random.nextBoolean() ? "https://" : "http://") +
+                    hosts[random.nextInt(hosts.length)] + paths[random.nextInt(paths.length)]);
+        }
+        return urls;
+    }
+}
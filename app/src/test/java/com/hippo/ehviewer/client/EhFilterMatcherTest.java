@@ -0,0 +1,99 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.client;
+
+import com.hippo.ehviewer.dao.Filter;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class EhFilterMatcherTest {
+
+    private static List<Filter> filters(int mode, String... texts) {
+        List<Filter> list = new ArrayList<>();
+        for (String text : texts) {
+            list.add(new Filter(null, mode, text, true));
+        }
+        return list;
+    }
+
+    private static List<Filter> none() {
+        return new ArrayList<>();
+    }
+
+    @Test
+    public void testTitle() {
+        List<Filter> titles = filters(EhFilter.MODE_TITLE, "he", "she", "his", "hers", "中文");
+        titles.add(new Filter(null, EhFilter.MODE_TITLE, "disabled", false));
+        EhFilterMatcher matcher = new EhFilterMatcher(titles, none(), none(), none());
+
+        assertTrue(matcher.matchTitle("ushers"));
+        assertTrue(matcher.matchTitle("ahishers"));
+        assertTrue(matcher.matchTitle("[汉化] 中文标题"));
+        assertFalse(matcher.matchTitle("hi s"));
+        assertFalse(matcher.matchTitle("disabled title"));
+        assertFalse(matcher.matchTitle(""));
+        assertFalse(matcher.matchTitle(null));
+    }
+
+    @Test
+    public void testTitleFailLink() {
+        EhFilterMatcher matcher = new EhFilterMatcher(
+                filters(EhFilter.MODE_TITLE, "abcd", "bce"), none(), none(), none());
+        assertTrue(matcher.matchTitle("xabce"));
+        assertFalse(matcher.matchTitle("abcbcd"));
+    }
+
+    @Test
+    public void testUploader() {
+        EhFilterMatcher matcher = new EhFilterMatcher(
+                none(), filters(EhFilter.MODE_UPLOADER, "Uploader"), none(), none());
+        assertTrue(matcher.matchUploader("Uploader"));
+        assertFalse(matcher.matchUploader("uploader"));
+        assertFalse(matcher.matchUploader(null));
+    }
+
+    @Test
+    public void testTag() {
+        EhFilterMatcher matcher = new EhFilterMatcher(none(), none(),
+                filters(EhFilter.MODE_TAG, "female:ahegao", "guro"), none());
+        assertTrue(matcher.needTags());
+        assertTrue(matcher.matchTag(new String[]{"language:chinese", "female:ahegao"}));
+        assertTrue(matcher.matchTag(new String[]{"ahegao"}));
+        assertTrue(matcher.matchTag(new String[]{"male:guro"}));
+        assertTrue(matcher.matchTag(new String[]{"guro"}));
+        assertFalse(matcher.matchTag(new String[]{"male:ahegao"}));
+        assertFalse(matcher.matchTag(new String[]{"female:guro2"}));
+        assertFalse(matcher.matchTag(null));
+    }
+
+    @Test
+    public void testTagNamespace() {
+        EhFilterMatcher matcher = new EhFilterMatcher(none(), none(), none(),
+                filters(EhFilter.MODE_TAG_NAMESPACE, "artist"));
+        assertTrue(matcher.matchTagNamespace(new String[]{"artist:someone"}));
+        assertFalse(matcher.matchTagNamespace(new String[]{"artist", "group:artist"}));
+        assertFalse(new EhFilterMatcher(none(), none(), none(), none()).needTags());
+        assertFalse(EhFilterMatcher.EMPTY.matchTag(Arrays.asList("a:b").toArray(new String[0])));
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.client;
+
+import android.util.Base64;
+import android.util.Pair;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import okio.Buffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class EhTagIndexTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private static final byte[] SHA1 = new byte[20];
+
+    static {
+        for (int i = 0; i < SHA1.length; i++) {
+            SHA1[i] = (byte) i;
+        }
+    }
+
+    private static Buffer data(String... tags) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < tags.length; i += 2) {
+            sb.append(tags[i]).append('\r')
+                    .append(Base64.encodeToString(tags[i + 1].getBytes(StandardCharsets.UTF_8), Base64.NO_WRAP))
+                    .append('\n');
+        }
+        byte[] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+        Buffer buffer = new Buffer();
+        buffer.writeInt(bytes.length);
+        buffer.write(bytes);
+        return buffer;
+    }
+
+    private File build() throws IOException {
+        File file = new File(mFolder.getRoot(), "tag.idx");
+        EhTagIndex.build(data(
+                "f:big breasts", "巨乳",
+                "f:stockings", "长筒袜",
+                "l:chinese", "汉语",
+                "a:artist name", "画师",
+                "cat", "猫"), SHA1, file);
+        return file;
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        File file = build();
+        EhTagIndex index = EhTagIndex.open(file, SHA1);
+        assertNotNull(index);
+        assertEquals(5, index.getTagCount());
+
+        assertEquals("巨乳", index.getTranslation("f:big breasts"));
+        assertEquals("汉语", index.getTranslation("l:chinese"));
+        assertEquals("猫", index.getTranslation("cat"));
+        assertNull(index.getTranslation("f:big"));
+        assertNull(index.getTranslation("zzz"));
+
+        // English with full namespace
+        List<Pair<String, String>> result = index.suggest("female:st", 10);
+        assertEquals(1, result.size());
+        assertEquals("长筒袜", result.get(0).first);
+        assertEquals("female:stockings", result.get(0).second);
+
+        // Chinese, one char and two chars
+        result = index.suggest("乳", 10);
+        assertEquals(1, result.size());
+        assertEquals("female:big breasts", result.get(0).second);
+        result = index.suggest("汉语", 10);
+        assertEquals(1, result.size());
+        assertEquals("language:chinese", result.get(0).second);
+
+        // Many matches, limited
+        assertEquals(4, index.suggest("s", 10).size());
+        assertEquals(1, index.suggest("s", 1).size());
+        assertTrue(index.suggest("xyz", 10).isEmpty());
+    }
+
+    @Test
+    public void testOtherSha1() throws IOException {
+        File file = build();
+        byte[] sha1 = SHA1.clone();
+        sha1[0] = 42;
+        assertNull(EhTagIndex.open(file, sha1));
+    }
+
+    @Test
+    public void testTruncated() throws IOException {
+        File file = build();
+        long size = file.length();
+        for (long length : new long[]{0, 10, 60, size / 2, size - 1}) {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(length);
+            }
+            assertNull(EhTagIndex.open(file, SHA1));
+            file = build();
+        }
+    }
+
+    @Test
+    public void testCorrupt() throws IOException {
+        File file = build();
+        // Offset of the unigram table
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(4 + 4 + 20 + 16);
+            raf.writeInt(Integer.MAX_VALUE);
+        }
+        assertNull(EhTagIndex.open(file, SHA1));
+
+        file = build();
+        // Magic
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.writeInt(0);
+        }
+        assertNull(EhTagIndex.open(file, SHA1));
+
+        assertNull(EhTagIndex.open(new File(mFolder.getRoot(), "missing.idx"), SHA1));
+    }
+}
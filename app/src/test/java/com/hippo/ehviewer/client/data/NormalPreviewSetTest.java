@@ -0,0 +1,84 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.client.data;
+
+import android.graphics.Rect;
+
+import com.hippo.conaco.Sprite;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+@RunWith(RobolectricTestRunner.class)
+public class NormalPreviewSetTest {
+
+    @Test
+    public void testSprites() {
+        NormalPreviewSet set = new NormalPreviewSet();
+        set.addItem(0, "https://ehgt.org/m/001.jpg", 0, 0, 100, 140, "page0");
+        set.addItem(1, "https://ehgt.org/m/001.jpg", 100, 0, 100, 150, "page1");
+        set.addItem(2, "https://ehgt.org/m/002.jpg", 0, 0, 100, 140, "page2");
+        set.addItem(3, "https://ehgt.org/m/001.jpg", 200, 0, 90, 140, "page3");
+
+        GalleryPreview p0 = set.getGalleryPreview(1L, 0);
+        GalleryPreview p1 = set.getGalleryPreview(1L, 1);
+        GalleryPreview p2 = set.getGalleryPreview(1L, 2);
+        GalleryPreview p3 = set.getGalleryPreview(1L, 3);
+
+        // Previews in the same image share one sprite, in the order of previews
+        Sprite sprite = p0.sprite;
+        assertNotNull(sprite);
+        assertSame(sprite, p1.sprite);
+        assertSame(sprite, p3.sprite);
+        assertEquals(3, sprite.size());
+        assertEquals(0, p0.spriteIndex);
+        assertEquals(1, p1.spriteIndex);
+        assertEquals(2, p3.spriteIndex);
+        assertEquals(new Rect(100, 0, 200, 150), sprite.getCells()[1]);
+        assertEquals(new Rect(200, 0, 290, 140), sprite.getCells()[2]);
+
+        assertNotNull(p2.sprite);
+        assertNotSame(sprite, p2.sprite);
+        assertEquals(1, p2.sprite.size());
+        assertEquals(0, p2.spriteIndex);
+    }
+
+    @Test
+    public void testNoClip() {
+        NormalPreviewSet set = new NormalPreviewSet();
+        set.addItem(0, "https://ehgt.org/m/001.jpg", 0, 0, 0, 0, "page0");
+        set.addItem(1, "https://ehgt.org/m/001.jpg", 100, 0, 100, 140, "page1");
+
+        // Without clip size it isn't a cell
+        assertNull(set.getGalleryPreview(1L, 0).sprite);
+        Sprite sprite = set.getGalleryPreview(1L, 1).sprite;
+        assertNotNull(sprite);
+        assertEquals(1, sprite.size());
+
+        // Built again for new items
+        set.addItem(2, "https://ehgt.org/m/001.jpg", 200, 0, 100, 140, "page2");
+        assertEquals(2, set.getGalleryPreview(1L, 2).sprite.size());
+        assertEquals(1, set.getGalleryPreview(1L, 2).spriteIndex);
+    }
+}
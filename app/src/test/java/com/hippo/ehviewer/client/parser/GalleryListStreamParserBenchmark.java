@@ -0,0 +1,77 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.client.parser;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Parse time and allocation of jsoup and {@link GalleryListStreamParser}, printed for comparison.
+ * Run it manually, it is not a part of unit tests.
+ */
+@Ignore("Benchmark")
+@RunWith(RobolectricTestRunner.class)
+public class GalleryListStreamParserBenchmark {
+
+    @Test
+    public void benchmarkParse() throws Exception {
+        for (String mode : GalleryListStreamParserTest.MODES) {
+            String page = GalleryListStreamParserTest.page(mode, 50);
+            // Warm up
+            for (int i = 0; i < 50; i++) {
+                GalleryListStreamParserTest.parseByJsoup(page);
+                new GalleryListStreamParser(null).parse(new StringReader(page));
+            }
+
+            int rounds = 200;
+            long allocated = allocatedBytes();
+            long start = System.nanoTime();
+            for (int i = 0; i < rounds; i++) {
+                GalleryListStreamParserTest.parseByJsoup(page);
+            }
+            long jsoupTime = System.nanoTime() - start;
+            long jsoupAllocated = allocatedBytes() - allocated;
+
+            allocated = allocatedBytes();
+            start = System.nanoTime();
+            for (int i = 0; i < rounds; i++) {
+                new GalleryListStreamParser(null).parse(new StringReader(page));
+            }
+            long streamTime = System.nanoTime() - start;
+            long streamAllocated = allocatedBytes() - allocated;
+
+            System.out.println(String.format("%s, %d KB page: jsoup %.2f ms, %d KB; stream %.2f ms, %d KB",
+                    mode, page.length() / 1024,
+                    jsoupTime / 1e6 / rounds, jsoupAllocated / 1024 / rounds,
+                    streamTime / 1e6 / rounds, streamAllocated / 1024 / rounds));
+        }
+    }
+
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+}
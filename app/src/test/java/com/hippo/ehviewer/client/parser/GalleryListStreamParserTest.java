@@ -0,0 +1,281 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.client.parser;
+
+import com.hippo.ehviewer.client.data.GalleryInfo;
+import com.hippo.ehviewer.client.exception.ParseException;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.select.Elements;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class GalleryListStreamParserTest {
+
+    private static final String MINIMAL = "gltm";
+    private static final String COMPACT = "gltc";
+    private static final String EXTENDED = "glte";
+    private static final String THUMBNAIL = "gld";
+    static final String[] MODES = {MINIMAL, COMPACT, EXTENDED, THUMBNAIL};
+
+    private static final String[] CATEGORIES = {"Doujinshi", "Manga", "Artist CG", "Non-H", "Cosplay"};
+    private static final String[] LANGUAGES = {"english", "chinese", "japanese", "korean"};
+
+    @Test
+    public void testModes() throws Exception {
+        for (String mode : MODES) {
+            String page = page(mode, 25);
+            GalleryListParser.Result result = new GalleryListStreamParser(null).parse(new StringReader(page));
+            List<GalleryInfo> expected = parseByJsoup(page);
+
+            assertEquals(mode, 25, expected.size());
+            assertEquals(mode, expected.size(), result.galleryInfoList.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertGalleryInfoEquals(mode + " " + i, expected.get(i), result.galleryInfoList.get(i));
+            }
+            assertEquals(-1, result.pages);
+            assertEquals("https://e-hentai.org/?next=2730001", result.nextHref);
+            assertEquals("", result.prevHref);
+            assertEquals("31,337", result.resultCount);
+        }
+    }
+
+    @Test
+    public void testListener() throws Exception {
+        List<GalleryInfo> list = new ArrayList<>();
+        GalleryListParser.Result result = new GalleryListStreamParser(list::add)
+                .parse(new StringReader(page(COMPACT, 10)));
+        assertEquals(result.galleryInfoList, list);
+    }
+
+    @Test
+    public void testNoHits() throws Exception {
+        String page = "<html><body><div class=\"ido\"><p>No hits found</p></div></body></html>";
+        GalleryListParser.Result result = new GalleryListStreamParser(null).parse(new StringReader(page));
+        assertEquals(0, result.pages);
+        assertTrue(result.galleryInfoList.isEmpty());
+    }
+
+    @Test(expected = ParseException.class)
+    public void testNoList() throws Exception {
+        new GalleryListStreamParser(null).parse(new StringReader("<html><body>Error</body></html>"));
+    }
+
+    // Rows of the page parsed like GalleryListParser.parse(Document, String, int)
+    static List<GalleryInfo> parseByJsoup(String page) {
+        Document d = Jsoup.parse(page);
+        Element itg = d.getElementsByClass("itg").first();
+        Elements es = "table".equalsIgnoreCase(itg.tagName()) ? itg.child(0).children() : itg.children();
+        List<GalleryInfo> list = new ArrayList<>(es.size());
+        for (Element e : es) {
+            GalleryInfo gi = GalleryListParser.parseGalleryInfo(e);
+            if (gi != null) {
+                list.add(gi);
+            }
+        }
+        return list;
+    }
+
+    private static void assertGalleryInfoEquals(String message, GalleryInfo expected, GalleryInfo actual) {
+        assertEquals(message, expected.gid, actual.gid);
+        assertEquals(message, expected.token, actual.token);
+        assertEquals(message, expected.title, actual.title);
+        assertEquals(message, expected.category, actual.category);
+        assertEquals(message, expected.thumb, actual.thumb);
+        assertEquals(message, expected.thumbWidth, actual.thumbWidth);
+        assertEquals(message, expected.thumbHeight, actual.thumbHeight);
+        assertEquals(message, expected.posted, actual.posted);
+        assertEquals(message, expected.favoriteSlot, actual.favoriteSlot);
+        assertEquals(message, expected.uploader, actual.uploader);
+        assertEquals(message, expected.rating, actual.rating, 0.0f);
+        assertEquals(message, expected.rated, actual.rated);
+        assertEquals(message, expected.pages, actual.pages);
+        assertEquals(message, expected.tgList, actual.tgList);
+        assertArrayEquals(message, expected.simpleTags, actual.simpleTags);
+        assertEquals(message, expected.simpleLanguage, actual.simpleLanguage);
+    }
+
+    // A list page in the markup of e-hentai for the display mode
+    static String page(String mode, int count) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<!DOCTYPE html>\n<html><head><title>E-Hentai Galleries</title>")
+                .append("<script type=\"text/javascript\">var a = \"<div class='itg'>\";</script>")
+                .append("</head><body><div class=\"ido\"><div id=\"toppane\"><form>")
+                .append("<input type=\"text\" name=\"f_search\" value=\"\" /></form></div>\n")
+                .append("<div class=\"searchtext\"><p>Found 31,337 results.</p></div>\n");
+        searchNav(sb);
+        boolean table = !THUMBNAIL.equals(mode);
+        sb.append(table ? "<table class=\"itg " : "<div class=\"itg ").append(mode).append("\">");
+        if (MINIMAL.equals(mode) || COMPACT.equals(mode)) {
+            sb.append("<tr><th>Category</th><th>Published</th><th>Title</th><th>Uploader</th></tr>\n");
+        }
+        for (int i = 0; i < count; i++) {
+            long gid = 2730000 + i * 7;
+            String token = Long.toHexString(0x1a2b3c4d5eL + i * 977L);
+            switch (mode) {
+                case MINIMAL:
+                    minimalRow(sb, i, gid, token);
+                    break;
+                case COMPACT:
+                    compactRow(sb, i, gid, token);
+                    break;
+                case EXTENDED:
+                    extendedRow(sb, i, gid, token);
+                    break;
+                case THUMBNAIL:
+                    thumbnailRow(sb, i, gid, token);
+                    break;
+            }
+            if (table && i == count / 2) {
+                // Ad row
+                sb.append("<tr><td colspan=\"4\" style=\"text-align:center\"><div id=\"spa\"></div></td></tr>\n");
+            }
+        }
+        sb.append(table ? "</table>" : "</div>");
+        searchNav(sb);
+        sb.append("</div><div class=\"dp\"><a href=\"https://e-hentai.org/tos.php\">Terms of Service</a></div>")
+                .append("</body></html>");
+        return sb.toString();
+    }
+
+    private static void searchNav(StringBuilder sb) {
+        sb.append("<div class=\"searchnav\"><div></div><div><span id=\"ufirst\">&lt;&lt; First</span></div>")
+                .append("<div><span id=\"uprev\">&lt; Prev</span></div>")
+                .append("<div id=\"ujumpbox\" class=\"jumpbox\"><a id=\"ujump\" href=\"javascript:void(0)\">Jump/Seek</a></div>")
+                .append("<div><a id=\"unext\" href=\"https://e-hentai.org/?next=2730001\">Next &gt;</a></div>")
+                .append("<div><a id=\"ulast\" href=\"https://e-hentai.org/?prev=1\">Last &gt;&gt;</a></div>")
+                .append("<div><select><option value=\"m\" selected=\"selected\">Minimal</option></select></div></div>\n");
+    }
+
+    private static String title(int i) {
+        return "(C10" + (i % 4) + ") [Circle &amp; Friends (Artist " + i + ")] Title of &quot;Gallery&quot; No." + i +
+                (i % 3 == 0 ? " [English]" : i % 3 == 1 ? " [中国翻訳]" : "");
+    }
+
+    private static String url(long gid, String token) {
+        return "https://e-hentai.org/g/" + gid + "/" + token + "/";
+    }
+
+    private static String thumb(int i) {
+        return "https://ehgt.org/t/" + Integer.toHexString(i * 31 + 16) + "/ab/" + Integer.toHexString(i * 131 + 4096) +
+                "cdef0123456789-" + (i * 1731 + 100000) + "-1280-1810-jpg_250.jpg";
+    }
+
+    private static String thumbStyle(int i) {
+        return "height:" + (300 + i % 60) + "px;width:250px";
+    }
+
+    private static String rating(int i) {
+        String cls = i % 5 == 0 ? "ir irg" : "ir";
+        return "<div class=\"" + cls + "\" style=\"background-position:" + (-16 * (i % 5)) + "px " +
+                (i % 2 == 0 ? "-1" : "-21") + "px;opacity:1\"></div>";
+    }
+
+    private static String posted(int i, long gid) {
+        String style = i % 4 == 0 ? " style=\"border-color:#0f0;background-color:rgba(240,160,0,.1)\"" : "";
+        return "<div onclick=\"popUp('https://e-hentai.org/gallerypopups.php?gid=" + gid + "',675,415)\"" +
+                style + " title=\"Favorites 2\" id=\"posted_" + gid + "\">2024-0" + (1 + i % 9) + "-1" + (i % 10) + " 1" +
+                (i % 10) + ":2" + (i % 10) + "</div>";
+    }
+
+    private static void tags(StringBuilder sb, int i) {
+        sb.append("<div class=\"gt\" title=\"language:").append(LANGUAGES[i % LANGUAGES.length]).append("\">")
+                .append(LANGUAGES[i % LANGUAGES.length]).append("</div>")
+                .append("<div class=\"gt\" title=\"female:glasses\">glasses</div>")
+                .append("<div class=\"gtl\" title=\"parody:original\">original</div>");
+    }
+
+    private static void minimalRow(StringBuilder sb, int i, long gid, String token) {
+        sb.append("<tr><td class=\"gl1m glcat\"><div class=\"cs ct2\">").append(CATEGORIES[i % CATEGORIES.length])
+                .append("</div></td><td class=\"gl2m\"><div class=\"glcut\" id=\"ic").append(gid).append("\"></div>")
+                .append("<div class=\"glthumb\" id=\"it").append(gid).append("\" style=\"top:-159px\"><div>")
+                .append("<img style=\"").append(thumbStyle(i)).append("\" alt=\"\" title=\"\" data-src=\"")
+                .append(thumb(i)).append("\" src=\"data:image/gif;base64,R0lGODlhAQABAIAAAAAAAP///yH5BAEAAAAALAAAAAABAAEAAAIBRAA7\" />")
+                .append("</div></div>").append(posted(i, gid)).append("</td>")
+                .append("<td class=\"gl3m glname\"><a href=\"").append(url(gid, token)).append("\"><div class=\"glink\">")
+                .append(title(i)).append("</div></a></td><td class=\"gl4m\">").append(rating(i)).append("</td>")
+                .append("<td class=\"gl5m glhide\"><div><a href=\"https://e-hentai.org/uploader/user").append(i)
+                .append("\">user").append(i).append("</a></div><div>").append(10 + i).append(" pages</div></td></tr>\n");
+    }
+
+    private static void compactRow(StringBuilder sb, int i, long gid, String token) {
+        sb.append("<tr><td class=\"gl1c glcat\"><div class=\"cn ct2\" onclick=\"document.location='https://e-hentai.org/doujinshi'\">")
+                .append(CATEGORIES[i % CATEGORIES.length]).append("</div></td>")
+                .append("<td class=\"gl2c\"><div class=\"glcut\" id=\"ic").append(gid).append("\"></div>")
+                .append("<div class=\"glthumb\" id=\"it").append(gid).append("\" onmouseover=\"show_image_pane(")
+                .append(gid).append(")\"><div><img style=\"").append(thumbStyle(i)).append("\" alt=\"")
+                .append(title(i)).append("\" title=\"").append(title(i)).append("\" src=\"").append(thumb(i))
+                .append("\" /></div><div><div><div class=\"cn ct2\">").append(CATEGORIES[i % CATEGORIES.length])
+                .append("</div>").append(posted(i, gid)).append("</div><div>").append(rating(i)).append("<div>")
+                .append(10 + i).append(" pages</div><div class=\"gldown\"><a href=\"https://e-hentai.org/gallerytorrents.php?gid=")
+                .append(gid).append("\" rel=\"nofollow\"><img src=\"https://ehgt.org/g/t.png\" alt=\"T\" title=\"Show torrents\" /></a></div>")
+                .append("</div></div></div>").append(posted(i, gid)).append(rating(i)).append("</td>")
+                .append("<td class=\"gl3c glname\" onclick=\"document.location='").append(url(gid, token))
+                .append("'\"><a href=\"").append(url(gid, token)).append("\"><div class=\"glink\">").append(title(i))
+                .append("</div><div>");
+        tags(sb, i);
+        sb.append("</div></a></td><td class=\"gl4c glhide\"><div><a href=\"https://e-hentai.org/uploader/user")
+                .append(i).append("\">user").append(i).append("</a></div><div>").append(10 + i)
+                .append(" pages</div></td></tr>\n");
+    }
+
+    private static void extendedRow(StringBuilder sb, int i, long gid, String token) {
+        sb.append("<tr><td class=\"gl1e\" style=\"width:250px\"><div style=\"height:").append(300 + i % 60)
+                .append("px;width:250px\"><a href=\"").append(url(gid, token)).append("\"><img style=\"")
+                .append(thumbStyle(i)).append("\" alt=\"").append(title(i)).append("\" title=\"").append(title(i))
+                .append("\" src=\"").append(thumb(i)).append("\" /></a></div></td>")
+                .append("<td class=\"gl2e\"><div><div class=\"gl3e\"><div class=\"cn ct2\">")
+                .append(CATEGORIES[i % CATEGORIES.length]).append("</div>").append(posted(i, gid)).append(rating(i))
+                .append("<div><a href=\"https://e-hentai.org/uploader/user").append(i).append("\">user").append(i)
+                .append("</a></div><div>").append(10 + i).append(" pages</div>")
+                .append("<div class=\"gldown\"><img src=\"https://ehgt.org/g/td.png\" alt=\"T\" title=\"No torrents available\" /></div>")
+                .append("</div><a href=\"").append(url(gid, token)).append("\"><div class=\"gl4e glname\" style=\"min-height:")
+                .append(300 + i % 60).append("px\"><div class=\"glink\">").append(title(i)).append("</div><div><table><tr>")
+                .append("<td class=\"tc\">language:</td><td><div class=\"gt\" style=\"opacity:1.0\" title=\"language:")
+                .append(LANGUAGES[i % LANGUAGES.length]).append("\">").append(LANGUAGES[i % LANGUAGES.length])
+                .append("</div><div class=\"gtl\" title=\"language:translated\">translated</div></td></tr>")
+                .append("<tr><td class=\"tc\">parody:</td><td><div class=\"gt\" title=\"parody:original\">original</div></td></tr>")
+                .append("<tr><td class=\"tc\">female:</td><td><div class=\"gt\" title=\"female:glasses\">glasses</div>")
+                .append("<div class=\"gt\" title=\"female:maid\">maid | メイド</div></td></tr>")
+                .append("</table></div></div></a></div></td></tr>\n");
+    }
+
+    private static void thumbnailRow(StringBuilder sb, int i, long gid, String token) {
+        sb.append("<div class=\"gl1t\"><a href=\"").append(url(gid, token)).append("\"><div class=\"gl4t glname glink\">")
+                .append(title(i)).append("</div></a><div class=\"gl3t\" style=\"height:340px;width:250px\"><a href=\"")
+                .append(url(gid, token)).append("\"><img style=\"").append(thumbStyle(i)).append(";top:0px\" alt=\"")
+                .append(title(i)).append("\" title=\"").append(title(i)).append("\" src=\"").append(thumb(i))
+                .append("\" /></a></div><div class=\"gl5t\"><div><div class=\"cs ct2\">")
+                .append(CATEGORIES[i % CATEGORIES.length]).append("</div>").append(posted(i, gid)).append("</div><div>")
+                .append(rating(i)).append("<div>").append(10 + i).append(" pages</div><div class=\"gldown\"></div></div></div>")
+                .append("<div class=\"gl6t\">");
+        tags(sb, i);
+        sb.append("</div></div>\n");
+    }
+}
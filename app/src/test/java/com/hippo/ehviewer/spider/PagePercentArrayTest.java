@@ -0,0 +1,61 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.spider;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class PagePercentArrayTest {
+
+    @Test
+    public void testUnknownByDefault() {
+        PagePercentArray array = new PagePercentArray(3);
+        assertEquals(3, array.size());
+        assertNull(array.get(0));
+        assertNull(array.get(2));
+    }
+
+    @Test
+    public void testSetAndClear() {
+        PagePercentArray array = new PagePercentArray(3);
+        array.set(1, 0.5f);
+        assertEquals(0.5f, array.get(1), 0.0f);
+        array.set(1, 0.0f);
+        assertEquals(0.0f, array.get(1), 0.0f);
+
+        // Negative is unknown
+        array.set(1, -1.0f);
+        assertNull(array.get(1));
+
+        array.set(0, 0.3f);
+        array.set(2, 1.0f);
+        array.clear();
+        assertNull(array.get(0));
+        assertNull(array.get(2));
+    }
+
+    @Test
+    public void testOutOfRange() {
+        PagePercentArray array = new PagePercentArray(2);
+        array.set(-1, 0.5f);
+        array.set(2, 0.5f);
+        assertNull(array.get(-1));
+        assertNull(array.get(2));
+    }
+}
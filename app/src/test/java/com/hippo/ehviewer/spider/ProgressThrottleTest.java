@@ -0,0 +1,64 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.spider;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ProgressThrottleTest {
+
+    @Test
+    public void testFirstProgressNotifies() {
+        ProgressThrottle throttle = new ProgressThrottle(100);
+        assertTrue(throttle.onProgress(10, 5000));
+        assertEquals(10, throttle.take(5000));
+        assertEquals(0, throttle.pending());
+    }
+
+    @Test
+    public void testAtMostOnceInInterval() {
+        ProgressThrottle throttle = new ProgressThrottle(100);
+        assertTrue(throttle.onProgress(10, 1000));
+        throttle.take(1000);
+
+        assertFalse(throttle.onProgress(20, 1050));
+        assertFalse(throttle.onProgress(30, 1099));
+        assertEquals(50, throttle.pending());
+
+        // Bytes in the interval are sent together
+        assertTrue(throttle.onProgress(40, 1100));
+        assertEquals(90, throttle.take(1100));
+        assertFalse(throttle.onProgress(1, 1150));
+    }
+
+    @Test
+    public void testReset() {
+        ProgressThrottle throttle = new ProgressThrottle(100);
+        throttle.onProgress(10, 1000);
+        throttle.take(1000);
+        throttle.onProgress(10, 1010);
+
+        throttle.reset();
+        assertEquals(0, throttle.pending());
+        // Next image notifies at once
+        assertTrue(throttle.onProgress(5, 1020));
+        assertEquals(5, throttle.take(1020));
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.spider;
+
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSource;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * CPU time and allocations per MB of the image download loop, the old 4 KB
+ * copy loop against the okio segment loop of {@link SpiderQueen}, both read
+ * from a local HTTP server and write to a file. Run it manually on a HotSpot
+ * JVM, it is not a part of unit tests.
+ */
+@Ignore("Benchmark")
+public class SpiderDownloadBenchmark {
+
+    private static final int BODY_SIZE = 32 * 1024 * 1024;
+    private static final int WARM_UP = 3;
+    private static final int ROUNDS = 10;
+
+    // Same as SpiderQueen.SpiderWorker
+    private static final long MIN_WRITE_SIZE = 16 * 1024;
+    private static final long MAX_WRITE_SIZE = 64 * 1024;
+    private static final long NOTIFY_INTERVAL = 100;
+
+    private HttpServer mServer;
+    private OkHttpClient mClient;
+    private String mUrl;
+    private File mFile;
+    // Let the listeners do something
+    private long mNotified;
+
+    @Before
+    public void setUp() throws IOException {
+        byte[] chunk = new byte[64 * 1024];
+        for (int i = 0; i < chunk.length; i++) {
+            chunk[i] = (byte) (i * 31);
+        }
+        mServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        mServer.createContext("/image", exchange -> {
+            exchange.getResponseHeaders().add("Content-Type", "image/jpeg");
+            exchange.sendResponseHeaders(200, BODY_SIZE);
+            try (OutputStream os = exchange.getResponseBody()) {
+                for (int written = 0; written < BODY_SIZE; written += chunk.length) {
+                    os.write(chunk, 0, Math.min(chunk.length, BODY_SIZE - written));
+                }
+            }
+        });
+        mServer.start();
+        mUrl = "http://127.0.0.1:" + mServer.getAddress().getPort() + "/image";
+        mClient = new OkHttpClient();
+        mFile = File.createTempFile("spider", ".jpg");
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop(0);
+        mFile.delete();
+    }
+
+    @Test
+    public void benchmarkDownload() throws IOException {
+        for (int i = 0; i < WARM_UP; i++) {
+            copyLoop();
+            segmentLoop();
+        }
+
+        long[] copy = new long[2];
+        long[] segment = new long[2];
+        for (int i = 0; i < ROUNDS; i++) {
+            measure(copy, true);
+            measure(segment, false);
+        }
+
+        double mb = (double) BODY_SIZE * ROUNDS / (1024 * 1024);
+        System.out.printf("Copy loop:    %.3f ms CPU / MB, %.0f bytes allocated / MB%n",
+                copy[0] / 1e6 / mb, copy[1] / mb);
+        System.out.printf("Segment loop: %.3f ms CPU / MB, %.0f bytes allocated / MB%n",
+                segment[0] / 1e6 / mb, segment[1] / mb);
+        assertTrue(segment[1] < copy[1]);
+    }
+
+    private void measure(long[] result, boolean copy) throws IOException {
+        com.sun.management.ThreadMXBean bean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long cpu = bean.getCurrentThreadCpuTime();
+        long allocated = bean.getThreadAllocatedBytes(thread);
+        long size = copy ? copyLoop() : segmentLoop();
+        result[0] += bean.getCurrentThreadCpuTime() - cpu;
+        result[1] += bean.getThreadAllocatedBytes(thread) - allocated;
+        assertEquals(BODY_SIZE, size);
+    }
+
+    private static long now() {
+        return System.nanoTime() / 1000000;
+    }
+
+    /**
+     * The loop before, 4 KB byte array, boxed percent map, notify every read.
+     */
+    private long copyLoop() throws IOException {
+        Map<Integer, Float> percentMap = new ConcurrentHashMap<>();
+        try (Response response = mClient.newCall(new Request.Builder().url(mUrl).build()).execute();
+             OutputStream os = new FileOutputStream(mFile)) {
+            ResponseBody body = response.body();
+            long contentLength = body.contentLength();
+            InputStream is = body.byteStream();
+            byte[] data = new byte[1024 * 4];
+            long receivedSize = 0;
+            int bytesRead;
+            while ((bytesRead = is.read(data)) != -1) {
+                os.write(data, 0, bytesRead);
+                receivedSize += bytesRead;
+                percentMap.put(0, (float) receivedSize / contentLength);
+                mNotified += bytesRead;
+            }
+            return receivedSize;
+        }
+    }
+
+    /**
+     * The loop of SpiderQueen, okio segments written together, primitive
+     * percent array, notify at most once in NOTIFY_INTERVAL.
+     */
+    private long segmentLoop() throws IOException {
+        PagePercentArray percentArray = new PagePercentArray(1);
+        ProgressThrottle throttle = new ProgressThrottle(NOTIFY_INTERVAL);
+        Buffer buffer = new Buffer();
+        try (Response response = mClient.newCall(new Request.Builder().url(mUrl).build()).execute();
+             OutputStream os = new FileOutputStream(mFile)) {
+            ResponseBody body = response.body();
+            long contentLength = body.contentLength();
+            BufferedSource source = body.source();
+            long receivedSize = 0;
+            long writeSize = MIN_WRITE_SIZE;
+            long lastWriteTime = now();
+            for (;;) {
+                long bytesRead = source.read(buffer, MAX_WRITE_SIZE);
+                if (bytesRead == -1) {
+                    break;
+                }
+                receivedSize += bytesRead;
+                long now = now();
+                long buffered = buffer.size();
+                if (buffered >= writeSize || now - lastWriteTime >= NOTIFY_INTERVAL) {
+                    if (buffered >= writeSize && now - lastWriteTime < NOTIFY_INTERVAL &&
+                            writeSize < MAX_WRITE_SIZE) {
+                        writeSize *= 2;
+                    }
+                    buffer.writeTo(os);
+                    lastWriteTime = now;
+                }
+                percentArray.set(0, (float) receivedSize / contentLength);
+                if (throttle.onProgress((int) bytesRead, now)) {
+                    mNotified += throttle.take(now);
+                }
+            }
+            buffer.writeTo(os);
+            mNotified += throttle.take(now());
+            return receivedSize;
+        }
+    }
+}
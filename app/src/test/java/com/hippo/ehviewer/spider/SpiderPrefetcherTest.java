@@ -0,0 +1,91 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.spider;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SpiderPrefetcherTest {
+
+    @Test
+    public void testForward() {
+        SpiderPrefetcher prefetcher = new SpiderPrefetcher(3);
+        assertFalse(prefetcher.onPageChanged(10, 0));
+
+        assertEquals(1, prefetcher.getDirection());
+        assertArrayEquals(new int[]{11, 12, 13, 9}, prefetcher.getDownloadPages(10, 100));
+        assertArrayEquals(new int[]{11}, prefetcher.getDecodePages(10, 100));
+        // Clipped by size
+        assertArrayEquals(new int[]{99, 97}, prefetcher.getDownloadPages(98, 100));
+    }
+
+    @Test
+    public void testBackward() {
+        SpiderPrefetcher prefetcher = new SpiderPrefetcher(3);
+        prefetcher.onPageChanged(10, 0);
+        assertFalse(prefetcher.onPageChanged(9, 5000));
+
+        assertEquals(-1, prefetcher.getDirection());
+        assertArrayEquals(new int[]{8, 7, 6, 10}, prefetcher.getDownloadPages(9, 100));
+        assertArrayEquals(new int[]{1, 0, 3}, prefetcher.getDownloadPages(2, 100));
+    }
+
+    @Test
+    public void testSpeed() {
+        SpiderPrefetcher prefetcher = new SpiderPrefetcher(3);
+        long time = 0;
+        prefetcher.onPageChanged(0, time);
+        // Two pages per second
+        for (int i = 1; i <= 10; i++) {
+            time += 500;
+            prefetcher.onPageChanged(i, time);
+        }
+
+        assertEquals(2.0f, prefetcher.getSpeed(), 0.01f);
+        // Up to twice of preload number
+        assertEquals(7, prefetcher.getDownloadPages(10, 100).length);
+        assertArrayEquals(new int[]{11, 12, 13}, prefetcher.getDecodePages(10, 100));
+    }
+
+    @Test
+    public void testJump() {
+        SpiderPrefetcher prefetcher = new SpiderPrefetcher(3);
+        prefetcher.onPageChanged(10, 0);
+        prefetcher.onPageChanged(9, 500);
+        prefetcher.onPageChanged(8, 1000);
+
+        assertTrue(prefetcher.onPageChanged(50, 1500));
+        assertEquals(0.0f, prefetcher.getSpeed(), 0.0f);
+        // Direction is kept
+        assertArrayEquals(new int[]{49}, prefetcher.getDecodePages(50, 100));
+        assertFalse(prefetcher.onPageChanged(51, 2500));
+        assertEquals(1, prefetcher.getDirection());
+    }
+
+    @Test
+    public void testNoPreload() {
+        SpiderPrefetcher prefetcher = new SpiderPrefetcher(0);
+        prefetcher.onPageChanged(10, 0);
+
+        assertEquals(0, prefetcher.getDownloadPages(10, 100).length);
+        assertArrayEquals(new int[]{11}, prefetcher.getDecodePages(10, 100));
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.spider;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Throughput of {@link SpiderRequestQueue} with many producers and workers.
+ * Run it manually, it is not a part of unit tests.
+ */
+@Ignore("Benchmark")
+public class SpiderRequestQueueBenchmark {
+
+    @Test
+    public void benchmarkOfferPoll() throws InterruptedException {
+        final SpiderRequestQueue queue = new SpiderRequestQueue();
+        final int pages = 200000;
+        final int producers = 2;
+        final int workers = 10;
+        final AtomicInteger done = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch producerEnd = new CountDownLatch(producers);
+        Thread[] threads = new Thread[producers + workers];
+
+        for (int p = 0; p < producers; p++) {
+            final int offset = p;
+            threads[p] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = offset; i < pages; i += producers) {
+                    queue.offer(i, SpiderRequestQueue.PRIORITY_NEIGHBOR);
+                    queue.offer(i, SpiderRequestQueue.PRIORITY_VISIBLE);
+                    if (i % 7 == 0) {
+                        queue.offer(i, SpiderRequestQueue.PRIORITY_FORCE);
+                    }
+                }
+                producerEnd.countDown();
+            });
+        }
+        for (int w = 0; w < workers; w++) {
+            threads[producers + w] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (;;) {
+                    if (queue.poll() != null) {
+                        done.incrementAndGet();
+                    } else if (producerEnd.getCount() == 0 && queue.isEmpty()) {
+                        break;
+                    }
+                }
+            });
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        long startTime = System.nanoTime();
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long time = System.nanoTime() - startTime;
+        System.out.println("SpiderRequestQueue: " + done.get() + " requests in " + time / 1000000 + " ms");
+    }
+}
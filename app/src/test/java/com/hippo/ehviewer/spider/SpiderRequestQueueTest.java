@@ -0,0 +1,218 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.ehviewer.spider;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SpiderRequestQueueTest {
+
+    private SpiderRequestQueue mQueue;
+
+    @Before
+    public void setUp() {
+        mQueue = new SpiderRequestQueue();
+    }
+
+    @Test
+    public void testPriorityOrder() {
+        mQueue.offer(3, SpiderRequestQueue.PRIORITY_NEIGHBOR);
+        mQueue.offer(2, SpiderRequestQueue.PRIORITY_VISIBLE);
+        mQueue.offer(1, SpiderRequestQueue.PRIORITY_FORCE);
+
+        assertEquals(1, mQueue.poll().index);
+        assertEquals(2, mQueue.poll().index);
+        assertEquals(3, mQueue.poll().index);
+        assertNull(mQueue.poll());
+        assertTrue(mQueue.isEmpty());
+    }
+
+    @Test
+    public void testHigherPriorityReplaces() {
+        assertTrue(mQueue.offer(5, SpiderRequestQueue.PRIORITY_NEIGHBOR));
+        assertFalse(mQueue.offer(5, SpiderRequestQueue.PRIORITY_NEIGHBOR));
+        assertTrue(mQueue.offer(5, SpiderRequestQueue.PRIORITY_FORCE));
+        assertFalse(mQueue.offer(5, SpiderRequestQueue.PRIORITY_VISIBLE));
+
+        SpiderRequestQueue.Request request = mQueue.poll();
+        assertEquals(5, request.index);
+        assertEquals(SpiderRequestQueue.PRIORITY_FORCE, request.priority);
+        assertNull(mQueue.poll());
+    }
+
+    @Test
+    public void testCancel() {
+        mQueue.offer(1, SpiderRequestQueue.PRIORITY_VISIBLE);
+        mQueue.offer(2, SpiderRequestQueue.PRIORITY_FORCE);
+
+        assertTrue(mQueue.cancel(1, SpiderRequestQueue.PRIORITY_VISIBLE));
+        // Force request is not canceled as visible
+        assertFalse(mQueue.cancel(2, SpiderRequestQueue.PRIORITY_VISIBLE));
+
+        assertEquals(2, mQueue.poll().index);
+        assertNull(mQueue.poll());
+    }
+
+    @Test
+    public void testClear() {
+        for (int i = 0; i < 5; i++) {
+            mQueue.offer(i, SpiderRequestQueue.PRIORITY_NEIGHBOR);
+        }
+        mQueue.offer(10, SpiderRequestQueue.PRIORITY_VISIBLE);
+        mQueue.clear(SpiderRequestQueue.PRIORITY_NEIGHBOR);
+
+        assertEquals(10, mQueue.poll().index);
+        assertNull(mQueue.poll());
+    }
+
+    @Test
+    public void testDownloadPage() {
+        assertEquals(-1, mQueue.nextDownloadPage(3));
+        assertTrue(mQueue.setDownloadMode(true));
+        assertFalse(mQueue.setDownloadMode(true));
+
+        assertEquals(0, mQueue.nextDownloadPage(3));
+        assertEquals(1, mQueue.nextDownloadPage(3));
+        assertEquals(2, mQueue.nextDownloadPage(3));
+        assertEquals(-1, mQueue.nextDownloadPage(3));
+        assertFalse(mQueue.hasDownloadPage(3));
+
+        mQueue.setDownloadMode(false);
+        assertEquals(-1, mQueue.nextDownloadPage(3));
+    }
+
+    /**
+     * Producers, workers and cancelers race on the queue. A canceled index is
+     * never taken, a live index is never lost.
+     */
+    @Test
+    public void testConcurrentOfferPollCancel() throws InterruptedException {
+        final int pages = 30000;
+        final int producers = 2;
+        final int workers = 6;
+        final AtomicIntegerArray taken = new AtomicIntegerArray(pages);
+        final AtomicIntegerArray canceled = new AtomicIntegerArray(pages);
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch producerEnd = new CountDownLatch(producers);
+        List<Thread> threads = new ArrayList<>();
+
+        // i % 3 == 0: visible once, canceled by index
+        // i % 3 == 1: neighbor, cleared by priority
+        // i % 3 == 2: visible, some replaced by force
+        for (int p = 0; p < producers; p++) {
+            final int offset = p;
+            threads.add(new Thread(() -> {
+                await(start);
+                for (int i = offset; i < pages; i += producers) {
+                    switch (i % 3) {
+                        case 0:
+                            mQueue.offer(i, SpiderRequestQueue.PRIORITY_VISIBLE);
+                            break;
+                        case 1:
+                            mQueue.offer(i, SpiderRequestQueue.PRIORITY_NEIGHBOR);
+                            break;
+                        default:
+                            mQueue.offer(i, SpiderRequestQueue.PRIORITY_VISIBLE);
+                            if (i % 7 == 0) {
+                                mQueue.offer(i, SpiderRequestQueue.PRIORITY_FORCE);
+                            }
+                            break;
+                    }
+                }
+                producerEnd.countDown();
+            }));
+        }
+        for (int w = 0; w < workers; w++) {
+            threads.add(new Thread(() -> {
+                await(start);
+                for (;;) {
+                    SpiderRequestQueue.Request request = mQueue.poll();
+                    if (request != null) {
+                        taken.incrementAndGet(request.index);
+                    } else if (producerEnd.getCount() == 0 && mQueue.isEmpty()) {
+                        break;
+                    }
+                }
+            }));
+        }
+        // Cancel every index of its part until it is canceled or taken
+        for (int c = 0; c < 2; c++) {
+            final int offset = c * 3;
+            threads.add(new Thread(() -> {
+                await(start);
+                for (int i = offset; i < pages; i += 6) {
+                    while (taken.get(i) == 0) {
+                        if (mQueue.cancel(i, SpiderRequestQueue.PRIORITY_VISIBLE)) {
+                            canceled.set(i, 1);
+                            break;
+                        }
+                    }
+                }
+            }));
+        }
+        threads.add(new Thread(() -> {
+            await(start);
+            while (producerEnd.getCount() != 0) {
+                mQueue.clear(SpiderRequestQueue.PRIORITY_NEIGHBOR);
+            }
+        }));
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        for (int i = 0; i < pages; i++) {
+            switch (i % 3) {
+                case 0:
+                    // Offered once, taken or canceled, never both
+                    assertEquals(1, taken.get(i) + canceled.get(i));
+                    break;
+                case 1:
+                    // Offered once, maybe cleared
+                    assertTrue(taken.get(i) <= 1);
+                    break;
+                default:
+                    // A request can be taken again after it is done, but never lost
+                    assertTrue(taken.get(i) >= 1);
+                    break;
+            }
+        }
+        assertTrue(mQueue.isEmpty());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
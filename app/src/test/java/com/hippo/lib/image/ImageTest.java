@@ -0,0 +1,47 @@
+/*
+ * Copyright 2016 Hippo Seven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hippo.lib.image;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(RobolectricTestRunner.class)
+public class ImageTest {
+
+    @Test
+    public void testCalculateSampleSize() {
+        // The largest sample size keeping the image not smaller than the target
+        assertEquals(4, Image.calculateSampleSize(1000, 1000, 250, 250));
+        assertEquals(3, Image.calculateSampleSize(1000, 1000, 300, 300));
+        // Limited by the side which needs more pixels
+        assertEquals(2, Image.calculateSampleSize(1000, 1000, 100, 400));
+        // Only one side known
+        assertEquals(5, Image.calculateSampleSize(1000, 2000, 200, 0));
+        assertEquals(10, Image.calculateSampleSize(1000, 2000, 0, 200));
+    }
+
+    @Test
+    public void testCalculateSampleSizeNoTarget() {
+        assertEquals(1, Image.calculateSampleSize(1000, 1000, 0, 0));
+        assertEquals(1, Image.calculateSampleSize(1000, 1000, -1, -1));
+        // Target larger than the image
+        assertEquals(1, Image.calculateSampleSize(100, 100, 400, 400));
+    }
+}